@@ -0,0 +1,90 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sandius.rembulan.benchmarks;
+
+import net.sandius.rembulan.runtime.Dispatch;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Microbenchmarks of the arithmetic operations in {@link Dispatch} on boxed numbers,
+ * as performed by compiled code that has not been specialised on numeric types.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ArithmeticBenchmark {
+
+	// non-final, so that the operations are not constant-folded
+	private Number i1 = 1234567L;
+	private Number i2 = 89L;
+	private Number f1 = 1234.5;
+	private Number f2 = 8.9;
+
+	@Benchmark
+	public Number addIntegers() {
+		return Dispatch.add(i1, i2);
+	}
+
+	@Benchmark
+	public Number addFloats() {
+		return Dispatch.add(f1, f2);
+	}
+
+	@Benchmark
+	public Number addMixed() {
+		return Dispatch.add(i1, f2);
+	}
+
+	@Benchmark
+	public Number mulIntegers() {
+		return Dispatch.mul(i1, i2);
+	}
+
+	@Benchmark
+	public Number divIntegers() {
+		return Dispatch.div(i1, i2);
+	}
+
+	@Benchmark
+	public Number modIntegers() {
+		return Dispatch.mod(i1, i2);
+	}
+
+	@Benchmark
+	public Number idivIntegers() {
+		return Dispatch.idiv(i1, i2);
+	}
+
+	@Benchmark
+	public Number powFloats() {
+		return Dispatch.pow(f1, f2);
+	}
+
+}
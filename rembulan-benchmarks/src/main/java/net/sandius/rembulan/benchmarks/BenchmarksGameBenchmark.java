@@ -0,0 +1,126 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sandius.rembulan.benchmarks;
+
+import net.sandius.rembulan.StateContext;
+import net.sandius.rembulan.Table;
+import net.sandius.rembulan.Variable;
+import net.sandius.rembulan.compiler.CompilerChunkLoader;
+import net.sandius.rembulan.compiler.CompilerSettings;
+import net.sandius.rembulan.exec.DirectCallExecutor;
+import net.sandius.rembulan.impl.StateContexts;
+import net.sandius.rembulan.load.ChunkClassLoader;
+import net.sandius.rembulan.load.ChunkLoader;
+import net.sandius.rembulan.runtime.LuaFunction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the scripts from the Benchmarks Game under every combination of compiler settings.
+ *
+ * <p>The parameter {@code script} has the form <code><i>file</i>:<i>arg</i></code>, where
+ * <i>file</i> is the name of the script and <i>arg</i> is the value passed to the script
+ * as {@code arg[1]}. Use the JMH option {@code -p} to restrict the parameter space, e.g.
+ * {@code -p script=nbody.lua:100000 -p cpuAccounting=NO_CPU_ACCOUNTING}.</p>
+ *
+ * <p>The script is compiled once per trial; each invocation calls its main chunk.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class BenchmarksGameBenchmark {
+
+	@Param({
+			"binarytrees.lua-2.lua:12",
+			"fannkuchredux.lua:9",
+			"fasta.lua:25000",
+			"mandelbrot.lua:250",
+			"nbody.lua:100000",
+			"spectralnorm.lua:200"
+	})
+	public String script;
+
+	@Param
+	public CompilerSettings.CPUAccountingMode cpuAccounting;
+
+	@Param({"true", "false"})
+	public boolean constFolding;
+
+	@Param({"true", "false"})
+	public boolean constCaching;
+
+	@Param({"true", "false"})
+	public boolean byteStrings;
+
+	@Param({"true", "false"})
+	public boolean numericSpecialisation;
+
+	@Param({"true", "false"})
+	public boolean invokeDynamic;
+
+	@Param({"true", "false"})
+	public boolean resumptionPointElision;
+
+	private StateContext state;
+	private LuaFunction main;
+	private DirectCallExecutor executor;
+
+	CompilerSettings compilerSettings() {
+		return CompilerSettings.defaultSettings()
+				.withCPUAccountingMode(cpuAccounting)
+				.withConstFolding(constFolding)
+				.withConstCaching(constCaching)
+				.withByteStrings(byteStrings)
+				.withNumericSpecialisation(numericSpecialisation)
+				.withInvokeDynamic(invokeDynamic)
+				.withResumptionPointElision(resumptionPointElision);
+	}
+
+	@Setup
+	public void setUp() throws Exception {
+		String[] fileAndArgs = script.split(":");
+		String fileName = fileAndArgs[0];
+		String[] args = Arrays.copyOfRange(fileAndArgs, 1, fileAndArgs.length);
+
+		ChunkLoader loader = CompilerChunkLoader.of(new ChunkClassLoader(), compilerSettings(), "benchmark_");
+		state = StateContexts.newDefaultInstance();
+		Table env = Scripts.newEnvironment(state, loader, args);
+		main = loader.loadTextChunk(new Variable(env), fileName, Scripts.load("/benchmarksgame/" + fileName));
+		executor = DirectCallExecutor.newExecutor();
+	}
+
+	@Benchmark
+	public Object[] run() throws Exception {
+		return executor.call(state, main);
+	}
+
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sandius.rembulan.benchmarks;
+
+import net.sandius.rembulan.compiler.CompiledModule;
+import net.sandius.rembulan.compiler.CompilerSettings;
+import net.sandius.rembulan.compiler.LuaCompiler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of {@link LuaCompiler#compile(String, String, String)},
+ * from source text to Java bytecode (without loading the resulting classes).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class CompilerBenchmark {
+
+	@Param({
+			"binarytrees.lua-2.lua",
+			"fannkuchredux.lua",
+			"meteor.lua",
+			"nbody.lua",
+			"pidigits.lua-3.lua"
+	})
+	public String script;
+
+	@Param
+	public CompilerSettings.CPUAccountingMode cpuAccounting;
+
+	private String source;
+	private LuaCompiler compiler;
+
+	@Setup
+	public void setUp() throws Exception {
+		source = Scripts.load("/benchmarksgame/" + script);
+		compiler = new LuaCompiler(CompilerSettings.defaultSettings().withCPUAccountingMode(cpuAccounting));
+	}
+
+	@Benchmark
+	public CompiledModule compile() throws Exception {
+		return compiler.compile(source, script, "benchmark_main");
+	}
+
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sandius.rembulan.benchmarks;
+
+import net.sandius.rembulan.StateContext;
+import net.sandius.rembulan.Table;
+import net.sandius.rembulan.Variable;
+import net.sandius.rembulan.compiler.CompilerChunkLoader;
+import net.sandius.rembulan.compiler.CompilerSettings;
+import net.sandius.rembulan.env.RuntimeEnvironments;
+import net.sandius.rembulan.exec.DirectCallExecutor;
+import net.sandius.rembulan.impl.StateContexts;
+import net.sandius.rembulan.lib.impl.StandardLibrary;
+import net.sandius.rembulan.load.ChunkClassLoader;
+import net.sandius.rembulan.load.ChunkLoader;
+import net.sandius.rembulan.runtime.LuaFunction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of a coroutine switch (a resume followed by a yield), with the yield
+ * issued from a call stack of depth {@code depth} inside the coroutine.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class CoroutineBenchmark {
+
+	static final int SWITCHES = 10000;
+
+	private static final String SCRIPT =
+			"local depth, n = ...\n"
+			+ "local yield = coroutine.yield\n"
+			+ "local function nested(d)\n"
+			+ "  if d > 1 then local r = nested(d - 1); return r else return yield(d) end\n"
+			+ "end\n"
+			+ "local co = coroutine.wrap(function()\n"
+			+ "  while true do nested(depth) end\n"
+			+ "end)\n"
+			+ "for i = 1, n do co() end\n";
+
+	@Param({"1", "16"})
+	public int depth;
+
+	@Param({"false", "true"})
+	public boolean threaded;
+
+	private StateContext state;
+	private LuaFunction main;
+	private DirectCallExecutor executor;
+
+	@Setup
+	public void setUp() throws Exception {
+		ChunkLoader loader = CompilerChunkLoader.of(new ChunkClassLoader(),
+				CompilerSettings.defaultNoAccountingSettings(), "benchmark_");
+		state = StateContexts.newDefaultInstance();
+		Table env = StandardLibrary.in(RuntimeEnvironments.system(null, Scripts.NULL_OUTPUT, Scripts.NULL_OUTPUT))
+				.withThreadedCoroutines(threaded)
+				.installInto(state);
+		main = loader.loadTextChunk(new Variable(env), "coroutines", SCRIPT);
+		executor = DirectCallExecutor.newExecutor();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SWITCHES)
+	public Object[] resumeYield() throws Exception {
+		return executor.call(state, main, (long) depth, (long) SWITCHES);
+	}
+
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sandius.rembulan.benchmarks;
+
+import net.sandius.rembulan.StateContext;
+import net.sandius.rembulan.Table;
+import net.sandius.rembulan.env.RuntimeEnvironment;
+import net.sandius.rembulan.env.RuntimeEnvironments;
+import net.sandius.rembulan.lib.impl.StandardLibrary;
+import net.sandius.rembulan.load.ChunkLoader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Utilities for loading and running the benchmark scripts.
+ */
+final class Scripts {
+
+	private Scripts() {
+		// not to be instantiated
+	}
+
+	/**
+	 * An output stream that discards everything written into it, so that the output
+	 * of the benchmarks does not affect the measurements.
+	 */
+	static final OutputStream NULL_OUTPUT = new OutputStream() {
+		@Override
+		public void write(int b) {
+			// no-op
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			// no-op
+		}
+	};
+
+	static String load(String resourceName) throws IOException {
+		InputStream in = Scripts.class.getResourceAsStream(resourceName);
+		if (in == null) {
+			throw new IOException("Resource not found: " + resourceName);
+		}
+
+		try {
+			ByteArrayOutputStream buf = new ByteArrayOutputStream();
+			byte[] chunk = new byte[8192];
+			int n;
+			while ((n = in.read(chunk)) >= 0) {
+				buf.write(chunk, 0, n);
+			}
+			return new String(buf.toByteArray(), StandardCharsets.UTF_8);
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Returns a new global environment with the standard library installed in it,
+	 * and with the global table {@code arg} set to {@code args}. Standard output and
+	 * standard error are discarded.
+	 */
+	static Table newEnvironment(StateContext state, ChunkLoader loader, String... args) {
+		RuntimeEnvironment runtimeEnv = RuntimeEnvironments.system(null, NULL_OUTPUT, NULL_OUTPUT);
+		Table env = StandardLibrary.in(runtimeEnv)
+				.withLoader(loader)
+				.installInto(state);
+
+		Table argTable = state.newTable();
+		for (int i = 0; i < args.length; i++) {
+			argTable.rawset(i + 1, args[i]);
+		}
+		env.rawset("arg", argTable);
+
+		return env;
+	}
+
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sandius.rembulan.benchmarks;
+
+import net.sandius.rembulan.ByteString;
+import net.sandius.rembulan.lib.impl.StringPattern;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Microbenchmarks of Lua pattern matching using {@link StringPattern}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class StringPatternBenchmark {
+
+	@Param({
+			"%d+",
+			"(%w+)=(%w+)",
+			"^%s*(.-)%s*$",
+			"[aeiou][^aeiou]*x"
+	})
+	public String pattern;
+
+	private ByteString patternString;
+	private ByteString subject;
+	private StringPattern compiled;
+
+	@Setup
+	public void setUp() {
+		StringBuilder bld = new StringBuilder("   ");
+		for (int i = 0; i < 64; i++) {
+			bld.append("key").append(i).append("=value").append(i).append(' ');
+		}
+		bld.append("12345   ");
+		subject = ByteString.of(bld.toString());
+		patternString = ByteString.of(pattern);
+		compiled = StringPattern.fromString(pattern);
+	}
+
+	@Benchmark
+	public StringPattern compile() {
+		return StringPattern.fromString(pattern);
+	}
+
+	@Benchmark
+	public StringPattern compileCached() {
+		return StringPattern.compile(patternString);
+	}
+
+	@Benchmark
+	public boolean match() {
+		return compiled.matcher(subject).find(0);
+	}
+
+	@Benchmark
+	public int matchAll() {
+		// like string.gmatch
+		int count = 0;
+		int idx = 0;
+		StringPattern.Matcher m = compiled.matcher(subject);
+		while (m.find(idx)) {
+			count += 1;
+			idx = m.endIndex() > m.beginIndex() ? m.endIndex() : m.endIndex() + 1;
+		}
+		return count;
+	}
+
+}
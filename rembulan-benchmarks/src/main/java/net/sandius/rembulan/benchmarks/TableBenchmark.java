@@ -0,0 +1,109 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sandius.rembulan.benchmarks;
+
+import net.sandius.rembulan.ByteString;
+import net.sandius.rembulan.Table;
+import net.sandius.rembulan.impl.DefaultTable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Microbenchmarks of raw accesses to {@link DefaultTable}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class TableBenchmark {
+
+	static final int SIZE = 1024;
+
+	private Table array;
+	private Table hash;
+	private ByteString[] keys;
+
+	@Setup
+	public void setUp() {
+		array = new DefaultTable();
+		hash = new DefaultTable();
+		keys = new ByteString[SIZE];
+
+		for (int i = 0; i < SIZE; i++) {
+			keys[i] = ByteString.of("key" + i);
+			array.rawset(i + 1, Long.valueOf(i));
+			hash.rawset(keys[i], Long.valueOf(i));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SIZE)
+	public void getInteger(Blackhole bh) {
+		for (long i = 1; i <= SIZE; i++) {
+			bh.consume(array.rawget(i));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SIZE)
+	public void setInteger() {
+		for (long i = 1; i <= SIZE; i++) {
+			array.rawset(i, Long.valueOf(i));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SIZE)
+	public void getString(Blackhole bh) {
+		for (ByteString k : keys) {
+			bh.consume(hash.rawget(k));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SIZE)
+	public void setString() {
+		for (ByteString k : keys) {
+			hash.rawset(k, k);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SIZE)
+	public Table fillArray() {
+		Table t = new DefaultTable();
+		for (long i = 1; i <= SIZE; i++) {
+			t.rawset(i, Long.valueOf(i));
+		}
+		return t;
+	}
+
+}
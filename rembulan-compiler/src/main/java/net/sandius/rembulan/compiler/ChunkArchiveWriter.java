@@ -0,0 +1,109 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sandius.rembulan.compiler;
+
+import net.sandius.rembulan.load.PrecompiledChunkLoader;
+import net.sandius.rembulan.util.ByteVector;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+/**
+ * A writer of jar archives containing chunks compiled ahead of time, to be loaded
+ * by {@link PrecompiledChunkLoader}.
+ *
+ * <p>The archive contains the classes of all added modules, and an index
+ * (in the entry {@value PrecompiledChunkLoader#INDEX_RESOURCE_NAME}) that is written
+ * when the writer is closed.</p>
+ */
+public class ChunkArchiveWriter implements Closeable {
+
+	private final JarOutputStream out;
+	private final Properties index;
+
+	/**
+	 * Constructs a new archive writer writing to the output stream {@code out}.
+	 *
+	 * @param out  the output stream, must not be {@code null}
+	 *
+	 * @throws NullPointerException  if {@code out} is {@code null}
+	 * @throws IOException  if an I/O error occurs while writing the archive header
+	 */
+	public ChunkArchiveWriter(OutputStream out) throws IOException {
+		Manifest manifest = new Manifest();
+		manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		this.out = new JarOutputStream(Objects.requireNonNull(out), manifest);
+		this.index = new Properties();
+	}
+
+	/**
+	 * Adds the module {@code module}, compiled from the source text {@code sourceText},
+	 * to the archive as the chunk {@code chunkName}.
+	 *
+	 * @param chunkName  the chunk name, must not be {@code null}
+	 * @param sourceText  the source text {@code module} was compiled from, must not be {@code null}
+	 * @param module  the compiled module, must not be {@code null}
+	 *
+	 * @throws NullPointerException  if any of the arguments is {@code null}
+	 * @throws IllegalArgumentException  if a chunk named {@code chunkName} has already
+	 *                                   been added
+	 * @throws IOException  if an I/O error occurs
+	 */
+	public void add(String chunkName, String sourceText, CompiledModule module) throws IOException {
+		Objects.requireNonNull(chunkName);
+		Objects.requireNonNull(module);
+
+		if (index.containsKey(chunkName)) {
+			throw new IllegalArgumentException("Chunk already added: " + chunkName);
+		}
+
+		for (Map.Entry<String, ByteVector> entry : module.classMap().entrySet()) {
+			out.putNextEntry(new JarEntry(entry.getKey().replace('.', '/') + ".class"));
+			out.write(entry.getValue().copyToNewArray());
+			out.closeEntry();
+		}
+
+		index.setProperty(chunkName,
+				module.mainClassName() + " " + PrecompiledChunkLoader.sourceDigest(sourceText));
+	}
+
+	/**
+	 * Writes the index and closes the archive.
+	 *
+	 * @throws IOException  if an I/O error occurs
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			out.putNextEntry(new JarEntry(PrecompiledChunkLoader.INDEX_RESOURCE_NAME));
+			index.store(out, "Rembulan precompiled chunks");
+			out.closeEntry();
+		}
+		finally {
+			out.close();
+		}
+	}
+
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sandius.rembulan.compiler;
+
+/**
+ * A store of compiled modules, used by {@link CompilerChunkLoader} to avoid recompiling
+ * identical source texts.
+ *
+ * <p>Modules are identified by {@link CompiledModuleKey}s. Since compiled modules
+ * are immutable, a single cache may be shared by any number of chunk loaders;
+ * implementations of this interface must therefore be thread-safe.</p>
+ */
+public interface CompiledModuleCache {
+
+	/**
+	 * Returns the module stored for the key {@code key}, or {@code null} if there is
+	 * no such module in this cache.
+	 *
+	 * @param key  the key, must not be {@code null}
+	 * @return  the module stored for {@code key}, or {@code null} if not found
+	 *
+	 * @throws NullPointerException  if {@code key} is {@code null}
+	 */
+	CompiledModule get(CompiledModuleKey key);
+
+	/**
+	 * Stores the module {@code module} for the key {@code key}. The main class
+	 * of {@code module} must be named {@code key.rootClassName()}.
+	 *
+	 * <p>Caches may discard modules at any time.</p>
+	 *
+	 * @param key  the key, must not be {@code null}
+	 * @param module  the module compiled for {@code key}, must not be {@code null}
+	 *
+	 * @throws NullPointerException  if {@code key} or {@code module} is {@code null}
+	 */
+	void put(CompiledModuleKey key, CompiledModule module);
+
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sandius.rembulan.compiler;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * A key identifying the result of compiling a Lua source text, for use
+ * with {@link CompiledModuleCache}s.
+ *
+ * <p>The key is a digest of the source text, the source file name, the compiler settings,
+ * the {@linkplain LuaCompiler#version() compiler version} and a class name prefix. Two keys
+ * are equal if and only if they have equal digests. The main class of the module
+ * compiled for a key must be named {@link #rootClassName()}: since the class name
+ * is determined by the key, modules may be shared by any number of class loaders.</p>
+ */
+public final class CompiledModuleKey {
+
+	private static final String DIGEST_ALGORITHM = "SHA-256";
+
+	// number of digest bytes used in the root class name
+	private static final int CLASS_NAME_DIGEST_LENGTH = 16;
+
+	private final byte[] digest;
+	private final String rootClassName;
+
+	private CompiledModuleKey(byte[] digest, String rootClassName) {
+		this.digest = Objects.requireNonNull(digest);
+		this.rootClassName = Objects.requireNonNull(rootClassName);
+	}
+
+	private static void update(MessageDigest md, String s) {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		md.update(ByteBuffer.allocate(4).putInt(bytes.length).array());
+		md.update(bytes);
+	}
+
+	private static void update(MessageDigest md, CompilerSettings settings) {
+		update(md, settings.cpuAccountingMode().name());
+		update(md, settings.constFolding() + ","
+				+ settings.constCaching() + ","
+				+ settings.byteStrings() + ","
+				+ settings.numericSpecialisation() + ","
+				+ settings.invokeDynamic() + ","
+				+ settings.resumptionPointElision() + ","
+				+ settings.nodeSizeLimit());
+	}
+
+	static String toHexString(byte[] bytes, int length) {
+		StringBuilder bld = new StringBuilder(2 * length);
+		for (int i = 0; i < length; i++) {
+			int b = bytes[i] & 0xff;
+			bld.append(Character.forDigit(b >>> 4, 16));
+			bld.append(Character.forDigit(b & 0x0f, 16));
+		}
+		return bld.toString();
+	}
+
+	/**
+	 * Returns the key for the compilation of the source text {@code sourceText}
+	 * with the source file name {@code sourceFileName} using the compiler settings
+	 * {@code settings}, with the main class name starting with {@code rootClassPrefix}.
+	 *
+	 * @param settings  the compiler settings, must not be {@code null}
+	 * @param sourceText  the source text, must not be {@code null}
+	 * @param sourceFileName  the source file name, must not be {@code null}
+	 * @param rootClassPrefix  the prefix of the main class name, must not be {@code null}
+	 * @return  the corresponding key
+	 *
+	 * @throws NullPointerException  if any of the arguments is {@code null}
+	 */
+	public static CompiledModuleKey of(CompilerSettings settings, String sourceText,
+			String sourceFileName, String rootClassPrefix) {
+
+		Objects.requireNonNull(settings);
+		Objects.requireNonNull(sourceText);
+		Objects.requireNonNull(sourceFileName);
+		Objects.requireNonNull(rootClassPrefix);
+
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance(DIGEST_ALGORITHM);
+		}
+		catch (NoSuchAlgorithmException ex) {
+			// every Java platform is required to support SHA-256
+			throw new IllegalStateException(ex);
+		}
+
+		update(md, LuaCompiler.version());
+		update(md, settings);
+		update(md, rootClassPrefix);
+		update(md, sourceFileName);
+		update(md, sourceText);
+
+		byte[] digest = md.digest();
+		String rootClassName = rootClassPrefix + toHexString(digest, CLASS_NAME_DIGEST_LENGTH);
+		return new CompiledModuleKey(digest, rootClassName);
+	}
+
+	/**
+	 * Returns the name of the main class of the module identified by this key.
+	 *
+	 * @return  the main class name for this key
+	 */
+	public String rootClassName() {
+		return rootClassName;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+		CompiledModuleKey that = (CompiledModuleKey) o;
+		return Arrays.equals(this.digest, that.digest);
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(digest);
+	}
+
+	/**
+	 * Returns the digest of this key as a string of hexadecimal digits.
+	 *
+	 * @return  the hexadecimal representation of this key
+	 */
+	@Override
+	public String toString() {
+		return toHexString(digest, digest.length);
+	}
+
+}
@@ -25,25 +25,107 @@ import net.sandius.rembulan.parser.Parser;
 import net.sandius.rembulan.parser.TokenMgrError;
 import net.sandius.rembulan.runtime.LuaFunction;
 
+import java.util.Collections;
 import java.util.Objects;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A chunk loader that uses the {@linkplain LuaCompiler compiler} to convert Lua source
  * text to Java classfiles, and loads these classfiles into the VM using a {@link ClassLoader}.
+ *
+ * <p>Chunk loaders are thread-safe, and chunks are compiled outside of any lock. By default,
+ * all chunks are loaded by a single {@link ChunkClassLoader}, and their classes can only be
+ * unloaded once the chunk loader and all functions it has loaded have become unreachable.
+ * Chunk loaders obtained using
+ * {@link #unloadable(ClassLoader, LuaCompiler, String, CompiledModuleCache)} load every
+ * chunk using a separate {@code ChunkClassLoader}, so that the classes of a chunk may be
+ * unloaded as soon as the functions of the chunk have become unreachable.</p>
  */
 public class CompilerChunkLoader implements ChunkLoader {
 
-	private final ChunkClassLoader chunkClassLoader;
+	private final ClassLoader parentClassLoader;
+	private final ChunkClassLoader chunkClassLoader;  // null if using a class loader per chunk
 	private final String rootClassPrefix;
 	private final LuaCompiler compiler;
+	private final CompiledModuleCache moduleCache;
+
+	// the chunk class loaders used by this loader that have not been garbage-collected yet
+	private final Set<ChunkClassLoader> classLoaders;
 
-	private int idx;
+	private final AtomicInteger idx;
 
-	CompilerChunkLoader(ClassLoader classLoader, LuaCompiler compiler, String rootClassPrefix) {
-		this.chunkClassLoader = new ChunkClassLoader(Objects.requireNonNull(classLoader));
+	CompilerChunkLoader(ClassLoader classLoader, LuaCompiler compiler, String rootClassPrefix,
+			CompiledModuleCache moduleCache, boolean classLoaderPerChunk) {
+		this.parentClassLoader = Objects.requireNonNull(classLoader);
 		this.compiler = Objects.requireNonNull(compiler);
 		this.rootClassPrefix = Objects.requireNonNull(rootClassPrefix);
-		this.idx = 0;
+		this.moduleCache = moduleCache;
+		this.classLoaders = Collections.synchronizedSet(
+				Collections.newSetFromMap(new WeakHashMap<ChunkClassLoader, Boolean>()));
+		this.idx = new AtomicInteger();
+
+		if (classLoaderPerChunk) {
+			this.chunkClassLoader = null;
+		}
+		else {
+			this.chunkClassLoader = new ChunkClassLoader(classLoader);
+			this.classLoaders.add(chunkClassLoader);
+		}
+	}
+
+	CompilerChunkLoader(ClassLoader classLoader, LuaCompiler compiler, String rootClassPrefix,
+			CompiledModuleCache moduleCache) {
+		this(classLoader, compiler, rootClassPrefix, moduleCache, false);
+	}
+
+	/**
+	 * Returns a new instance of {@code CompilerChunkLoader} that loads every chunk it compiles
+	 * using {@code compiler} into a new {@link ChunkClassLoader} whose parent is
+	 * {@code classLoader}. When {@code moduleCache} is not {@code null}, the compiled modules
+	 * are looked up and stored in {@code moduleCache}.
+	 *
+	 * <p>The classes of a chunk loaded by the returned chunk loader may be unloaded as soon as
+	 * all functions of the chunk have become unreachable.</p>
+	 *
+	 * @param classLoader  the parent class loader of the chunk class loaders,
+	 *                     must not be {@code null}
+	 * @param compiler  the compiler instance used by this chunk loader, must not be {@code null}
+	 * @param rootClassPrefix  the class name prefix for compiled classes, must not be {@code null}
+	 * @param moduleCache  the compiled module cache, may be {@code null}
+	 * @return  a new instance of {@code CompilerChunkLoader}
+	 *
+	 * @throws NullPointerException  if {@code classLoader}, {@code compiler}
+	 *                               or {@code rootClassPrefix} is {@code null}
+	 */
+	public static CompilerChunkLoader unloadable(ClassLoader classLoader, LuaCompiler compiler,
+			String rootClassPrefix, CompiledModuleCache moduleCache) {
+		return new CompilerChunkLoader(classLoader, compiler, rootClassPrefix, moduleCache, true);
+	}
+
+	/**
+	 * Returns a new instance of {@code CompilerChunkLoader} that uses the specified
+	 * class loader {@code classLoader} to load classes it compiles using {@code compiler},
+	 * looking up and storing the compiled modules in {@code moduleCache}.
+	 *
+	 * <p>The main chunk class names consist of {@code rootClassPrefix} followed by
+	 * a digest of the chunk (see {@link CompiledModuleKey#rootClassName()}). Loading
+	 * the same chunk repeatedly reuses the classes already loaded by this chunk loader.</p>
+	 *
+	 * @param classLoader  the class loader used by this chunk loader, must not be {@code null}
+	 * @param compiler  the compiler instance used by this chunk loader, must not be {@code null}
+	 * @param rootClassPrefix  the class name prefix for compiled classes, must not be {@code null}
+	 * @param moduleCache  the compiled module cache, must not be {@code null}
+	 * @return  a new instance of {@code CompilerChunkLoader}
+	 *
+	 * @throws NullPointerException  if {@code classLoader}, {@code compiler},
+	 *                               {@code rootClassPrefix} or {@code moduleCache}
+	 *                               is {@code null}
+	 */
+	public static CompilerChunkLoader of(ClassLoader classLoader, LuaCompiler compiler, String rootClassPrefix,
+			CompiledModuleCache moduleCache) {
+		return new CompilerChunkLoader(classLoader, compiler, rootClassPrefix, Objects.requireNonNull(moduleCache));
 	}
 
 	/**
@@ -61,7 +143,7 @@ public class CompilerChunkLoader implements ChunkLoader {
 	 *                               or {@code rootClassPrefix} is {@code null}
 	 */
 	public static CompilerChunkLoader of(ClassLoader classLoader, LuaCompiler compiler, String rootClassPrefix) {
-		return new CompilerChunkLoader(classLoader, compiler, rootClassPrefix);
+		return new CompilerChunkLoader(classLoader, compiler, rootClassPrefix, null);
 	}
 
 	/**
@@ -81,7 +163,7 @@ public class CompilerChunkLoader implements ChunkLoader {
 	 *                               or {@code rootClassPrefix} is {@code null}
 	 */
 	public static CompilerChunkLoader of(ClassLoader classLoader, CompilerSettings compilerSettings, String rootClassPrefix) {
-		return new CompilerChunkLoader(classLoader, new LuaCompiler(compilerSettings), rootClassPrefix);
+		return new CompilerChunkLoader(classLoader, new LuaCompiler(compilerSettings), rootClassPrefix, null);
 	}
 
 	/**
@@ -154,44 +236,129 @@ public class CompilerChunkLoader implements ChunkLoader {
 		return of(CompilerSettings.defaultSettings(), rootClassPrefix);
 	}
 
+	/**
+	 * Returns the chunk class loader used by this chunk loader, or {@code null}
+	 * if this chunk loader uses a separate class loader for every chunk.
+	 *
+	 * @return  the chunk class loader used by this chunk loader, or {@code null}
+	 *          if it uses a class loader per chunk
+	 */
 	public ChunkClassLoader getChunkClassLoader() {
 		return chunkClassLoader;
 	}
 
+	/**
+	 * Returns the number of the class loaders used by this chunk loader that have not
+	 * been garbage-collected yet.
+	 *
+	 * @return  the number of live class loaders of this chunk loader
+	 */
+	public int liveClassLoaderCount() {
+		return classLoaders.size();
+	}
+
+	/**
+	 * Returns the number of classes defined by the class loaders of this chunk loader
+	 * that have not been garbage-collected yet.
+	 *
+	 * @return  the number of classes defined by the live class loaders of this chunk loader
+	 *
+	 * @see ChunkClassLoader#definedClassCount()
+	 */
+	public long definedClassCount() {
+		long count = 0;
+		synchronized (classLoaders) {
+			for (ChunkClassLoader ldr : classLoaders) {
+				count += ldr.definedClassCount();
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the total size (in bytes) of the classfiles of the classes defined
+	 * by the class loaders of this chunk loader that have not been garbage-collected yet.
+	 * This is an approximation of the metaspace used by the classes loaded by this
+	 * chunk loader.
+	 *
+	 * @return  the total size of the classes defined by the live class loaders of this
+	 *          chunk loader
+	 *
+	 * @see ChunkClassLoader#definedClassBytes()
+	 */
+	public long definedClassBytes() {
+		long bytes = 0;
+		synchronized (classLoaders) {
+			for (ChunkClassLoader ldr : classLoaders) {
+				bytes += ldr.definedClassBytes();
+			}
+		}
+		return bytes;
+	}
+
+	private CompiledModule compile(String chunkName, String sourceText) throws ParseException, TokenMgrError {
+		if (moduleCache == null) {
+			return compiler.compile(sourceText, chunkName, rootClassPrefix + idx.getAndIncrement());
+		}
+
+		CompiledModuleKey key = CompiledModuleKey.of(compiler.settings(), sourceText, chunkName, rootClassPrefix);
+		CompiledModule module = moduleCache.get(key);
+		if (module == null) {
+			module = compiler.compile(sourceText, chunkName, key.rootClassName());
+			moduleCache.put(key, module);
+		}
+		return module;
+	}
+
+	private ChunkClassLoader install(CompiledModule module) {
+		if (chunkClassLoader != null) {
+			synchronized (chunkClassLoader) {
+				if (!chunkClassLoader.isInstalled(module.mainClassName())) {
+					chunkClassLoader.install(module);
+				}
+				// else loaded the same chunk before
+			}
+			return chunkClassLoader;
+		}
+		else {
+			ChunkClassLoader ldr = new ChunkClassLoader(parentClassLoader);
+			ldr.install(module);
+			classLoaders.add(ldr);
+			return ldr;
+		}
+	}
+
 	@Override
 	public LuaFunction loadTextChunk(Variable env, String chunkName, String sourceText) throws LoaderException {
 		Objects.requireNonNull(env);
 		Objects.requireNonNull(chunkName);
 		Objects.requireNonNull(sourceText);
 
-		synchronized (this) {
-			String rootClassName = rootClassPrefix + (idx++);
-			try {
-				CompiledModule result = compiler.compile(sourceText, chunkName, rootClassName);
+		try {
+			CompiledModule result = compile(chunkName, sourceText);
 
-				String mainClassName = chunkClassLoader.install(result);
-				Class<?> clazz = chunkClassLoader.loadClass(mainClassName);
+			ChunkClassLoader ldr = install(result);
+			Class<?> clazz = ldr.loadClass(result.mainClassName());
 
-				return (LuaFunction) clazz.getConstructor(Variable.class).newInstance(env);
-			}
-			catch (TokenMgrError ex) {
-				String msg = ex.getMessage();
-				int line = 0;  // TODO
-				boolean partial = msg != null && msg.contains("Encountered: <EOF>");  // TODO: is there really no better way?
-				throw new LoaderException(ex, chunkName, line, partial);
-			}
-			catch (ParseException ex) {
-				boolean partial = ex.currentToken != null
-						&& ex.currentToken.next != null
-						&& ex.currentToken.next.kind == Parser.EOF;
-				int line = ex.currentToken != null
-						? ex.currentToken.beginLine
-						: 0;
-				throw new LoaderException(ex, chunkName, line, partial);
-			}
-			catch (RuntimeException | LinkageError | ReflectiveOperationException ex) {
-				throw new LoaderException(ex, chunkName, 0, false);
-			}
+			return (LuaFunction) clazz.getConstructor(Variable.class).newInstance(env);
+		}
+		catch (TokenMgrError ex) {
+			String msg = ex.getMessage();
+			int line = 0;  // TODO
+			boolean partial = msg != null && msg.contains("Encountered: <EOF>");  // TODO: is there really no better way?
+			throw new LoaderException(ex, chunkName, line, partial);
+		}
+		catch (ParseException ex) {
+			boolean partial = ex.currentToken != null
+					&& ex.currentToken.next != null
+					&& ex.currentToken.next.kind == Parser.EOF;
+			int line = ex.currentToken != null
+					? ex.currentToken.beginLine
+					: 0;
+			throw new LoaderException(ex, chunkName, line, partial);
+		}
+		catch (RuntimeException | LinkageError | ReflectiveOperationException ex) {
+			throw new LoaderException(ex, chunkName, 0, false);
 		}
 	}
 
@@ -31,6 +31,17 @@ import java.util.Objects;
  *       time (note that this does not have an influence on the number of ticks counted);</li>
  *     <li><b>const caching</b> (boolean): when {@code true}, boxed numeric constants are stored
  *       as static fields rather than being instantiated (and boxed) at execution time;</li>
+ *     <li><b>numeric specialisation</b> (boolean): when {@code true}, arithmetic and comparison
+ *       operations whose operands are statically known to be numbers are compiled to direct
+ *       primitive operations rather than to dynamic dispatch calls;</li>
+ *     <li><b>invokedynamic</b> (boolean): when {@code true}, table accesses and calls are
+ *       compiled to {@code invokedynamic} call sites with inline caches (linked by
+ *       {@link net.sandius.rembulan.runtime.DispatchCallSites}) rather than to static
+ *       {@link net.sandius.rembulan.runtime.Dispatch} calls;</li>
+ *     <li><b>resumption point elision</b> (boolean): when {@code true}, operations that are
+ *       statically known not to call metamethods (such as comparisons with a non-table operand,
+ *       or the concatenation of strings and numbers) are compiled to direct calls that cannot
+ *       suspend, and therefore do not require a resumption point;</li>
  *     <li><b>node size limit</b> (int): when positive, long functions are split up into smaller
  *       Java methods (each containing at most the specified number of IR nodes); otherwise,
  *       a single method containing the entire function code is generated. Java class files
@@ -63,7 +74,24 @@ public final class CompilerSettings {
 		 * and potentially pause by invoking
 		 * {@link net.sandius.rembulan.runtime.ExecutionContext#pauseIfRequested()}.</p>
 		 */
-		IN_EVERY_BASIC_BLOCK
+		IN_EVERY_BASIC_BLOCK,
+
+		/**
+		 * Check CPU time usage at the entry of the function and at loop headers only.
+		 *
+		 * <p>The ticks of all code that may be executed until the next loop header
+		 * (or the exit from the function) are registered in advance, in a single
+		 * invocation of {@link net.sandius.rembulan.runtime.ExecutionContext#registerTicks(int)},
+		 * followed by a single invocation of
+		 * {@link net.sandius.rembulan.runtime.ExecutionContext#pauseIfRequested()}.
+		 * When the code contains branches, the number of ticks registered is the cost
+		 * of the most expensive path, and may therefore be higher than in
+		 * {@link #IN_EVERY_BASIC_BLOCK}.</p>
+		 *
+		 * <p>Since every loop passes through a loop header, the execution may still be
+		 * paused in every iteration of every loop.</p>
+		 */
+		IN_LOOP_HEADERS
 
 	}
 
@@ -87,6 +115,21 @@ public final class CompilerSettings {
 	 */
 	public static final boolean DEFAULT_BYTE_STRING_MODE = true;
 
+	/**
+	 * The default numeric specialisation mode.
+	 */
+	public static final boolean DEFAULT_NUMERIC_SPECIALISATION_MODE = true;
+
+	/**
+	 * The default invokedynamic mode.
+	 */
+	public static final boolean DEFAULT_INVOKE_DYNAMIC_MODE = false;
+
+	/**
+	 * The default resumption point elision mode.
+	 */
+	public static final boolean DEFAULT_RESUMPTION_POINT_ELISION_MODE = true;
+
 	/**
 	 * The default method size limit.
 	 */
@@ -96,6 +139,9 @@ public final class CompilerSettings {
 	private final boolean constFolding;
 	private final boolean constCaching;
 	private final boolean byteStrings;
+	private final boolean numericSpecialisation;
+	private final boolean invokeDynamic;
+	private final boolean resumptionPointElision;
 	private final int nodeSizeLimit;
 
 	CompilerSettings(
@@ -103,12 +149,18 @@ public final class CompilerSettings {
 			boolean constFolding,
 			boolean constCaching,
 			boolean byteStrings,
+			boolean numericSpecialisation,
+			boolean invokeDynamic,
+			boolean resumptionPointElision,
 			int nodeSizeLimit) {
 
 		this.cpuAccountingMode = Objects.requireNonNull(cpuAccountingMode);
 		this.constFolding = constFolding;
 		this.constCaching = constCaching;
 		this.byteStrings = byteStrings;
+		this.numericSpecialisation = numericSpecialisation;
+		this.invokeDynamic = invokeDynamic;
+		this.resumptionPointElision = resumptionPointElision;
 		this.nodeSizeLimit = nodeSizeLimit;
 	}
 
@@ -123,6 +175,9 @@ public final class CompilerSettings {
 				&& this.constFolding == that.constFolding
 				&& this.constCaching == that.constCaching
 				&& this.byteStrings == that.byteStrings
+				&& this.numericSpecialisation == that.numericSpecialisation
+				&& this.invokeDynamic == that.invokeDynamic
+				&& this.resumptionPointElision == that.resumptionPointElision
 				&& this.nodeSizeLimit == that.nodeSizeLimit;
 	}
 
@@ -132,6 +187,9 @@ public final class CompilerSettings {
 		result = 31 * result + (constFolding ? 1 : 0);
 		result = 31 * result + (constCaching ? 1 : 0);
 		result = 31 * result + (byteStrings ? 1 : 0);
+		result = 31 * result + (numericSpecialisation ? 1 : 0);
+		result = 31 * result + (invokeDynamic ? 1 : 0);
+		result = 31 * result + (resumptionPointElision ? 1 : 0);
 		result = 31 * result + nodeSizeLimit;
 		return result;
 	}
@@ -146,6 +204,9 @@ public final class CompilerSettings {
 	 * @param constFolding  const folding mode
 	 * @param constCaching  const caching mode
 	 * @param byteStrings  byte string mode
+	 * @param numericSpecialisation  numeric specialisation mode
+	 * @param invokeDynamic  invokedynamic mode
+	 * @param resumptionPointElision  resumption point elision mode
 	 * @param nodeSizeLimit  node size limit
 	 * @return  the corresponding compiler settings
 	 *
@@ -156,10 +217,42 @@ public final class CompilerSettings {
 			boolean constFolding,
 			boolean constCaching,
 			boolean byteStrings,
+			boolean numericSpecialisation,
+			boolean invokeDynamic,
+			boolean resumptionPointElision,
 			int nodeSizeLimit) {
 
 		return new CompilerSettings(
-				cpuAccountingMode, constFolding, constCaching, byteStrings, nodeSizeLimit);
+				cpuAccountingMode, constFolding, constCaching, byteStrings,
+				numericSpecialisation, invokeDynamic, resumptionPointElision, nodeSizeLimit);
+	}
+
+	/**
+	 * Returns the compiler settings with the given parameters and the default
+	 * numeric specialisation, invokedynamic and resumption point elision modes.
+	 *
+	 * <p>When {@code nodeSizeLimit} is non-positive, no chunking of the body method
+	 * will be performed.</p>
+	 *
+	 * @param cpuAccountingMode  CPU accounting mode, must not be {@code null}
+	 * @param constFolding  const folding mode
+	 * @param constCaching  const caching mode
+	 * @param byteStrings  byte string mode
+	 * @param nodeSizeLimit  node size limit
+	 * @return  the corresponding compiler settings
+	 *
+	 * @throws NullPointerException  if {@code cpuAccountingMode} is {@code null}
+	 */
+	public static CompilerSettings of(
+			CPUAccountingMode cpuAccountingMode,
+			boolean constFolding,
+			boolean constCaching,
+			boolean byteStrings,
+			int nodeSizeLimit) {
+
+		return of(cpuAccountingMode, constFolding, constCaching, byteStrings,
+				DEFAULT_NUMERIC_SPECIALISATION_MODE, DEFAULT_INVOKE_DYNAMIC_MODE,
+				DEFAULT_RESUMPTION_POINT_ELISION_MODE, nodeSizeLimit);
 	}
 
 	/**
@@ -173,6 +266,9 @@ public final class CompilerSettings {
 				DEFAULT_CONST_FOLDING_MODE,
 				DEFAULT_CONST_CACHING_MODE,
 				DEFAULT_BYTE_STRING_MODE,
+				DEFAULT_NUMERIC_SPECIALISATION_MODE,
+				DEFAULT_INVOKE_DYNAMIC_MODE,
+				DEFAULT_RESUMPTION_POINT_ELISION_MODE,
 				DEFAULT_NODE_SIZE_LIMIT);
 	}
 
@@ -216,6 +312,33 @@ public final class CompilerSettings {
 		return byteStrings;
 	}
 
+	/**
+	 * Returns the numeric specialisation mode.
+	 *
+	 * @return  the numeric specialisation mode
+	 */
+	public boolean numericSpecialisation() {
+		return numericSpecialisation;
+	}
+
+	/**
+	 * Returns the invokedynamic mode.
+	 *
+	 * @return  the invokedynamic mode
+	 */
+	public boolean invokeDynamic() {
+		return invokeDynamic;
+	}
+
+	/**
+	 * Returns the resumption point elision mode.
+	 *
+	 * @return  the resumption point elision mode
+	 */
+	public boolean resumptionPointElision() {
+		return resumptionPointElision;
+	}
+
 	/**
 	 * Returns the node size limit.
 	 *
@@ -237,7 +360,7 @@ public final class CompilerSettings {
 	 */
 	public CompilerSettings withCPUAccountingMode(CPUAccountingMode mode) {
 		return mode != this.cpuAccountingMode
-				? new CompilerSettings(mode, constFolding, constCaching, byteStrings, nodeSizeLimit)
+				? new CompilerSettings(mode, constFolding, constCaching, byteStrings, numericSpecialisation, invokeDynamic, resumptionPointElision, nodeSizeLimit)
 				: this;
 	}
 
@@ -251,7 +374,7 @@ public final class CompilerSettings {
 	 */
 	public CompilerSettings withConstFolding(boolean mode) {
 		return mode != this.constFolding
-				? new CompilerSettings(cpuAccountingMode, mode, constCaching, byteStrings, nodeSizeLimit)
+				? new CompilerSettings(cpuAccountingMode, mode, constCaching, byteStrings, numericSpecialisation, invokeDynamic, resumptionPointElision, nodeSizeLimit)
 				: this;
 	}
 
@@ -265,7 +388,7 @@ public final class CompilerSettings {
 	 */
 	public CompilerSettings withConstCaching(boolean mode) {
 		return mode != this.constCaching
-				? new CompilerSettings(cpuAccountingMode, constFolding, mode, byteStrings, nodeSizeLimit)
+				? new CompilerSettings(cpuAccountingMode, constFolding, mode, byteStrings, numericSpecialisation, invokeDynamic, resumptionPointElision, nodeSizeLimit)
 				: this;
 	}
 
@@ -278,7 +401,49 @@ public final class CompilerSettings {
 	 */
 	public CompilerSettings withByteStrings(boolean mode) {
 		return mode != this.byteStrings
-				? new CompilerSettings(cpuAccountingMode, constFolding, constCaching, mode, nodeSizeLimit)
+				? new CompilerSettings(cpuAccountingMode, constFolding, constCaching, mode, numericSpecialisation, invokeDynamic, resumptionPointElision, nodeSizeLimit)
+				: this;
+	}
+
+	/**
+	 * Returns compiler settings derived from this compiler settings by updating
+	 * the numeric specialisation mode to {@code mode}.
+	 *
+	 * @param mode  new numeric specialisation mode
+	 * @return  settings derived from {@code this} by updating the numeric specialisation mode
+	 *          to {@code mode}
+	 */
+	public CompilerSettings withNumericSpecialisation(boolean mode) {
+		return mode != this.numericSpecialisation
+				? new CompilerSettings(cpuAccountingMode, constFolding, constCaching, byteStrings, mode, invokeDynamic, resumptionPointElision, nodeSizeLimit)
+				: this;
+	}
+
+	/**
+	 * Returns compiler settings derived from this compiler settings by updating
+	 * the invokedynamic mode to {@code mode}.
+	 *
+	 * @param mode  new invokedynamic mode
+	 * @return  settings derived from {@code this} by updating the invokedynamic mode
+	 *          to {@code mode}
+	 */
+	public CompilerSettings withInvokeDynamic(boolean mode) {
+		return mode != this.invokeDynamic
+				? new CompilerSettings(cpuAccountingMode, constFolding, constCaching, byteStrings, numericSpecialisation, mode, resumptionPointElision, nodeSizeLimit)
+				: this;
+	}
+
+	/**
+	 * Returns compiler settings derived from this compiler settings by updating
+	 * the resumption point elision mode to {@code mode}.
+	 *
+	 * @param mode  new resumption point elision mode
+	 * @return  settings derived from {@code this} by updating the resumption point elision mode
+	 *          to {@code mode}
+	 */
+	public CompilerSettings withResumptionPointElision(boolean mode) {
+		return mode != this.resumptionPointElision
+				? new CompilerSettings(cpuAccountingMode, constFolding, constCaching, byteStrings, numericSpecialisation, invokeDynamic, mode, nodeSizeLimit)
 				: this;
 	}
 
@@ -292,7 +457,7 @@ public final class CompilerSettings {
 	 */
 	public CompilerSettings withNodeSizeLimit(int limit) {
 		return limit != this.nodeSizeLimit
-				? new CompilerSettings(cpuAccountingMode, constFolding, constCaching, byteStrings, limit)
+				? new CompilerSettings(cpuAccountingMode, constFolding, constCaching, byteStrings, numericSpecialisation, invokeDynamic, resumptionPointElision, limit)
 				: this;
 	}
 
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.sandius.rembulan.compiler;
+
+import net.sandius.rembulan.runtime.LuaFunction;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * The version of the compiler, as used in {@link CompiledModuleKey}s.
+ *
+ * <p>The version consists of the version of the build and a digest of the class files
+ * of the compiler and of the runtime, so that every change to either of them yields
+ * a different version, whether or not the build version has been changed. When
+ * the class files cannot be read, the digest is replaced by a random identifier:
+ * modules are then only reused within the same virtual machine.</p>
+ *
+ * <p>The version is computed when this class is initialised, i.e., the first time
+ * it is requested.</p>
+ */
+final class CompilerVersion {
+
+	private CompilerVersion() {
+		// not to be instantiated
+	}
+
+	private static final String DIGEST_ALGORITHM = "SHA-256";
+
+	// number of digest bytes included in the version
+	private static final int DIGEST_LENGTH = 16;
+
+	static final String VALUE = buildVersion() + "/" + codeDigest();
+
+	private static String buildVersion() {
+		Properties props = new Properties();
+		try (InputStream in = CompilerVersion.class.getResourceAsStream("compiler.properties")) {
+			if (in != null) {
+				props.load(in);
+			}
+		}
+		catch (IOException ex) {
+			// fall through
+		}
+
+		String version = props.getProperty("version");
+		if (version == null || version.startsWith("${")) {
+			// not filled in by the build
+			version = CompilerVersion.class.getPackage().getImplementationVersion();
+		}
+		return version != null ? version : "unknown";
+	}
+
+	private static String codeDigest() {
+		try {
+			MessageDigest md = MessageDigest.getInstance(DIGEST_ALGORITHM);
+			for (Path location : codeLocations(CompilerVersion.class, LuaFunction.class)) {
+				if (Files.isDirectory(location)) {
+					updateWithClassFiles(md, location);
+				}
+				else {
+					md.update(Files.readAllBytes(location));
+				}
+			}
+			return CompiledModuleKey.toHexString(md.digest(), DIGEST_LENGTH);
+		}
+		catch (NoSuchAlgorithmException | IOException | RuntimeException ex) {
+			// the code cannot be identified: do not share modules with other virtual machines
+			return "random-" + UUID.randomUUID();
+		}
+	}
+
+	// returns the jar files or class directories the given classes have been loaded from
+	private static Set<Path> codeLocations(Class<?>... classes) throws IOException {
+		Set<Path> result = new LinkedHashSet<>();
+		for (Class<?> c : classes) {
+			CodeSource cs = c.getProtectionDomain().getCodeSource();
+			URL url = cs != null ? cs.getLocation() : null;
+			if (url == null) {
+				throw new IOException("Unknown code source of " + c.getName());
+			}
+			try {
+				result.add(Paths.get(new URI(url.toString())));
+			}
+			catch (URISyntaxException ex) {
+				throw new IOException(ex);
+			}
+		}
+		return result;
+	}
+
+	private static void updateWithClassFiles(MessageDigest md, final Path dir) throws IOException {
+		final List<Path> files = new ArrayList<>();
+		Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+				if (file.getFileName().toString().endsWith(".class")) {
+					files.add(dir.relativize(file));
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+
+		// make the digest independent of the order of the directory entries
+		Collections.sort(files);
+
+		for (Path file : files) {
+			md.update(file.toString().getBytes(StandardCharsets.UTF_8));
+			md.update(Files.readAllBytes(dir.resolve(file)));
+		}
+	}
+
+}
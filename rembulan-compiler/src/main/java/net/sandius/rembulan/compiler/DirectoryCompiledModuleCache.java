@@ -0,0 +1,158 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sandius.rembulan.compiler;
+
+import net.sandius.rembulan.util.ByteVector;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A compiled module cache storing modules as files in a directory, allowing compiled
+ * modules to be reused across VM instances.
+ *
+ * <p>Every module is stored in a separate file named after its {@link CompiledModuleKey}.
+ * Files are written atomically, so the directory may be shared by several processes.
+ * Any I/O error (including reading a corrupt file) is treated as a cache miss; in particular,
+ * lengths read from a file are checked against the size of the file before allocating
+ * anything.</p>
+ *
+ * <p>For repeated lookups, this cache is best used as the backing cache
+ * of an {@link LruCompiledModuleCache}.</p>
+ */
+public class DirectoryCompiledModuleCache implements CompiledModuleCache {
+
+	private static final int MAGIC = 0x524d4331;  // "RMC1"
+
+	private static final String SUFFIX = ".rmc";
+
+	private final Path directory;
+
+	/**
+	 * Constructs a new cache storing modules in the directory {@code directory}.
+	 * The directory is created when the first module is stored.
+	 *
+	 * @param directory  the cache directory, must not be {@code null}
+	 *
+	 * @throws NullPointerException  if {@code directory} is {@code null}
+	 */
+	public DirectoryCompiledModuleCache(Path directory) {
+		this.directory = Objects.requireNonNull(directory);
+	}
+
+	private Path pathOf(CompiledModuleKey key) {
+		return directory.resolve(key.toString() + SUFFIX);
+	}
+
+	@Override
+	public CompiledModule get(CompiledModuleKey key) {
+		Path path = pathOf(key);
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+			// an upper bound on the number of bytes left to read
+			long remaining = Files.size(path);
+
+			if (in.readInt() != MAGIC || !in.readUTF().equals(key.toString())) {
+				return null;
+			}
+
+			String mainClassName = in.readUTF();
+			int numClasses = in.readInt();
+			if (numClasses <= 0 || numClasses > remaining) {
+				return null;
+			}
+
+			Map<String, ByteVector> classMap = new HashMap<>();
+			for (int i = 0; i < numClasses; i++) {
+				String name = in.readUTF();
+				int length = in.readInt();
+				if (length < 0 || length > remaining) {
+					return null;
+				}
+				remaining -= length;
+
+				byte[] bytes = new byte[length];
+				in.readFully(bytes);
+				classMap.put(name, ByteVector.wrap(bytes));
+			}
+
+			if (!mainClassName.equals(key.rootClassName()) || !classMap.containsKey(mainClassName)) {
+				return null;
+			}
+
+			return new CompiledModule(Collections.unmodifiableMap(classMap), mainClassName);
+		}
+		catch (IOException | RuntimeException ex) {
+			// missing, unreadable or corrupt: treat as a miss
+			return null;
+		}
+	}
+
+	@Override
+	public void put(CompiledModuleKey key, CompiledModule module) {
+		Objects.requireNonNull(module);
+		Path path = pathOf(key);
+
+		Path tmp = null;
+		try {
+			Files.createDirectories(directory);
+			tmp = Files.createTempFile(directory, key.toString(), ".tmp");
+
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+				out.writeInt(MAGIC);
+				out.writeUTF(key.toString());
+				out.writeUTF(module.mainClassName());
+
+				Map<String, ByteVector> classMap = module.classMap();
+				out.writeInt(classMap.size());
+				for (Map.Entry<String, ByteVector> entry : classMap.entrySet()) {
+					byte[] bytes = entry.getValue().copyToNewArray();
+					out.writeUTF(entry.getKey());
+					out.writeInt(bytes.length);
+					out.write(bytes);
+				}
+			}
+
+			Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE);
+			tmp = null;
+		}
+		catch (IOException ex) {
+			// the cache is best-effort: failing to store a module is not an error
+		}
+		finally {
+			if (tmp != null) {
+				try {
+					Files.deleteIfExists(tmp);
+				}
+				catch (IOException ex) {
+					// ignore
+				}
+			}
+		}
+	}
+
+}
@@ -354,11 +354,45 @@ class IRTranslatorTransformer extends Transformer {
 		insns.add(new BinOp(bop, dest, swap ? r : l, swap ? l : r));
 	}
 
+	private static boolean isConcat(Expr e) {
+		return e instanceof BinaryOperationExpr
+				&& ((BinaryOperationExpr) e).op() == Operator.Binary.CONCAT;
+	}
+
+	private void concat(BinaryOperationExpr e) {
+		// a .. (b .. (c .. d)): collect the operands along the right spine
+		List<Expr> operands = new ArrayList<>();
+		Expr rest = e;
+		while (isConcat(rest)) {
+			BinaryOperationExpr bop = (BinaryOperationExpr) rest;
+			operands.add(bop.left());
+			rest = bop.right();
+		}
+		operands.add(rest);
+
+		if (operands.size() < 3) {
+			eagerBinOp(e.op(), e.left(), e.right());
+			return;
+		}
+
+		List<Val> args = new ArrayList<>();
+		for (Expr o : operands) {
+			o.accept(this);
+			args.add(popVal());
+		}
+
+		Val dest = provider.newVal();
+		vals.push(dest);
+
+		insns.add(new Concat(dest, Collections.unmodifiableList(args)));
+	}
+
 	@Override
 	public Expr transform(BinaryOperationExpr e) {
 		switch (e.op()) {
 			case AND: and(e.left(), e.right()); break;
 			case OR: or(e.left(), e.right()); break;
+			case CONCAT: concat(e); break;
 			default: eagerBinOp(e.op(), e.left(), e.right()); break;
 		}
 		return e;
@@ -530,9 +564,14 @@ class IRTranslatorTransformer extends Transformer {
 
 		Val dest = provider.newVal();
 
-		for (TableConstructorExpr.FieldInitialiser fi : e.fields()) {
+		Iterator<TableConstructorExpr.FieldInitialiser> fit = e.fields().iterator();
+		while (fit.hasNext()) {
+			TableConstructorExpr.FieldInitialiser fi = fit.next();
 			if (fi.key() == null) {
-				array += 1;
+				// a multi-value expression in tail position is sized by TabRawAppendMulti
+				if (!(fi.value() instanceof MultiExpr && !fit.hasNext())) {
+					array += 1;
+				}
 			}
 			else {
 				hash += 1;
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sandius.rembulan.compiler;
+
+import net.sandius.rembulan.util.Check;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * An in-memory compiled module cache retaining up to a fixed number of the most recently
+ * used modules.
+ *
+ * <p>The cache may be backed by another cache (for instance,
+ * a {@link DirectoryCompiledModuleCache}): modules not found in memory are looked up
+ * in the backing cache, and modules stored in this cache are stored in the backing
+ * cache as well.</p>
+ */
+public class LruCompiledModuleCache implements CompiledModuleCache {
+
+	private static class LruMap<K, V> extends LinkedHashMap<K, V> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int capacity;
+
+		LruMap(int capacity) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+			return size() > capacity;
+		}
+
+	}
+
+	private final Map<CompiledModuleKey, CompiledModule> modules;
+	private final CompiledModuleCache backingCache;
+
+	/**
+	 * Constructs a new in-memory cache holding at most {@code capacity} modules,
+	 * backed by {@code backingCache}.
+	 *
+	 * @param capacity  the maximum number of modules held in memory, must be positive
+	 * @param backingCache  the backing cache, may be {@code null}
+	 *
+	 * @throws IllegalArgumentException  if {@code capacity} is not positive
+	 */
+	public LruCompiledModuleCache(int capacity, CompiledModuleCache backingCache) {
+		Check.positive(capacity);
+		this.modules = new LruMap<>(capacity);
+		this.backingCache = backingCache;
+	}
+
+	/**
+	 * Constructs a new in-memory cache holding at most {@code capacity} modules.
+	 *
+	 * @param capacity  the maximum number of modules held in memory, must be positive
+	 *
+	 * @throws IllegalArgumentException  if {@code capacity} is not positive
+	 */
+	public LruCompiledModuleCache(int capacity) {
+		this(capacity, null);
+	}
+
+	@Override
+	public CompiledModule get(CompiledModuleKey key) {
+		Objects.requireNonNull(key);
+
+		synchronized (modules) {
+			CompiledModule module = modules.get(key);
+			if (module != null) {
+				return module;
+			}
+		}
+
+		if (backingCache != null) {
+			CompiledModule module = backingCache.get(key);
+			if (module != null) {
+				synchronized (modules) {
+					modules.put(key, module);
+				}
+			}
+			return module;
+		}
+		else {
+			return null;
+		}
+	}
+
+	@Override
+	public void put(CompiledModuleKey key, CompiledModule module) {
+		Objects.requireNonNull(key);
+		Objects.requireNonNull(module);
+
+		synchronized (modules) {
+			modules.put(key, module);
+		}
+
+		if (backingCache != null) {
+			backingCache.put(key, module);
+		}
+	}
+
+}
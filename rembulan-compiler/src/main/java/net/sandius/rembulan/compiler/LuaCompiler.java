@@ -44,20 +44,59 @@ import net.sandius.rembulan.util.Check;
 
 import java.io.ByteArrayInputStream;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  * A Lua-to-Java-bytecode compiler.
+ *
+ * <p>When constructed with a {@link ForkJoinPool}, the compiler optimises the functions
+ * of a chunk and emits their classes in parallel. The output of the compiler does not depend
+ * on whether the functions have been compiled in parallel or not.</p>
  */
 public class LuaCompiler {
 
+	/**
+	 * Returns the version of the compiler, consisting of the version of the build and
+	 * a digest of the class files of the compiler and the runtime. Compiled modules are
+	 * only guaranteed to be reusable by compilers (and runtimes) of the same version,
+	 * and the version is therefore part of every {@link CompiledModuleKey}.
+	 *
+	 * @return  the version of the compiler
+	 */
+	public static String version() {
+		return CompilerVersion.VALUE;
+	}
+
 	private final CompilerSettings settings;
+	private final ForkJoinPool pool;
+
+	/**
+	 * Constructs a new compiler instance with the given settings, compiling the functions
+	 * of every chunk in parallel in the pool {@code pool}.
+	 *
+	 * @param settings  the settings, must not be {@code null}
+	 * @param pool  the pool to compile functions in, or {@code null} to compile them
+	 *              sequentially in the calling thread
+	 *
+	 * @throws NullPointerException  if {@code settings} is {@code null}
+	 */
+	public LuaCompiler(CompilerSettings settings, ForkJoinPool pool) {
+		this.settings = Objects.requireNonNull(settings);
+		this.pool = pool;
+	}
 
 	/**
 	 * Constructs a new compiler instance with the given settings.
@@ -67,7 +106,7 @@ public class LuaCompiler {
 	 * @throws NullPointerException  if {@code settings} is {@code null}
 	 */
 	public LuaCompiler(CompilerSettings settings) {
-		this.settings = Objects.requireNonNull(settings);
+		this(settings, null);
 	}
 
 	/**
@@ -98,9 +137,71 @@ public class LuaCompiler {
 		return IRTranslator.translate(chunk);
 	}
 
-	private Iterable<IRFunc> sortTopologically(Module module) {
-		// TODO
-		return module.fns();
+	// returns the functions reachable from the main function, each function preceded by
+	// the functions nested in it; siblings are ordered by their ids
+	private static List<IRFunc> sortTopologically(Module module) {
+		Map<FunctionId, IRFunc> fns = new HashMap<>();
+		for (IRFunc fn : module.fns()) {
+			fns.put(fn.id(), fn);
+		}
+
+		List<IRFunc> result = new ArrayList<>();
+		Set<FunctionId> visited = new HashSet<>();
+		visit(FunctionId.root(), fns, visited, result);
+		return result;
+	}
+
+	private static void visit(FunctionId id, Map<FunctionId, IRFunc> fns, Set<FunctionId> visited, List<IRFunc> result) {
+		if (visited.add(id)) {
+			IRFunc fn = fns.get(id);
+			assert (fn != null);
+
+			List<FunctionId> nested = new ArrayList<>(DependencyAnalyser.analyse(fn).nestedRefs());
+			Collections.sort(nested, FunctionId.LEXICOGRAPHIC_COMPARATOR);
+			for (FunctionId n : nested) {
+				visit(n, fns, visited, result);
+			}
+
+			result.add(fn);
+		}
+	}
+
+	// evaluates all tasks, in the pool if there is one, and returns their results in order
+	private <T> List<T> evaluate(List<Callable<T>> tasks) {
+		List<T> results = new ArrayList<>(tasks.size());
+
+		if (pool == null || tasks.size() < 2) {
+			for (Callable<T> task : tasks) {
+				try {
+					results.add(task.call());
+				}
+				catch (RuntimeException ex) {
+					throw ex;
+				}
+				catch (Exception ex) {
+					throw new IllegalStateException(ex);
+				}
+			}
+		}
+		else {
+			for (Future<T> future : pool.invokeAll(tasks)) {
+				try {
+					results.add(future.get());
+				}
+				catch (ExecutionException ex) {
+					Throwable cause = ex.getCause();
+					if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+					else if (cause instanceof Error) throw (Error) cause;
+					else throw new IllegalStateException(cause);
+				}
+				catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException(ex);
+				}
+			}
+		}
+
+		return results;
 	}
 
 	private IRFunc optimise(IRFunc fn) {
@@ -148,6 +249,10 @@ public class LuaCompiler {
 		fn = CPUAccounter.insertCPUAccounting(fn);
 		fn = optimise(fn);
 
+		if (settings.cpuAccountingMode() == CompilerSettings.CPUAccountingMode.IN_LOOP_HEADERS) {
+			fn = CPUAccounter.batchCPUAccounting(fn);
+		}
+
 		SlotAllocInfo slots = SlotAllocator.allocateSlots(fn);
 		TypeInfo types = Typer.analyseTypes(fn);
 		DependencyInfo deps = DependencyAnalyser.analyse(fn);
@@ -155,12 +260,22 @@ public class LuaCompiler {
 		return new ProcessedFunc(fn, slots, types, deps);
 	}
 
-	private Iterable<ProcessedFunc> processModule(Module m) {
-		Map<FunctionId, ProcessedFunc> pfs = new HashMap<>();
+	private List<ProcessedFunc> processModule(Module m) {
+		List<Callable<ProcessedFunc>> tasks = new ArrayList<>();
+		for (final IRFunc fn : sortTopologically(m)) {
+			tasks.add(new Callable<ProcessedFunc>() {
+				@Override
+				public ProcessedFunc call() {
+					return processFunction(fn);
+				}
+			});
+		}
+
+		List<ProcessedFunc> sorted = evaluate(tasks);
 
-		for (IRFunc fn : sortTopologically(m)) {
-			ProcessedFunc pf = processFunction(fn);
-			pfs.put(fn.id(), pf);
+		Map<FunctionId, ProcessedFunc> pfs = new HashMap<>();
+		for (ProcessedFunc pf : sorted) {
+			pfs.put(pf.fn.id(), pf);
 		}
 
 		ProcessedFunc main = pfs.get(FunctionId.root());
@@ -169,7 +284,7 @@ public class LuaCompiler {
 		Set<ProcessedFunc> result = new HashSet<>();
 		Deque<ProcessedFunc> open = new ArrayDeque<>();
 
-		// only add functions reachable from main
+		// only add functions reachable from main (optimisations may have removed some)
 		open.add(main);
 		while (!open.isEmpty()) {
 			ProcessedFunc pf = open.pop();
@@ -181,7 +296,9 @@ public class LuaCompiler {
 			}
 		}
 
-		return result;
+		// keep the topological order
+		sorted.retainAll(result);
+		return sorted;
 	}
 
 	private CompiledClass compileFunction(ProcessedFunc pf, String sourceFileName, String rootClassName) {
@@ -210,21 +327,33 @@ public class LuaCompiler {
 	 * @throws ParseException  when {@code sourceText} cannot be parsed following the Lua
 	 *                         grammar
 	 */
-	public CompiledModule compile(String sourceText, String sourceFileName, String rootClassName)
+	public CompiledModule compile(String sourceText, final String sourceFileName, final String rootClassName)
 			throws ParseException, TokenMgrError {
 
 		Check.notNull(sourceText);
 		Chunk ast = parse(sourceText);
 		Module module = translate(ast);
 
-		Iterable<ProcessedFunc> pfs = processModule(module);
+		List<ProcessedFunc> pfs = processModule(module);
+
+		List<Callable<CompiledClass>> tasks = new ArrayList<>();
+		for (final ProcessedFunc pf : pfs) {
+			tasks.add(new Callable<CompiledClass>() {
+				@Override
+				public CompiledClass call() {
+					return compileFunction(pf, sourceFileName, rootClassName);
+				}
+			});
+		}
+
+		List<CompiledClass> ccs = evaluate(tasks);
 
-		Map<String, ByteVector> classMap = new HashMap<>();
+		Map<String, ByteVector> classMap = new LinkedHashMap<>();
 		String mainClass = null;
-		for (ProcessedFunc pf : pfs) {
-			CompiledClass cc = compileFunction(pf, sourceFileName, rootClassName);
+		for (int i = 0; i < pfs.size(); i++) {
+			CompiledClass cc = ccs.get(i);
 
-			if (pf.fn.id().isRoot()) {
+			if (pfs.get(i).fn.id().isRoot()) {
 				assert (mainClass == null);
 				mainClass = cc.name();
 			}
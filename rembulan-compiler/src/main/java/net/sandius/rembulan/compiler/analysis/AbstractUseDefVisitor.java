@@ -73,6 +73,14 @@ abstract class AbstractUseDefVisitor extends IRVisitor {
 		def(node.dest());
 	}
 
+	@Override
+	public void visit(Concat node) {
+		for (Val v : node.args()) {
+			use(v);
+		}
+		def(node.dest());
+	}
+
 	@Override
 	public void visit(TabNew node) {
 		def(node.dest());
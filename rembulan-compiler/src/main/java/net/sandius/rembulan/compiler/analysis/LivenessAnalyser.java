@@ -25,6 +25,7 @@ import java.util.ArrayDeque;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
@@ -42,8 +43,9 @@ public class LivenessAnalyser {
 	private LivenessAnalyser(IRFunc fn) {
 		this.fn = Check.notNull(fn);
 
-		this.varLiveIn = new HashMap<>();
-		this.valLiveIn = new HashMap<>();
+		// keyed on identity: distinct nodes may be equal (e.g. CPUWithdraw nodes of the same cost)
+		this.varLiveIn = new IdentityHashMap<>();
+		this.valLiveIn = new IdentityHashMap<>();
 
 		this.endVarLiveIn = new HashMap<>();
 		this.endValLiveIn = new HashMap<>();
@@ -117,7 +119,7 @@ public class LivenessAnalyser {
 	}
 
 	private LivenessInfo result() {
-		Map<IRNode, LivenessInfo.Entry> entries = new HashMap<>();
+		Map<IRNode, LivenessInfo.Entry> entries = new IdentityHashMap<>();
 
 		// initialise
 		Iterator<IRNode> nodeIterator = CodeUtils.nodeIterator(fn.code());
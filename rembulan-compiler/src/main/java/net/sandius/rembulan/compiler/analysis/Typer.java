@@ -28,6 +28,8 @@ import net.sandius.rembulan.compiler.ir.BinOp;
 import net.sandius.rembulan.compiler.ir.UnOp;
 import net.sandius.rembulan.runtime.Dispatch;
 
+import java.util.List;
+
 public class Typer {
 
 	private static Object literalValue(Type t) {
@@ -195,6 +197,19 @@ public class Typer {
 		}
 	}
 
+	static LiteralType<?> emulateConcat(List<Type> args) {
+		ByteString[] strings = new ByteString[args.size()];
+		for (int i = 0; i < strings.length; i++) {
+			Object o = literalValue(args.get(i));
+			ByteString s = o != null ? Conversions.stringValueOf(o) : null;
+			if (s == null) {
+				return null;
+			}
+			strings[i] = s;
+		}
+		return LuaTypes.STRING.newLiteralType(ByteString.concat(strings, 0, strings.length));
+	}
+
 	static LiteralType<?> emulateOp(BinOp.Op op, Type l, Type r) {
 		Object result = tryEmulateOperation(op, literalValue(l), literalValue(r));
 		return result != null ? objectToLiteralType(result) : null;
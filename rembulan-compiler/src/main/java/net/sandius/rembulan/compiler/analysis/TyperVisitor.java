@@ -26,8 +26,10 @@ import net.sandius.rembulan.compiler.ir.*;
 import net.sandius.rembulan.util.Check;
 
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
@@ -440,6 +442,33 @@ class TyperVisitor extends CodeVisitor {
 		assign(node.dest(), result);
 	}
 
+	@Override
+	public void visit(Concat node) {
+		List<Type> ts = new ArrayList<>();
+		boolean allStringable = true;
+		for (Val v : node.args()) {
+			Type t = typeOf(v);
+			ts.add(t);
+			allStringable &= stringable(t);
+		}
+
+		final Type result;
+
+		Type emulatedResult = Typer.emulateConcat(ts);
+		if (emulatedResult != null) {
+			result = emulatedResult;
+		}
+		else if (allStringable) {
+			result = LuaTypes.STRING;
+		}
+		else {
+			result = LuaTypes.ANY;
+			mayCallMetamethod();
+		}
+
+		assign(node.dest(), result);
+	}
+
 	@Override
 	public void visit(UnOp node) {
 		Type a = typeOf(node.arg());
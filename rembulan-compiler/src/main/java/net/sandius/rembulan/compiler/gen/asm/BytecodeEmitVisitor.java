@@ -21,20 +21,26 @@ import net.sandius.rembulan.Table;
 import net.sandius.rembulan.Variable;
 import net.sandius.rembulan.compiler.CompilerSettings;
 import net.sandius.rembulan.compiler.FunctionId;
+import net.sandius.rembulan.compiler.analysis.NumericOperationType;
 import net.sandius.rembulan.compiler.analysis.SlotAllocInfo;
+import net.sandius.rembulan.compiler.analysis.StaticMathImplementation;
 import net.sandius.rembulan.compiler.analysis.TypeInfo;
+import net.sandius.rembulan.compiler.analysis.types.LuaTypes;
 import net.sandius.rembulan.compiler.gen.ClassNameTranslator;
 import net.sandius.rembulan.compiler.gen.asm.helpers.ASMUtils;
 import net.sandius.rembulan.compiler.gen.asm.helpers.BoxedPrimitivesMethods;
 import net.sandius.rembulan.compiler.gen.asm.helpers.ConversionMethods;
 import net.sandius.rembulan.compiler.gen.asm.helpers.DispatchMethods;
 import net.sandius.rembulan.compiler.gen.asm.helpers.ExecutionContextMethods;
+import net.sandius.rembulan.compiler.gen.asm.helpers.OperatorMethods;
 import net.sandius.rembulan.compiler.gen.asm.helpers.ReturnBufferMethods;
 import net.sandius.rembulan.compiler.gen.asm.helpers.TableMethods;
+import net.sandius.rembulan.compiler.gen.asm.helpers.UtilMethods;
 import net.sandius.rembulan.compiler.gen.asm.helpers.VariableMethods;
 import net.sandius.rembulan.compiler.ir.*;
 import net.sandius.rembulan.runtime.ExecutionContext;
 import net.sandius.rembulan.runtime.ReturnBuffer;
+import net.sandius.rembulan.runtime.UnresolvedControlThrowable;
 import net.sandius.rembulan.util.Check;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
@@ -57,6 +63,7 @@ class BytecodeEmitVisitor extends CodeVisitor {
 
 	private final SlotAllocInfo slots;
 	private final TypeInfo types;
+	private final UnboxedLocals unboxed;
 
 	private final int segmentIdx;
 	private final RunMethod.LabelResolver resolver;
@@ -67,6 +74,10 @@ class BytecodeEmitVisitor extends CodeVisitor {
 	private final InsnList il;
 	private final List<LocalVariableNode> locals;
 
+	// code placed after the last basic block, and the exception handlers it contains
+	private final InsnList trailer;
+	private final List<TryCatchBlockNode> tryCatchBlocks;
+
 	private final List<RunMethod.ClosureFieldInstance> instanceLevelClosures;
 
 	private final List<RunMethod.ConstFieldInstance> constFields;
@@ -76,6 +87,7 @@ class BytecodeEmitVisitor extends CodeVisitor {
 			RunMethod runMethod,
 			SlotAllocInfo slots,
 			TypeInfo types,
+			UnboxedLocals unboxed,
 			List<RunMethod.ClosureFieldInstance> instanceLevelClosures,
 			List<RunMethod.ConstFieldInstance> constFields,
 			int segmentIdx,
@@ -85,6 +97,7 @@ class BytecodeEmitVisitor extends CodeVisitor {
 		this.runMethod = Check.notNull(runMethod);
 		this.slots = Check.notNull(slots);
 		this.types = Check.notNull(types);
+		this.unboxed = Check.notNull(unboxed);
 
 		this.segmentIdx = segmentIdx;
 		this.resolver = Check.notNull(resolver);
@@ -95,6 +108,9 @@ class BytecodeEmitVisitor extends CodeVisitor {
 		this.il = new InsnList();
 		this.locals = new ArrayList<>();
 
+		this.trailer = new InsnList();
+		this.tryCatchBlocks = new ArrayList<>();
+
 		this.instanceLevelClosures = Check.notNull(instanceLevelClosures);
 		this.constFields = Check.notNull(constFields);
 	}
@@ -111,6 +127,14 @@ class BytecodeEmitVisitor extends CodeVisitor {
 		return locals;
 	}
 
+	public UnboxedLocals unboxedLocals() {
+		return unboxed;
+	}
+
+	public List<TryCatchBlockNode> tryCatchBlocks() {
+		return tryCatchBlocks;
+	}
+
 	public List<RunMethod.ClosureFieldInstance> instanceLevelClosures() {
 		return instanceLevelClosures;
 	}
@@ -128,7 +152,117 @@ class BytecodeEmitVisitor extends CodeVisitor {
 	}
 
 	protected int nextLocalVariableIndex() {
-		return runMethod.slotOffset() + slots.numSlots();
+		return runMethod.slotOffset() + slots.numSlots() + unboxed.size();
+	}
+
+	private static Class<?> boxedClassOf(Type primitiveType) {
+		return primitiveType.equals(Type.LONG_TYPE) ? Long.class : Double.class;
+	}
+
+	private static InsnList convert(Type from, Type to) {
+		InsnList il = new InsnList();
+		if (from.equals(Type.LONG_TYPE) && to.equals(Type.DOUBLE_TYPE)) {
+			il.add(new InsnNode(L2D));
+		}
+		else if (!from.equals(to)) {
+			throw new IllegalArgumentException("Illegal conversion from " + from + " to " + to);
+		}
+		return il;
+	}
+
+	private InsnList loadShadow(int idx, Type type, Type requiredType) {
+		InsnList il = new InsnList();
+		il.add(new VarInsnNode(type.getOpcode(ILOAD), idx));
+		if (requiredType != null) {
+			il.add(convert(type, requiredType));
+		}
+		else {
+			il.add(BoxedPrimitivesMethods.box(type, boxedClassOf(type)));
+		}
+		return il;
+	}
+
+	private InsnList loadRegister(int idx, Type requiredType) {
+		InsnList il = new InsnList();
+		il.add(new VarInsnNode(ALOAD, idx));
+		if (requiredType != null) {
+			il.add(new TypeInsnNode(CHECKCAST, Type.getInternalName(Number.class)));
+			il.add(BoxedPrimitivesMethods.unbox(Number.class, requiredType));
+		}
+		return il;
+	}
+
+	private InsnList storeBoxed(int idx, Type shadowType, int shadowIdx) {
+		InsnList il = new InsnList();
+		if (shadowType != null) {
+			il.add(new TypeInsnNode(CHECKCAST, Type.getInternalName(Number.class)));
+			il.add(BoxedPrimitivesMethods.unbox(Number.class, shadowType));
+			il.add(new VarInsnNode(shadowType.getOpcode(ISTORE), shadowIdx));
+		}
+		else {
+			il.add(new VarInsnNode(ASTORE, idx));
+		}
+		return il;
+	}
+
+	// pushes the value of v as an object
+	private InsnList loadBoxed(AbstractVal v) {
+		Type t = unboxed.typeOf(v);
+		return t != null ? loadShadow(unboxed.localOf(v), t, null) : loadRegister(slot(v), null);
+	}
+
+	private InsnList loadBoxed(Var v) {
+		Type t = unboxed.typeOf(v);
+		return t != null ? loadShadow(unboxed.localOf(v), t, null) : loadRegister(slot(v), null);
+	}
+
+	// pushes the value of the number v as a primitive of the type requiredType
+	private InsnList loadUnboxed(AbstractVal v, Type requiredType) {
+		Type t = unboxed.typeOf(v);
+		return t != null ? loadShadow(unboxed.localOf(v), t, requiredType) : loadRegister(slot(v), requiredType);
+	}
+
+	private InsnList loadUnboxed(Var v, Type requiredType) {
+		Type t = unboxed.typeOf(v);
+		return t != null ? loadShadow(unboxed.localOf(v), t, requiredType) : loadRegister(slot(v), requiredType);
+	}
+
+	// stores the object on the top of the stack to v
+	private InsnList storeBoxed(AbstractVal v) {
+		Type t = unboxed.typeOf(v);
+		return storeBoxed(slot(v), t, t != null ? unboxed.localOf(v) : -1);
+	}
+
+	private InsnList storeBoxed(Var v) {
+		Type t = unboxed.typeOf(v);
+		return storeBoxed(slot(v), t, t != null ? unboxed.localOf(v) : -1);
+	}
+
+	// stores the primitive of the type type on the top of the stack to v
+	private InsnList storeUnboxed(AbstractVal v, Type type) {
+		InsnList il = new InsnList();
+		Type t = unboxed.typeOf(v);
+		if (type.equals(t)) {
+			il.add(new VarInsnNode(t.getOpcode(ISTORE), unboxed.localOf(v)));
+		}
+		else {
+			il.add(BoxedPrimitivesMethods.box(type, boxedClassOf(type)));
+			il.add(storeBoxed(v));
+		}
+		return il;
+	}
+
+	private InsnList storeUnboxed(Var v, Type type) {
+		InsnList il = new InsnList();
+		Type t = unboxed.typeOf(v);
+		if (type.equals(t)) {
+			il.add(new VarInsnNode(t.getOpcode(ISTORE), unboxed.localOf(v)));
+		}
+		else {
+			il.add(BoxedPrimitivesMethods.box(type, boxedClassOf(type)));
+			il.add(storeBoxed(v));
+		}
+		return il;
 	}
 
 	private LabelNode l(Object o) {
@@ -249,14 +383,20 @@ class BytecodeEmitVisitor extends CodeVisitor {
 			BasicBlock b = it.next();
 			visit(b);
 		}
+		il.add(trailer);
 	}
 
 	class ResumptionPoint {
 
 		public final int index;
 
-		private ResumptionPoint(int index) {
+		private final InsnList saveUnboxed;
+		private final LabelNode begin;
+
+		private ResumptionPoint(int index, IRNode node, AbstractVal dest) {
 			this.index = index;
+			this.saveUnboxed = unboxed.save(node, dest);
+			this.begin = saveUnboxed != null ? new LabelNode() : null;
 		}
 
 		public LabelNode label() {
@@ -267,7 +407,23 @@ class BytecodeEmitVisitor extends CodeVisitor {
 			int st = !isSub()
 					? index + 1
 					: segmentIdx << RunMethod.ST_SHIFT_SEGMENT | (index + 1);
-			return saveState(st);
+			InsnList il = saveState(st);
+
+			if (saveUnboxed != null) {
+				// box the unboxed locals into their registers only when suspending
+				LabelNode handler = new LabelNode();
+				trailer.add(handler);
+				trailer.add(ASMUtils.frameSame1(UnresolvedControlThrowable.class));
+				trailer.add(saveUnboxed);
+				trailer.add(new InsnNode(ATHROW));
+
+				tryCatchBlocks.add(new TryCatchBlockNode(begin, label(), handler,
+						Type.getInternalName(UnresolvedControlThrowable.class)));
+
+				il.add(begin);
+			}
+
+			return il;
 		}
 
 		public InsnList resume() {
@@ -280,10 +436,24 @@ class BytecodeEmitVisitor extends CodeVisitor {
 		}
 	}
 
-	protected ResumptionPoint newResumptionPoint() {
+	protected ResumptionPoint newResumptionPoint(IRNode node, AbstractVal dest) {
 		int idx = resumptionPoints.size();
-		ResumptionPoint rp = new ResumptionPoint(idx);
-		resumptionPoints.add(rp.label());
+		ResumptionPoint rp = new ResumptionPoint(idx, node, dest);
+
+		InsnList restoreUnboxed = unboxed.restore(node, dest);
+		if (restoreUnboxed != null) {
+			// when resuming, reload the unboxed locals from the registers first
+			LabelNode entry = new LabelNode();
+			trailer.add(entry);
+			trailer.add(ASMUtils.frameSame());
+			trailer.add(restoreUnboxed);
+			trailer.add(new JumpInsnNode(GOTO, rp.label()));
+			resumptionPoints.add(entry);
+		}
+		else {
+			resumptionPoints.add(rp.label());
+		}
+
 		return rp;
 	}
 
@@ -338,16 +508,50 @@ class BytecodeEmitVisitor extends CodeVisitor {
 		return il;
 	}
 
+	private void move(AbstractVal src, AbstractVal dest) {
+		Type t = unboxed.typeOf(dest);
+		if (t != null) {
+			il.add(loadUnboxed(src, t));
+			il.add(storeUnboxed(dest, t));
+		}
+		else {
+			il.add(loadBoxed(src));
+			il.add(storeBoxed(dest));
+		}
+	}
+
+	private void move(Val src, Var dest) {
+		Type t = unboxed.typeOf(dest);
+		if (t != null) {
+			il.add(loadUnboxed(src, t));
+			il.add(storeUnboxed(dest, t));
+		}
+		else {
+			il.add(loadBoxed(src));
+			il.add(storeBoxed(dest));
+		}
+	}
+
+	private void move(Var src, Val dest) {
+		Type t = unboxed.typeOf(dest);
+		if (t != null) {
+			il.add(loadUnboxed(src, t));
+			il.add(storeUnboxed(dest, t));
+		}
+		else {
+			il.add(loadBoxed(src));
+			il.add(storeBoxed(dest));
+		}
+	}
+
 	@Override
 	public void visit(PhiStore node) {
-		il.add(new VarInsnNode(ALOAD, slot(node.src())));
-		il.add(new VarInsnNode(ASTORE, slot(node.dest())));
+		move(node.src(), node.dest());
 	}
 
 	@Override
 	public void visit(PhiLoad node) {
-		il.add(new VarInsnNode(ALOAD, slot(node.src())));
-		il.add(new VarInsnNode(ASTORE, slot(node.dest())));
+		move(node.src(), node.dest());
 	}
 
 	@Override
@@ -355,67 +559,65 @@ class BytecodeEmitVisitor extends CodeVisitor {
 		if (types.isReified(node.var())) {
 			il.add(new TypeInsnNode(NEW, Type.getInternalName(Variable.class)));
 			il.add(new InsnNode(DUP));
-			il.add(new VarInsnNode(ALOAD, slot(node.src())));
+			il.add(loadBoxed(node.src()));
 			il.add(VariableMethods.constructor());
-			il.add(new VarInsnNode(ASTORE, slot(node.var())));
+			il.add(storeBoxed(node.var()));
 		}
 		else {
-			il.add(new VarInsnNode(ALOAD, slot(node.src())));
-			il.add(new VarInsnNode(ASTORE, slot(node.var())));
+			move(node.src(), node.var());
 		}
 	}
 
 	@Override
 	public void visit(VarStore node) {
 		if (types.isReified(node.var())) {
-			il.add(new VarInsnNode(ALOAD, slot(node.var())));
+			il.add(loadBoxed(node.var()));
 			il.add(new TypeInsnNode(CHECKCAST, Type.getInternalName(Variable.class)));
-			il.add(new VarInsnNode(ALOAD, slot(node.src())));
+			il.add(loadBoxed(node.src()));
 			il.add(VariableMethods.set());
 		}
 		else {
-			il.add(new VarInsnNode(ALOAD, slot(node.src())));
-			il.add(new VarInsnNode(ASTORE, slot(node.var())));
+			move(node.src(), node.var());
 		}
 	}
 
 	@Override
 	public void visit(VarLoad node) {
 		if (types.isReified(node.var())) {
-			il.add(new VarInsnNode(ALOAD, slot(node.var())));
+			il.add(loadBoxed(node.var()));
 			il.add(new TypeInsnNode(CHECKCAST, Type.getInternalName(Variable.class)));
 			il.add(VariableMethods.get());
+			il.add(storeBoxed(node.dest()));
 		}
 		else {
-			il.add(new VarInsnNode(ALOAD, slot(node.var())));
+			move(node.var(), node.dest());
 		}
-		il.add(new VarInsnNode(ASTORE, slot(node.dest())));
 	}
 
 	@Override
 	public void visit(UpLoad node) {
 		il.add(loadUpvalueRef(node.upval()));
 		il.add(VariableMethods.get());
-		il.add(new VarInsnNode(ASTORE, slot(node.dest())));
+		il.add(storeBoxed(node.dest()));
 	}
 
 	@Override
 	public void visit(UpStore node) {
 		il.add(loadUpvalueRef(node.upval()));
-		il.add(new VarInsnNode(ALOAD, slot(node.src())));
+		il.add(loadBoxed(node.src()));
 		il.add(VariableMethods.set());
 	}
 
 	@Override
 	public void visit(LoadConst.Nil node) {
 		il.add(new InsnNode(ACONST_NULL));
-		il.add(new VarInsnNode(ASTORE, slot(node.dest())));
+		il.add(storeBoxed(node.dest()));
 	}
 
 	@Override
 	public void visit(LoadConst.Bool node) {
 		il.add(BoxedPrimitivesMethods.loadBoxedBoolean(node.value()));
-		il.add(new VarInsnNode(ASTORE, slot(node.dest())));
+		il.add(storeBoxed(node.dest()));
 	}
 
 	@Override
@@ -427,7 +629,7 @@ class BytecodeEmitVisitor extends CodeVisitor {
 			il.add(ASMUtils.loadLong(node.value()));
 			il.add(BoxedPrimitivesMethods.box(Type.LONG_TYPE, Type.getType(Long.class)));
 		}
-		il.add(new VarInsnNode(ASTORE, slot(node.dest())));
+		il.add(storeBoxed(node.dest()));
 	}
 
 	@Override
@@ -439,7 +641,7 @@ class BytecodeEmitVisitor extends CodeVisitor {
 			il.add(ASMUtils.loadDouble(node.value()));
 			il.add(BoxedPrimitivesMethods.box(Type.DOUBLE_TYPE, Type.getType(Double.class)));
 		}
-		il.add(new VarInsnNode(ASTORE, slot(node.dest())));
+		il.add(storeBoxed(node.dest()));
 	}
 
 	@Override
@@ -458,7 +660,7 @@ class BytecodeEmitVisitor extends CodeVisitor {
 			il.add(new LdcInsnNode(node.value()));
 		}
 
-		il.add(new VarInsnNode(ASTORE, slot(node.dest())));
+		il.add(storeBoxed(node.dest()));
 	}
 
 	private static String dispatchMethodName(BinOp.Op op) {
@@ -496,96 +698,482 @@ class BytecodeEmitVisitor extends CodeVisitor {
 		}
 	}
 
+	private NumericOperationType numericTypeOf(Val v) {
+		return StaticMathImplementation.MAY_BE_INTEGER.opType(types.typeOf(v));
+	}
+
+	private static Type primitiveTypeOf(NumericOperationType ot) {
+		switch (ot) {
+			case Integer: return Type.LONG_TYPE;
+			case Float:   return Type.DOUBLE_TYPE;
+			default:      return null;
+		}
+	}
+
+	private InsnList loadNumber(Val v) {
+		InsnList il = loadBoxed(v);
+		if (unboxed.typeOf(v) == null) {
+			il.add(new TypeInsnNode(CHECKCAST, Type.getInternalName(Number.class)));
+		}
+		return il;
+	}
+
+	private static int longOpcode(BinOp.Op op) {
+		switch (op) {
+			case ADD:  return LADD;
+			case SUB:  return LSUB;
+			case MUL:  return LMUL;
+			case BAND: return LAND;
+			case BOR:  return LOR;
+			case BXOR: return LXOR;
+			default:   return -1;
+		}
+	}
+
+	private static int doubleOpcode(BinOp.Op op) {
+		switch (op) {
+			case ADD:  return DADD;
+			case SUB:  return DSUB;
+			case MUL:  return DMUL;
+			case DIV:  return DDIV;
+			default:   return -1;
+		}
+	}
+
+	private InsnList primitiveArithmetic(BinOp node, Type type) {
+		InsnList il = new InsnList();
+
+		il.add(loadUnboxed(node.left(), type));
+		il.add(loadUnboxed(node.right(), type));
+
+		int opcode = type.equals(Type.LONG_TYPE) ? longOpcode(node.op()) : doubleOpcode(node.op());
+		if (opcode >= 0) {
+			il.add(new InsnNode(opcode));
+		}
+		else {
+			il.add(OperatorMethods.rawBinaryOperator(dispatchMethodName(node.op()), type, type));
+		}
+
+		il.add(storeUnboxed(node.dest(), type));
+		return il;
+	}
+
+	private InsnList numberArithmetic(BinOp node) {
+		InsnList il = new InsnList();
+		il.add(loadNumber(node.left()));
+		il.add(loadNumber(node.right()));
+		il.add(DispatchMethods.numeric(dispatchMethodName(node.op()), 2));
+		il.add(storeBoxed(node.dest()));
+		return il;
+	}
+
+	private InsnList numericComparison(BinOp node, NumericOperationType lt, NumericOperationType rt) {
+		InsnList il = new InsnList();
+
+		String methodName = node.op() == BinOp.Op.NEQ ? OP_EQ : dispatchMethodName(node.op());
+
+		Type leftType = primitiveTypeOf(lt);
+		Type rightType = primitiveTypeOf(rt);
+
+		if (leftType != null && rightType != null) {
+			il.add(loadUnboxed(node.left(), leftType));
+			il.add(loadUnboxed(node.right(), rightType));
+			il.add(OperatorMethods.rawComparisonOperator(methodName, leftType, rightType));
+		}
+		else {
+			il.add(loadNumber(node.left()));
+			il.add(loadNumber(node.right()));
+			il.add(DispatchMethods.numericComparison(methodName));
+		}
+
+		if (node.op() == BinOp.Op.NEQ) {
+			il.add(new InsnNode(ICONST_1));
+			il.add(new InsnNode(IXOR));
+		}
+
+		il.add(BoxedPrimitivesMethods.box(Type.BOOLEAN_TYPE, Type.getType(Boolean.class)));
+		il.add(storeBoxed(node.dest()));
+		return il;
+	}
+
+	// returns null when no specialisation is possible
+	private InsnList numericBinOp(BinOp node) {
+		NumericOperationType lt = numericTypeOf(node.left());
+		NumericOperationType rt = numericTypeOf(node.right());
+
+		if (lt == NumericOperationType.Any || rt == NumericOperationType.Any) {
+			// metamethods may be involved
+			return null;
+		}
+
+		switch (node.op()) {
+			case ADD:
+			case SUB:
+			case MUL:
+			case MOD:
+			case IDIV:
+				if (lt == NumericOperationType.Integer && rt == NumericOperationType.Integer) {
+					return primitiveArithmetic(node, Type.LONG_TYPE);
+				}
+				else if (lt == NumericOperationType.Float || rt == NumericOperationType.Float) {
+					return primitiveArithmetic(node, Type.DOUBLE_TYPE);
+				}
+				else {
+					return numberArithmetic(node);
+				}
+
+			case DIV:
+			case POW:
+				return primitiveArithmetic(node, Type.DOUBLE_TYPE);
+
+			case BAND:
+			case BOR:
+			case BXOR:
+			case SHL:
+			case SHR:
+				// floats must be checked for an exact integer representation at runtime
+				return lt == NumericOperationType.Integer && rt == NumericOperationType.Integer
+						? primitiveArithmetic(node, Type.LONG_TYPE)
+						: null;
+
+			case EQ:
+			case NEQ:
+			case LT:
+			case LE:
+				return numericComparison(node, lt, rt);
+
+			default:
+				return null;
+		}
+	}
+
+	// returns null when no specialisation is possible
+	private InsnList numericUnOp(UnOp node) {
+		NumericOperationType ot = numericTypeOf(node.arg());
+
+		InsnList il = new InsnList();
+
+		switch (node.op()) {
+			case UNM:
+				if (ot == NumericOperationType.Integer) {
+					il.add(loadUnboxed(node.arg(), Type.LONG_TYPE));
+					il.add(new InsnNode(LNEG));
+					il.add(storeUnboxed(node.dest(), Type.LONG_TYPE));
+				}
+				else if (ot == NumericOperationType.Float) {
+					il.add(loadUnboxed(node.arg(), Type.DOUBLE_TYPE));
+					il.add(new InsnNode(DNEG));
+					il.add(storeUnboxed(node.dest(), Type.DOUBLE_TYPE));
+				}
+				else if (ot == NumericOperationType.Number) {
+					il.add(loadNumber(node.arg()));
+					il.add(DispatchMethods.numeric(OP_UNM, 1));
+					il.add(storeBoxed(node.dest()));
+				}
+				else {
+					return null;
+				}
+				return il;
+
+			case BNOT:
+				if (ot == NumericOperationType.Integer) {
+					il.add(loadUnboxed(node.arg(), Type.LONG_TYPE));
+					il.add(OperatorMethods.rawUnaryOperator(OP_BNOT, Type.LONG_TYPE));
+					il.add(storeUnboxed(node.dest(), Type.LONG_TYPE));
+					return il;
+				}
+				else {
+					return null;
+				}
+
+			default:
+				return null;
+		}
+	}
+
+	private boolean isStringOrNumber(Val v) {
+		net.sandius.rembulan.compiler.analysis.types.Type t = types.typeOf(v);
+		return t.isSubtypeOf(LuaTypes.STRING) || t.isSubtypeOf(LuaTypes.NUMBER);
+	}
+
+	// true if v is statically known to be neither a table nor a userdata
+	private boolean hasNoEqHandler(Val v) {
+		net.sandius.rembulan.compiler.analysis.types.Type t = types.typeOf(v);
+		return t.isSubtypeOf(LuaTypes.NIL)
+				|| t.isSubtypeOf(LuaTypes.BOOLEAN)
+				|| t.isSubtypeOf(LuaTypes.NUMBER)
+				|| t.isSubtypeOf(LuaTypes.STRING)
+				|| t.isSubtypeOf(LuaTypes.FUNCTION);
+	}
+
+	private InsnList rawEquality(BinOp node) {
+		InsnList il = new InsnList();
+		il.add(loadBoxed(node.left()));
+		il.add(loadBoxed(node.right()));
+		il.add(UtilMethods.Ordering_isRawEqual());
+
+		if (node.op() == BinOp.Op.NEQ) {
+			il.add(new InsnNode(ICONST_1));
+			il.add(new InsnNode(IXOR));
+		}
+
+		il.add(BoxedPrimitivesMethods.box(Type.BOOLEAN_TYPE, Type.getType(Boolean.class)));
+		il.add(storeBoxed(node.dest()));
+		return il;
+	}
+
+	private InsnList rawConcat(BinOp node) {
+		InsnList il = new InsnList();
+		il.add(loadBoxed(node.left()));
+		il.add(ConversionMethods.stringValueOf());
+		il.add(loadBoxed(node.right()));
+		il.add(ConversionMethods.stringValueOf());
+		il.add(UtilMethods.ByteString_concat());
+		il.add(storeBoxed(node.dest()));
+		return il;
+	}
+
+	// returns null when the operation may call a metamethod (and therefore suspend)
+	private InsnList nonSuspendingBinOp(BinOp node) {
+		switch (node.op()) {
+			case EQ:
+			case NEQ:
+				// __eq is only consulted when both operands are tables or both are userdata
+				return hasNoEqHandler(node.left()) || hasNoEqHandler(node.right())
+						? rawEquality(node)
+						: null;
+
+			case CONCAT:
+				return isStringOrNumber(node.left()) && isStringOrNumber(node.right())
+						? rawConcat(node)
+						: null;
+
+			case ADD:
+			case SUB:
+			case MUL:
+			case DIV:
+			case MOD:
+			case IDIV:
+			case POW:
+				return numericTypeOf(node.left()) != NumericOperationType.Any
+						&& numericTypeOf(node.right()) != NumericOperationType.Any
+						? numberArithmetic(node)
+						: null;
+
+			case LT:
+			case LE:
+				return numericTypeOf(node.left()) != NumericOperationType.Any
+						&& numericTypeOf(node.right()) != NumericOperationType.Any
+						? numericComparison(node, NumericOperationType.Number, NumericOperationType.Number)
+						: null;
+
+			default:
+				return null;
+		}
+	}
+
+	// returns null when the operation may call a metamethod (and therefore suspend)
+	private InsnList nonSuspendingUnOp(UnOp node) {
+		switch (node.op()) {
+			case LEN:
+				if (types.typeOf(node.arg()).isSubtypeOf(LuaTypes.STRING)) {
+					InsnList il = new InsnList();
+					il.add(loadBoxed(node.arg()));
+					il.add(ConversionMethods.stringValueOf());
+					il.add(UtilMethods.ByteString_length());
+					il.add(new InsnNode(I2L));
+					il.add(storeUnboxed(node.dest(), Type.LONG_TYPE));
+					return il;
+				}
+				else {
+					return null;
+				}
+
+			case UNM:
+				if (numericTypeOf(node.arg()) != NumericOperationType.Any) {
+					InsnList il = new InsnList();
+					il.add(loadNumber(node.arg()));
+					il.add(DispatchMethods.numeric(OP_UNM, 1));
+					il.add(storeBoxed(node.dest()));
+					return il;
+				}
+				else {
+					return null;
+				}
+
+			default:
+				return null;
+		}
+	}
+
 	@Override
 	public void visit(BinOp node) {
-		ResumptionPoint rp = newResumptionPoint();
+		InsnList specialised = context.compilerSettings.numericSpecialisation()
+				? numericBinOp(node)
+				: null;
+
+		if (specialised == null && context.compilerSettings.resumptionPointElision()) {
+			specialised = nonSuspendingBinOp(node);
+		}
+
+		if (specialised != null) {
+			// no metamethods can be called: no need for a resumption point
+			il.add(specialised);
+			return;
+		}
+
+		ResumptionPoint rp = newResumptionPoint(node, node.dest());
 		il.add(rp.save());
 
 		il.add(loadExecutionContext());
-		il.add(new VarInsnNode(ALOAD, slot(node.left())));
-		il.add(new VarInsnNode(ALOAD, slot(node.right())));
+		il.add(loadBoxed(node.left()));
+		il.add(loadBoxed(node.right()));
 		il.add(DispatchMethods.dynamic(dispatchMethodName(node.op()), 2));
 
 		il.add(rp.resume());
 		il.add(retrieve_0());
-		il.add(new VarInsnNode(ASTORE, slot(node.dest())));
+		il.add(storeBoxed(node.dest()));
+	}
+
+	private InsnList concatArgs(Concat node) {
+		InsnList il = new InsnList();
+		il.add(ASMUtils.loadInt(node.args().size()));
+		il.add(new TypeInsnNode(ANEWARRAY, Type.getInternalName(Object.class)));
+
+		int idx = 0;
+		for (Val v : node.args()) {
+			il.add(new InsnNode(DUP));
+			il.add(ASMUtils.loadInt(idx++));
+			il.add(loadBoxed(v));
+			il.add(new InsnNode(AASTORE));
+		}
+
+		return il;
+	}
+
+	private boolean allStringOrNumber(Concat node) {
+		for (Val v : node.args()) {
+			if (!isStringOrNumber(v)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public void visit(Concat node) {
+		if (context.compilerSettings.resumptionPointElision() && allStringOrNumber(node)) {
+			// no metamethods can be called: no need for a resumption point
+			il.add(concatArgs(node));
+			il.add(DispatchMethods.rawconcat());
+			il.add(storeBoxed(node.dest()));
+			return;
+		}
+
+		ResumptionPoint rp = newResumptionPoint(node, node.dest());
+		il.add(rp.save());
+
+		il.add(loadExecutionContext());
+		il.add(concatArgs(node));
+		il.add(DispatchMethods.concat());
+
+		il.add(rp.resume());
+		il.add(retrieve_0());
+		il.add(storeBoxed(node.dest()));
 	}
 
 	@Override
 	public void visit(UnOp node) {
+		InsnList specialised = context.compilerSettings.numericSpecialisation()
+				? numericUnOp(node)
+				: null;
+
+		if (specialised == null && context.compilerSettings.resumptionPointElision()) {
+			specialised = nonSuspendingUnOp(node);
+		}
+
 		if (node.op() == UnOp.Op.NOT) {
-			il.add(new VarInsnNode(ALOAD, slot(node.arg())));
+			il.add(loadBoxed(node.arg()));
 			il.add(ConversionMethods.booleanValueOf());
 			il.add(new InsnNode(ICONST_1));
 			il.add(new InsnNode(IXOR));
 			il.add(BoxedPrimitivesMethods.box(Type.BOOLEAN_TYPE, Type.getType(Boolean.class)));
+			il.add(storeBoxed(node.dest()));
+		}
+		else if (specialised != null) {
+			il.add(specialised);
 		}
 		else {
-			ResumptionPoint rp = newResumptionPoint();
+			ResumptionPoint rp = newResumptionPoint(node, node.dest());
 			il.add(rp.save());
 
 			il.add(loadExecutionContext());
-			il.add(new VarInsnNode(ALOAD, slot(node.arg())));
+			il.add(loadBoxed(node.arg()));
 			il.add(DispatchMethods.dynamic(dispatchMethodName(node.op()), 1));
 
 			il.add(rp.resume());
 			il.add(retrieve_0());
+			il.add(storeBoxed(node.dest()));
 		}
-
-		il.add(new VarInsnNode(ASTORE, slot(node.dest())));
 	}
 
 	@Override
 	public void visit(TabNew node) {
 		il.add(loadExecutionContext());
 		il.add(ExecutionContextMethods.newTable(node.array(), node.hash()));
-		il.add(new VarInsnNode(ASTORE, slot(node.dest())));
+		il.add(storeBoxed(node.dest()));
+	}
+
+	private AbstractInsnNode dispatch(AbstractInsnNode staticInvoke) {
+		return context.compilerSettings.invokeDynamic()
+				? DispatchMethods.indy(staticInvoke)
+				: staticInvoke;
 	}
 
 	@Override
 	public void visit(TabGet node) {
-		ResumptionPoint rp = newResumptionPoint();
+		ResumptionPoint rp = newResumptionPoint(node, node.dest());
 		il.add(rp.save());
 
 		il.add(loadExecutionContext());
-		il.add(new VarInsnNode(ALOAD, slot(node.obj())));
-		il.add(new VarInsnNode(ALOAD, slot(node.key())));
-		il.add(DispatchMethods.index());
+		il.add(loadBoxed(node.obj()));
+		il.add(loadBoxed(node.key()));
+		il.add(dispatch(DispatchMethods.index()));
 
 		il.add(rp.resume());
 		il.add(retrieve_0());
-		il.add(new VarInsnNode(ASTORE, slot(node.dest())));
+		il.add(storeBoxed(node.dest()));
 	}
 
 	@Override
 	public void visit(TabSet node) {
-		ResumptionPoint rp = newResumptionPoint();
+		ResumptionPoint rp = newResumptionPoint(node, null);
 		il.add(rp.save());
 
 		il.add(loadExecutionContext());
-		il.add(new VarInsnNode(ALOAD, slot(node.obj())));
-		il.add(new VarInsnNode(ALOAD, slot(node.key())));
-		il.add(new VarInsnNode(ALOAD, slot(node.value())));
-		il.add(DispatchMethods.setindex());
+		il.add(loadBoxed(node.obj()));
+		il.add(loadBoxed(node.key()));
+		il.add(loadBoxed(node.value()));
+		il.add(dispatch(DispatchMethods.setindex()));
 
 		il.add(rp.resume());
 	}
 
 	@Override
 	public void visit(TabRawSet node) {
-		il.add(new VarInsnNode(ALOAD, slot(node.obj())));
+		il.add(loadBoxed(node.obj()));
 		il.add(new TypeInsnNode(CHECKCAST, Type.getInternalName(Table.class)));
-		il.add(new VarInsnNode(ALOAD, slot(node.key())));
-		il.add(new VarInsnNode(ALOAD, slot(node.value())));
+		il.add(loadBoxed(node.key()));
+		il.add(loadBoxed(node.value()));
 		il.add(TableMethods.rawset());
 	}
 
 	@Override
 	public void visit(TabRawSetInt node) {
-		il.add(new VarInsnNode(ALOAD, slot(node.obj())));
+		il.add(loadBoxed(node.obj()));
 		il.add(new TypeInsnNode(CHECKCAST, Type.getInternalName(Table.class)));
 		il.add(ASMUtils.loadLong(node.idx()));
-		il.add(new VarInsnNode(ALOAD, slot(node.value())));
+		il.add(loadBoxed(node.value()));
 		il.add(TableMethods.rawset_int());
 	}
 
@@ -598,6 +1186,7 @@ class BytecodeEmitVisitor extends CodeVisitor {
 			ReturnBuffer rbuf = context.getReturnBuffer();
 			int i = 0;
 			context.registerTicks(rbuf.size());  // only when we care about ticks spent
+			tab.ensureArrayCapacity(OFFSET - 1 + rbuf.size());
 			while (i < rbuf.size()) {
 				tab.rawset(OFFSET + i, rbuf.get(i));
 				i++;
@@ -618,7 +1207,7 @@ class BytecodeEmitVisitor extends CodeVisitor {
 
 		il.add(begin);
 
-		il.add(new VarInsnNode(ALOAD, slot(node.obj())));
+		il.add(loadBoxed(node.obj()));
 		il.add(new TypeInsnNode(CHECKCAST, Type.getInternalName(Table.class)));
 		il.add(new VarInsnNode(ASTORE, lv_idx_tab));
 
@@ -637,6 +1226,15 @@ class BytecodeEmitVisitor extends CodeVisitor {
 			il.add(ExecutionContextMethods.registerTicks());
 		}
 
+		// tab.ensureArrayCapacity(OFFSET - 1 + rbuf.size());
+		il.add(new VarInsnNode(ALOAD, lv_idx_tab));
+		il.add(ASMUtils.loadLong(node.firstIdx() - 1));
+		il.add(new VarInsnNode(ALOAD, lv_idx_stack));
+		il.add(ReturnBufferMethods.size());
+		il.add(new InsnNode(I2L));
+		il.add(new InsnNode(LADD));
+		il.add(TableMethods.ensureArrayCapacity());
+
 		il.add(top);
 		il.add(new FrameNode(F_APPEND, 3, new Object[] {
 					Type.getInternalName(Table.class),
@@ -731,7 +1329,7 @@ class BytecodeEmitVisitor extends CodeVisitor {
 				for (Val v : vl.addrs()) {
 					il.add(new VarInsnNode(ALOAD, lv_idx_args));
 					il.add(ASMUtils.loadInt(idx++));
-					il.add(new VarInsnNode(ALOAD, slot(v)));
+					il.add(loadBoxed(v));
 					il.add(new InsnNode(AASTORE));
 				}
 
@@ -765,7 +1363,7 @@ class BytecodeEmitVisitor extends CodeVisitor {
 			if (k <= maxKind) {
 				// pass arguments on the JVM stack
 				for (Val v : vl.addrs()) {
-					il.add(new VarInsnNode(ALOAD, slot(v)));
+					il.add(loadBoxed(v));
 				}
 				return k;
 			}
@@ -778,7 +1376,7 @@ class BytecodeEmitVisitor extends CodeVisitor {
 				for (Val v : vl.addrs()) {
 					il.add(new InsnNode(DUP));
 					il.add(ASMUtils.loadInt(idx++));
-					il.add(new VarInsnNode(ALOAD, slot(v)));
+					il.add(loadBoxed(v));
 					il.add(new InsnNode(AASTORE));
 				}
 
@@ -800,7 +1398,7 @@ class BytecodeEmitVisitor extends CodeVisitor {
 	public void visit(TCall node) {
 		il.add(loadExecutionContext());
 		il.add(loadReturnBuffer());
-		il.add(new VarInsnNode(ALOAD, slot(node.target())));  // call target
+		il.add(loadBoxed(node.target()));  // call target
 		int kind = loadVList(node.args(), ReturnBufferMethods.MAX_TAILCALL_KIND);  // call args
 		il.add(ReturnBufferMethods.tailCall(kind));
 		il.add(_return());
@@ -808,13 +1406,13 @@ class BytecodeEmitVisitor extends CodeVisitor {
 
 	@Override
 	public void visit(Call node) {
-		ResumptionPoint rp = newResumptionPoint();
+		ResumptionPoint rp = newResumptionPoint(node, null);
 		il.add(rp.save());
 
 		il.add(loadExecutionContext());
-		il.add(new VarInsnNode(ALOAD, slot(node.fn())));  // call target
+		il.add(loadBoxed(node.fn()));  // call target
 		int kind = loadVList(node.args(), DispatchMethods.MAX_CALL_KIND);  // call args
-		il.add(DispatchMethods.call(kind));
+		il.add(dispatch(DispatchMethods.call(kind)));
 
 		il.add(rp.resume());
 	}
@@ -824,7 +1422,7 @@ class BytecodeEmitVisitor extends CodeVisitor {
 		il.add(loadExecutionContext());
 		il.add(loadReturnBuffer());
 		il.add(ReturnBufferMethods.get(node.idx()));
-		il.add(new VarInsnNode(ASTORE, slot(node.dest())));
+		il.add(storeBoxed(node.dest()));
 	}
 
 	@Override
@@ -903,7 +1501,7 @@ class BytecodeEmitVisitor extends CodeVisitor {
 				else {
 					Var v = (Var) var;
 					assert (context.types.isReified(v));
-					il.add(new VarInsnNode(ALOAD, slot(v)));
+					il.add(loadBoxed(v));
 					il.add(new TypeInsnNode(CHECKCAST, Type.getInternalName(Variable.class)));
 				}
 			}
@@ -971,14 +1569,14 @@ class BytecodeEmitVisitor extends CodeVisitor {
 		}
 
 		il.add(cu.fetchInstanceInsns());
-		il.add(new VarInsnNode(ASTORE, slot(node.dest())));
+		il.add(storeBoxed(node.dest()));
 	}
 
 	@Override
 	public void visit(ToNumber node) {
-		il.add(new VarInsnNode(ALOAD, slot(node.src())));
+		il.add(loadBoxed(node.src()));
 		il.add(ConversionMethods.toNumericalValue(node.desc()));
-		il.add(new VarInsnNode(ASTORE, slot(node.dest())));
+		il.add(storeBoxed(node.dest()));
 	}
 
 	@Override
@@ -1005,7 +1603,7 @@ class BytecodeEmitVisitor extends CodeVisitor {
 	@Override
 	public void visit(Branch.Condition.Nil cond) {
 		assert (destLabel != null);
-		il.add(new VarInsnNode(ALOAD, slot(cond.addr())));
+		il.add(loadBoxed(cond.addr()));
 
 		if (!isSub() || resolver.isLocalLabel(destLabel)) {
 			// local jump
@@ -1024,7 +1622,7 @@ class BytecodeEmitVisitor extends CodeVisitor {
 	@Override
 	public void visit(Branch.Condition.Bool cond) {
 		assert (destLabel != null);
-		il.add(new VarInsnNode(ALOAD, slot(cond.addr())));
+		il.add(loadBoxed(cond.addr()));
 		il.add(ConversionMethods.booleanValueOf());
 
 		if (!isSub() || resolver.isLocalLabel(destLabel)) {
@@ -1045,13 +1643,26 @@ class BytecodeEmitVisitor extends CodeVisitor {
 	@Override
 	public void visit(Branch.Condition.NumLoopEnd cond) {
 		assert (destLabel != null);
-		il.add(new VarInsnNode(ALOAD, slot(cond.var())));
-		il.add(new TypeInsnNode(CHECKCAST, Type.getInternalName(Number.class)));
-		il.add(new VarInsnNode(ALOAD, slot(cond.limit())));
-		il.add(new TypeInsnNode(CHECKCAST, Type.getInternalName(Number.class)));
-		il.add(new VarInsnNode(ALOAD, slot(cond.step())));
-		il.add(new TypeInsnNode(CHECKCAST, Type.getInternalName(Number.class)));
-		il.add(DispatchMethods.continueLoop());
+
+		NumericOperationType ot = numericTypeOf(cond.var());
+		Type t = context.compilerSettings.numericSpecialisation()
+				&& numericTypeOf(cond.limit()) == ot
+				&& numericTypeOf(cond.step()) == ot
+				? primitiveTypeOf(ot)
+				: null;
+
+		if (t != null) {
+			il.add(loadUnboxed(cond.var(), t));
+			il.add(loadUnboxed(cond.limit(), t));
+			il.add(loadUnboxed(cond.step(), t));
+			il.add(DispatchMethods.continueLoop(t));
+		}
+		else {
+			il.add(loadNumber(cond.var()));
+			il.add(loadNumber(cond.limit()));
+			il.add(loadNumber(cond.step()));
+			il.add(DispatchMethods.continueLoop());
+		}
 
 		if (!isSub() || resolver.isLocalLabel(destLabel)) {
 			// local jump
@@ -1067,20 +1678,21 @@ class BytecodeEmitVisitor extends CodeVisitor {
 		}
 	}
 
-	private void staticCpuWithdraw(int cost) {
+	private void staticCpuWithdraw(CPUWithdraw node) {
 		switch (context.compilerSettings.cpuAccountingMode()) {
 			case NO_CPU_ACCOUNTING: {
 				// no-op
 				break;
 			}
 
-			case IN_EVERY_BASIC_BLOCK: {
-				ResumptionPoint rp = newResumptionPoint();
+			case IN_EVERY_BASIC_BLOCK:
+			case IN_LOOP_HEADERS: {
+				ResumptionPoint rp = newResumptionPoint(node, null);
 				il.add(rp.save());
 
 				il.add(loadExecutionContext());
 				il.add(new InsnNode(DUP));
-				il.add(ASMUtils.loadInt(cost));
+				il.add(ASMUtils.loadInt(node.cost()));
 				il.add(ExecutionContextMethods.registerTicks());
 				il.add(ExecutionContextMethods.checkCallYield());
 
@@ -1100,7 +1712,7 @@ class BytecodeEmitVisitor extends CodeVisitor {
 
 	@Override
 	public void visit(CPUWithdraw node) {
-		staticCpuWithdraw(node.cost());
+		staticCpuWithdraw(node);
 	}
 
 	@Override
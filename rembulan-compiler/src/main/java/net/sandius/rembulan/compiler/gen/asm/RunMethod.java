@@ -75,8 +75,12 @@ class RunMethod {
 
 		if (segmentedCode.isSingleton()) {
 			// as before
+			UnboxedLocals unboxed = context.compilerSettings.numericSpecialisation()
+					? UnboxedLocals.of(context.fn, context.types, context.slots, slotOffset())
+					: UnboxedLocals.none();
+
 			BytecodeEmitVisitor visitor = new BytecodeEmitVisitor(
-					context, this, context.slots, context.types, closureFields, constFields, -1,
+					context, this, context.slots, context.types, unboxed, closureFields, constFields, -1,
 					new LabelResolver() {
 						@Override
 						public boolean isLocalLabel(Label l) {
@@ -100,8 +104,9 @@ class RunMethod {
 
 				final int thisSegmentIdx = i;
 
+				// no unboxed locals: registers are passed between the segments
 				BytecodeEmitVisitor visitor = new BytecodeEmitVisitor(
-						context, this, context.slots, context.types, closureFields, constFields, i,
+						context, this, context.slots, context.types, UnboxedLocals.none(), closureFields, constFields, i,
 						new LabelResolver() {
 							@Override
 							public boolean isLocalLabel(Label l) {
@@ -447,9 +452,36 @@ class RunMethod {
 	private void addLocals(MethodNode node, LabelNode l_begin, LabelNode l_end, BytecodeEmitVisitor visitor) {
 		List<LocalVariableNode> locals = node.localVariables;
 		locals.addAll(baseLocals(l_begin, l_end));
+		locals.addAll(visitor.unboxedLocals().localVariables(l_begin, l_end));
 		locals.addAll(visitor.locals());
 	}
 
+	// initialises the unboxed locals and declares them in a full frame preceding all other frames
+	private InsnList unboxedLocalsPrologue(UnboxedLocals unboxed) {
+		InsnList il = new InsnList();
+
+		if (!unboxed.isEmpty()) {
+			il.add(unboxed.initialise());
+
+			List<Object> locals = new ArrayList<>();
+			locals.add(context.thisClassType().getInternalName());
+			locals.add(Type.getInternalName(ExecutionContext.class));
+			locals.add(Opcodes.INTEGER);
+			if (context.isVararg()) {
+				locals.add(ASMUtils.arrayTypeFor(Object.class).getInternalName());
+			}
+			for (int i = 0; i < numOfRegisters(); i++) {
+				locals.add(Type.getInternalName(Object.class));
+			}
+			locals.addAll(unboxed.frameTypes());
+
+			il.add(new FrameNode(F_FULL, locals.size(), locals.toArray(), 0, new Object[0]));
+			il.add(new InsnNode(NOP));  // the next instruction may be given a frame of its own
+		}
+
+		return il;
+	}
+
 	private MethodNode emitRunMethod(String methodName, Type returnType, BytecodeEmitVisitor visitor, List<BasicBlock> blocks, boolean sub) {
 		MethodNode node = new MethodNode(
 				ACC_PRIVATE,
@@ -507,10 +539,13 @@ class RunMethod {
 			suffix.add(errorState(l_error_state));
 			suffix.add(resumptionHandler(l_handler_begin));
 
+			// handlers boxing the unboxed locals take precedence
+			node.tryCatchBlocks.addAll(visitor.tryCatchBlocks());
 			node.tryCatchBlocks.add(new TryCatchBlockNode(l_entry, l_error_state, l_handler_begin, Type.getInternalName(UnresolvedControlThrowable.class)));
 		}
 
 		insns.add(l_begin);
+		insns.add(unboxedLocalsPrologue(visitor.unboxedLocals()));
 		insns.add(prefix);
 		insns.add(visitor.instructions());
 		insns.add(suffix);
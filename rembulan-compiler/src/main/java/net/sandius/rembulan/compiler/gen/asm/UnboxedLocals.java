@@ -0,0 +1,370 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.sandius.rembulan.compiler.gen.asm;
+
+import net.sandius.rembulan.compiler.IRFunc;
+import net.sandius.rembulan.compiler.analysis.LivenessAnalyser;
+import net.sandius.rembulan.compiler.analysis.LivenessInfo;
+import net.sandius.rembulan.compiler.analysis.NumericOperationType;
+import net.sandius.rembulan.compiler.analysis.SlotAllocInfo;
+import net.sandius.rembulan.compiler.analysis.StaticMathImplementation;
+import net.sandius.rembulan.compiler.analysis.TypeInfo;
+import net.sandius.rembulan.compiler.gen.asm.helpers.BoxedPrimitivesMethods;
+import net.sandius.rembulan.compiler.ir.AbstractVal;
+import net.sandius.rembulan.compiler.ir.CodeVisitor;
+import net.sandius.rembulan.compiler.ir.IRNode;
+import net.sandius.rembulan.compiler.ir.LoadConst;
+import net.sandius.rembulan.compiler.ir.Val;
+import net.sandius.rembulan.compiler.ir.Var;
+import net.sandius.rembulan.compiler.ir.VarInit;
+import net.sandius.rembulan.compiler.ir.VarStore;
+import net.sandius.rembulan.util.Check;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LocalVariableNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Primitive locals shadowing the registers of values and variables that are statically
+ * known to be integers or floats.
+ *
+ * <p>The shadow local of a value (or variable) is authoritative: arithmetic reads and writes
+ * it directly, and its register is only used when the value escapes as an object. Since
+ * registers are what gets snapshotted, the shadow locals live across a resumption point
+ * are boxed into their registers when the control throwable passes through it, and reloaded
+ * from the registers when the function is resumed there.</p>
+ *
+ * <p>Shadow locals are assigned per register slot and primitive type, and are declared
+ * in the first frame of the run method.</p>
+ */
+class UnboxedLocals {
+
+	private final int slotOffset;
+	private final int offset;
+
+	private final SlotAllocInfo slots;
+	private final LivenessInfo liveness;
+
+	private final Map<AbstractVal, Type> valTypes;
+	private final Map<Var, Type> varTypes;
+
+	private final Map<Integer, Integer> longLocals;
+	private final Map<Integer, Integer> doubleLocals;
+	private final int size;
+
+	private UnboxedLocals(
+			int slotOffset,
+			int offset,
+			SlotAllocInfo slots,
+			LivenessInfo liveness,
+			Map<AbstractVal, Type> valTypes,
+			Map<Var, Type> varTypes) {
+
+		this.slotOffset = slotOffset;
+		this.offset = offset;
+		this.slots = slots;
+		this.liveness = liveness;
+		this.valTypes = Check.notNull(valTypes);
+		this.varTypes = Check.notNull(varTypes);
+
+		TreeMap<Integer, Type> slotTypes = new TreeMap<>();
+		for (Map.Entry<AbstractVal, Type> e : valTypes.entrySet()) {
+			slotTypes.put(slotKey(slots.slotOf(e.getKey()), e.getValue()), e.getValue());
+		}
+		for (Map.Entry<Var, Type> e : varTypes.entrySet()) {
+			slotTypes.put(slotKey(slots.slotOf(e.getKey()), e.getValue()), e.getValue());
+		}
+
+		this.longLocals = new HashMap<>();
+		this.doubleLocals = new HashMap<>();
+
+		int idx = offset;
+		for (Map.Entry<Integer, Type> e : slotTypes.entrySet()) {
+			int slot = e.getKey() / 2;
+			(e.getValue().equals(Type.LONG_TYPE) ? longLocals : doubleLocals).put(slot, idx);
+			idx += e.getValue().getSize();
+		}
+		this.size = idx - offset;
+	}
+
+	private static int slotKey(int slot, Type type) {
+		return 2 * slot + (type.equals(Type.LONG_TYPE) ? 0 : 1);
+	}
+
+	public static UnboxedLocals none() {
+		return new UnboxedLocals(0, 0, null, null,
+				Collections.<AbstractVal, Type>emptyMap(), Collections.<Var, Type>emptyMap());
+	}
+
+	private static Type primitiveTypeOf(TypeInfo types, AbstractVal v) {
+		NumericOperationType ot = StaticMathImplementation.MAY_BE_INTEGER.opType(types.typeOf(v));
+		switch (ot) {
+			case Integer: return Type.LONG_TYPE;
+			case Float:   return Type.DOUBLE_TYPE;
+			default:      return null;
+		}
+	}
+
+	public static UnboxedLocals of(IRFunc fn, TypeInfo types, SlotAllocInfo slots, int slotOffset) {
+		Check.notNull(fn);
+		Check.notNull(types);
+		Check.notNull(slots);
+
+		DefinitionCollector defs = new DefinitionCollector();
+		defs.visit(fn);
+
+		// constants are loaded directly when needed unboxed
+		Map<AbstractVal, Type> valTypes = new HashMap<>();
+		for (AbstractVal v : types.vals()) {
+			Type t = primitiveTypeOf(types, v);
+			if (t != null && !defs.constants.contains(v)) {
+				valTypes.put(v, t);
+			}
+		}
+
+		// a variable is shadowed when every value ever assigned to it has the same primitive type
+		Map<Var, Type> varTypes = new HashMap<>();
+		Set<Var> mixed = new HashSet<>();
+		for (Map.Entry<Var, List<Val>> e : defs.assignments.entrySet()) {
+			Var v = e.getKey();
+			if (types.isReified(v)) {
+				continue;
+			}
+
+			Type t = null;
+			for (Val src : e.getValue()) {
+				Type srcType = primitiveTypeOf(types, src);
+				if (srcType == null || (t != null && !t.equals(srcType))) {
+					mixed.add(v);
+					break;
+				}
+				t = srcType;
+			}
+
+			if (!mixed.contains(v)) {
+				varTypes.put(v, t);
+			}
+		}
+
+		if (valTypes.isEmpty() && varTypes.isEmpty()) {
+			return none();
+		}
+		else {
+			return new UnboxedLocals(
+					slotOffset,
+					slotOffset + slots.numSlots(),
+					slots,
+					LivenessAnalyser.computeLiveness(fn),
+					valTypes,
+					varTypes);
+		}
+	}
+
+	private static class DefinitionCollector extends CodeVisitor {
+
+		final Set<AbstractVal> constants = new HashSet<>();
+		final Map<Var, List<Val>> assignments = new HashMap<>();
+
+		private void assign(Var var, Val src) {
+			List<Val> srcs = assignments.get(var);
+			if (srcs == null) {
+				srcs = new ArrayList<>();
+				assignments.put(var, srcs);
+			}
+			srcs.add(src);
+		}
+
+		@Override
+		public void visit(LoadConst.Int node) {
+			constants.add(node.dest());
+		}
+
+		@Override
+		public void visit(LoadConst.Flt node) {
+			constants.add(node.dest());
+		}
+
+		@Override
+		public void visit(VarInit node) {
+			assign(node.var(), node.src());
+		}
+
+		@Override
+		public void visit(VarStore node) {
+			assign(node.var(), node.src());
+		}
+
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Returns the number of local variable indices taken up by the shadow locals.
+	 */
+	public int size() {
+		return size;
+	}
+
+	public Type typeOf(AbstractVal v) {
+		return valTypes.get(Check.notNull(v));
+	}
+
+	public Type typeOf(Var v) {
+		return varTypes.get(Check.notNull(v));
+	}
+
+	private int localOf(int slot, Type type) {
+		Integer idx = (type.equals(Type.LONG_TYPE) ? longLocals : doubleLocals).get(slot);
+		assert (idx != null);
+		return idx;
+	}
+
+	public int localOf(AbstractVal v) {
+		return localOf(slots.slotOf(v), typeOf(v));
+	}
+
+	public int localOf(Var v) {
+		return localOf(slots.slotOf(v), typeOf(v));
+	}
+
+	private List<Integer> sortedSlots(Map<Integer, Integer> locals) {
+		List<Integer> result = new ArrayList<>(locals.keySet());
+		Collections.sort(result);
+		return result;
+	}
+
+	/**
+	 * Returns the verification types of the shadow locals, in the order of their indices.
+	 */
+	public List<Object> frameTypes() {
+		TreeMap<Integer, Object> types = new TreeMap<>();
+		for (int idx : longLocals.values()) {
+			types.put(idx, Opcodes.LONG);
+		}
+		for (int idx : doubleLocals.values()) {
+			types.put(idx, Opcodes.DOUBLE);
+		}
+		return new ArrayList<>(types.values());
+	}
+
+	public InsnList initialise() {
+		InsnList il = new InsnList();
+		for (int slot : sortedSlots(longLocals)) {
+			il.add(new InsnNode(LCONST_0));
+			il.add(new VarInsnNode(LSTORE, longLocals.get(slot)));
+		}
+		for (int slot : sortedSlots(doubleLocals)) {
+			il.add(new InsnNode(DCONST_0));
+			il.add(new VarInsnNode(DSTORE, doubleLocals.get(slot)));
+		}
+		return il;
+	}
+
+	public List<LocalVariableNode> localVariables(LabelNode begin, LabelNode end) {
+		List<LocalVariableNode> locals = new ArrayList<>();
+		for (int slot : sortedSlots(longLocals)) {
+			locals.add(new LocalVariableNode("j_" + slot, Type.LONG_TYPE.getDescriptor(), null, begin, end, longLocals.get(slot)));
+		}
+		for (int slot : sortedSlots(doubleLocals)) {
+			locals.add(new LocalVariableNode("d_" + slot, Type.DOUBLE_TYPE.getDescriptor(), null, begin, end, doubleLocals.get(slot)));
+		}
+		return locals;
+	}
+
+	// shadowed slots live after node, other than the slot of dest (which may be null)
+	private Map<Integer, Type> liveAfter(IRNode node, AbstractVal dest) {
+		Map<Integer, Type> result = new TreeMap<>();
+		if (isEmpty()) {
+			return result;
+		}
+
+		LivenessInfo.Entry e = liveness.entry(node);
+		for (AbstractVal v : e.outVal()) {
+			Type t = typeOf(v);
+			if (t != null && !v.equals(dest)) {
+				result.put(slots.slotOf(v), t);
+			}
+		}
+		for (Var v : e.outVar()) {
+			Type t = typeOf(v);
+			if (t != null) {
+				result.put(slots.slotOf(v), t);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the instructions boxing the shadow locals live across the resumption point
+	 * in {@code node} into their registers, or {@code null} if there are none.
+	 */
+	public InsnList save(IRNode node, AbstractVal dest) {
+		Map<Integer, Type> live = liveAfter(node, dest);
+		if (live.isEmpty()) {
+			return null;
+		}
+
+		InsnList il = new InsnList();
+		for (Map.Entry<Integer, Type> e : live.entrySet()) {
+			Type t = e.getValue();
+			il.add(new VarInsnNode(t.getOpcode(ILOAD), localOf(e.getKey(), t)));
+			il.add(BoxedPrimitivesMethods.box(t, t.equals(Type.LONG_TYPE) ? Long.class : Double.class));
+			il.add(new VarInsnNode(ASTORE, slotOffset + e.getKey()));
+		}
+		return il;
+	}
+
+	/**
+	 * Returns the instructions reloading the shadow locals live across the resumption point
+	 * in {@code node} from their registers, or {@code null} if there are none.
+	 */
+	public InsnList restore(IRNode node, AbstractVal dest) {
+		Map<Integer, Type> live = liveAfter(node, dest);
+		if (live.isEmpty()) {
+			return null;
+		}
+
+		InsnList il = new InsnList();
+		for (Map.Entry<Integer, Type> e : live.entrySet()) {
+			Type t = e.getValue();
+			il.add(new VarInsnNode(ALOAD, slotOffset + e.getKey()));
+			il.add(new TypeInsnNode(CHECKCAST, Type.getInternalName(Number.class)));
+			il.add(BoxedPrimitivesMethods.unbox(Number.class, t));
+			il.add(new VarInsnNode(t.getOpcode(ISTORE), localOf(e.getKey(), t)));
+		}
+		return il;
+	}
+
+}
@@ -16,6 +16,7 @@
 
 package net.sandius.rembulan.compiler.gen.asm.helpers;
 
+import net.sandius.rembulan.ByteString;
 import net.sandius.rembulan.Conversions;
 import net.sandius.rembulan.LuaFormat;
 import net.sandius.rembulan.util.Check;
@@ -73,6 +74,17 @@ public abstract class ConversionMethods {
 				false);
 	}
 
+	public static AbstractInsnNode stringValueOf() {
+		return new MethodInsnNode(
+				INVOKESTATIC,
+				Type.getInternalName(Conversions.class),
+				"stringValueOf",
+				Type.getMethodDescriptor(
+						Type.getType(ByteString.class),
+						Type.getType(Object.class)),
+				false);
+	}
+
 	public static AbstractInsnNode unboxedNumberToLuaFormatString(Type tpe) {
 		Check.isTrue(tpe.equals(Type.DOUBLE_TYPE) || tpe.equals(Type.LONG_TYPE));
 		return new MethodInsnNode(
@@ -16,15 +16,24 @@
 
 package net.sandius.rembulan.compiler.gen.asm.helpers;
 
+import net.sandius.rembulan.ByteString;
 import net.sandius.rembulan.runtime.Dispatch;
+import net.sandius.rembulan.runtime.DispatchCallSites;
 import net.sandius.rembulan.runtime.ExecutionContext;
+import org.objectweb.asm.Handle;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.InvokeDynamicInsnNode;
 import org.objectweb.asm.tree.MethodInsnNode;
 
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
 import java.util.ArrayList;
 import java.util.Arrays;
 
+import static org.objectweb.asm.Opcodes.H_INVOKESTATIC;
 import static org.objectweb.asm.Opcodes.INVOKESTATIC;
 
 public class DispatchMethods {
@@ -91,6 +100,41 @@ public class DispatchMethods {
 				false);
 	}
 
+	public static AbstractInsnNode numericComparison(String methodName) {
+		return new MethodInsnNode(
+				INVOKESTATIC,
+				Type.getInternalName(Dispatch.class),
+				methodName,
+				Type.getMethodDescriptor(
+						Type.BOOLEAN_TYPE,
+						Type.getType(Number.class),
+						Type.getType(Number.class)),
+				false);
+	}
+
+	public static AbstractInsnNode concat() {
+		return new MethodInsnNode(
+				INVOKESTATIC,
+				Type.getInternalName(Dispatch.class),
+				OP_CONCAT,
+				Type.getMethodDescriptor(
+						Type.VOID_TYPE,
+						Type.getType(ExecutionContext.class),
+						ASMUtils.arrayTypeFor(Object.class)),
+				false);
+	}
+
+	public static AbstractInsnNode rawconcat() {
+		return new MethodInsnNode(
+				INVOKESTATIC,
+				Type.getInternalName(Dispatch.class),
+				"rawconcat",
+				Type.getMethodDescriptor(
+						Type.getType(ByteString.class),
+						ASMUtils.arrayTypeFor(Object.class)),
+				false);
+	}
+
 	public static AbstractInsnNode index() {
 		return dynamic(OP_INDEX, 2);
 	}
@@ -119,6 +163,24 @@ public class DispatchMethods {
 		return call_method(kind).toMethodInsnNode();
 	}
 
+	private static final Handle BOOTSTRAP = new Handle(
+			H_INVOKESTATIC,
+			Type.getInternalName(DispatchCallSites.class),
+			"bootstrap",
+			Type.getMethodDescriptor(
+					Type.getType(CallSite.class),
+					Type.getType(MethodHandles.Lookup.class),
+					Type.getType(String.class),
+					Type.getType(MethodType.class)));
+
+	public static AbstractInsnNode indy(AbstractInsnNode insn) {
+		MethodInsnNode min = (MethodInsnNode) insn;
+		if (min.getOpcode() != INVOKESTATIC || !min.owner.equals(Type.getInternalName(Dispatch.class))) {
+			throw new IllegalArgumentException("Not a static dispatch method: " + min.owner + "." + min.name);
+		}
+		return new InvokeDynamicInsnNode(min.name, min.desc, BOOTSTRAP);
+	}
+
 	public static AbstractInsnNode continueLoop() {
 		return new MethodInsnNode(
 				INVOKESTATIC,
@@ -132,4 +194,17 @@ public class DispatchMethods {
 				false);
 	}
 
+	public static AbstractInsnNode continueLoop(Type type) {
+		return new MethodInsnNode(
+				INVOKESTATIC,
+				Type.getInternalName(Dispatch.class),
+				"signed_le",
+				Type.getMethodDescriptor(
+						Type.BOOLEAN_TYPE,
+						type,
+						type,
+						type),
+				false);
+	}
+
 }
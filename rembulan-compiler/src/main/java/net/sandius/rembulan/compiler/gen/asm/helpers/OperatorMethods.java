@@ -47,6 +47,29 @@ public class OperatorMethods {
 				false);
 	}
 
+	public static AbstractInsnNode rawComparisonOperator(String methodName, Type leftType, Type rightType) {
+		return new MethodInsnNode(
+				INVOKESTATIC,
+				Type.getInternalName(LuaMathOperators.class),
+				methodName,
+				Type.getMethodDescriptor(
+						Type.BOOLEAN_TYPE,
+						leftType,
+						rightType),
+				false);
+	}
+
+	public static AbstractInsnNode rawUnaryOperator(String methodName, Type type) {
+		return new MethodInsnNode(
+				INVOKESTATIC,
+				Type.getInternalName(LuaMathOperators.class),
+				methodName,
+				Type.getMethodDescriptor(
+						type,
+						type),
+				false);
+	}
+
 	public static AbstractInsnNode stringLen() {
 		return new MethodInsnNode(
 				INVOKESTATIC,
@@ -41,6 +41,17 @@ public class TableMethods {
 				false);
 	}
 
+	public static AbstractInsnNode ensureArrayCapacity() {
+		return new MethodInsnNode(
+				INVOKEVIRTUAL,
+				Type.getInternalName(Table.class),
+				"ensureArrayCapacity",
+				Type.getMethodDescriptor(
+						Type.VOID_TYPE,
+						Type.LONG_TYPE),
+				false);
+	}
+
 	public static AbstractInsnNode rawset() {
 		return new MethodInsnNode(
 				INVOKEVIRTUAL,
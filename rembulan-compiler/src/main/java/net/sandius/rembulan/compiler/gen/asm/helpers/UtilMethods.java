@@ -16,10 +16,13 @@
 
 package net.sandius.rembulan.compiler.gen.asm.helpers;
 
+import net.sandius.rembulan.ByteString;
+import net.sandius.rembulan.Ordering;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.MethodInsnNode;
 
+import static org.objectweb.asm.Opcodes.INVOKESTATIC;
 import static org.objectweb.asm.Opcodes.INVOKEVIRTUAL;
 
 public class UtilMethods {
@@ -60,4 +63,37 @@ public class UtilMethods {
 				false);
 	}
 
+	public static AbstractInsnNode ByteString_concat() {
+		return new MethodInsnNode(
+				INVOKEVIRTUAL,
+				Type.getInternalName(ByteString.class),
+				"concat",
+				Type.getMethodDescriptor(
+						Type.getType(ByteString.class),
+						Type.getType(ByteString.class)),
+				false);
+	}
+
+	public static AbstractInsnNode ByteString_length() {
+		return new MethodInsnNode(
+				INVOKEVIRTUAL,
+				Type.getInternalName(ByteString.class),
+				"length",
+				Type.getMethodDescriptor(
+						Type.INT_TYPE),
+				false);
+	}
+
+	public static AbstractInsnNode Ordering_isRawEqual() {
+		return new MethodInsnNode(
+				INVOKESTATIC,
+				Type.getInternalName(Ordering.class),
+				"isRawEqual",
+				Type.getMethodDescriptor(
+						Type.BOOLEAN_TYPE,
+						Type.getType(Object.class),
+						Type.getType(Object.class)),
+				false);
+	}
+
 }
@@ -21,9 +21,8 @@ import net.sandius.rembulan.util.Check;
 public class TabNew extends BodyNode {
 
 	private final Val dest;
-	private final int array;
+	private final int array;  // not including the values appended by TabRawAppendMulti
 	private final int hash;
-	// TODO: dynamic size of array part when multi-vals are used
 
 	public TabNew(Val dest, int array, int hash) {
 		this.dest = Check.notNull(dest);
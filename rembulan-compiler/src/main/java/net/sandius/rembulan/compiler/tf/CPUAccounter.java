@@ -17,19 +17,155 @@
 package net.sandius.rembulan.compiler.tf;
 
 import net.sandius.rembulan.compiler.IRFunc;
+import net.sandius.rembulan.compiler.ir.BasicBlock;
+import net.sandius.rembulan.compiler.ir.BodyNode;
+import net.sandius.rembulan.compiler.ir.CPUWithdraw;
+import net.sandius.rembulan.compiler.ir.Code;
+import net.sandius.rembulan.compiler.ir.Label;
+import net.sandius.rembulan.util.Check;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class CPUAccounter {
 
 	public static IRFunc insertCPUAccounting(IRFunc fn) {
-		CPUAccountingVisitor visitor = new CPUAccountingVisitor(CPUAccountingVisitor.INITIALISE);
+		CPUAccountingVisitor visitor = new CPUAccountingVisitor(CPUAccountingVisitor.initialise());
 		visitor.visit(fn);
 		return fn.update(visitor.result());
   	}
 
 	public static IRFunc collectCPUAccounting(IRFunc fn) {
-		CPUAccountingVisitor visitor = new CPUAccountingVisitor(CPUAccountingVisitor.COLLECT);
+		CPUAccountingVisitor visitor = new CPUAccountingVisitor(CPUAccountingVisitor.collect());
 		visitor.visit(fn);
 		return fn.update(visitor.result());
   	}
 
+	private static int blockCost(BasicBlock b) {
+		int cost = 0;
+		for (BodyNode n : b.body()) {
+			if (n instanceof CPUWithdraw) {
+				cost += ((CPUWithdraw) n).cost();
+			}
+		}
+		return cost;
+	}
+
+	private static class Frame {
+
+		final Label label;
+		final Iterator<Label> next;
+
+		Frame(Label label, Iterator<Label> next) {
+			this.label = label;
+			this.next = next;
+		}
+
+	}
+
+	static Code batchCPUAccounting(Code code) {
+		Check.notNull(code);
+
+		// depth-first traversal from the entry, collecting the targets of back edges
+		// and the blocks in post-order
+		Set<Label> checkpoints = new HashSet<>();
+		List<Label> postOrder = new ArrayList<>();
+
+		Set<Label> visited = new HashSet<>();
+		Set<Label> onStack = new HashSet<>();
+		Deque<Frame> stack = new ArrayDeque<>();
+
+		checkpoints.add(code.entryLabel());
+		visited.add(code.entryLabel());
+		onStack.add(code.entryLabel());
+		stack.push(new Frame(code.entryLabel(), code.entryBlock().end().nextLabels().iterator()));
+
+		while (!stack.isEmpty()) {
+			Frame top = stack.peek();
+			if (top.next.hasNext()) {
+				Label l = top.next.next();
+				if (onStack.contains(l)) {
+					// back edge: l is a loop header
+					checkpoints.add(l);
+				}
+				else if (visited.add(l)) {
+					onStack.add(l);
+					stack.push(new Frame(l, code.block(l).end().nextLabels().iterator()));
+				}
+			}
+			else {
+				stack.pop();
+				onStack.remove(top.label);
+				postOrder.add(top.label);
+			}
+		}
+
+		// every cycle passes through a checkpoint, so the remaining blocks form a DAG;
+		// in post-order, the successors of a block are processed before the block itself.
+		// bound(l) is the maximum cost of a path from l to the next checkpoint.
+		Map<Label, Integer> bound = new HashMap<>();
+		for (Label l : postOrder) {
+			BasicBlock b = code.block(l);
+			int max = 0;
+			for (Label nxt : b.end().nextLabels()) {
+				if (!checkpoints.contains(nxt)) {
+					max = Math.max(max, bound.get(nxt));
+				}
+			}
+			bound.put(l, blockCost(b) + max);
+		}
+
+		List<BasicBlock> result = new ArrayList<>();
+		Iterator<BasicBlock> it = code.blockIterator();
+		while (it.hasNext()) {
+			BasicBlock b = it.next();
+			if (!visited.contains(b.label())) {
+				// unreachable
+				result.add(b);
+				continue;
+			}
+
+			List<BodyNode> body = new ArrayList<>();
+			for (BodyNode n : b.body()) {
+				if (!(n instanceof CPUWithdraw)) {
+					body.add(n);
+				}
+			}
+
+			if (checkpoints.contains(b.label())) {
+				int cost = bound.get(b.label());
+				if (cost > 0) {
+					body.add(0, new CPUWithdraw(cost));
+				}
+			}
+
+			result.add(new BasicBlock(b.label(), body, b.end()));
+		}
+
+		return Code.of(result);
+	}
+
+	/**
+	 * Moves the CPU accounting of {@code fn} to the entry block and the loop headers.
+	 *
+	 * <p>Every cycle in the control flow graph passes through a loop header, so the code
+	 * executed between two consecutive checkpoints is acyclic. Each checkpoint withdraws
+	 * the maximum cost of a path leading from it to the next checkpoint (or to the
+	 * function exit), and all other withdrawals are removed. The cost charged is therefore
+	 * an upper bound on the cost actually incurred.</p>
+	 *
+	 * @param fn  the function, must not be {@code null}
+	 * @return  the function with the CPU accounting batched at the entry and the loop headers
+	 */
+	public static IRFunc batchCPUAccounting(IRFunc fn) {
+		return fn.update(batchCPUAccounting(fn.code()));
+	}
+
 }
@@ -58,51 +58,57 @@ class CPUAccountingVisitor extends CodeTransformerVisitor {
 
 	}
 
-	public static final Account INITIALISE = new Account() {
-		@Override
-		public void cpuNode(CPUWithdraw node) {
-			// no-op
-		}
+	// accounts are stateful, and must not be shared by functions compiled in parallel
 
-		@Override
-		public void noCost() {
-			// no-op
-		}
+	public static Account initialise() {
+		return new Account() {
+			@Override
+			public void cpuNode(CPUWithdraw node) {
+				// no-op
+			}
 
-		@Override
-		public void staticCost(int c) {
-			add(c);
-		}
+			@Override
+			public void noCost() {
+				// no-op
+			}
 
-		@Override
-		public void dynamicCost() {
-			// no-op
-		}
+			@Override
+			public void staticCost(int c) {
+				add(c);
+			}
 
-	};
+			@Override
+			public void dynamicCost() {
+				// no-op
+			}
 
-	public static final Account COLLECT = new Account() {
-		@Override
-		public void cpuNode(CPUWithdraw node) {
-			add(node.cost());
-		}
+		};
+	}
 
-		@Override
-		public void noCost() {
-			// no-op
-		}
+	public static Account collect() {
+		return new Account() {
+			@Override
+			public void cpuNode(CPUWithdraw node) {
+				add(node.cost());
+			}
 
-		@Override
-		public void staticCost(int c) {
-			// no-op
-		}
+			@Override
+			public void noCost() {
+				// no-op
+			}
 
-		@Override
-		public void dynamicCost() {
-			// no-op
-		}
+			@Override
+			public void staticCost(int c) {
+				// no-op
+			}
 
-	};
+			@Override
+			public void dynamicCost() {
+				// no-op
+			}
+
+		};
+	}
 
 	private static class Visitor extends DefaultNodeActionVisitor {
 
@@ -140,6 +146,11 @@ class CPUAccountingVisitor extends CodeTransformerVisitor {
 			account.staticCost();
 		}
 
+		@Override
+		public void visit(Concat node) {
+			account.staticCost();
+		}
+
 		@Override
 		public void visit(TabNew node) {
 			account.staticCost();
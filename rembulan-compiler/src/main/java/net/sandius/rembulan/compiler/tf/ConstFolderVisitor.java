@@ -22,6 +22,7 @@ import net.sandius.rembulan.compiler.analysis.types.LiteralType;
 import net.sandius.rembulan.compiler.analysis.types.Type;
 import net.sandius.rembulan.compiler.ir.BinOp;
 import net.sandius.rembulan.compiler.ir.BodyNode;
+import net.sandius.rembulan.compiler.ir.Concat;
 import net.sandius.rembulan.compiler.ir.LoadConst;
 import net.sandius.rembulan.compiler.ir.ToNumber;
 import net.sandius.rembulan.compiler.ir.UnOp;
@@ -93,6 +94,11 @@ public class ConstFolderVisitor extends CodeTransformerVisitor {
 		replaceIfLiteral(node, node.dest());
 	}
 
+	@Override
+	public void visit(Concat node) {
+		replaceIfLiteral(node, node.dest());
+	}
+
 	@Override
 	public void visit(ToNumber node) {
 		replaceIfLiteral(node, node.dest());
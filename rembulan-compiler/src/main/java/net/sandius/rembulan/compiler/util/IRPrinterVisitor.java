@@ -66,6 +66,15 @@ public class IRPrinterVisitor extends CodeVisitor {
 		ps.println("\t" + node.op().toString().toLowerCase() + " " + node.dest() + " " + node.arg());
 	}
 
+	@Override
+	public void visit(Concat node) {
+		StringBuilder bld = new StringBuilder();
+		for (Val v : node.args()) {
+			bld.append(' ').append(v);
+		}
+		ps.println("\tconcat " + node.dest() + bld);
+	}
+
 	@Override
 	public void visit(TabNew node) {
 		ps.println("\ttabnew " + node.dest() + " " + node.array() + " " + node.hash());
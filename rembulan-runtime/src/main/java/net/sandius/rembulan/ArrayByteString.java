@@ -24,30 +24,87 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.Arrays;
 import java.util.Objects;
 
 /**
- * A byte string backed by a byte array.
+ * A byte string backed by a byte array, or by a slice of a byte array.
+ *
+ * <p>Long substrings share the array of the byte string they were taken from rather
+ * than copying it. Substrings that are short, either in absolute terms or relative
+ * to the size of the array, are copied, so that they do not retain large arrays
+ * that are otherwise unreachable.</p>
  */
 class ArrayByteString extends ByteString {
 
 	static final ArrayByteString EMPTY_INSTANCE = new ArrayByteString(new byte[0]);
 
+	/**
+	 * Slices shorter than this are always copied.
+	 */
+	static final int MIN_SHARED_LENGTH = 32;
+
+	/**
+	 * Slices shorter than {@code 1 / COMPACTION_RATIO} of the backing array are copied.
+	 */
+	static final int COMPACTION_RATIO = 4;
+
 	private final byte[] bytes;
+	private final int offset;
+	private final int length;
 	private int hashCode;
 
 	ArrayByteString(byte[] bytes) {
-		this.bytes = Objects.requireNonNull(bytes);
+		this(Objects.requireNonNull(bytes), 0, bytes.length);
+	}
+
+	private ArrayByteString(byte[] bytes, int offset, int length) {
+		this.bytes = bytes;
+		this.offset = offset;
+		this.length = length;
+	}
+
+	/**
+	 * Returns a byte string consisting of the {@code length} bytes of the array {@code bytes}
+	 * starting at the index {@code offset}, sharing {@code bytes} if the slice is long
+	 * enough. The array must not be modified afterwards.
+	 */
+	static ByteString slice(byte[] bytes, int offset, int length) {
+		if (length == 0) {
+			return EMPTY_INSTANCE;
+		}
+		else if (length == bytes.length) {
+			return new ArrayByteString(bytes);
+		}
+		else if (length >= MIN_SHARED_LENGTH && length >= bytes.length / COMPACTION_RATIO) {
+			return new ArrayByteString(bytes, offset, length);
+		}
+		else {
+			return new ArrayByteString(Arrays.copyOfRange(bytes, offset, offset + length));
+		}
 	}
 
 	@Override
 	protected boolean equals(ByteString that) {
-		if (this.length() != that.length()) return false;
+		if (this.length != that.length()) return false;
+
+		// don't force hashCode computation, but use if already known
+		int thisHash = this.maybeHashCode();
+		int thatHash = that.maybeHashCode();
+		if (thisHash != 0 && thatHash != 0 && thisHash != thatHash) return false;
 
-		int len = this.length();
-		for (int i = 0; i < len; i++) {
-			if (this.byteAt(i) != that.byteAt(i)) return false;
+		if (that instanceof ArrayByteString) {
+			ArrayByteString other = (ArrayByteString) that;
+			for (int i = 0; i < length; i++) {
+				if (this.bytes[this.offset + i] != other.bytes[other.offset + i]) return false;
+			}
+		}
+		else {
+			ByteIterator it = that.byteIterator();
+			for (int i = 0; i < length; i++) {
+				if (!it.hasNext() || bytes[offset + i] != it.nextByte()) return false;
+			}
 		}
 
 		return true;
@@ -57,9 +114,9 @@ class ArrayByteString extends ByteString {
 	public int hashCode() {
 		int hc = hashCode;
 		if (hc == 0) {
-			if (bytes.length > 0) {
-				for (byte b : bytes) {
-					hc = (hc * 31) + (b & 0xff);
+			if (length > 0) {
+				for (int i = offset; i < offset + length; i++) {
+					hc = (hc * 31) + (bytes[i] & 0xff);
 				}
 				hashCode = hc;
 			}
@@ -78,62 +135,71 @@ class ArrayByteString extends ByteString {
 		return decode();
 	}
 
+	@Override
+	public String decode(Charset charset) {
+		// no need to go via an intermediate buffer
+		return charset.decode(ByteBuffer.wrap(bytes, offset, length)).toString();
+	}
+
 	@Override
 	public String toRawString() {
-		char[] chars = new char[bytes.length];
+		char[] chars = new char[length];
 		for (int i = 0; i < chars.length; i++) {
-			chars[i] = (char) (bytes[i] & 0xff);
+			chars[i] = (char) (bytes[offset + i] & 0xff);
 		}
 		return String.valueOf(chars);
 	}
 
 	@Override
 	public int length() {
-		return bytes.length;
+		return length;
 	}
 
 	@Override
 	int maybeLength() {
-		return bytes.length;
+		return length;
 	}
 
 	@Override
 	public boolean isEmpty() {
-		return bytes.length == 0;
+		return length == 0;
 	}
 
 	@Override
 	public byte byteAt(int index) {
-		return bytes[index];
+		if (index < 0 || index >= length) {
+			throw new IndexOutOfBoundsException(String.valueOf(index));
+		}
+		return bytes[offset + index];
 	}
 
 	@Override
 	public ByteIterator byteIterator() {
-		return new ArrayByteIterator(bytes);
+		return new ArrayByteIterator(bytes, offset, length);
 	}
 
 	@Override
 	public InputStream asInputStream() {
 		// no need to go via the iterator
-		return new ByteArrayInputStream(bytes);
+		return new ByteArrayInputStream(bytes, offset, length);
 	}
 
 	@Override
 	public ByteString substring(int start, int end) {
-		if (start > end || start < 0 || end < 0 || end > bytes.length) {
+		if (start > end || start < 0 || end < 0 || end > length) {
 			throw new IndexOutOfBoundsException();
 		}
-		return new ArrayByteString(Arrays.copyOfRange(bytes, start, end));
+		return end - start == length ? this : slice(bytes, offset + start, end - start);
 	}
 
 	@Override
 	public byte[] getBytes() {
-		return Arrays.copyOf(bytes, bytes.length);
+		return Arrays.copyOfRange(bytes, offset, offset + length);
 	}
 
 	@Override
 	public void putTo(ByteBuffer buffer) {
-		buffer.put(bytes);
+		buffer.put(bytes, offset, length);
 	}
 
 	@Override
@@ -144,7 +210,7 @@ class ArrayByteString extends ByteString {
 
 	@Override
 	public boolean startsWith(byte b) {
-		return bytes.length > 0 && bytes[0] == b;
+		return length > 0 && bytes[offset] == b;
 	}
 
 }
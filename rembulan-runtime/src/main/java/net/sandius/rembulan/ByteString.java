@@ -151,7 +151,7 @@ public abstract class ByteString implements Comparable<ByteString> {
 			throw new IndexOutOfBoundsException("offset=" + offset + ", length=" + length);
 		}
 
-		return wrap(Arrays.copyOfRange(bytes, offset, length));
+		return wrap(Arrays.copyOfRange(bytes, offset, offset + length));
 	}
 
 	/**
@@ -218,6 +218,9 @@ public abstract class ByteString implements Comparable<ByteString> {
 	/**
 	 * Returns the byte at position {@code index}.
 	 *
+	 * <p>Unlike {@link #getBytes()}, this method does not copy the contents
+	 * of this byte string.</p>
+	 *
 	 * @param index  the position in the string
 	 * @return  the byte at position {@code index}
 	 *
@@ -271,6 +274,9 @@ public abstract class ByteString implements Comparable<ByteString> {
 	 *
 	 * <p>The indices refer to the <i>byte</i> position in the byte string.</p>
 	 *
+	 * <p>The substring may share its contents with this byte string, so taking
+	 * a long substring does not necessarily copy its bytes.</p>
+	 *
 	 * @param start  the first index to include in the new substring (inclusive)
 	 * @param end  the smallest index immediately following the new substring in this byte string
 	 * @return  a substring of this byte string ranging from {@code start} (inclusive)
@@ -408,22 +414,95 @@ public abstract class ByteString implements Comparable<ByteString> {
 	 * may (<i>but might not necessarily</i>) preserve unmappable and malformed characters
 	 * occurring in the two strings.</p>
 	 *
+	 * <p>The bytes of long results are not copied until they are first accessed, so that
+	 * building a string by repeated concatenation takes time linear in its length.</p>
+	 *
 	 * @param other  the byte string to concatenate this byte string with, must not be {@code null}
 	 * @return  this byte string concatenated with {@code other}
 	 *
 	 * @throws NullPointerException  if {@code other} is {@code null}
+	 * @throws IllegalArgumentException  if the length of the result would exceed
+	 *                                   {@link Integer#MAX_VALUE}
 	 */
 	public ByteString concat(ByteString other) {
 		if (other.isEmpty()) return this;
 		else if (this.isEmpty()) return other;
 
-		byte[] thisBytes = this.getBytes();
-		byte[] otherBytes = other.getBytes();
+		int length = concatLength(this.length(), other.length());
+
+		if (length >= RopeByteString.MIN_LENGTH) {
+			// defer the copying until the result is accessed
+			return new RopeByteString(this, other, length);
+		}
+		else {
+			ByteBuffer buffer = ByteBuffer.allocate(length);
+			this.putTo(buffer);
+			other.putTo(buffer);
+			return ByteString.wrap(buffer.array());
+		}
+	}
+
+	static int concatLength(int a, int b) {
+		int length = a + b;
+		if (length < 0) {
+			throw new IllegalArgumentException("string length overflow");
+		}
+		return length;
+	}
+
+	/**
+	 * Returns a byte string formed by concatenating the byte strings {@code strings[from]},
+	 * {@code strings[from + 1]}, ..., {@code strings[to - 1]}.
+	 *
+	 * <p>Short operands are copied into the result in a single pass; long operands
+	 * are not copied until the result is accessed (see {@link #concat(ByteString)}).</p>
+	 *
+	 * @param strings  the array of byte strings to concatenate, must not be {@code null}
+	 * @param from  the index of the first byte string to concatenate (inclusive)
+	 * @param to  the index of the last byte string to concatenate (exclusive)
+	 * @return  the concatenation of the byte strings in {@code strings} between
+	 *          the indices {@code from} and {@code to}
+	 *
+	 * @throws NullPointerException  if {@code strings} or any of its elements between
+	 *                               {@code from} and {@code to} is {@code null}
+	 * @throws IndexOutOfBoundsException  if {@code from} is negative, {@code from} is greater
+	 *                                    than {@code to}, or {@code to} is greater than
+	 *                                    {@code strings.length}
+	 * @throws IllegalArgumentException  if the length of the result would exceed
+	 *                                   {@link Integer#MAX_VALUE}
+	 */
+	public static ByteString concat(ByteString[] strings, int from, int to) {
+		if (from < 0 || from > to || to > strings.length) {
+			throw new IndexOutOfBoundsException("from=" + from + ", to=" + to);
+		}
+
+		ByteString result = empty();
+		ByteStringBuilder builder = null;
+
+		for (int i = from; i < to; i++) {
+			ByteString s = strings[i];
+
+			// don't force the length computation: strings of unknown length are copied
+			if (s.maybeLength() >= RopeByteString.MIN_LENGTH) {
+				if (builder != null && builder.length() > 0) {
+					result = result.concat(builder.toByteString());
+					builder.setLength(0);
+				}
+				result = result.concat(s);
+			}
+			else {
+				if (builder == null) {
+					builder = new ByteStringBuilder();
+				}
+				builder.append(s);
+			}
+		}
+
+		if (builder != null && builder.length() > 0) {
+			result = result.concat(builder.toByteString());
+		}
 
-		byte[] result = new byte[thisBytes.length + otherBytes.length];
-		System.arraycopy(thisBytes, 0, result, 0, thisBytes.length);
-		System.arraycopy(otherBytes, 0, result, thisBytes.length, otherBytes.length);
-		return ByteString.wrap(result);
+		return result;
 	}
 
 	/**
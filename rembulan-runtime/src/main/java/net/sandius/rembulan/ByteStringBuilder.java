@@ -18,6 +18,7 @@ package net.sandius.rembulan;
 
 import net.sandius.rembulan.util.Check;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.Arrays;
 
@@ -227,7 +228,19 @@ public class ByteStringBuilder {
 	 * @throws NullPointerException  if {@code string} is {@code null}
 	 */
 	public ByteStringBuilder append(ByteString string) {
-		return append(string.getBytes());
+		int len = string.maybeLength();
+		if (len < 0) {
+			// the length is not known without encoding the string anyway
+			return append(string.getBytes());
+		}
+
+		if (len > 0) {
+			ensureCapacity(length + len);
+			string.putTo(ByteBuffer.wrap(buffer, length, len));
+			length += len;
+		}
+
+		return this;
 	}
 
 	/**
@@ -165,12 +165,45 @@ public final class Metatables {
 	 */
 	public static final ByteString MT_MODE = ByteString.constOf("__mode");
 
+	// events whose absence from a metatable is remembered by the metatable; the flag
+	// of an event is (1 << i), where i is the index of the event in this array
+	private static final ByteString[] FLAGGED_EVENTS = new ByteString[] {
+			MT_INDEX, MT_NEWINDEX, MT_EQ, MT_LEN, MT_CALL, MT_MODE,
+			MT_LT, MT_LE, MT_CONCAT, MT_UNM,
+			MT_ADD, MT_SUB, MT_MUL, MT_DIV, MT_MOD, MT_POW, MT_IDIV,
+			MT_BAND, MT_BOR, MT_BXOR, MT_BNOT, MT_SHL, MT_SHR
+	};
+
+	/**
+	 * Returns the bit used to mark the absence of {@code event} in a metatable,
+	 * or {@code 0} if the absence of {@code event} is not tracked.
+	 *
+	 * <p>Only the metatable keys defined in this class are tracked, and they are
+	 * matched by reference. The lookup is linear in the number of tracked keys:
+	 * callers that repeatedly look up the same event should compute its flag once
+	 * and pass it to {@link #getMetamethod(MetatableProvider, ByteString, int, Object)}
+	 * or {@link #binaryHandlerFor(MetatableProvider, ByteString, int, Object, Object)}.</p>
+	 *
+	 * @param event  the metatable key, may be {@code null}
+	 * @return  the flag of {@code event}, or {@code 0} if {@code event} is not tracked
+	 */
+	public static int eventFlag(ByteString event) {
+		for (int i = 0; i < FLAGGED_EVENTS.length; i++) {
+			if (FLAGGED_EVENTS[i] == event) {
+				return 1 << i;
+			}
+		}
+		return 0;
+	}
+
 	/**
 	 * Returns the entry with the key {@code event} of the metatable of the {@link LuaObject}
 	 * {@code o}. If {@code o} does not have a metatable or {@code event} does not exist in it as
 	 * a key, returns {@code null}.
 	 *
-	 * <p>The access of the metatable is raw (i.e. uses {@link Table#rawget(Object)}).</p>
+	 * <p>The access of the metatable is raw (i.e. uses {@link Table#rawget(Object)}),
+	 * but the metatable remembers the absence of the metatable keys defined
+	 * in this class.</p>
 	 *
 	 * <p>This method differs from {@link #getMetamethod(MetatableProvider, ByteString, Object)}
 	 * in that it does not require a metatable provider as the object in question is known
@@ -189,7 +222,7 @@ public final class Metatables {
 
 		Table mt = o.getMetatable();
 		if (mt != null) {
-			return mt.rawget(event);
+			return mt.metamethod(event, eventFlag(event));
 		}
 		else {
 			return null;
@@ -201,7 +234,9 @@ public final class Metatables {
 	 * If {@code o} does not have a metatable or {@code event} does not exist in it as
 	 * a key, returns {@code null}.
 	 *
-	 * <p>The access of the metatable is raw (i.e. uses {@link Table#rawget(Object)}).</p>
+	 * <p>The access of the metatable is raw (i.e. uses {@link Table#rawget(Object)}),
+	 * but the metatable remembers the absence of the metatable keys defined
+	 * in this class.</p>
 	 *
 	 * @param metatableProvider  the metatable provider, must not be {@code null}
 	 * @param event  the key to look up in the metatable, must not be {@code null}
@@ -212,12 +247,33 @@ public final class Metatables {
 	 * @throws NullPointerException  if {@code metatableProvider} or {@code event} is {@code null}
 	 */
 	public static Object getMetamethod(MetatableProvider metatableProvider, ByteString event, Object o) {
+		return getMetamethod(metatableProvider, event, eventFlag(event), o);
+	}
+
+	/**
+	 * Returns the entry with the key {@code event} of the metatable of the object {@code o},
+	 * where {@code eventFlag} is the flag of {@code event} as returned by
+	 * {@link #eventFlag(ByteString)}.
+	 *
+	 * <p>This method is equivalent to {@link #getMetamethod(MetatableProvider, ByteString, Object)},
+	 * but does not need to look up the flag of {@code event}.</p>
+	 *
+	 * @param metatableProvider  the metatable provider, must not be {@code null}
+	 * @param event  the key to look up in the metatable, must not be {@code null}
+	 * @param eventFlag  the flag of {@code event}
+	 * @param o  the object in question, may be {@code null}
+	 * @return  a non-{@code null} value if {@code event} is a key in {@code o}'s metatable;
+	 *          {@code null} otherwise
+	 *
+	 * @throws NullPointerException  if {@code metatableProvider} or {@code event} is {@code null}
+	 */
+	public static Object getMetamethod(MetatableProvider metatableProvider, ByteString event, int eventFlag, Object o) {
 		Objects.requireNonNull(event);
 		// o can be null
 
 		Table mt = metatableProvider.getMetatable(o);
 		if (mt != null) {
-			return mt.rawget(event);
+			return mt.metamethod(event, eventFlag);
 		}
 		else {
 			return null;
@@ -243,10 +299,34 @@ public final class Metatables {
 	 * @throws NullPointerException  if {@code metatableProvider} or {@code event} is {@code null}
 	 */
 	public static Object binaryHandlerFor(MetatableProvider metatableProvider, ByteString event, Object a, Object b) {
+		return binaryHandlerFor(metatableProvider, event, eventFlag(event), a, b);
+	}
+
+	/**
+	 * Returns the metatable entry {@code event} for {@code a} or in {@code b}, or {@code null}
+	 * if neither {@code a} nor {@code b} has such an entry in their metatable, where
+	 * {@code eventFlag} is the flag of {@code event} as returned by {@link #eventFlag(ByteString)}.
+	 *
+	 * <p>This method is equivalent to
+	 * {@link #binaryHandlerFor(MetatableProvider, ByteString, Object, Object)},
+	 * but does not need to look up the flag of {@code event}.</p>
+	 *
+	 * @param metatableProvider  the metatable provider, must not be {@code null}
+	 * @param event  the key to look up in the metatable, must not be {@code null}
+	 * @param eventFlag  the flag of {@code event}
+	 * @param a  the first object to try, may be {@code null}
+	 * @param b  the second object to try, may be {@code null}
+	 *
+	 * @return  a non-{@code null} value if {@code event} is a key in {@code a}'s or {@code b}'s
+	 *          metatable (in this order); {@code null} otherwise
+	 *
+	 * @throws NullPointerException  if {@code metatableProvider} or {@code event} is {@code null}
+	 */
+	public static Object binaryHandlerFor(MetatableProvider metatableProvider, ByteString event, int eventFlag, Object a, Object b) {
 		Objects.requireNonNull(metatableProvider);
 		Objects.requireNonNull(event);
-		Object ma = Metatables.getMetamethod(metatableProvider, event, a);
-		return ma != null ? ma : Metatables.getMetamethod(metatableProvider, event, b);
+		Object ma = Metatables.getMetamethod(metatableProvider, event, eventFlag, a);
+		return ma != null ? ma : Metatables.getMetamethod(metatableProvider, event, eventFlag, b);
 	}
 
 }
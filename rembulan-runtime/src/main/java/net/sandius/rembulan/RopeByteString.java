@@ -0,0 +1,249 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sandius.rembulan;
+
+import net.sandius.rembulan.util.ArrayByteIterator;
+import net.sandius.rembulan.util.ByteIterator;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Objects;
+
+/**
+ * A byte string formed by concatenating two byte strings, flattened into a byte array
+ * the first time its contents are accessed.
+ *
+ * <p>Creating a rope does not copy the bytes of its operands. A string built by
+ * repeatedly appending to an accumulator (as in {@code s = s .. x}) is therefore
+ * a tree of ropes that is materialised in a single pass when it is first read, rather
+ * than being copied in its entirety on every append.</p>
+ */
+class RopeByteString extends ByteString {
+
+	/**
+	 * The minimum length of a rope. Shorter concatenations are copied eagerly.
+	 */
+	static final int MIN_LENGTH = 64;
+
+	private final int length;
+
+	// either a ByteString[] { left, right }, or the flattened byte[]
+	private volatile Object contents;
+
+	private int hashCode;
+
+	RopeByteString(ByteString left, ByteString right, int length) {
+		this.length = length;
+		this.contents = new ByteString[] { Objects.requireNonNull(left), Objects.requireNonNull(right) };
+	}
+
+	private byte[] bytes() {
+		Object c = contents;
+		if (c instanceof byte[]) {
+			return (byte[]) c;
+		}
+		else {
+			byte[] result = flatten((ByteString[]) c);
+			contents = result;  // releases the children
+			return result;
+		}
+	}
+
+	private byte[] flatten(ByteString[] children) {
+		byte[] result = new byte[length];
+		int end = length;
+
+		// fill the result from the end, visiting the leaves from right to left
+		Deque<ByteString> stack = new ArrayDeque<>();
+		stack.push(children[0]);
+		stack.push(children[1]);
+
+		while (!stack.isEmpty()) {
+			ByteString s = stack.pop();
+
+			Object c = s instanceof RopeByteString ? ((RopeByteString) s).contents : null;
+			if (c instanceof ByteString[]) {
+				ByteString[] cs = (ByteString[]) c;
+				stack.push(cs[0]);
+				stack.push(cs[1]);
+			}
+			else if (c instanceof byte[]) {
+				byte[] bs = (byte[]) c;
+				end -= bs.length;
+				System.arraycopy(bs, 0, result, end, bs.length);
+			}
+			else {
+				int len = s.length();
+				end -= len;
+				s.putTo(ByteBuffer.wrap(result, end, len));
+			}
+		}
+
+		assert (end == 0);
+		return result;
+	}
+
+	@Override
+	protected boolean equals(ByteString that) {
+		if (this.length != that.length()) return false;
+
+		// don't force hashCode computation, but use if already known
+		int thisHash = this.maybeHashCode();
+		int thatHash = that.maybeHashCode();
+		if (thisHash != 0 && thatHash != 0 && thisHash != thatHash) return false;
+
+		ByteIterator it = that.byteIterator();
+		for (byte b : bytes()) {
+			if (!it.hasNext() || b != it.nextByte()) return false;
+		}
+
+		return true;
+	}
+
+	@Override
+	public int hashCode() {
+		int hc = hashCode;
+		if (hc == 0) {
+			for (byte b : bytes()) {
+				hc = (hc * 31) + (b & 0xff);
+			}
+			hashCode = hc;
+		}
+
+		return hc;
+	}
+
+	@Override
+	int maybeHashCode() {
+		return hashCode;
+	}
+
+	@Override
+	public String toString() {
+		return decode();
+	}
+
+	@Override
+	public String toRawString() {
+		byte[] bytes = bytes();
+		char[] chars = new char[bytes.length];
+		for (int i = 0; i < chars.length; i++) {
+			chars[i] = (char) (bytes[i] & 0xff);
+		}
+		return String.valueOf(chars);
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	int maybeLength() {
+		return length;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return length == 0;
+	}
+
+	@Override
+	public byte byteAt(int index) {
+		return bytes()[index];
+	}
+
+	@Override
+	public ByteIterator byteIterator() {
+		return new ArrayByteIterator(bytes());
+	}
+
+	@Override
+	public InputStream asInputStream() {
+		// no need to go via the iterator
+		return new ByteArrayInputStream(bytes());
+	}
+
+	@Override
+	public ByteString substring(int start, int end) {
+		if (start > end || start < 0 || end < 0 || end > length) {
+			throw new IndexOutOfBoundsException();
+		}
+		return ArrayByteString.slice(bytes(), start, end - start);
+	}
+
+	@Override
+	public byte[] getBytes() {
+		byte[] bytes = bytes();
+		return Arrays.copyOf(bytes, bytes.length);
+	}
+
+	@Override
+	public void putTo(ByteBuffer buffer) {
+		buffer.put(bytes());
+	}
+
+	@Override
+	public void writeTo(OutputStream stream) throws IOException {
+		// must make a defensive copy to avoid leaking the contents
+		stream.write(getBytes());
+	}
+
+	@Override
+	public ByteString concat(ByteString other) {
+		Object c = contents;
+		if (c instanceof ByteString[]) {
+			ByteString[] cs = (ByteString[]) c;
+			ByteString right = cs[1];
+
+			// append short pieces to a short right-hand leaf in order to keep
+			// the number of nodes proportional to the length of the string
+			if (!(right instanceof RopeByteString)) {
+				int otherLength = other.length();
+				int rightLength = right.length();
+				if (otherLength > 0 && rightLength + otherLength < MIN_LENGTH) {
+					return new RopeByteString(cs[0], right.concat(other), concatLength(length, otherLength));
+				}
+			}
+		}
+
+		return super.concat(other);
+	}
+
+	@Override
+	public boolean startsWith(byte b) {
+		// no need to flatten: look at the leftmost leaf
+		ByteString s = this;
+		while (s instanceof RopeByteString) {
+			Object c = ((RopeByteString) s).contents;
+			if (c instanceof byte[]) {
+				return ((byte[]) c)[0] == b;
+			}
+			else {
+				s = ((ByteString[]) c)[0];
+			}
+		}
+		return s.startsWith(b);
+	}
+
+}
@@ -36,6 +36,7 @@ class StringByteString extends ByteString {
 
 	private int byteHashCode;
 	private int byteLength;
+	private volatile byte[] bytes;  // the encoded string, computed lazily
 
 	StringByteString(String s, Charset charset) {
 		this.string = Objects.requireNonNull(s);
@@ -137,8 +138,13 @@ class StringByteString extends ByteString {
 
 	// must not escape, may be an array from the cache!
 	private byte[] toBytes() {
-		// TODO: cache the result
-		return string.getBytes(charset);
+		byte[] bytes = this.bytes;
+		if (bytes == null) {
+			bytes = string.getBytes(charset);
+			this.bytes = bytes;
+			byteLength = bytes.length;
+		}
+		return bytes;
 	}
 
 	@Override
@@ -175,7 +181,7 @@ class StringByteString extends ByteString {
 	public ByteString substring(int start, int end) {
 		byte[] bytes = toBytes();
 		checkSubstringBounds(start, end, bytes.length);
-		return new ArrayByteString(Arrays.copyOfRange(bytes, start, end));
+		return ArrayByteString.slice(bytes, start, end - start);
 	}
 
 	@Override
@@ -219,7 +225,8 @@ class StringByteString extends ByteString {
 	public ByteString concat(ByteString other) {
 		if (other instanceof StringByteString) {
 			StringByteString that = (StringByteString) other;
-			if (this.charset.equals(that.charset)) {
+			if (this.charset.equals(that.charset)
+					&& this.string.length() + that.string.length() < RopeByteString.MIN_LENGTH) {
 				// Caveat: preserves malformed characters and characters unmappable by charset
 				return ByteString.of(this.string.concat(that.string));
 			}
@@ -89,8 +89,9 @@ public abstract class Table extends LuaObject {
 	 * <ul>
 	 *     <li>float keys that have an integer value must be treated as integer keys
 	 *       (e.g. by using {@link Conversions#normaliseKey(Object)};</li>
-	 *     <li>updates of the value associated with the key {@code "__mode"}
-	 *       must call {@link #updateBasetableModes(Object, Object)}.</li>
+	 *     <li>updates of the value associated with a string key starting with {@code "__"}
+	 *       (in particular, the key {@code "__mode"}) must call
+	 *       {@link #updateBasetableModes(Object, Object)}.</li>
 	 * </ul>
 	 *
 	 * @param key  the key, must not be {@code null} or <i>NaN</i>
@@ -119,6 +120,20 @@ public abstract class Table extends LuaObject {
 		rawset(Long.valueOf(idx), value);
 	}
 
+	/**
+	 * Hints to this table that values are about to be associated with the integer keys
+	 * {@code 1} to {@code size}, allowing the implementation to allocate the storage for
+	 * them in advance.
+	 *
+	 * <p>This method does not change the contents of the table. The default implementation
+	 * of this method does nothing.</p>
+	 *
+	 * @param size  the expected number of consecutive integer keys starting at {@code 1}
+	 */
+	public void ensureArrayCapacity(long size) {
+		// no-op by default
+	}
+
 	/**
 	 * If this table is a sequence, returns the length of this sequence.
 	 *
@@ -231,6 +246,17 @@ public abstract class Table extends LuaObject {
 	 */
 	private final Set<Table> basetables = Collections.newSetFromMap(new WeakHashMap<Table, Boolean>());
 
+	/**
+	 * A bitmask of metatable events known not to be keys in this table when this table
+	 * is used as a metatable. The bits are assigned by {@link Metatables#eventFlag(ByteString)}.
+	 *
+	 * The mask is filled in by lookups in {@link #metamethod(ByteString, int)}, and cleared
+	 * in {@link #updateBasetableModes(Object, Object)} whenever a key starting with "__"
+	 * is updated, so that tables that are used as metatables but lack e.g. the "__index"
+	 * or "__eq" entries do not pay for a hash lookup on every metamethod check.
+	 */
+	private int absentEvents;
+
 	/**
 	 * Sets the metatable of this table to {@code mt}. {@code mt} may be {@code null}:
 	 * in that case, removes the metatable from this object.
@@ -261,12 +287,9 @@ public abstract class Table extends LuaObject {
 
 		if (mt != null) {
 			mt.basetables.add(this);
-			Object m = mt.rawget(Metatables.MT_MODE);
-			if (m instanceof String) {
-				String s = (String) m;
-				wk = s.indexOf('k') > -1;
-				wv = s.indexOf('v') > -1;
-			}
+			Object m = mt.metamethod(Metatables.MT_MODE);
+			wk = modeContains(m, 'k');
+			wv = modeContains(m, 'v');
 		}
 
 		metatable = mt;
@@ -275,39 +298,100 @@ public abstract class Table extends LuaObject {
 		return old;
 	}
 
+	private static boolean modeContains(Object mode, char c) {
+		if (mode instanceof ByteString) {
+			return ((ByteString) mode).contains((byte) c);
+		}
+		else if (mode instanceof String) {
+			return ((String) mode).indexOf(c) > -1;
+		}
+		else {
+			return false;
+		}
+	}
+
 	@Override
 	public Table getMetatable() {
 		// not thread-safe!
 		return metatable;
 	}
 
+	/**
+	 * Returns the value associated with the metatable key {@code event} in this table,
+	 * or {@code null} if there is no such value. The result is the same as that of
+	 * {@link #rawget(Object)}, but the absence of the most common metatable events
+	 * is remembered until the next update of a key starting with {@code "__"}.
+	 *
+	 * @param event  the metatable key, must not be {@code null}
+	 * @return  the value associated with {@code event} in this table, or {@code null}
+	 *          if there is no value associated with {@code event}
+	 */
+	Object metamethod(ByteString event) {
+		return metamethod(event, Metatables.eventFlag(event));
+	}
+
+	/**
+	 * Returns the value associated with the metatable key {@code event} in this table,
+	 * or {@code null} if there is no such value, where {@code flag} is the flag
+	 * of {@code event} as returned by {@link Metatables#eventFlag(ByteString)}.
+	 *
+	 * @param event  the metatable key, must not be {@code null}
+	 * @param flag  the flag of {@code event}
+	 * @return  the value associated with {@code event} in this table, or {@code null}
+	 *          if there is no value associated with {@code event}
+	 */
+	Object metamethod(ByteString event, int flag) {
+		// not thread-safe!
+		assert (flag == Metatables.eventFlag(event));
+		if ((absentEvents & flag) != 0) {
+			return null;
+		}
+
+		Object handler = rawget(event);
+		if (handler == null) {
+			absentEvents |= flag;
+		}
+		return handler;
+	}
+
+	private static boolean isEventKey(Object key) {
+		if (key instanceof ByteString) {
+			ByteString s = (ByteString) key;
+			return s.length() > 1 && s.byteAt(0) == '_' && s.byteAt(1) == '_';
+		}
+		else {
+			return key instanceof String && ((String) key).startsWith("__");
+		}
+	}
+
 	/**
 	 * If {@code key} is equal to {@link Metatables#MT_MODE}, updates the weakness of the tables
 	 * that use this table as their metatable (i.e., the <i>basetables</i> of this table).
-	 * Otherwise, this method has no effect.
+	 * If {@code key} is any other string starting with {@code "__"}, forgets the metatable
+	 * events previously found to be absent from this table. Otherwise, this method has
+	 * no effect.
 	 *
 	 * <p>Whenever applicable, this method <b>must</b> be called by the implementations
 	 * of {@link #rawset(Object, Object)} in order to ensure that assignments to
 	 * the {@link Metatables#MT_MODE} key update the weakness mode of the tables that use this
-	 * table as a metatable, as required by §2.5.2 of the Lua Reference Manual.</p>
+	 * table as a metatable, as required by §2.5.2 of the Lua Reference Manual, and that
+	 * newly-added metamethods are not missed.</p>
 	 *
-	 * <p>It is safe not to call this method when {@code key} is known not to be equal to
-	 * {@link Metatables#MT_MODE}.</p>
+	 * <p>It is safe not to call this method when {@code key} is known not to be a string
+	 * starting with {@code "__"}.</p>
 	 *
 	 * @param key  the key, may be {@code null}
 	 * @param value  the value, may be {@code null}
 	 */
 	protected void updateBasetableModes(Object key, Object value) {
 		// not thread-safe!
-		if (Metatables.MT_MODE.equals(key)) {
-			boolean wk = false;
-			boolean wv = false;
+		if (absentEvents != 0 && isEventKey(key)) {
+			absentEvents = 0;
+		}
 
-			if (value instanceof String) {
-				String s = (String) value;
-				wk = s.indexOf('k') > -1;
-				wv = s.indexOf('v') > -1;
-			}
+		if (Metatables.MT_MODE.equals(key)) {
+			boolean wk = modeContains(value, 'k');
+			boolean wv = modeContains(value, 'v');
 
 			// update all tables
 			for (Table t : basetables) {
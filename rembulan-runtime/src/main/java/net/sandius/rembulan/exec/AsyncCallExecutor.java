@@ -0,0 +1,276 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sandius.rembulan.exec;
+
+import net.sandius.rembulan.Conversions;
+import net.sandius.rembulan.StateContext;
+import net.sandius.rembulan.impl.ReturnBuffers;
+import net.sandius.rembulan.impl.SchedulingContexts;
+import net.sandius.rembulan.runtime.AsyncTask;
+import net.sandius.rembulan.runtime.ReturnBufferFactory;
+import net.sandius.rembulan.runtime.RuntimeCallInitialiser;
+import net.sandius.rembulan.runtime.SchedulingContextFactory;
+
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A call executor that executes Lua calls on an {@link Executor} without blocking any thread
+ * while a call waits for an asynchronous task to finish.
+ *
+ * <p>Calls are resumed by tasks submitted to the executor. When a call schedules
+ * an {@link AsyncTask}, the executor runs the task and returns; the call is resumed
+ * by a new executor task once the asynchronous task invokes its continue callback.
+ * When a call pauses (for instance, because its scheduling context requested it),
+ * it is resubmitted to the executor, letting other calls run in the meantime.
+ * The result of a call is delivered in a {@link CallFuture}.</p>
+ *
+ * <p>A large number of suspended calls may therefore be served by a small thread pool.
+ * If the executor rejects a resumption, the call fails with a {@link CallException}
+ * whose cause is the {@link RejectedExecutionException}.</p>
+ */
+public class AsyncCallExecutor {
+
+	private final Executor executor;
+	private final SchedulingContextFactory schedulingContextFactory;
+	private final ReturnBufferFactory returnBufferFactory;
+	private final boolean performJavaConversions;
+
+	AsyncCallExecutor(Executor executor, SchedulingContextFactory schedulingContextFactory) {
+		this.executor = Objects.requireNonNull(executor);
+		this.schedulingContextFactory = Objects.requireNonNull(schedulingContextFactory);
+		this.returnBufferFactory = ReturnBuffers.defaultFactory();
+		this.performJavaConversions = true;
+	}
+
+	/**
+	 * Returns a new asynchronous call executor that executes calls on {@code executor},
+	 * using {@code schedulingContextFactory} to instantiate a new scheduling context
+	 * on each resume.
+	 *
+	 * @param executor  the executor, must not be {@code null}
+	 * @param schedulingContextFactory  the scheduling context factory, must not be {@code null}
+	 * @return  an asynchronous call executor
+	 *
+	 * @throws NullPointerException  if {@code executor} or {@code schedulingContextFactory}
+	 *                               is {@code null}
+	 */
+	public static AsyncCallExecutor newExecutor(Executor executor, SchedulingContextFactory schedulingContextFactory) {
+		return new AsyncCallExecutor(executor, schedulingContextFactory);
+	}
+
+	/**
+	 * Returns a new asynchronous call executor that executes calls on {@code executor},
+	 * with a scheduler that never requests executions to be paused.
+	 *
+	 * @param executor  the executor, must not be {@code null}
+	 * @return  an asynchronous call executor
+	 *
+	 * @throws NullPointerException  if {@code executor} is {@code null}
+	 */
+	public static AsyncCallExecutor newExecutor(Executor executor) {
+		return newExecutor(executor, SchedulingContexts.neverPauseFactory());
+	}
+
+	/**
+	 * Returns the scheduling context factory used by this executor.
+	 *
+	 * @return  the scheduling context factory used by this executor
+	 */
+	public SchedulingContextFactory schedulingContextFactory() {
+		return schedulingContextFactory;
+	}
+
+	/**
+	 * Starts the call {@code fn(args...)} in the state context {@code stateContext}
+	 * on the executor, returning a future for the call result.
+	 *
+	 * @param stateContext  state context of the call, must not be {@code null}
+	 * @param fn  the call target, may be {@code null}
+	 * @param args  call arguments, must not be {@code null}
+	 * @return  a future for the call result
+	 *
+	 * @throws NullPointerException  if {@code stateContext} or {@code args} is {@code null}
+	 */
+	public CallFuture call(StateContext stateContext, Object fn, Object... args) {
+		CallInitialiser initialiser = RuntimeCallInitialiser.forState(
+				stateContext,
+				returnBufferFactory);
+
+		return resume(initialiser.newCall(
+				performJavaConversions ? Conversions.canonicalRepresentationOf(fn) : fn,
+				performJavaConversions ? Conversions.copyAsCanonicalValues(args) : args));
+	}
+
+	/**
+	 * Resumes {@code continuation} on the executor, returning a future for the call result.
+	 *
+	 * @param continuation  the continuation to resume, must not be {@code null}
+	 * @return  a future for the call result
+	 *
+	 * @throws NullPointerException  if {@code continuation} is {@code null}
+	 */
+	public CallFuture resume(Continuation continuation) {
+		Objects.requireNonNull(continuation);
+		CallFuture future = new CallFuture();
+		schedule(continuation, future);
+		return future;
+	}
+
+	/**
+	 * A task resuming a call, submitted to the executor.
+	 */
+	final class Resumption implements Runnable {
+
+		private final Continuation continuation;
+		private final CallFuture future;
+
+		Resumption(Continuation continuation, CallFuture future) {
+			this.continuation = Objects.requireNonNull(continuation);
+			this.future = Objects.requireNonNull(future);
+		}
+
+		@Override
+		public void run() {
+			step(continuation, future);
+		}
+
+		/**
+		 * Completes the call with an error instead of resuming it.
+		 */
+		void reject(Throwable cause) {
+			future.failed(new CallException(cause));
+		}
+
+		/**
+		 * Completes the call with an error after this resumption terminated abnormally,
+		 * unless the call has already completed.
+		 */
+		void abort(Throwable cause) {
+			future.failedIfPending(new CallException(cause));
+		}
+
+	}
+
+	private void schedule(Continuation continuation, CallFuture future) {
+		Resumption resumption = new Resumption(continuation, future);
+		try {
+			executor.execute(resumption);
+		}
+		catch (RejectedExecutionException ex) {
+			resumption.reject(ex);
+		}
+	}
+
+	private void step(Continuation continuation, final CallFuture future) {
+		Step step = new Step();
+
+		try {
+			continuation.resume(step, schedulingContextFactory.newInstance());
+		}
+		catch (RuntimeException ex) {
+			// e.g. an invalid continuation
+			future.failed(new CallException(ex));
+			return;
+		}
+
+		if (step.values != null) {
+			if (performJavaConversions) {
+				Conversions.toJavaValues(step.values);
+			}
+			future.returned(step.values);
+		}
+		else if (step.error != null) {
+			future.failed(new CallException(step.error));
+		}
+		else if (step.task != null) {
+			final Continuation cont = step.cont;
+			final AtomicBoolean finished = new AtomicBoolean(false);
+
+			try {
+				step.task.execute(new AsyncTask.ContinueCallback() {
+					@Override
+					public void finished() {
+						if (finished.compareAndSet(false, true)) {
+							schedule(cont, future);
+						}
+					}
+				});
+			}
+			catch (RuntimeException ex) {
+				// the task failed to start; unless it has already signalled completion,
+				// the call will never be resumed
+				if (finished.compareAndSet(false, true)) {
+					future.failed(new CallException(ex));
+				}
+			}
+		}
+		else if (step.cont != null) {
+			// paused: give other calls a chance to run
+			schedule(step.cont, future);
+		}
+		else {
+			future.failed(new CallException(new IllegalStateException("Call result has not been set")));
+		}
+	}
+
+	private static class Step implements CallEventHandler {
+
+		// at most one of values, error and cont is non-null; task may only be non-null
+		// if cont is non-null
+
+		private Object[] values;
+		private Throwable error;
+		private Continuation cont;
+		private AsyncTask task;
+
+		private void checkNotSet() {
+			if (values != null || error != null || cont != null) {
+				throw new IllegalStateException("Call result already set");
+			}
+		}
+
+		@Override
+		public void returned(Object id, Object[] result) {
+			checkNotSet();
+			this.values = Objects.requireNonNull(result);
+		}
+
+		@Override
+		public void failed(Object id, Throwable error) {
+			checkNotSet();
+			this.error = Objects.requireNonNull(error);
+		}
+
+		@Override
+		public void paused(Object id, Continuation cont) {
+			checkNotSet();
+			this.cont = Objects.requireNonNull(cont);
+		}
+
+		@Override
+		public void async(Object id, Continuation cont, AsyncTask task) {
+			checkNotSet();
+			this.cont = Objects.requireNonNull(cont);
+			this.task = Objects.requireNonNull(task);
+		}
+
+	}
+
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sandius.rembulan.exec;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The result of a Lua call executed asynchronously by an {@link AsyncCallExecutor}.
+ *
+ * <p>The result may be obtained by blocking in {@link #get()}, or without blocking
+ * by registering a {@link Listener} using {@link #addListener(Listener)}. Failed calls
+ * complete with a {@link CallException}.</p>
+ *
+ * <p>Calls executed by an {@code AsyncCallExecutor} cannot be cancelled:
+ * {@link #cancel(boolean)} always returns {@code false}.</p>
+ */
+public final class CallFuture implements Future<Object[]> {
+
+	/**
+	 * A listener notified when a call completes.
+	 */
+	public interface Listener {
+
+		/**
+		 * Invoked when the call returned {@code result}.
+		 *
+		 * @param result  the call result, not {@code null}
+		 */
+		void returned(Object[] result);
+
+		/**
+		 * Invoked when the call terminated abnormally.
+		 *
+		 * @param error  the error, not {@code null}
+		 */
+		void failed(CallException error);
+
+	}
+
+	private boolean done;
+	private Object[] values;
+	private CallException error;
+
+	private List<Listener> listeners;
+
+	CallFuture() {
+		this.done = false;
+		this.listeners = new ArrayList<>();
+	}
+
+	private boolean tryComplete(Object[] values, CallException error) {
+		List<Listener> ls;
+
+		synchronized (this) {
+			if (done) {
+				return false;
+			}
+
+			this.values = values;
+			this.error = error;
+			this.done = true;
+
+			ls = listeners;
+			listeners = null;
+
+			notifyAll();
+		}
+
+		for (Listener l : ls) {
+			notify(l);
+		}
+		return true;
+	}
+
+	private void complete(Object[] values, CallException error) {
+		if (!tryComplete(values, error)) {
+			throw new IllegalStateException("Call result already set");
+		}
+	}
+
+	void returned(Object[] values) {
+		complete(Objects.requireNonNull(values), null);
+	}
+
+	void failed(CallException error) {
+		complete(null, Objects.requireNonNull(error));
+	}
+
+	boolean failedIfPending(CallException error) {
+		return tryComplete(null, Objects.requireNonNull(error));
+	}
+
+	private void notify(Listener listener) {
+		if (error == null) {
+			listener.returned(values);
+		}
+		else {
+			listener.failed(error);
+		}
+	}
+
+	/**
+	 * Registers the listener {@code listener} to be notified when the call completes.
+	 * If the call has already completed, notifies the listener immediately in the current
+	 * thread; otherwise, the listener will be notified in the thread that completes the call.
+	 *
+	 * @param listener  the listener, must not be {@code null}
+	 *
+	 * @throws NullPointerException  if {@code listener} is {@code null}
+	 */
+	public void addListener(Listener listener) {
+		Objects.requireNonNull(listener);
+
+		synchronized (this) {
+			if (!done) {
+				listeners.add(listener);
+				return;
+			}
+		}
+
+		notify(listener);
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return false;
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return false;
+	}
+
+	@Override
+	public synchronized boolean isDone() {
+		return done;
+	}
+
+	private Object[] result() throws ExecutionException {
+		if (error == null) {
+			return values;
+		}
+		else {
+			throw new ExecutionException(error);
+		}
+	}
+
+	/**
+	 * Waits for the call to complete and returns its result.
+	 *
+	 * @return  the call result
+	 *
+	 * @throws InterruptedException  if the current thread was interrupted while waiting
+	 * @throws ExecutionException  if the call terminated abnormally; the cause of
+	 *                             the exception is a {@link CallException}
+	 */
+	@Override
+	public synchronized Object[] get() throws InterruptedException, ExecutionException {
+		while (!done) {
+			wait();
+		}
+		return result();
+	}
+
+	@Override
+	public synchronized Object[] get(long timeout, TimeUnit unit)
+			throws InterruptedException, ExecutionException, TimeoutException {
+
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (!done) {
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) {
+				throw new TimeoutException();
+			}
+			TimeUnit.NANOSECONDS.timedWait(this, remaining);
+		}
+		return result();
+	}
+
+}
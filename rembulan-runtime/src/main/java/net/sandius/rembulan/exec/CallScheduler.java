@@ -0,0 +1,492 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sandius.rembulan.exec;
+
+import net.sandius.rembulan.StateContext;
+import net.sandius.rembulan.impl.SchedulingContexts;
+import net.sandius.rembulan.runtime.SchedulingContextFactory;
+import net.sandius.rembulan.util.Check;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A preemptive scheduler multiplexing Lua calls over a fixed number of worker threads.
+ *
+ * <p>Every call is executed in <i>slices</i>: in each slice, the call is resumed in
+ * a fresh scheduling context that asks it to pause once its slice has been used up,
+ * e.g. after it has registered a fixed number of ticks (the <i>quantum</i>), or after
+ * a fixed amount of wall-clock time. A call that pauses is put back into the run queue; a call
+ * that waits for an asynchronous task leaves the run queue until the task finishes.
+ * (Note that calls can only be preempted if they have been compiled with CPU
+ * accounting enabled.)</p>
+ *
+ * <p>Every call belongs to a <i>tenant</i> (an arbitrary key) and has a {@link Priority}.
+ * Slices of calls with a higher priority are always executed before the slices of calls
+ * with a lower priority. Within a priority class, the tenants with runnable calls are served
+ * in a round-robin fashion, one slice at a time, so that each tenant gets a fair share
+ * of the workers regardless of how many calls it has started.</p>
+ *
+ * <p>The scheduler reports the number of slices waiting in the run queue
+ * ({@link #queueDepth()}), and the time slices spend waiting in the run queue
+ * and executing ({@link #statistics()}).</p>
+ *
+ * <p>If a slice terminates abnormally (e.g. by throwing an {@link Error} that escapes
+ * the call), its call fails with a {@link CallException} caused by the throwable,
+ * and the worker goes on executing other slices.</p>
+ */
+public class CallScheduler {
+
+	/**
+	 * Priority classes of calls.
+	 */
+	public enum Priority {
+
+		/**
+		 * High priority.
+		 */
+		HIGH,
+
+		/**
+		 * Normal priority.
+		 */
+		NORMAL,
+
+		/**
+		 * Low priority: slices of low-priority calls are only executed when there are
+		 * no runnable calls of higher priority.
+		 */
+		LOW
+
+	}
+
+	/**
+	 * The tenant of calls started without specifying a tenant.
+	 */
+	public static final Object DEFAULT_TENANT = new Object() {
+		@Override
+		public String toString() {
+			return "default";
+		}
+	};
+
+	private final SchedulingContextFactory sliceContextFactory;
+	private final List<Thread> workers;
+
+	private final Object lock = new Object();
+
+	// the run queue; all access guarded by lock
+	private final RunQueue[] runQueues;
+	private int queueDepth;
+	private boolean shutdown;
+
+	private final AtomicLong slices;
+	private final AtomicLong totalWaitNanos;
+	private final AtomicLong maxWaitNanos;
+	private final AtomicLong totalRunNanos;
+
+	CallScheduler(int numWorkers, SchedulingContextFactory sliceContextFactory, String threadNamePrefix) {
+		Check.positive(numWorkers);
+		this.sliceContextFactory = Objects.requireNonNull(sliceContextFactory);
+
+		this.runQueues = new RunQueue[Priority.values().length];
+		for (int i = 0; i < runQueues.length; i++) {
+			runQueues[i] = new RunQueue();
+		}
+
+		this.slices = new AtomicLong();
+		this.totalWaitNanos = new AtomicLong();
+		this.maxWaitNanos = new AtomicLong();
+		this.totalRunNanos = new AtomicLong();
+
+		List<Thread> ws = new ArrayList<>();
+		for (int i = 0; i < numWorkers; i++) {
+			Thread t = new Thread(new Worker(), threadNamePrefix + i);
+			t.setDaemon(true);
+			ws.add(t);
+		}
+		this.workers = Collections.unmodifiableList(ws);
+
+		for (Thread t : workers) {
+			t.start();
+		}
+	}
+
+	/**
+	 * Returns a new scheduler with {@code numWorkers} worker threads, executing calls
+	 * in slices of {@code quantum} ticks.
+	 *
+	 * @param numWorkers  the number of worker threads, must be positive
+	 * @param quantum  the number of ticks per slice, must be positive
+	 * @return  a new scheduler
+	 *
+	 * @throws IllegalArgumentException  if {@code numWorkers} or {@code quantum}
+	 *                                   is not positive
+	 */
+	public static CallScheduler newScheduler(int numWorkers, long quantum) {
+		Check.positive(quantum);
+		return newScheduler(numWorkers, SchedulingContexts.countDownContextFactory(quantum));
+	}
+
+	/**
+	 * Returns a new scheduler with {@code numWorkers} worker threads, executing each slice
+	 * in a new scheduling context obtained from {@code sliceContextFactory}.
+	 *
+	 * <p>For instance, calls may be preempted after a fixed amount of wall-clock time
+	 * using {@link SchedulingContexts#timeSliceContextFactory(long)}.</p>
+	 *
+	 * @param numWorkers  the number of worker threads, must be positive
+	 * @param sliceContextFactory  the scheduling context factory for slices, must not be
+	 *                             {@code null}
+	 * @return  a new scheduler
+	 *
+	 * @throws IllegalArgumentException  if {@code numWorkers} is not positive
+	 * @throws NullPointerException  if {@code sliceContextFactory} is {@code null}
+	 */
+	public static CallScheduler newScheduler(int numWorkers, SchedulingContextFactory sliceContextFactory) {
+		return new CallScheduler(numWorkers, sliceContextFactory, "rembulan-scheduler-");
+	}
+
+	/**
+	 * A slice waiting in the run queue.
+	 */
+	private static class Slice {
+
+		final Runnable task;
+		final long enqueuedAt;
+
+		Slice(Runnable task) {
+			this.task = Objects.requireNonNull(task);
+			this.enqueuedAt = System.nanoTime();
+		}
+
+	}
+
+	/**
+	 * The run queue of a single priority class: a FIFO queue of slices per tenant,
+	 * and the round-robin order of tenants with runnable slices.
+	 */
+	private static class RunQueue {
+
+		private final Map<Object, Deque<Slice>> slices = new HashMap<>();
+		private final Deque<Object> tenants = new ArrayDeque<>();
+
+		boolean isEmpty() {
+			return tenants.isEmpty();
+		}
+
+		void add(Object tenant, Slice slice) {
+			Deque<Slice> q = slices.get(tenant);
+			if (q == null) {
+				q = new ArrayDeque<>();
+				slices.put(tenant, q);
+				tenants.addLast(tenant);
+			}
+			q.addLast(slice);
+		}
+
+		Slice poll() {
+			Object tenant = tenants.pollFirst();
+			if (tenant == null) {
+				return null;
+			}
+
+			Deque<Slice> q = slices.get(tenant);
+			Slice slice = q.pollFirst();
+			if (q.isEmpty()) {
+				slices.remove(tenant);
+			}
+			else {
+				// the tenant goes to the back of the line
+				tenants.addLast(tenant);
+			}
+			return slice;
+		}
+
+		void drainTo(List<Slice> result) {
+			for (Deque<Slice> q : slices.values()) {
+				result.addAll(q);
+			}
+			slices.clear();
+			tenants.clear();
+		}
+
+	}
+
+	private void enqueue(Object tenant, Priority priority, Runnable task) {
+		synchronized (lock) {
+			if (shutdown) {
+				throw new RejectedExecutionException("Scheduler has been shut down");
+			}
+			runQueues[priority.ordinal()].add(tenant, new Slice(task));
+			queueDepth += 1;
+			lock.notify();
+		}
+	}
+
+	private Slice take() throws InterruptedException {
+		synchronized (lock) {
+			while (!shutdown) {
+				for (RunQueue q : runQueues) {
+					Slice slice = q.poll();
+					if (slice != null) {
+						queueDepth -= 1;
+						return slice;
+					}
+				}
+				lock.wait();
+			}
+			return null;
+		}
+	}
+
+	private void execute(Slice slice) {
+		long start = System.nanoTime();
+		long wait = start - slice.enqueuedAt;
+
+		try {
+			slice.task.run();
+		}
+		catch (Throwable ex) {
+			// fail the call, but keep the worker alive
+			if (slice.task instanceof AsyncCallExecutor.Resumption) {
+				((AsyncCallExecutor.Resumption) slice.task).abort(ex);
+			}
+		}
+		finally {
+			long end = System.nanoTime();
+
+			slices.incrementAndGet();
+			totalWaitNanos.addAndGet(wait);
+			totalRunNanos.addAndGet(end - start);
+
+			long max;
+			do {
+				max = maxWaitNanos.get();
+			} while (wait > max && !maxWaitNanos.compareAndSet(max, wait));
+		}
+	}
+
+	private class Worker implements Runnable {
+
+		@Override
+		public void run() {
+			try {
+				Slice slice;
+				while ((slice = take()) != null) {
+					execute(slice);
+				}
+			}
+			catch (InterruptedException ex) {
+				// terminate
+			}
+		}
+
+	}
+
+	private AsyncCallExecutor executorFor(final Object tenant, final Priority priority) {
+		Objects.requireNonNull(tenant);
+		Objects.requireNonNull(priority);
+
+		Executor executor = new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				enqueue(tenant, priority, command);
+			}
+		};
+
+		return AsyncCallExecutor.newExecutor(executor, sliceContextFactory);
+	}
+
+	/**
+	 * Starts the call {@code fn(args...)} in the state context {@code stateContext}
+	 * on behalf of the tenant {@code tenant} with the priority {@code priority}.
+	 *
+	 * <p>If the scheduler has been shut down, the call fails with a {@link CallException}
+	 * caused by a {@link RejectedExecutionException}.</p>
+	 *
+	 * @param tenant  the tenant, must not be {@code null}
+	 * @param priority  the priority of the call, must not be {@code null}
+	 * @param stateContext  state context of the call, must not be {@code null}
+	 * @param fn  the call target, may be {@code null}
+	 * @param args  call arguments, must not be {@code null}
+	 * @return  a future for the call result
+	 *
+	 * @throws NullPointerException  if {@code tenant}, {@code priority}, {@code stateContext}
+	 *                               or {@code args} is {@code null}
+	 */
+	public CallFuture call(Object tenant, Priority priority, StateContext stateContext, Object fn, Object... args) {
+		return executorFor(tenant, priority).call(stateContext, fn, args);
+	}
+
+	/**
+	 * Starts the call {@code fn(args...)} in the state context {@code stateContext}
+	 * on behalf of the {@linkplain #DEFAULT_TENANT default tenant} with normal priority.
+	 *
+	 * @param stateContext  state context of the call, must not be {@code null}
+	 * @param fn  the call target, may be {@code null}
+	 * @param args  call arguments, must not be {@code null}
+	 * @return  a future for the call result
+	 *
+	 * @throws NullPointerException  if {@code stateContext} or {@code args} is {@code null}
+	 */
+	public CallFuture call(StateContext stateContext, Object fn, Object... args) {
+		return call(DEFAULT_TENANT, Priority.NORMAL, stateContext, fn, args);
+	}
+
+	/**
+	 * Resumes {@code continuation} on behalf of the tenant {@code tenant} with the priority
+	 * {@code priority}.
+	 *
+	 * @param tenant  the tenant, must not be {@code null}
+	 * @param priority  the priority of the call, must not be {@code null}
+	 * @param continuation  the continuation to resume, must not be {@code null}
+	 * @return  a future for the call result
+	 *
+	 * @throws NullPointerException  if {@code tenant}, {@code priority}
+	 *                               or {@code continuation} is {@code null}
+	 */
+	public CallFuture resume(Object tenant, Priority priority, Continuation continuation) {
+		return executorFor(tenant, priority).resume(continuation);
+	}
+
+	/**
+	 * Returns the number of slices currently waiting in the run queue.
+	 *
+	 * @return  the number of runnable slices
+	 */
+	public int queueDepth() {
+		synchronized (lock) {
+			return queueDepth;
+		}
+	}
+
+	/**
+	 * Returns the statistics of the slices executed by this scheduler so far.
+	 *
+	 * @return  the slice statistics of this scheduler
+	 */
+	public Statistics statistics() {
+		return new Statistics(slices.get(), totalWaitNanos.get(), maxWaitNanos.get(), totalRunNanos.get());
+	}
+
+	/**
+	 * Shuts the scheduler down. The slice currently executed by each worker is allowed
+	 * to finish; the calls in the run queue, as well as all calls that would be enqueued
+	 * after this method has been called, fail with a {@link CallException} caused by
+	 * a {@link RejectedExecutionException}.
+	 */
+	public void shutdown() {
+		List<Slice> pending = new ArrayList<>();
+
+		synchronized (lock) {
+			if (shutdown) {
+				return;
+			}
+
+			shutdown = true;
+			for (RunQueue q : runQueues) {
+				q.drainTo(pending);
+			}
+			queueDepth = 0;
+			lock.notifyAll();
+		}
+
+		for (Slice slice : pending) {
+			if (slice.task instanceof AsyncCallExecutor.Resumption) {
+				((AsyncCallExecutor.Resumption) slice.task).reject(
+						new RejectedExecutionException("Scheduler has been shut down"));
+			}
+		}
+	}
+
+	/**
+	 * Slice statistics of a scheduler.
+	 */
+	public static final class Statistics {
+
+		private final long slices;
+		private final long totalWaitNanos;
+		private final long maxWaitNanos;
+		private final long totalRunNanos;
+
+		Statistics(long slices, long totalWaitNanos, long maxWaitNanos, long totalRunNanos) {
+			this.slices = slices;
+			this.totalWaitNanos = totalWaitNanos;
+			this.maxWaitNanos = maxWaitNanos;
+			this.totalRunNanos = totalRunNanos;
+		}
+
+		/**
+		 * Returns the number of slices executed.
+		 *
+		 * @return  the number of slices executed
+		 */
+		public long slices() {
+			return slices;
+		}
+
+		/**
+		 * Returns the average time (in nanoseconds) a slice spent in the run queue
+		 * before being executed, or {@code 0} if no slices have been executed.
+		 *
+		 * @return  the average slice latency in nanoseconds
+		 */
+		public long averageLatencyNanos() {
+			return slices > 0 ? totalWaitNanos / slices : 0;
+		}
+
+		/**
+		 * Returns the maximum time (in nanoseconds) a slice spent in the run queue
+		 * before being executed.
+		 *
+		 * @return  the maximum slice latency in nanoseconds
+		 */
+		public long maxLatencyNanos() {
+			return maxWaitNanos;
+		}
+
+		/**
+		 * Returns the average time (in nanoseconds) spent executing a slice,
+		 * or {@code 0} if no slices have been executed.
+		 *
+		 * @return  the average slice execution time in nanoseconds
+		 */
+		public long averageRunNanos() {
+			return slices > 0 ? totalRunNanos / slices : 0;
+		}
+
+		@Override
+		public String toString() {
+			return "slices=" + slices
+					+ ", avgLatencyNanos=" + averageLatencyNanos()
+					+ ", maxLatencyNanos=" + maxLatencyNanos()
+					+ ", avgRunNanos=" + averageRunNanos();
+		}
+
+	}
+
+}
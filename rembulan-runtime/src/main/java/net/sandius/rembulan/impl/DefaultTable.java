@@ -16,26 +16,104 @@
 
 package net.sandius.rembulan.impl;
 
+import net.sandius.rembulan.ByteString;
 import net.sandius.rembulan.Conversions;
 import net.sandius.rembulan.Table;
 import net.sandius.rembulan.TableFactory;
+import net.sandius.rembulan.util.Check;
 import net.sandius.rembulan.util.TraversableHashMap;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Map;
 import java.util.NoSuchElementException;
 
 /**
- * Default implementation of the Lua table storing all key-value pairs in a hashmap.
- * The table implementation does not support weak keys or values.
+ * Default implementation of the Lua table.
+ *
+ * <p>Similarly to the reference implementation of Lua, the table is split into two parts:
+ * an <i>array part</i> storing the values associated with the positive integer keys
+ * 1, 2, &hellip;, <i>n</i> in a contiguous array, and a <i>hash part</i> storing all other
+ * key-value pairs in a hashmap. Accesses to the array part using
+ * {@link #rawget(long)} and {@link #rawset(long, Object)} do not box their keys.</p>
+ *
+ * <p>The array part grows whenever a value is associated with the key immediately
+ * following its end, taking over the corresponding integer keys from the hash part.
+ * The initial capacities of both parts may be specified at construction time
+ * (see {@link #DefaultTable(int, int)}).</p>
+ *
+ * <p>The table supports weak keys and weak values (see §2.5.2 of the Lua Reference Manual).
+ * In a table with weak keys (resp. values), keys (resp. values) that are subject to garbage
+ * collection (i.e., values other than booleans, numbers and strings) are held using
+ * {@link WeakReference}s, and the entries whose keys or values have been reclaimed
+ * by the garbage collector are removed from the table when it is next updated or when
+ * a traversal is started. Note that as with {@link java.util.WeakHashMap}, a value that
+ * strongly refers to its own key in a table with weak keys prevents the entry from being
+ * reclaimed.</p>
  */
 public class DefaultTable extends Table {
 
-	private final TraversableHashMap<Object, Object> values;
+	private static final Object[] EMPTY_ARRAY = new Object[0];
+
+	private static final int MIN_ARRAY_CAPACITY = 4;
+	private static final int MAX_ARRAY_CAPACITY = Integer.MAX_VALUE - 8;
+
+	private Object[] array;  // array part: array[i] is the value for the key (i + 1)
+	private final TraversableHashMap<Object, Object> values;  // hash part
+
+	// a border hint: when valid, rawget(border + 1) == null && (border == 0 || rawget(border) != null)
+	private long border;
+
+	private boolean weakKeys;
+	private boolean weakValues;
+	private ReferenceQueue<Object> queue;  // non-null iff weakKeys || weakValues
+	private Object traversalKey;  // the key last returned by successorKeyOf in a weak table
+	private WeakValue deferredValue;  // a stale value of traversalKey, expunged once the traversal moves on
+
+	/**
+	 * Constructs a new empty table with the given initial capacities for its array
+	 * and hash parts.
+	 *
+	 * @param arrayCapacity  initial capacity of the array part, must not be negative
+	 * @param hashCapacity  expected number of entries in the hash part, must not be negative
+	 *
+	 * @throws IllegalArgumentException  if {@code arrayCapacity} or {@code hashCapacity}
+	 *                                   is negative
+	 */
+	public DefaultTable(int arrayCapacity, int hashCapacity) {
+		Check.nonNegative(arrayCapacity);
+		Check.nonNegative(hashCapacity);
+
+		this.array = arrayCapacity > 0
+				? new Object[Math.min(arrayCapacity, MAX_ARRAY_CAPACITY)]
+				: EMPTY_ARRAY;
+		this.values = hashCapacity > 0
+				? new TraversableHashMap<Object, Object>(hashMapCapacity(hashCapacity))
+				: new TraversableHashMap<Object, Object>();
+		this.border = 0;
+
+		this.weakKeys = false;
+		this.weakValues = false;
+		this.queue = null;
+		this.traversalKey = null;
+		this.deferredValue = null;
+	}
 
 	/**
 	 * Constructs a new empty table.
 	 */
 	public DefaultTable() {
-		this.values = new TraversableHashMap<>();
+		this(0, 0);
+	}
+
+	private static int hashMapCapacity(int expectedSize) {
+		// capacity at which the hashmap holds expectedSize entries without rehashing,
+		// given the default load factor of 0.75
+		return expectedSize < (1 << 29)
+				? expectedSize + expectedSize / 3 + 1
+				: Integer.MAX_VALUE;
 	}
 
 	static class Factory implements TableFactory {
@@ -46,7 +124,7 @@ public class DefaultTable extends Table {
 
 		@Override
 		public Table newTable(int array, int hash) {
-			return new DefaultTable();
+			return new DefaultTable(array, hash);
 		}
 	}
 
@@ -61,10 +139,38 @@ public class DefaultTable extends Table {
 		return FACTORY_INSTANCE;
 	}
 
+	private boolean isInArrayPart(long idx) {
+		// true iff 1 <= idx <= array.length
+		return idx - 1 < array.length && idx > 0;
+	}
+
 	@Override
 	public Object rawget(Object key) {
 		key = Conversions.normaliseKey(key);
-		return key != null ? values.get(key) : null;
+		if (key instanceof Long) {
+			return rawget(((Long) key).longValue());
+		}
+		else if (key == null) {
+			return null;
+		}
+		else if (weakKeys || weakValues) {
+			return valueOf(values.get(lookupKey(key)));
+		}
+		else {
+			return values.get(key);
+		}
+	}
+
+	@Override
+	public Object rawget(long idx) {
+		Object v;
+		if (isInArrayPart(idx)) {
+			v = array[(int) (idx - 1)];
+		}
+		else {
+			v = values.isEmpty() ? null : values.get(Long.valueOf(idx));
+		}
+		return weakValues ? valueOf(v) : v;
 	}
 
 	@Override
@@ -74,40 +180,409 @@ public class DefaultTable extends Table {
 		if (key == null) {
 			throw new IllegalArgumentException("table index is nil");
 		}
+		if (key instanceof Long) {
+			rawset(((Long) key).longValue(), value);
+			return;
+		}
 		if (key instanceof Double && Double.isNaN(((Double) key).doubleValue())) {
 			throw new IllegalArgumentException("table index is NaN");
 		}
 
 		value = Conversions.canonicalRepresentationOf(value);
 
-		if (value == null) {
-			values.remove(key);
+		if (weakKeys || weakValues) {
+			expungeStaleEntries();
+
+			if (value == null) {
+				values.remove(lookupKey(key));
+			}
+			else {
+				Object k = weakKeys && isCollectable(key) ? new WeakKey(key, queue) : key;
+				values.put(k, storedValueOf(k, value));
+			}
 		}
 		else {
-			values.put(key, value);
+			if (value == null) {
+				values.remove(key);
+			}
+			else {
+				values.put(key, value);
+			}
 		}
 
 		updateBasetableModes(key, value);
 	}
 
+	@Override
+	public void rawset(long idx, Object value) {
+		value = Conversions.canonicalRepresentationOf(value);
+
+		// keep the border hint up-to-date for appends and removals at the end of a sequence
+		if (value != null) {
+			if (idx == border + 1) {
+				border = idx;
+			}
+		}
+		else if (idx == border && idx > 0) {
+			border = idx - 1;
+		}
+
+		if (weakKeys || weakValues) {
+			expungeStaleEntries();
+			if (weakValues && isCollectable(value)) {
+				value = new WeakValue(Long.valueOf(idx), value, queue);
+			}
+		}
+
+		if (isInArrayPart(idx)) {
+			array[(int) (idx - 1)] = value;
+		}
+		else if (value != null && idx == array.length + 1L && idx <= MAX_ARRAY_CAPACITY) {
+			resizeArray(Math.max(MIN_ARRAY_CAPACITY, (int) Math.min(2L * array.length, MAX_ARRAY_CAPACITY)));
+			array[(int) (idx - 1)] = value;
+			values.remove(Long.valueOf(idx));
+		}
+		else if (value == null) {
+			if (!values.isEmpty()) {
+				values.remove(Long.valueOf(idx));
+			}
+		}
+		else {
+			values.put(Long.valueOf(idx), value);
+		}
+	}
+
+	private void resizeArray(int newLength) {
+		int oldLength = array.length;
+
+		array = Arrays.copyOf(array, newLength);
+
+		// migrate the integer keys now covered by the array part from the hash part
+		for (int i = oldLength; i < newLength && !values.isEmpty(); i++) {
+			Object v = values.remove(Long.valueOf(i + 1));
+			if (v != null) {
+				array[i] = v;
+			}
+		}
+	}
+
+	@Override
+	public void ensureArrayCapacity(long size) {
+		if (size > array.length && size <= MAX_ARRAY_CAPACITY) {
+			resizeArray((int) size);
+		}
+	}
+
+	/**
+	 * Returns a border of this table, i.e., a non-negative integer <i>n</i> such
+	 * that <i>n</i> is either zero or associated with a non-nil value, and <i>n</i> + 1
+	 * is not associated with any value. When this table is a sequence, the border is
+	 * the length of the sequence.
+	 *
+	 * <p>The border is cached and maintained by the integer-keyed updates of this table:
+	 * when the table is grown or shrunk at its end (e.g. by repeatedly appending values
+	 * at the index {@code #t + 1}), this method runs in constant time. Otherwise,
+	 * the border is recomputed using a logarithmic number of lookups.</p>
+	 *
+	 * @return  a border of this table
+	 */
+	@Override
+	public long rawlen() {
+		long b = border;
+		if ((b == 0 || rawget(b) != null) && rawget(b + 1) == null) {
+			return b;
+		}
+		else {
+			b = findBorder(b);
+			border = b;
+			return b;
+		}
+	}
+
+	private long findBorder(long hint) {
+		long lo;  // lo == 0 || rawget(lo) != null
+		long hi;  // hi < 0 || rawget(hi) == null
+
+		if (hint > 0 && rawget(hint) == null) {
+			// search below the hint
+			lo = 0;
+			hi = hint;
+		}
+		else {
+			// rawget(hint + 1) != null: search above the hint
+			lo = hint + 1;
+			hi = lo;
+			do {
+				lo = hi;
+				hi = hi << 1;
+			} while (hi > 0 && rawget(hi) != null);
+		}
+
+		// binary search in [lo, hi]; works even if hi overflows
+		while (lo + 1 != hi) {
+			long mid = (lo + hi) >>> 1;
+			if (rawget(mid) == null) {
+				hi = mid;
+			}
+			else {
+				lo = mid;
+			}
+		}
+
+		return lo;
+	}
+
+	private Object nextArrayKey(int fromIndex) {
+		for (int i = fromIndex; i < array.length; i++) {
+			Object v = array[i];
+			if (v != null && (!weakValues || valueOf(v) != null)) {
+				return Long.valueOf(i + 1);
+			}
+		}
+		return liveHashKey(values.getFirstKey());
+	}
+
 	@Override
 	public Object initialKey() {
-		return values.getFirstKey();
+		if (weakKeys || weakValues) {
+			traversalKey = null;
+			expungeStaleEntries();
+		}
+		return nextArrayKey(0);
 	}
 
 	@Override
 	public Object successorKeyOf(Object key) {
+		key = Conversions.normaliseKey(key);
+
+		if (key instanceof Long) {
+			long idx = ((Long) key).longValue();
+			if (isInArrayPart(idx)) {
+				return nextArrayKey((int) idx);
+			}
+		}
+
 		try {
-			return values.getSuccessorOf(key);
+			if (weakKeys || weakValues) {
+				return liveHashKey(values.getSuccessorOf(lookupKey(key)));
+			}
+			else {
+				return values.getSuccessorOf(key);
+			}
 		}
 		catch (NoSuchElementException | NullPointerException ex) {
 			throw new IllegalArgumentException("invalid key to 'next'", ex);
 		}
 	}
 
+	/**
+	 * Returns the key of the first entry in the traversal order of the hash part, starting
+	 * at the stored key {@code k}, that has not been reclaimed by the garbage collector.
+	 * In a weak table, also remembers the stored key of that entry so that it
+	 * is not expunged while the traversal is in progress.
+	 */
+	private Object liveHashKey(Object k) {
+		if (!(weakKeys || weakValues)) {
+			return k;
+		}
+
+		while (k != null) {
+			Object key = k instanceof WeakKey ? ((WeakKey) k).get() : k;
+			if (key != null && valueOf(values.get(k)) != null) {
+				traversalKey = k;
+				return key;
+			}
+			k = values.getSuccessorOf(k);
+		}
+
+		traversalKey = null;
+		return null;
+	}
+
+	/**
+	 * Returns {@code true} iff {@code o} is subject to garbage collection, and may
+	 * therefore be removed from a weak table.
+	 */
+	private static boolean isCollectable(Object o) {
+		return !(o == null
+				|| o instanceof Boolean
+				|| o instanceof Number
+				|| o instanceof ByteString
+				|| o instanceof String);
+	}
+
+	/**
+	 * Returns a key suitable for looking up the (non-integer) {@code key} in the hash part.
+	 */
+	private Object lookupKey(Object key) {
+		return weakKeys && isCollectable(key) ? new KeyProbe(key) : key;
+	}
+
+	/**
+	 * Returns the value to be stored in the hash part for the value {@code value} associated
+	 * with the stored key {@code k}.
+	 */
+	private Object storedValueOf(Object k, Object value) {
+		return weakValues && isCollectable(value) ? new WeakValue(k, value, queue) : value;
+	}
+
+	private static Object valueOf(Object v) {
+		return v instanceof WeakValue ? ((WeakValue) v).get() : v;
+	}
+
+	/**
+	 * Removes the entries whose weakly-held keys or values have been reclaimed
+	 * by the garbage collector.
+	 */
+	private void expungeStaleEntries() {
+		WeakValue deferred = deferredValue;
+		if (deferred != null && !deferred.key.equals(traversalKey)) {
+			deferredValue = null;
+			if (values.get(deferred.key) == deferred) {
+				values.remove(deferred.key);
+			}
+		}
+
+		Reference<?> ref;
+		while ((ref = queue.poll()) != null) {
+			if (ref instanceof WeakKey) {
+				// only matches the stored key by identity, since its referent is gone
+				values.remove(ref);
+			}
+			else if (ref instanceof WeakValue) {
+				Object k = ((WeakValue) ref).key;
+				if (k instanceof Long && isInArrayPart(((Long) k).longValue())) {
+					int i = (int) (((Long) k).longValue() - 1);
+					if (array[i] == ref) {
+						array[i] = null;
+					}
+				}
+				else if (values.get(k) == ref) {
+					if (k.equals(traversalKey)) {
+						// the traversal depends on this entry: keep it until the traversal moves on.
+						// Only the entry for traversalKey is ever deferred, so at most one
+						// reference is pending at a time
+						deferredValue = (WeakValue) ref;
+					}
+					else {
+						values.remove(k);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of entries stored in the hash part, including the entries
+	 * whose weakly-held keys or values have been reclaimed but not yet expunged.
+	 */
+	int hashPartSize() {
+		return values.size();
+	}
+
 	@Override
 	protected void setMode(boolean weakKeys, boolean weakValues) {
-		// TODO
+		if (weakKeys == this.weakKeys && weakValues == this.weakValues) {
+			return;
+		}
+
+		// collect the live entries of the hash part, preserving their order
+		Object[] entries = new Object[values.size() * 2];
+		int n = 0;
+		for (Map.Entry<Object, Object> e : values.entrySet()) {
+			Object k = e.getKey();
+			Object key = k instanceof WeakKey ? ((WeakKey) k).get() : k;
+			Object value = valueOf(e.getValue());
+			if (key != null && value != null) {
+				entries[n++] = key;
+				entries[n++] = value;
+			}
+		}
+
+		this.weakKeys = weakKeys;
+		this.weakValues = weakValues;
+		this.queue = weakKeys || weakValues ? new ReferenceQueue<>() : null;
+		this.traversalKey = null;
+		this.deferredValue = null;
+
+		// re-insert everything using the new representation
+		for (int i = 0; i < array.length; i++) {
+			Object v = valueOf(array[i]);
+			array[i] = weakValues && isCollectable(v) ? new WeakValue(Long.valueOf(i + 1), v, queue) : v;
+		}
+
+		values.clear();
+		for (int i = 0; i < n; i += 2) {
+			Object key = entries[i];
+			Object k = weakKeys && isCollectable(key) ? new WeakKey(key, queue) : key;
+			values.put(k, storedValueOf(k, entries[i + 1]));
+		}
+	}
+
+	/**
+	 * A weakly-held key in the hash part.
+	 */
+	static final class WeakKey extends WeakReference<Object> {
+
+		private final int hash;
+
+		WeakKey(Object referent, ReferenceQueue<Object> queue) {
+			super(referent, queue);
+			this.hash = referent.hashCode();
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (!(o instanceof WeakKey)) return false;
+			Object referent = get();
+			return referent != null && referent.equals(((WeakKey) o).get());
+		}
+
+	}
+
+	/**
+	 * A strongly-held key used for looking up {@link WeakKey}s in the hash part.
+	 */
+	static final class KeyProbe {
+
+		private final Object key;
+
+		KeyProbe(Object key) {
+			this.key = key;
+		}
+
+		@Override
+		public int hashCode() {
+			return key.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof WeakKey
+					? key.equals(((WeakKey) o).get())
+					: key.equals(o);
+		}
+
+	}
+
+	/**
+	 * A weakly-held value, together with the key it is stored under.
+	 */
+	static final class WeakValue extends WeakReference<Object> {
+
+		private final Object key;
+
+		WeakValue(Object key, Object referent, ReferenceQueue<Object> queue) {
+			super(referent, queue);
+			this.key = key;
+		}
+
 	}
 
 }
@@ -53,6 +53,7 @@ public class ImmutableTable extends Table {
 
 	private final Map<Object, Entry> entries;
 	private final Object initialKey;  // null iff the table is empty
+	private final long length;
 
 	static class Entry {
 
@@ -69,6 +70,7 @@ public class ImmutableTable extends Table {
 	ImmutableTable(Map<Object, Entry> entries, Object initialKey) {
 		this.entries = Objects.requireNonNull(entries);
 		this.initialKey = initialKey;
+		this.length = super.rawlen();
 	}
 
 	/**
@@ -167,6 +169,17 @@ public class ImmutableTable extends Table {
 		return e != null ? e.value : null;
 	}
 
+	/**
+	 * Returns the length of this table. Since this table is immutable, the length
+	 * is computed once at construction time.
+	 *
+	 * @return  the length of this table if it is a sequence
+	 */
+	@Override
+	public long rawlen() {
+		return length;
+	}
+
 	/**
 	 * Throws an {@link UnsupportedOperationException}, since this table is immutable.
 	 *
@@ -73,6 +73,71 @@ public final class SchedulingContexts {
 		return new CountDownSchedulingContext(max);
 	}
 
+	/**
+	 * The default number of ticks between two consecutive readings of the clock
+	 * in deadline scheduling contexts.
+	 */
+	public static final int DEFAULT_SAMPLE_INTERVAL = 1024;
+
+	/**
+	 * Returns a scheduling context that indicates that the caller should yield once
+	 * the wall-clock deadline {@code deadlineNanos} has passed, or once {@code maxTicks}
+	 * ticks have been registered, whichever comes first.
+	 *
+	 * <p>The deadline is an absolute point in time in the timescale of {@link System#nanoTime()}.
+	 * In order to keep the cost of {@link SchedulingContext#shouldPause()} low, the clock
+	 * is only read once at least {@code sampleInterval} ticks have been registered since
+	 * the previous reading; the deadline may therefore be overrun by the time it takes
+	 * to execute {@code sampleInterval} ticks. Once the deadline has passed or the tick
+	 * budget has been exhausted, the scheduling context keeps indicating that the caller
+	 * should yield: it is up to the host to decide whether to abandon the call.</p>
+	 *
+	 * @param maxTicks  the tick budget, must be non-negative
+	 * @param deadlineNanos  the deadline in the timescale of {@code System.nanoTime()}
+	 * @param sampleInterval  the number of ticks between two readings of the clock,
+	 *                        must be positive
+	 * @return  a scheduling context enforcing the tick budget and the deadline
+	 *
+	 * @throws IllegalArgumentException  when {@code maxTicks} is negative
+	 *                                   or {@code sampleInterval} is not positive
+	 */
+	public static SchedulingContext newBudgetContext(long maxTicks, long deadlineNanos, int sampleInterval) {
+		return new DeadlineSchedulingContext(maxTicks, deadlineNanos, sampleInterval);
+	}
+
+	/**
+	 * Returns a scheduling context that indicates that the caller should yield once
+	 * the wall-clock deadline {@code deadlineNanos} has passed, reading the clock
+	 * every {@code sampleInterval} ticks.
+	 *
+	 * <p>This is equivalent to
+	 * {@link #newBudgetContext(long, long, int) newBudgetContext(Long.MAX_VALUE, deadlineNanos, sampleInterval)}.</p>
+	 *
+	 * @param deadlineNanos  the deadline in the timescale of {@code System.nanoTime()}
+	 * @param sampleInterval  the number of ticks between two readings of the clock,
+	 *                        must be positive
+	 * @return  a scheduling context that starts indicating that the caller should yield
+	 *          once the deadline has passed
+	 *
+	 * @throws IllegalArgumentException  when {@code sampleInterval} is not positive
+	 */
+	public static SchedulingContext newDeadlineContext(long deadlineNanos, int sampleInterval) {
+		return newBudgetContext(Long.MAX_VALUE, deadlineNanos, sampleInterval);
+	}
+
+	/**
+	 * Returns a scheduling context that indicates that the caller should yield once
+	 * the wall-clock deadline {@code deadlineNanos} has passed, reading the clock
+	 * every {@link #DEFAULT_SAMPLE_INTERVAL} ticks.
+	 *
+	 * @param deadlineNanos  the deadline in the timescale of {@code System.nanoTime()}
+	 * @return  a scheduling context that starts indicating that the caller should yield
+	 *          once the deadline has passed
+	 */
+	public static SchedulingContext newDeadlineContext(long deadlineNanos) {
+		return newDeadlineContext(deadlineNanos, DEFAULT_SAMPLE_INTERVAL);
+	}
+
 	private static class NeverPausingSchedulingContext implements SchedulingContext {
 
 		@Override
@@ -122,6 +187,49 @@ public final class SchedulingContexts {
 
 	}
 
+	private static class DeadlineSchedulingContext implements SchedulingContext {
+
+		private final long deadline;
+		private final int sampleInterval;
+
+		private long allowance;
+		private int untilSample;
+		private boolean expired;
+
+		public DeadlineSchedulingContext(long maxTicks, long deadline, int sampleInterval) {
+			Check.nonNegative(maxTicks);
+			this.allowance = maxTicks;
+			this.deadline = deadline;
+			this.sampleInterval = Check.positive(sampleInterval);
+			this.untilSample = 0;  // read the clock on the first poll
+			this.expired = false;
+		}
+
+		@Override
+		public void registerTicks(int ticks) {
+			ticks = Math.max(0, ticks);
+			allowance -= ticks;
+			untilSample -= ticks;
+		}
+
+		@Override
+		public boolean shouldPause() {
+			if (expired || allowance <= 0) {
+				return true;
+			}
+			else if (untilSample <= 0) {
+				untilSample = sampleInterval;
+				// compare the difference to account for numerical overflow
+				expired = System.nanoTime() - deadline >= 0;
+				return expired;
+			}
+			else {
+				return false;
+			}
+		}
+
+	}
+
 	private static final SchedulingContextFactory NEVER_FACTORY = new SchedulingContextFactory() {
 		@Override
 		public SchedulingContext newInstance() {
@@ -173,4 +281,51 @@ public final class SchedulingContexts {
 		};
 	}
 
+	/**
+	 * Returns a scheduling context factory that returns scheduling contexts
+	 * enforcing a wall-clock time slice of {@code sliceNanos} nanoseconds, measured from
+	 * the moment the scheduling context is instantiated, and a tick budget
+	 * of {@code maxTicks} ticks.
+	 *
+	 * <p>The clock is read every {@code sampleInterval} ticks; see
+	 * {@link #newBudgetContext(long, long, int)} for details.</p>
+	 *
+	 * @param maxTicks  the tick budget, must be non-negative
+	 * @param sliceNanos  the length of the time slice in nanoseconds, must be non-negative
+	 * @param sampleInterval  the number of ticks between two readings of the clock,
+	 *                        must be positive
+	 * @return  a scheduling context factory that returns time-sliced scheduling contexts
+	 *
+	 * @throws IllegalArgumentException  when {@code maxTicks} or {@code sliceNanos} is negative,
+	 *                                   or when {@code sampleInterval} is not positive
+	 */
+	public static SchedulingContextFactory budgetContextFactory(
+			final long maxTicks, final long sliceNanos, final int sampleInterval) {
+
+		Check.nonNegative(maxTicks);
+		Check.nonNegative(sliceNanos);
+		Check.positive(sampleInterval);
+		return new SchedulingContextFactory() {
+			@Override
+			public SchedulingContext newInstance() {
+				return newBudgetContext(maxTicks, System.nanoTime() + sliceNanos, sampleInterval);
+			}
+		};
+	}
+
+	/**
+	 * Returns a scheduling context factory that returns scheduling contexts
+	 * enforcing a wall-clock time slice of {@code sliceNanos} nanoseconds, measured from
+	 * the moment the scheduling context is instantiated, reading the clock every
+	 * {@link #DEFAULT_SAMPLE_INTERVAL} ticks.
+	 *
+	 * @param sliceNanos  the length of the time slice in nanoseconds, must be non-negative
+	 * @return  a scheduling context factory that returns time-sliced scheduling contexts
+	 *
+	 * @throws IllegalArgumentException  when {@code sliceNanos} is negative
+	 */
+	public static SchedulingContextFactory timeSliceContextFactory(long sliceNanos) {
+		return budgetContextFactory(Long.MAX_VALUE, sliceNanos, DEFAULT_SAMPLE_INTERVAL);
+	}
+
 }
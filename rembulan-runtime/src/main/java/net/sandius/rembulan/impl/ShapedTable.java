@@ -0,0 +1,369 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sandius.rembulan.impl;
+
+import net.sandius.rembulan.ByteString;
+import net.sandius.rembulan.Conversions;
+import net.sandius.rembulan.Table;
+import net.sandius.rembulan.TableFactory;
+import net.sandius.rembulan.util.Check;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * A Lua table storing its string-keyed fields according to a shared layout.
+ *
+ * <p>Tables created by the same sequence of insertions of string keys share
+ * a {@link Shape}: an immutable descriptor mapping each of these keys to an offset
+ * in a compact slot array held by the table. Accessing a string-keyed field
+ * is then a single lookup in the shape followed by an array access, and the offset
+ * of a field may be cached by the callers that see the same shape repeatedly
+ * (see {@link #shape()} and {@link #slotValue(int)}). All other keys are stored
+ * in a {@link DefaultTable}.</p>
+ *
+ * <p>Removing a string-keyed field leaves its slot in place, so that tables
+ * used as records keep their shape. Once the table accumulates too many
+ * string keys or too many removed fields, or once it becomes weak, it switches
+ * irreversibly to <i>dictionary mode</i>, storing all its entries in the
+ * {@code DefaultTable}.</p>
+ */
+public class ShapedTable extends Table {
+
+	private static final Object[] EMPTY_SLOTS = new Object[0];
+
+	/**
+	 * The maximum number of string keys stored in a shape.
+	 */
+	public static final int MAX_SHAPE_SIZE = 32;
+
+	private static final int MIN_REMOVED_FIELDS = 4;
+
+	private Shape shape;  // null in dictionary mode
+	private Object[] slots;  // slots[i] is the value of the field shape.keyAt(i)
+	private int removed;  // number of fields in the shape that are mapped to nil
+
+	private final DefaultTable rest;
+
+	/**
+	 * Constructs a new empty table with the given initial capacities for its array
+	 * and hash parts.
+	 *
+	 * @param arrayCapacity  initial capacity of the array part, must not be negative
+	 * @param hashCapacity  expected number of entries in the hash part, must not be negative
+	 *
+	 * @throws IllegalArgumentException  if {@code arrayCapacity} or {@code hashCapacity}
+	 *                                   is negative
+	 */
+	public ShapedTable(int arrayCapacity, int hashCapacity) {
+		Check.nonNegative(hashCapacity);
+
+		this.rest = new DefaultTable(arrayCapacity, 0);
+		this.shape = Shape.EMPTY;
+		this.slots = hashCapacity > 0
+				? new Object[Math.min(hashCapacity, MAX_SHAPE_SIZE)]
+				: EMPTY_SLOTS;
+		this.removed = 0;
+	}
+
+	/**
+	 * Constructs a new empty table.
+	 */
+	public ShapedTable() {
+		this(0, 0);
+	}
+
+	static class Factory implements TableFactory {
+		@Override
+		public Table newTable() {
+			return newTable(0, 0);
+		}
+
+		@Override
+		public Table newTable(int array, int hash) {
+			return new ShapedTable(array, hash);
+		}
+	}
+
+	private static final TableFactory FACTORY_INSTANCE = new Factory();
+
+	/**
+	 * Returns the table factory for constructing instances of {@code ShapedTable}.
+	 *
+	 * @return  the table factory for {@code ShapedTable}s
+	 */
+	public static TableFactory factory() {
+		return FACTORY_INSTANCE;
+	}
+
+	/**
+	 * Returns the current shape of this table, or {@code null} if this table
+	 * is in dictionary mode.
+	 *
+	 * <p>As long as this method returns the same shape, the offset of the string key
+	 * {@code k} in the slot array is {@code shape().offsetOf(k)}.</p>
+	 *
+	 * @return  the shape of this table, or {@code null} if this table is in dictionary mode
+	 */
+	public Shape shape() {
+		return shape;
+	}
+
+	/**
+	 * Returns the value stored in the slot {@code offset}. The offset must have been
+	 * obtained from the current shape of this table.
+	 *
+	 * @param offset  the slot offset
+	 * @return  the value in the slot {@code offset}, possibly {@code null}
+	 *
+	 * @throws ArrayIndexOutOfBoundsException  if {@code offset} is not a valid offset
+	 */
+	public Object slotValue(int offset) {
+		return slots[offset];
+	}
+
+	private static Object fieldKey(Object key) {
+		return key instanceof String ? ByteString.of((String) key) : key;
+	}
+
+	@Override
+	public Object rawget(Object key) {
+		if (shape != null) {
+			key = fieldKey(key);
+			if (key instanceof ByteString) {
+				int offset = shape.offsetOf(key);
+				return offset >= 0 ? slots[offset] : null;
+			}
+		}
+		return rest.rawget(key);
+	}
+
+	@Override
+	public Object rawget(long idx) {
+		return rest.rawget(idx);
+	}
+
+	@Override
+	public void rawset(Object key, Object value) {
+		if (shape != null) {
+			key = fieldKey(key);
+			if (key instanceof ByteString) {
+				setField((ByteString) key, Conversions.canonicalRepresentationOf(value));
+				updateBasetableModes(key, value);
+				return;
+			}
+		}
+
+		rest.rawset(key, value);
+		updateBasetableModes(key, value);
+	}
+
+	private void setField(ByteString key, Object value) {
+		int offset = shape.offsetOf(key);
+
+		if (offset >= 0) {
+			Object old = slots[offset];
+			if (old == null && value != null) removed -= 1;
+			else if (old != null && value == null) removed += 1;
+			slots[offset] = value;
+		}
+		else if (value != null) {
+			Shape next = removed < MIN_REMOVED_FIELDS || 2 * removed <= shape.size()
+					? shape.withKey(key)
+					: null;
+
+			if (next != null) {
+				int n = shape.size();
+				if (n == slots.length) {
+					slots = Arrays.copyOf(slots, Math.max(4, Math.min(2 * n, MAX_SHAPE_SIZE)));
+				}
+				slots[n] = value;
+				shape = next;
+			}
+			else {
+				toDictionaryMode();
+				rest.rawset(key, value);
+			}
+		}
+	}
+
+	private void toDictionaryMode() {
+		for (int i = 0; i < shape.size(); i++) {
+			Object v = slots[i];
+			if (v != null) {
+				rest.rawset(shape.keyAt(i), v);
+			}
+		}
+
+		shape = null;
+		slots = null;
+		removed = 0;
+	}
+
+	@Override
+	public void rawset(long idx, Object value) {
+		rest.rawset(idx, value);
+	}
+
+	@Override
+	public void ensureArrayCapacity(long size) {
+		rest.ensureArrayCapacity(size);
+	}
+
+	@Override
+	public long rawlen() {
+		return rest.rawlen();
+	}
+
+	private Object nextFieldKey(int fromOffset) {
+		for (int i = fromOffset; i < shape.size(); i++) {
+			if (slots[i] != null) {
+				return shape.keyAt(i);
+			}
+		}
+		return rest.initialKey();
+	}
+
+	@Override
+	public Object initialKey() {
+		return shape != null ? nextFieldKey(0) : rest.initialKey();
+	}
+
+	@Override
+	public Object successorKeyOf(Object key) {
+		if (shape != null) {
+			key = fieldKey(key);
+			if (key instanceof ByteString) {
+				int offset = shape.offsetOf(key);
+				if (offset < 0) {
+					throw new IllegalArgumentException("invalid key to 'next'");
+				}
+				return nextFieldKey(offset + 1);
+			}
+		}
+		return rest.successorKeyOf(key);
+	}
+
+	@Override
+	protected void setMode(boolean weakKeys, boolean weakValues) {
+		if (shape != null && (weakKeys || weakValues)) {
+			toDictionaryMode();
+		}
+		rest.setMode(weakKeys, weakValues);
+	}
+
+	/**
+	 * An immutable layout of string-keyed fields shared by {@link ShapedTable}s.
+	 *
+	 * <p>Shapes form a tree rooted in the empty shape: adding the key <i>k</i> to a table
+	 * with the shape <i>S</i> moves the table to the child of <i>S</i> by <i>k</i>, so that
+	 * tables with the same sequence of key insertions end up sharing the same shape.</p>
+	 */
+	public static final class Shape {
+
+		static final Shape EMPTY = new Shape(new ByteString[0], new HashMap<ByteString, Integer>());
+
+		private static final int MAX_TRANSITIONS = 64;
+
+		private final ByteString[] keys;
+		private final Map<ByteString, Integer> offsets;
+
+		// the children of this shape; the shapes are only retained by the tables using them
+		private final Map<ByteString, WeakReference<Shape>> transitions;
+
+		private Shape(ByteString[] keys, Map<ByteString, Integer> offsets) {
+			this.keys = keys;
+			this.offsets = offsets;
+			this.transitions = new HashMap<>();
+		}
+
+		/**
+		 * Returns the number of fields in this shape.
+		 *
+		 * @return  the number of fields in this shape
+		 */
+		public int size() {
+			return keys.length;
+		}
+
+		/**
+		 * Returns the slot offset of the key {@code key} in this shape, or {@code -1}
+		 * if {@code key} is not a field of this shape.
+		 *
+		 * @param key  the key, may be any value
+		 * @return  the offset of {@code key}, or {@code -1} if {@code key} is not a field
+		 *          of this shape
+		 */
+		public int offsetOf(Object key) {
+			Integer offset = offsets.get(key);
+			return offset != null ? offset.intValue() : -1;
+		}
+
+		ByteString keyAt(int offset) {
+			return keys[offset];
+		}
+
+		/**
+		 * Returns the shape obtained by appending the field {@code key} to this shape,
+		 * or {@code null} if the new shape would be too large or this shape already
+		 * has too many children.
+		 */
+		Shape withKey(ByteString key) {
+			if (keys.length >= MAX_SHAPE_SIZE) {
+				return null;
+			}
+
+			synchronized (transitions) {
+				WeakReference<Shape> ref = transitions.get(key);
+				Shape child = ref != null ? ref.get() : null;
+				if (child != null) {
+					return child;
+				}
+
+				if (transitions.size() >= MAX_TRANSITIONS) {
+					expungeStaleTransitions();
+					if (transitions.size() >= MAX_TRANSITIONS) {
+						return null;
+					}
+				}
+
+				ByteString[] newKeys = Arrays.copyOf(keys, keys.length + 1);
+				newKeys[keys.length] = key;
+				Map<ByteString, Integer> newOffsets = new HashMap<>(offsets);
+				newOffsets.put(key, keys.length);
+
+				child = new Shape(newKeys, newOffsets);
+				transitions.put(key, new WeakReference<>(child));
+				return child;
+			}
+		}
+
+		private void expungeStaleTransitions() {
+			Iterator<WeakReference<Shape>> it = transitions.values().iterator();
+			while (it.hasNext()) {
+				if (it.next().get() == null) {
+					it.remove();
+				}
+			}
+		}
+
+	}
+
+}
@@ -45,6 +45,19 @@ public final class StateContexts {
 		return new DefaultStateContext(tableFactory, metatableAccessor);
 	}
 
+	/**
+	 * Returns a new state context with the specified table factory {@code tableFactory}
+	 * and the default (empty) metatable accessor.
+	 *
+	 * @param tableFactory  table factory to be used by this state, must not be {@code null}
+	 * @return  a new instance with the specified table factory
+	 *
+	 * @throws NullPointerException  if {@code tableFactory} is {@code null}
+	 */
+	public static StateContext newInstance(TableFactory tableFactory) {
+		return newInstance(tableFactory, new DefaultMetatableAccessor());
+	}
+
 	/**
 	 * Returns a new state context with the default table factory and the default (empty)
 	 * metatable accessor.
@@ -52,7 +65,7 @@ public final class StateContexts {
 	 * @return  a new default instance
 	 */
 	public static StateContext newDefaultInstance() {
-		return newInstance(DefaultTable.factory(), new DefaultMetatableAccessor());
+		return newInstance(DefaultTable.factory());
 	}
 
 }
@@ -18,19 +18,38 @@ package net.sandius.rembulan.load;
 
 import net.sandius.rembulan.util.ByteVector;
 
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Class loader for Lua chunks.
+ *
+ * <p>This class loader is parallel capable. Classes defined by it can only be unloaded
+ * together with the class loader itself, i.e., once all functions defined by the classes
+ * installed into the class loader have become unreachable. To allow chunks to be unloaded
+ * independently, use a separate {@code ChunkClassLoader} for every chunk.</p>
+ *
+ * <p>The Java virtual machine does not report metaspace usage per class loader. As an
+ * approximation, the class loader keeps track of the number of classes it has defined
+ * ({@link #definedClassCount()}) and of the total size of their classfiles
+ * ({@link #definedClassBytes()}).</p>
  */
 public class ChunkClassLoader extends ClassLoader {
 
+	static {
+		registerAsParallelCapable();
+	}
+
 	private final Map<String, ByteVector> installed;
 	private final Set<String> loaded;
 
+	private final AtomicInteger definedClassCount;
+	private final AtomicLong definedClassBytes;
+
 	/**
 	 * Constructs a new {@code ChunkClassLoader} with the specified class loader {@code parent}
 	 * as its parent in the class loading hierarchy.
@@ -39,8 +58,10 @@ public class ChunkClassLoader extends ClassLoader {
 	 */
 	public ChunkClassLoader(ClassLoader parent) {
 		super(parent);
-		this.installed = new HashMap<>();
-		this.loaded = new HashSet<>();
+		this.installed = new ConcurrentHashMap<>();
+		this.loaded = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		this.definedClassCount = new AtomicInteger();
+		this.definedClassBytes = new AtomicLong();
 	}
 
 	/**
@@ -71,14 +92,14 @@ public class ChunkClassLoader extends ClassLoader {
 
 		synchronized (this) {
 			for (String name : classes.keySet()) {
-				if (installed.containsKey(name) || loaded.contains(name)) {
+				if (isInstalled(name)) {
 					// class already installed
 					throw new IllegalStateException("Class already installed: " + name);
 				}
-
-				installed.put(name, classes.get(name));
 			}
 
+			installed.putAll(classes);
+
 			String main = chunk.mainClassName();
 			assert (installed.containsKey(main));
 			return main;
@@ -95,28 +116,51 @@ public class ChunkClassLoader extends ClassLoader {
 	 * @throws NullPointerException  if {@code className} is {@code null}
 	 */
 	public boolean isInstalled(String className) {
-		synchronized (this) {
-			return installed.containsKey(className) || loaded.contains(className);
-		}
+		// check installed first: findClass adds a class to loaded before removing it from
+		// installed, so a class missing from installed is already in loaded
+		return installed.containsKey(className) || loaded.contains(className);
+	}
+
+	/**
+	 * Returns the number of classes defined by this class loader.
+	 *
+	 * @return  the number of classes defined by this class loader
+	 */
+	public int definedClassCount() {
+		return definedClassCount.get();
+	}
+
+	/**
+	 * Returns the total size (in bytes) of the classfiles of the classes defined by this
+	 * class loader.
+	 *
+	 * @return  the total size of the classes defined by this class loader
+	 */
+	public long definedClassBytes() {
+		return definedClassBytes.get();
 	}
 
 	@Override
 	protected Class<?> findClass(String name) throws ClassNotFoundException {
-		synchronized (this) {
-			ByteVector bv = installed.remove(name);
-			if (bv != null) {
-				loaded.add(name);
-				return defineClass(name, bv);
-			}
-			else {
-				throw new ClassNotFoundException(name);
-			}
+		// loading of a given class name is serialised by ClassLoader.loadClass
+		ByteVector bv = installed.get(name);
+		if (bv != null) {
+			// add to loaded before removing from installed (see isInstalled)
+			loaded.add(name);
+			installed.remove(name);
+			return defineClass(name, bv);
+		}
+		else {
+			throw new ClassNotFoundException(name);
 		}
 	}
 
 	private Class<?> defineClass(String name, ByteVector bytes) {
 		byte[] byteArray = bytes.copyToNewArray();
-		return defineClass(name, byteArray, 0, byteArray.length);
+		Class<?> clazz = defineClass(name, byteArray, 0, byteArray.length);
+		definedClassCount.incrementAndGet();
+		definedClassBytes.addAndGet(byteArray.length);
+		return clazz;
 	}
 
 }
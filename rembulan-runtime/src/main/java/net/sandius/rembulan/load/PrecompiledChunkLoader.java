@@ -0,0 +1,237 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sandius.rembulan.load;
+
+import net.sandius.rembulan.Variable;
+import net.sandius.rembulan.runtime.LuaFunction;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * A chunk loader that loads chunks compiled ahead of time from a class loader,
+ * without invoking the parser or the compiler.
+ *
+ * <p>The precompiled chunks are described by index resources named
+ * {@value #INDEX_RESOURCE_NAME}, typically packaged in a jar together with the compiled
+ * classes. An index is a properties file mapping chunk names to entries of the form
+ * <code><i>className</i> <i>digest</i></code>, where <i>className</i> is the name of
+ * the main class of the chunk and <i>digest</i> is the {@linkplain #sourceDigest(String)
+ * digest} of the source text the chunk was compiled from.</p>
+ *
+ * <p>{@link #loadTextChunk(Variable, String, String)} only uses a precompiled chunk if
+ * its digest matches the source text being loaded. Chunks that are not found (or whose
+ * source text differs) are loaded by the fallback chunk loader, if any.</p>
+ */
+public class PrecompiledChunkLoader implements ChunkLoader {
+
+	/**
+	 * The name of the index resources.
+	 */
+	public static final String INDEX_RESOURCE_NAME = "META-INF/rembulan/chunks.properties";
+
+	private static final String DIGEST_ALGORITHM = "SHA-256";
+
+	private final ClassLoader classLoader;
+	private final Map<String, Entry> index;
+	private final ChunkLoader fallback;
+
+	static class Entry {
+
+		final String className;
+		final String digest;
+
+		Entry(String className, String digest) {
+			this.className = Objects.requireNonNull(className);
+			this.digest = Objects.requireNonNull(digest);
+		}
+
+	}
+
+	PrecompiledChunkLoader(ClassLoader classLoader, Map<String, Entry> index, ChunkLoader fallback) {
+		this.classLoader = Objects.requireNonNull(classLoader);
+		this.index = Objects.requireNonNull(index);
+		this.fallback = fallback;
+	}
+
+	private static Map<String, Entry> readIndex(ClassLoader classLoader) throws IOException {
+		Map<String, Entry> index = new HashMap<>();
+
+		Enumeration<URL> resources = classLoader.getResources(INDEX_RESOURCE_NAME);
+		while (resources.hasMoreElements()) {
+			URL url = resources.nextElement();
+
+			Properties props = new Properties();
+			try (InputStream in = url.openStream()) {
+				props.load(in);
+			}
+
+			for (String chunkName : props.stringPropertyNames()) {
+				String[] fields = props.getProperty(chunkName).trim().split("\\s+");
+				if (fields.length != 2) {
+					throw new IOException("Invalid entry for chunk \"" + chunkName + "\" in " + url);
+				}
+				if (!index.containsKey(chunkName)) {
+					// the first entry on the class path wins
+					index.put(chunkName, new Entry(fields[0], fields[1]));
+				}
+			}
+		}
+
+		return index;
+	}
+
+	/**
+	 * Returns a new precompiled chunk loader that loads the chunks listed in the index
+	 * resources visible to {@code classLoader}, delegating the loading of chunks not
+	 * found in the index to {@code fallback}.
+	 *
+	 * @param classLoader  the class loader to load the indices and chunk classes from,
+	 *                     must not be {@code null}
+	 * @param fallback  the fallback chunk loader, may be {@code null}
+	 * @return  a new precompiled chunk loader
+	 *
+	 * @throws NullPointerException  if {@code classLoader} is {@code null}
+	 * @throws IOException  if an index resource cannot be read
+	 */
+	public static PrecompiledChunkLoader of(ClassLoader classLoader, ChunkLoader fallback)
+			throws IOException {
+		return new PrecompiledChunkLoader(classLoader, readIndex(classLoader), fallback);
+	}
+
+	/**
+	 * Returns a new precompiled chunk loader that loads the chunks listed in the index
+	 * resources visible to {@code classLoader}, without a fallback loader.
+	 *
+	 * @param classLoader  the class loader to load the indices and chunk classes from,
+	 *                     must not be {@code null}
+	 * @return  a new precompiled chunk loader
+	 *
+	 * @throws NullPointerException  if {@code classLoader} is {@code null}
+	 * @throws IOException  if an index resource cannot be read
+	 */
+	public static PrecompiledChunkLoader of(ClassLoader classLoader) throws IOException {
+		return of(classLoader, null);
+	}
+
+	/**
+	 * Returns the digest of the source text {@code sourceText} used to match precompiled
+	 * chunks against source texts: the hexadecimal representation of the SHA-256 hash
+	 * of the UTF-8 encoding of {@code sourceText}.
+	 *
+	 * @param sourceText  the source text, must not be {@code null}
+	 * @return  the digest of {@code sourceText}
+	 *
+	 * @throws NullPointerException  if {@code sourceText} is {@code null}
+	 */
+	public static String sourceDigest(String sourceText) {
+		byte[] bytes = sourceText.getBytes(StandardCharsets.UTF_8);
+
+		byte[] digest;
+		try {
+			digest = MessageDigest.getInstance(DIGEST_ALGORITHM).digest(bytes);
+		}
+		catch (NoSuchAlgorithmException ex) {
+			// every Java platform is required to support SHA-256
+			throw new IllegalStateException(ex);
+		}
+
+		StringBuilder bld = new StringBuilder(2 * digest.length);
+		for (byte b : digest) {
+			bld.append(Character.forDigit((b >>> 4) & 0x0f, 16));
+			bld.append(Character.forDigit(b & 0x0f, 16));
+		}
+		return bld.toString();
+	}
+
+	/**
+	 * Returns the names of the precompiled chunks available to this loader.
+	 *
+	 * @return  an unmodifiable set of the precompiled chunk names
+	 */
+	public Set<String> chunkNames() {
+		return Collections.unmodifiableSet(index.keySet());
+	}
+
+	private LuaFunction instantiate(Variable env, String chunkName, Entry entry) throws LoaderException {
+		try {
+			Class<?> clazz = Class.forName(entry.className, true, classLoader);
+			return (LuaFunction) clazz.getConstructor(Variable.class).newInstance(env);
+		}
+		catch (RuntimeException | LinkageError | ReflectiveOperationException ex) {
+			throw new LoaderException(ex, chunkName);
+		}
+	}
+
+	/**
+	 * Loads the precompiled chunk {@code chunkName} without checking its source text,
+	 * supplying {@code env} as the chunk's sole upvalue.
+	 *
+	 * @param env  the variable to be used as the sole upvalue of the chunk,
+	 *             must not be {@code null}
+	 * @param chunkName  the chunk name, must not be {@code null}
+	 * @return  a function object
+	 *
+	 * @throws LoaderException  if there is no precompiled chunk {@code chunkName},
+	 *                          or if its class cannot be loaded or instantiated
+	 * @throws NullPointerException  if {@code env} or {@code chunkName} is {@code null}
+	 */
+	public LuaFunction loadChunk(Variable env, String chunkName) throws LoaderException {
+		Objects.requireNonNull(env);
+		Entry entry = index.get(Objects.requireNonNull(chunkName));
+		if (entry == null) {
+			throw new LoaderException(
+					new IllegalArgumentException("no precompiled chunk '" + chunkName + "'"),
+					chunkName);
+		}
+		return instantiate(env, chunkName, entry);
+	}
+
+	@Override
+	public LuaFunction loadTextChunk(Variable env, String chunkName, String chunk) throws LoaderException {
+		Objects.requireNonNull(env);
+		Objects.requireNonNull(chunkName);
+		Objects.requireNonNull(chunk);
+
+		Entry entry = index.get(chunkName);
+		if (entry != null && entry.digest.equals(sourceDigest(chunk))) {
+			return instantiate(env, chunkName, entry);
+		}
+		else if (fallback != null) {
+			return fallback.loadTextChunk(env, chunkName, chunk);
+		}
+		else {
+			throw new LoaderException(
+					new IllegalArgumentException(entry != null
+							? "precompiled chunk '" + chunkName + "' does not match the source text"
+							: "no precompiled chunk '" + chunkName + "'"),
+					chunkName);
+		}
+	}
+
+}
@@ -370,11 +370,23 @@ class Call {
 			return coroutine.getStatus();
 		}
 
+		SchedulingContext schedulingContext() {
+			return schedulingContext;
+		}
+
 		@Override
 		public void resume(Coroutine coroutine, Object[] args) throws UnresolvedControlThrowable {
 			Objects.requireNonNull(coroutine);
-			throw new UnresolvedControlThrowable(new ControlPayload(
-					false, Objects.requireNonNull(coroutine), Objects.requireNonNull(args), null));
+			Objects.requireNonNull(args);
+
+			if (coroutine.thread != null) {
+				// switch threads without unwinding the stack
+				CoroutineThread.resume(stateContext, getCurrentCoroutine(), coroutine, args,
+						returnBuffer, schedulingContext);
+			}
+			else {
+				throw new UnresolvedControlThrowable(new ControlPayload(false, coroutine, args, null));
+			}
 		}
 
 		@Override
@@ -497,6 +509,11 @@ class Call {
 			result = new ResumeResult(false, null, null, task);
 		}
 
+		@Override
+		public void proceed() {
+			// no-op: continue with the saved frames
+		}
+
 		private void saveFrames(ResolvedControlThrowable ct) {
 			Iterator<ResumeInfo> it = ct.frames();
 			while (it.hasNext()) {
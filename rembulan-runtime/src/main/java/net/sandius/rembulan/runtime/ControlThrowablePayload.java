@@ -30,6 +30,8 @@ abstract class ControlThrowablePayload {
 
 		void async(AsyncTask task);
 
+		void proceed();
+
 	}
 
 }
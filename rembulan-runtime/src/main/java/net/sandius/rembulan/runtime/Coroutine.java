@@ -44,9 +44,17 @@ public final class Coroutine {
 	private Cons<ResumeInfo> callStack;
 	private Status status;
 
-	Coroutine(Object body) {
-		this.callStack = new Cons<>(new ResumeInfo(BootstrapResumable.INSTANCE, body));
+	// non-null iff this coroutine runs in its own thread
+	final CoroutineThread thread;
+
+	Coroutine(Object body, boolean threaded) {
+		this.callStack = !threaded ? new Cons<>(new ResumeInfo(BootstrapResumable.INSTANCE, body)) : null;
 		this.status = Status.SUSPENDED;
+		this.thread = threaded ? new CoroutineThread(this, body) : null;
+	}
+
+	Coroutine(Object body) {
+		this(body, false);
 	}
 
 	/**
@@ -79,7 +87,7 @@ public final class Coroutine {
 		return status;
 	}
 
-	private static class BootstrapResumable implements Resumable {
+	static class BootstrapResumable implements Resumable {
 
 		static final BootstrapResumable INSTANCE = new BootstrapResumable();
 
@@ -157,6 +165,64 @@ public final class Coroutine {
 		return _yield(a, b, null);
 	}
 
+	// threaded coroutines
+
+	// (RUNNING, SUSPENDED) -> (NORMAL, RUNNING)
+	static void _resumeThreaded(Coroutine a, Coroutine b) {
+		Check.notNull(a);
+		Check.notNull(b);
+
+		synchronized (a) {
+			if (a.status == Status.RUNNING) {
+				synchronized (b) {
+					if (b.status == Status.SUSPENDED) {
+						a.status = Status.NORMAL;
+						b.status = Status.RUNNING;
+					}
+					else if (b.status == Status.DEAD) {
+						throw Errors.resumeDeadCoroutine();
+					}
+					else {
+						throw Errors.resumeNonSuspendedCoroutine();
+					}
+				}
+			}
+			else {
+				throw new IllegalStateException("resuming coroutine not in running state");
+			}
+		}
+	}
+
+	// (*, RUNNING) -> (NORMAL, RUNNING)
+	static void _continueThreaded(Coroutine a, Coroutine b) {
+		synchronized (a) {
+			synchronized (b) {
+				if (b.status == Status.RUNNING) {
+					a.status = Status.NORMAL;
+				}
+				else {
+					throw new IllegalCoroutineStateException("continued coroutine not in running state");
+				}
+			}
+		}
+	}
+
+	// (NORMAL, RUNNING) -> (RUNNING, SUSPENDED) if !dead
+	// (NORMAL, RUNNING) -> (RUNNING, DEAD) if dead
+	static void _yieldThreaded(Coroutine a, Coroutine b, boolean dead) {
+		synchronized (a) {
+			synchronized (b) {
+				if (a.status == Status.NORMAL && b.status == Status.RUNNING) {
+					a.status = Status.RUNNING;
+					b.status = dead ? Status.DEAD : Status.SUSPENDED;
+				}
+				else {
+					throw new IllegalCoroutineStateException("illegal coroutine state in yield");
+				}
+			}
+		}
+	}
+
 	synchronized Cons<ResumeInfo> unpause() {
 		// TODO: check status?
 		status = Status.RUNNING;
@@ -0,0 +1,592 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sandius.rembulan.runtime;
+
+import net.sandius.rembulan.LuaRuntimeException;
+import net.sandius.rembulan.StateContext;
+import net.sandius.rembulan.impl.AbstractStateContext;
+import net.sandius.rembulan.impl.ReturnBuffers;
+import net.sandius.rembulan.util.Check;
+import net.sandius.rembulan.util.Cons;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The body of a coroutine executed in its own Java thread.
+ *
+ * <p>The coroutine thread and the thread resuming the coroutine hand control over to each
+ * other using this object as a monitor, so that at any time, at most one of them is running.
+ * Resuming and yielding therefore do not unwind the Java stack of either of the two threads.
+ * Pauses, asynchronous tasks and errors, which must be handled by the call that resumed
+ * the coroutine, are propagated to the resuming thread and continue from there using
+ * control throwables as usual.</p>
+ *
+ * <p>The thread is started when the coroutine is resumed for the first time, and terminates
+ * when the coroutine finishes. The thread of a suspended coroutine that has become
+ * unreachable terminates as well, unless the coroutine is referenced from its own
+ * stack.</p>
+ *
+ * <p>The number of live coroutine threads is bounded by {@link #maxThreads()}: resuming
+ * a coroutine for the first time fails with a Lua error if the bound has been reached.</p>
+ */
+final class CoroutineThread {
+
+	private static final long REAP_INTERVAL_MILLIS = 1000L;
+
+	static final String MAX_THREADS_PROPERTY = "net.sandius.rembulan.runtime.MaxCoroutineThreads";
+	static final int DEFAULT_MAX_THREADS = 4096;
+
+	private static final AtomicInteger liveThreads = new AtomicInteger();
+	private static volatile int maxThreads = Integer.getInteger(MAX_THREADS_PROPERTY, DEFAULT_MAX_THREADS);
+
+	private final WeakReference<Coroutine> coroutine;
+	private final Object body;
+
+	// all access guarded by this
+	private boolean started;
+	private Request request;
+	private Reply reply;
+
+	CoroutineThread(Coroutine coroutine, Object body) {
+		this.coroutine = new WeakReference<>(Check.notNull(coroutine));
+		this.body = body;
+	}
+
+	private static final class Request {
+
+		final Object[] values;  // null when continuing after a pause or an asynchronous task
+		final StateContext stateContext;
+		final SchedulingContext schedulingContext;
+
+		Request(Object[] values, StateContext stateContext, SchedulingContext schedulingContext) {
+			this.values = values;
+			this.stateContext = Objects.requireNonNull(stateContext);
+			this.schedulingContext = Objects.requireNonNull(schedulingContext);
+		}
+
+	}
+
+	private enum Kind {
+		YIELD,
+		RETURN,
+		ERROR,
+		PAUSE,
+		ASYNC
+	}
+
+	private static final class Reply {
+
+		final Kind kind;
+		final Object[] values;
+		final Throwable error;
+		final AsyncTask task;
+
+		private Reply(Kind kind, Object[] values, Throwable error, AsyncTask task) {
+			this.kind = kind;
+			this.values = values;
+			this.error = error;
+			this.task = task;
+		}
+
+		static final Reply PAUSE = new Reply(Kind.PAUSE, null, null, null);
+
+		static Reply yield(Object[] values) {
+			return new Reply(Kind.YIELD, values, null, null);
+		}
+
+		static Reply ret(Object[] values) {
+			return new Reply(Kind.RETURN, values, null, null);
+		}
+
+		static Reply error(Throwable error) {
+			return new Reply(Kind.ERROR, null, error, null);
+		}
+
+		static Reply async(AsyncTask task) {
+			return new Reply(Kind.ASYNC, null, null, task);
+		}
+
+	}
+
+	/**
+	 * Thrown in the coroutine thread when the suspended coroutine has become unreachable.
+	 */
+	private static final class Abandoned extends Error {
+
+		private static final long serialVersionUID = 1L;
+
+		static final Abandoned INSTANCE = new Abandoned();
+
+		private Abandoned() {
+			super(null, null, false, false);
+		}
+
+	}
+
+	static int maxThreads() {
+		return maxThreads;
+	}
+
+	static void setMaxThreads(int max) {
+		maxThreads = Check.positive(max);
+	}
+
+	static int liveThreads() {
+		return liveThreads.get();
+	}
+
+	// called in the resuming thread, before the coroutine is resumed for the first time
+	private synchronized void start() {
+		if (started) {
+			return;
+		}
+
+		int n;
+		do {
+			n = liveThreads.get();
+			if (n >= maxThreads) {
+				throw new LuaRuntimeException("too many threaded coroutines (limit is " + maxThreads + ")");
+			}
+		} while (!liveThreads.compareAndSet(n, n + 1));
+
+		Thread t = new Thread(new Worker(), "rembulan-coroutine");
+		t.setDaemon(true);
+		try {
+			t.start();
+		}
+		catch (RuntimeException | Error ex) {
+			liveThreads.decrementAndGet();
+			throw ex;
+		}
+		started = true;
+	}
+
+	// called in the resuming thread
+	private synchronized Reply transfer(Request req) {
+		assert (started && request == null && reply == null);
+
+		request = req;
+		notifyAll();
+
+		boolean interrupted = false;
+		while (reply == null) {
+			try {
+				wait();
+			}
+			catch (InterruptedException ex) {
+				// the coroutine thread is running: we must wait for it in any case
+				interrupted = true;
+			}
+		}
+
+		Reply r = reply;
+		reply = null;
+
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+
+		return r;
+	}
+
+	// called in the coroutine thread
+	private synchronized Request awaitRequest() {
+		while (request == null) {
+			if (coroutine.get() == null) {
+				throw Abandoned.INSTANCE;
+			}
+
+			try {
+				wait(REAP_INTERVAL_MILLIS);
+			}
+			catch (InterruptedException ex) {
+				// ignore: the coroutine is only terminated once it becomes unreachable
+			}
+		}
+
+		Request r = request;
+		request = null;
+		return r;
+	}
+
+	// called in the coroutine thread
+	private Request handOff(Reply r) {
+		synchronized (this) {
+			assert (reply == null);
+			reply = r;
+			notifyAll();
+		}
+		return awaitRequest();
+	}
+
+	// called in the coroutine thread
+	private synchronized void finish(Reply r) {
+		assert (reply == null);
+		reply = r;
+		notifyAll();
+	}
+
+	private class Worker implements Runnable {
+
+		@Override
+		public void run() {
+			try {
+				run(awaitRequest());
+			}
+			catch (Abandoned ex) {
+				// terminate
+			}
+			finally {
+				liveThreads.decrementAndGet();
+			}
+		}
+
+		private void run(Request req) {
+			Context context = new Context(req.stateContext, req.schedulingContext);
+			context.returnBuffer.setToContentsOf(req.values);
+
+			Reply result;
+			try {
+				result = execute(context);
+			}
+			catch (Abandoned ex) {
+				throw ex;
+			}
+			catch (Throwable ex) {
+				result = Reply.error(ex);
+			}
+
+			finish(result);
+		}
+
+	}
+
+	private Reply execute(Context context) {
+		Cons<ResumeInfo> callStack = new Cons<>(new ResumeInfo(Coroutine.BootstrapResumable.INSTANCE, body));
+		Throwable error = null;
+
+		while (callStack != null) {
+			ResumeInfo top = callStack.car;
+			callStack = callStack.cdr;
+
+			try {
+				if (top.resume(context, error)) {
+					error = null;  // top was run
+				}
+			}
+			catch (ResolvedControlThrowable ct) {
+				Iterator<ResumeInfo> it = ct.frames();
+				while (it.hasNext()) {
+					callStack = new Cons<>(it.next(), callStack);
+				}
+				ct.payload().accept(context);
+			}
+			catch (Exception ex) {
+				// unhandled exception: will try finding a handler in the next iteration
+				error = ex;
+			}
+		}
+
+		return error == null
+				? Reply.ret(context.returnBuffer.getAsArray())
+				: Reply.error(error);
+	}
+
+	private static final ControlThrowablePayload PREEMPTED_PAYLOAD = new ControlThrowablePayload() {
+		@Override
+		void accept(Visitor visitor) {
+			visitor.preempted();
+		}
+	};
+
+	private static final ControlThrowablePayload PROCEED_PAYLOAD = new ControlThrowablePayload() {
+		@Override
+		void accept(Visitor visitor) {
+			visitor.proceed();
+		}
+	};
+
+	private static ControlThrowablePayload asyncPayload(final AsyncTask task) {
+		return new ControlThrowablePayload() {
+			@Override
+			void accept(Visitor visitor) {
+				visitor.async(task);
+			}
+		};
+	}
+
+	/**
+	 * Continues a coroutine that has been interrupted by a pause or an asynchronous task.
+	 */
+	private static class Await implements Resumable {
+
+		static final Await INSTANCE = new Await();
+
+		@Override
+		public void resume(ExecutionContext context, Object suspendedState) throws ResolvedControlThrowable {
+			Coroutine target = (Coroutine) suspendedState;
+			Coroutine current = context.getCurrentCoroutine();
+
+			Coroutine._continueThreaded(current, target);
+			Reply r = target.thread.transfer(new Request(null, context, schedulingContextOf(context)));
+
+			try {
+				complete(r, current, target, context.getReturnBuffer());
+			}
+			catch (UnresolvedControlThrowable ct) {
+				throw ct.resolve();
+			}
+		}
+
+	}
+
+	/**
+	 * Rethrows the error raised in a coroutine in the context of the resuming coroutine.
+	 */
+	private static class Rethrow implements Resumable {
+
+		static final Rethrow INSTANCE = new Rethrow();
+
+		@Override
+		public void resume(ExecutionContext context, Object suspendedState) throws ResolvedControlThrowable {
+			Throwable error = (Throwable) suspendedState;
+			if (error instanceof RuntimeException) {
+				throw (RuntimeException) error;
+			}
+			else if (error instanceof Error) {
+				throw (Error) error;
+			}
+			else {
+				throw new LuaRuntimeException(error);
+			}
+		}
+
+	}
+
+	private static UnresolvedControlThrowable failure(Throwable error) {
+		return new UnresolvedControlThrowable(PROCEED_PAYLOAD, new Cons<>(new ResumeInfo(Rethrow.INSTANCE, error)));
+	}
+
+	private static UnresolvedControlThrowable interruption(ControlThrowablePayload payload, Coroutine target) {
+		return new UnresolvedControlThrowable(payload, new Cons<>(new ResumeInfo(Await.INSTANCE, target)));
+	}
+
+	private static SchedulingContext schedulingContextOf(ExecutionContext context) {
+		if (context instanceof Call.Resumer) {
+			return ((Call.Resumer) context).schedulingContext();
+		}
+		else if (context instanceof Context) {
+			return ((Context) context).schedulingContext;
+		}
+		else {
+			throw new IllegalStateException("Unsupported execution context: " + context);
+		}
+	}
+
+	private static void complete(Reply r, Coroutine current, Coroutine target, ReturnBuffer returnBuffer)
+			throws UnresolvedControlThrowable {
+
+		switch (r.kind) {
+			case YIELD:
+			case RETURN:
+				Coroutine._yieldThreaded(current, target, r.kind == Kind.RETURN);
+				returnBuffer.setToContentsOf(r.values);
+				break;
+
+			case ERROR:
+				Coroutine._yieldThreaded(current, target, true);
+				if (r.error instanceof Error) {
+					throw (Error) r.error;
+				}
+				else {
+					throw failure(r.error);
+				}
+
+			case PAUSE:
+				throw interruption(PREEMPTED_PAYLOAD, target);
+
+			case ASYNC:
+				throw interruption(asyncPayload(r.task), target);
+
+			default:
+				throw new AssertionError();
+		}
+	}
+
+	/**
+	 * Resumes the threaded coroutine {@code target} from the coroutine {@code current},
+	 * passing the arguments {@code args} to it.
+	 *
+	 * <p>When {@code target} yields or returns, this method returns normally with the yielded
+	 * (or returned) values in {@code returnBuffer}. In all other cases, an unresolved control
+	 * throwable is thrown.</p>
+	 */
+	static void resume(
+			StateContext stateContext,
+			Coroutine current,
+			Coroutine target,
+			Object[] args,
+			ReturnBuffer returnBuffer,
+			SchedulingContext schedulingContext)
+			throws UnresolvedControlThrowable {
+
+		try {
+			target.thread.start();
+			Coroutine._resumeThreaded(current, target);
+		}
+		catch (LuaRuntimeException ex) {
+			// e.g. an illegal coroutine state, or too many coroutine threads
+			throw failure(ex);
+		}
+
+		Reply r = target.thread.transfer(new Request(
+				Arrays.copyOf(args, args.length), stateContext, schedulingContext));
+
+		complete(r, current, target, returnBuffer);
+	}
+
+	/**
+	 * The execution context in the coroutine thread.
+	 */
+	private class Context extends AbstractStateContext implements ExecutionContext, ControlThrowablePayload.Visitor {
+
+		private final StateContext stateContext;
+		private final ReturnBuffer returnBuffer;
+		private SchedulingContext schedulingContext;
+
+		Context(StateContext stateContext, SchedulingContext schedulingContext) {
+			super(stateContext);
+			this.stateContext = stateContext;
+			this.returnBuffer = ReturnBuffers.newDefaultReturnBuffer();
+			this.schedulingContext = Objects.requireNonNull(schedulingContext);
+		}
+
+		private void suspend(Reply r) {
+			Request req = handOff(r);
+			assert (req.values == null);
+			schedulingContext = req.schedulingContext;
+		}
+
+		@Override
+		public ReturnBuffer getReturnBuffer() {
+			return returnBuffer;
+		}
+
+		@Override
+		public Coroutine getCurrentCoroutine() {
+			return coroutine.get();
+		}
+
+		@Override
+		public boolean isInMainCoroutine() {
+			// matches the behaviour of Call.Resumer in non-main coroutines
+			return true;
+		}
+
+		@Override
+		public Coroutine.Status getCoroutineStatus(Coroutine coroutine) {
+			return coroutine.getStatus();
+		}
+
+		@Override
+		public Coroutine newCoroutine(LuaFunction function) {
+			return new Coroutine(Objects.requireNonNull(function), true);
+		}
+
+		@Override
+		public void resume(Coroutine coroutine, Object[] args) throws UnresolvedControlThrowable {
+			Objects.requireNonNull(coroutine);
+			Objects.requireNonNull(args);
+
+			if (coroutine.thread == null) {
+				switch (coroutine.getStatus()) {
+					case SUSPENDED:
+						throw failure(new IllegalCoroutineStateException(
+								"cannot resume a non-threaded coroutine from a threaded coroutine"));
+					case DEAD:
+						throw failure(Errors.resumeDeadCoroutine());
+					default:
+						throw failure(Errors.resumeNonSuspendedCoroutine());
+				}
+			}
+
+			CoroutineThread.resume(stateContext, getCurrentCoroutine(), coroutine, args,
+					returnBuffer, schedulingContext);
+		}
+
+		@Override
+		public void yield(Object[] args) {
+			Request req = handOff(Reply.yield(Arrays.copyOf(args, args.length)));
+			assert (req.values != null);
+			schedulingContext = req.schedulingContext;
+			returnBuffer.setToContentsOf(req.values);
+		}
+
+		@Override
+		public void resumeAfter(AsyncTask task) throws UnresolvedControlThrowable {
+			throw new UnresolvedControlThrowable(asyncPayload(Objects.requireNonNull(task)));
+		}
+
+		@Override
+		public void registerTicks(int ticks) {
+			schedulingContext.registerTicks(ticks);
+		}
+
+		@Override
+		public void pauseIfRequested() throws UnresolvedControlThrowable {
+			if (schedulingContext.shouldPause()) {
+				pause();
+			}
+		}
+
+		@Override
+		public void pause() throws UnresolvedControlThrowable {
+			throw new UnresolvedControlThrowable(PREEMPTED_PAYLOAD);
+		}
+
+		@Override
+		public void preempted() {
+			suspend(Reply.PAUSE);
+		}
+
+		@Override
+		public void async(AsyncTask task) {
+			suspend(Reply.async(task));
+		}
+
+		@Override
+		public void proceed() {
+			// no-op: continue with the saved frames
+		}
+
+		@Override
+		public void coroutineYield(Object[] values) {
+			throw new IllegalStateException("Unexpected coroutine yield");
+		}
+
+		@Override
+		public void coroutineResume(Coroutine target, Object[] values) {
+			throw new IllegalStateException("Unexpected coroutine resume");
+		}
+
+	}
+
+}
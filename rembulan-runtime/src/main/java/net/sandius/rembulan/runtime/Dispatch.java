@@ -37,12 +37,36 @@ public final class Dispatch {
 		// not to be instantiated
 	}
 
+	// flags of the metatable events, looked up once rather than on every dispatch
+	private static final int FLAG_ADD = Metatables.eventFlag(Metatables.MT_ADD);
+	private static final int FLAG_BAND = Metatables.eventFlag(Metatables.MT_BAND);
+	private static final int FLAG_BNOT = Metatables.eventFlag(Metatables.MT_BNOT);
+	private static final int FLAG_BOR = Metatables.eventFlag(Metatables.MT_BOR);
+	private static final int FLAG_BXOR = Metatables.eventFlag(Metatables.MT_BXOR);
+	private static final int FLAG_CALL = Metatables.eventFlag(Metatables.MT_CALL);
+	private static final int FLAG_CONCAT = Metatables.eventFlag(Metatables.MT_CONCAT);
+	private static final int FLAG_DIV = Metatables.eventFlag(Metatables.MT_DIV);
+	private static final int FLAG_EQ = Metatables.eventFlag(Metatables.MT_EQ);
+	private static final int FLAG_IDIV = Metatables.eventFlag(Metatables.MT_IDIV);
+	private static final int FLAG_INDEX = Metatables.eventFlag(Metatables.MT_INDEX);
+	private static final int FLAG_LE = Metatables.eventFlag(Metatables.MT_LE);
+	private static final int FLAG_LEN = Metatables.eventFlag(Metatables.MT_LEN);
+	private static final int FLAG_LT = Metatables.eventFlag(Metatables.MT_LT);
+	private static final int FLAG_MOD = Metatables.eventFlag(Metatables.MT_MOD);
+	private static final int FLAG_MUL = Metatables.eventFlag(Metatables.MT_MUL);
+	private static final int FLAG_NEWINDEX = Metatables.eventFlag(Metatables.MT_NEWINDEX);
+	private static final int FLAG_POW = Metatables.eventFlag(Metatables.MT_POW);
+	private static final int FLAG_SHL = Metatables.eventFlag(Metatables.MT_SHL);
+	private static final int FLAG_SHR = Metatables.eventFlag(Metatables.MT_SHR);
+	private static final int FLAG_SUB = Metatables.eventFlag(Metatables.MT_SUB);
+	private static final int FLAG_UNM = Metatables.eventFlag(Metatables.MT_UNM);
+
 	static LuaFunction callTarget(MetatableProvider metatableProvider, Object target) {
 		if (target instanceof LuaFunction) {
 			return (LuaFunction) target;
 		}
 		else {
-			Object handler = Metatables.getMetamethod(metatableProvider, Metatables.MT_CALL, target);
+			Object handler = Metatables.getMetamethod(metatableProvider, Metatables.MT_CALL, FLAG_CALL, target);
 
 			if (handler instanceof LuaFunction) {
 				return (LuaFunction) handler;
@@ -407,8 +431,8 @@ public final class Dispatch {
 		}
 	}
 
-	private static void try_mt_arithmetic(ExecutionContext context, ByteString event, Object a, Object b) throws UnresolvedControlThrowable {
-		Object handler = Metatables.binaryHandlerFor(context, event, a, b);
+	private static void try_mt_arithmetic(ExecutionContext context, ByteString event, int eventFlag, Object a, Object b) throws UnresolvedControlThrowable {
+		Object handler = Metatables.binaryHandlerFor(context, event, eventFlag, a, b);
 
 		if (handler != null) {
 			call(context, handler, a, b);
@@ -418,8 +442,8 @@ public final class Dispatch {
 		}
 	}
 
-	private static void try_mt_arithmetic(ExecutionContext context, ByteString event, Object o) throws UnresolvedControlThrowable {
-		Object handler = Metatables.getMetamethod(context, event, o);
+	private static void try_mt_arithmetic(ExecutionContext context, ByteString event, int eventFlag, Object o) throws UnresolvedControlThrowable {
+		Object handler = Metatables.getMetamethod(context, event, eventFlag, o);
 
 		if (handler != null) {
 			call(context, handler, o, o);
@@ -456,7 +480,7 @@ public final class Dispatch {
 			context.getReturnBuffer().setTo(math.add(na, nb));
 		}
 		else {
-			try_mt_arithmetic(context, Metatables.MT_ADD, a, b);
+			try_mt_arithmetic(context, Metatables.MT_ADD, FLAG_ADD, a, b);
 		}
 	}
 
@@ -504,7 +528,7 @@ public final class Dispatch {
 			context.getReturnBuffer().setTo(m.sub(na, nb));
 		}
 		else {
-			try_mt_arithmetic(context, Metatables.MT_SUB, a, b);
+			try_mt_arithmetic(context, Metatables.MT_SUB, FLAG_SUB, a, b);
 		}
 	}
 
@@ -552,7 +576,7 @@ public final class Dispatch {
 			context.getReturnBuffer().setTo(m.mul(na, nb));
 		}
 		else {
-			try_mt_arithmetic(context, Metatables.MT_MUL, a, b);
+			try_mt_arithmetic(context, Metatables.MT_MUL, FLAG_MUL, a, b);
 		}
 	}
 
@@ -600,7 +624,7 @@ public final class Dispatch {
 			context.getReturnBuffer().setTo(m.div(na, nb));
 		}
 		else {
-			try_mt_arithmetic(context, Metatables.MT_DIV, a, b);
+			try_mt_arithmetic(context, Metatables.MT_DIV, FLAG_DIV, a, b);
 		}
 	}
 
@@ -648,7 +672,7 @@ public final class Dispatch {
 			context.getReturnBuffer().setTo(m.mod(na, nb));
 		}
 		else {
-			try_mt_arithmetic(context, Metatables.MT_MOD, a, b);
+			try_mt_arithmetic(context, Metatables.MT_MOD, FLAG_MOD, a, b);
 		}
 	}
 
@@ -696,7 +720,7 @@ public final class Dispatch {
 			context.getReturnBuffer().setTo(m.idiv(na, nb));
 		}
 		else {
-			try_mt_arithmetic(context, Metatables.MT_IDIV, a, b);
+			try_mt_arithmetic(context, Metatables.MT_IDIV, FLAG_IDIV, a, b);
 		}
 	}
 
@@ -744,7 +768,7 @@ public final class Dispatch {
 			context.getReturnBuffer().setTo(m.pow(na, nb));
 		}
 		else {
-			try_mt_arithmetic(context, Metatables.MT_POW, a, b);
+			try_mt_arithmetic(context, Metatables.MT_POW, FLAG_POW, a, b);
 		}
 	}
 
@@ -766,8 +790,8 @@ public final class Dispatch {
 		return Arithmetic.of(a, b).pow(a, b);
 	}
 
-	private static void try_mt_bitwise(ExecutionContext context, ByteString event, Object a, Object b) throws UnresolvedControlThrowable {
-		Object handler = Metatables.binaryHandlerFor(context, event, a, b);
+	private static void try_mt_bitwise(ExecutionContext context, ByteString event, int eventFlag, Object a, Object b) throws UnresolvedControlThrowable {
+		Object handler = Metatables.binaryHandlerFor(context, event, eventFlag, a, b);
 
 		if (handler != null) {
 			call(context, handler, a, b);
@@ -777,8 +801,8 @@ public final class Dispatch {
 		}
 	}
 
-	private static void try_mt_bitwise(ExecutionContext context, ByteString event, Object o) throws UnresolvedControlThrowable {
-		Object handler = Metatables.getMetamethod(context, event, o);
+	private static void try_mt_bitwise(ExecutionContext context, ByteString event, int eventFlag, Object o) throws UnresolvedControlThrowable {
+		Object handler = Metatables.getMetamethod(context, event, eventFlag, o);
 
 		if (handler != null) {
 			call(context, handler, o, o);
@@ -814,7 +838,7 @@ public final class Dispatch {
 			context.getReturnBuffer().setTo(LuaMathOperators.band(la, lb));
 		}
 		else {
-			try_mt_bitwise(context, Metatables.MT_BAND, a, b);
+			try_mt_bitwise(context, Metatables.MT_BAND, FLAG_BAND, a, b);
 		}
 	}
 
@@ -844,7 +868,7 @@ public final class Dispatch {
 			context.getReturnBuffer().setTo(LuaMathOperators.bor(la, lb));
 		}
 		else {
-			try_mt_bitwise(context, Metatables.MT_BOR, a, b);
+			try_mt_bitwise(context, Metatables.MT_BOR, FLAG_BOR, a, b);
 		}
 	}
 
@@ -874,7 +898,7 @@ public final class Dispatch {
 			context.getReturnBuffer().setTo(LuaMathOperators.bxor(la, lb));
 		}
 		else {
-			try_mt_bitwise(context, Metatables.MT_BXOR, a, b);
+			try_mt_bitwise(context, Metatables.MT_BXOR, FLAG_BXOR, a, b);
 		}
 	}
 
@@ -904,7 +928,7 @@ public final class Dispatch {
 			context.getReturnBuffer().setTo(LuaMathOperators.shl(la, lb));
 		}
 		else {
-			try_mt_bitwise(context, Metatables.MT_SHL, a, b);
+			try_mt_bitwise(context, Metatables.MT_SHL, FLAG_SHL, a, b);
 		}
 	}
 
@@ -934,7 +958,7 @@ public final class Dispatch {
 			context.getReturnBuffer().setTo(LuaMathOperators.shr(la, lb));
 		}
 		else {
-			try_mt_bitwise(context, Metatables.MT_SHR, a, b);
+			try_mt_bitwise(context, Metatables.MT_SHR, FLAG_SHR, a, b);
 		}
 	}
 
@@ -961,7 +985,7 @@ public final class Dispatch {
 			context.getReturnBuffer().setTo(m.unm(no));
 		}
 		else {
-			try_mt_arithmetic(context, Metatables.MT_UNM, o);
+			try_mt_arithmetic(context, Metatables.MT_UNM, FLAG_UNM, o);
 		}
 	}
 
@@ -1004,7 +1028,7 @@ public final class Dispatch {
 			context.getReturnBuffer().setTo(LuaMathOperators.bnot(lo));
 		}
 		else {
-			try_mt_bitwise(context, Metatables.MT_BNOT, o);
+			try_mt_bitwise(context, Metatables.MT_BNOT, FLAG_BNOT, o);
 		}
 	}
 
@@ -1048,7 +1072,7 @@ public final class Dispatch {
 			context.getReturnBuffer().setTo(len((String) o));
 		}
 		else {
-			Object handler = Metatables.getMetamethod(context, Metatables.MT_LEN, o);
+			Object handler = Metatables.getMetamethod(context, Metatables.MT_LEN, FLAG_LEN, o);
 			if (handler != null) {
 				call(context, handler, o, o);
 			}
@@ -1087,7 +1111,7 @@ public final class Dispatch {
 			context.getReturnBuffer().setTo(sa.concat(sb));
 		}
 		else {
-			Object handler = Metatables.binaryHandlerFor(context, Metatables.MT_CONCAT, a, b);
+			Object handler = Metatables.binaryHandlerFor(context, Metatables.MT_CONCAT, FLAG_CONCAT, a, b);
 			if (handler != null) {
 				call(context, handler, a, b);
 			}
@@ -1097,6 +1121,139 @@ public final class Dispatch {
 		}
 	}
 
+	/**
+	 * Evaluates the Lua expression {@code args[0] .. args[1] .. ... .. args[n - 1]}
+	 * (where {@code n} is {@code args.length}), including the handling of metamethods,
+	 * and stores the result to the return buffer associated with {@code context}.
+	 * <b>This method throws an {@link UnresolvedControlThrowable}</b>: non-local control
+	 * changes are expected to be resolved by the caller of this method.
+	 *
+	 * <p>Since the concatenation operator is right-associative, the result is the same
+	 * as the result of evaluating {@code args[0] .. (args[1] .. (... .. args[n - 1]))}
+	 * using {@link #concat(ExecutionContext, Object, Object)}, with the exception that
+	 * consecutive operands with a string value are concatenated in a single pass.</p>
+	 *
+	 * @param context  execution context, must not be {@code null}
+	 * @param args  the operands, must not be {@code null} and must contain at least one
+	 *              element; the elements may be any values
+	 *
+	 * @throws UnresolvedControlThrowable  if the evaluation called a metamethod and the metamethod
+	 *                           initiates a non-local control change
+	 * @throws NullPointerException  if {@code context} or {@code args} is {@code null}
+	 * @throws IllegalArgumentException  if {@code args} is empty
+	 * @throws IllegalOperationAttemptException  if two adjacent operands cannot be concatenated
+	 *                                           because one of them does not have a string value
+	 *                                           and neither has the {@code __concat} metamethod
+	 */
+	public static void concat(ExecutionContext context, Object[] args) throws UnresolvedControlThrowable {
+		if (args.length == 0) {
+			throw new IllegalArgumentException("no operands");
+		}
+
+		concat(context, args, args.length - 1, args[args.length - 1]);
+	}
+
+	private static boolean hasStringValue(Object o) {
+		return o instanceof ByteString || o instanceof Number || o instanceof String;
+	}
+
+	// evaluates args[0] .. ... .. args[idx - 1] .. acc
+	private static void concat(ExecutionContext context, Object[] args, int idx, Object acc) throws UnresolvedControlThrowable {
+		while (idx > 0) {
+			Object a = args[idx - 1];
+
+			if (hasStringValue(a) && hasStringValue(acc)) {
+				// concatenate the longest run of operands with a string value
+				int from = idx - 1;
+				while (from > 0 && hasStringValue(args[from - 1])) {
+					from -= 1;
+				}
+
+				ByteString[] strings = new ByteString[idx - from + 1];
+				for (int i = from; i < idx; i++) {
+					strings[i - from] = Conversions.stringValueOf(args[i]);
+				}
+				strings[idx - from] = Conversions.stringValueOf(acc);
+
+				acc = ByteString.concat(strings, 0, strings.length);
+				idx = from;
+			}
+			else {
+				Object handler = Metatables.binaryHandlerFor(context, Metatables.MT_CONCAT, FLAG_CONCAT, a, acc);
+				if (handler == null) {
+					throw Errors.illegalConcatenationAttempt(a, acc);
+				}
+
+				try {
+					call(context, handler, a, acc);
+				}
+				catch (UnresolvedControlThrowable ct) {
+					// suspended in the metamethod call
+					throw ct.resolve(CONCAT_RESUMABLE, new ConcatState(args, idx - 1)).unresolve();
+				}
+
+				acc = context.getReturnBuffer().get0();
+				idx -= 1;
+			}
+		}
+
+		context.getReturnBuffer().setTo(acc);
+	}
+
+	private static final ConcatResumable CONCAT_RESUMABLE = new ConcatResumable();
+
+	private static class ConcatState {
+
+		final Object[] args;
+		final int idx;
+
+		ConcatState(Object[] args, int idx) {
+			this.args = args;
+			this.idx = idx;
+		}
+
+	}
+
+	private static class ConcatResumable implements Resumable {
+
+		@Override
+		public void resume(ExecutionContext context, Object suspendedState) throws ResolvedControlThrowable {
+			ConcatState state = (ConcatState) suspendedState;
+			try {
+				// continue with the result of the metamethod call
+				concat(context, state.args, state.idx, context.getReturnBuffer().get0());
+			}
+			catch (UnresolvedControlThrowable ct) {
+				// suspended again: the call frame has already been registered
+				throw ct.resolve();
+			}
+		}
+
+	}
+
+	/**
+	 * Returns the concatenation of the string values of the elements of {@code args}
+	 * without consulting any metamethods, or {@code null} if any of the elements
+	 * of {@code args} does not have a string value.
+	 *
+	 * @param args  the operands, must not be {@code null}
+	 * @return  the concatenation of the string values of the elements of {@code args},
+	 *          or {@code null} if any of the elements does not have a string value
+	 *
+	 * @throws NullPointerException  if {@code args} is {@code null}
+	 */
+	public static ByteString rawconcat(Object[] args) {
+		ByteString[] strings = new ByteString[args.length];
+		for (int i = 0; i < args.length; i++) {
+			ByteString s = Conversions.stringValueOf(args[i]);
+			if (s == null) {
+				return null;
+			}
+			strings[i] = s;
+		}
+		return ByteString.concat(strings, 0, strings.length);
+	}
+
 	private static final CmpResultResumable CMP_RESULT_RESUMABLE_TRUE = new CmpResultResumable(true);
 	private static final CmpResultResumable CMP_RESULT_RESUMABLE_FALSE = new CmpResultResumable(false);
 
@@ -1143,7 +1300,7 @@ public final class Dispatch {
 				&& ((a instanceof Table && b instanceof Table)
 				|| (a instanceof Userdata && b instanceof Userdata))) {
 
-			Object handler = Metatables.binaryHandlerFor(context, Metatables.MT_EQ, a, b);
+			Object handler = Metatables.binaryHandlerFor(context, Metatables.MT_EQ, FLAG_EQ, a, b);
 
 			if (handler != null) {
 				_call_comparison_mt(context, polarity, handler, a, b);
@@ -1237,7 +1394,7 @@ public final class Dispatch {
 			context.getReturnBuffer().setTo(result);
 		}
 		else {
-			Object handler = Metatables.binaryHandlerFor(context, Metatables.MT_LT, a, b);
+			Object handler = Metatables.binaryHandlerFor(context, Metatables.MT_LT, FLAG_LT, a, b);
 
 			if (handler != null) {
 				_call_comparison_mt(context, true, handler, a, b);
@@ -1310,14 +1467,14 @@ public final class Dispatch {
 			context.getReturnBuffer().setTo(result);
 		}
 		else {
-			Object le_handler = Metatables.binaryHandlerFor(context, Metatables.MT_LE, a, b);
+			Object le_handler = Metatables.binaryHandlerFor(context, Metatables.MT_LE, FLAG_LE, a, b);
 
 			if (le_handler != null) {
 				_call_comparison_mt(context, true, le_handler, a, b);
 			}
 			else {
 				// TODO: verify that (a, b) is the order in which the metamethod is looked up
-				Object lt_handler = Metatables.binaryHandlerFor(context, Metatables.MT_LT, a, b);
+				Object lt_handler = Metatables.binaryHandlerFor(context, Metatables.MT_LT, FLAG_LT, a, b);
 
 				if (lt_handler != null) {
 					// will be evaluating "not (b < a)"
@@ -1396,7 +1553,7 @@ public final class Dispatch {
 			// else fall through and check the __index a metamethod
 		}
 
-		Object handler = Metatables.getMetamethod(context, Metatables.MT_INDEX, table);
+		Object handler = Metatables.getMetamethod(context, Metatables.MT_INDEX, FLAG_INDEX, table);
 
 		if (handler == null && table instanceof Table) {
 			// key not found and no index metamethod, returning nil
@@ -1505,7 +1662,7 @@ public final class Dispatch {
 			}
 		}
 
-		Object handler = Metatables.getMetamethod(context, Metatables.MT_NEWINDEX, table);
+		Object handler = Metatables.getMetamethod(context, Metatables.MT_NEWINDEX, FLAG_NEWINDEX, table);
 
 		if (handler == null && table instanceof Table) {
 			Table t = (Table) table;
@@ -1607,4 +1764,42 @@ public final class Dispatch {
 		return !eq(ZERO, sign) && (lt(ZERO, sign) ? le(a, b) : le(b, a));
 	}
 
+	/**
+	 * Returns {@code true} iff {@code a} <i>op</i> {@code b}, where <i>op</i> is
+	 * "{@code <=}" (lesser than or equal to) if {@code sign > 0}, or "{@code >=}" (greater
+	 * than or equal to) if {@code sign < 0}.
+	 *
+	 * <p>When {@code sign} is zero, returns {@code false}.</p>
+	 *
+	 * @param a  the first operand
+	 * @param b  the second operand
+	 * @param sign  the sign
+	 *
+	 * @return  {@code true} iff {@code a} is below {@code b} depending on the sign
+	 *          of {@code sign}
+	 */
+	@SuppressWarnings("unused")
+	public static boolean signed_le(long a, long b, long sign) {
+		return sign != 0 && (sign > 0 ? a <= b : b <= a);
+	}
+
+	/**
+	 * Returns {@code true} iff {@code a} <i>op</i> {@code b}, where <i>op</i> is
+	 * "{@code <=}" (lesser than or equal to) if {@code sign > 0}, or "{@code >=}" (greater
+	 * than or equal to) otherwise.
+	 *
+	 * <p>When {@code sign} is zero, returns {@code false}.</p>
+	 *
+	 * @param a  the first operand
+	 * @param b  the second operand
+	 * @param sign  the sign
+	 *
+	 * @return  {@code true} iff {@code a} is below {@code b} depending on the sign
+	 *          of {@code sign}
+	 */
+	@SuppressWarnings("unused")
+	public static boolean signed_le(double a, double b, double sign) {
+		return sign != 0.0 && (sign > 0.0 ? a <= b : b <= a);
+	}
+
 }
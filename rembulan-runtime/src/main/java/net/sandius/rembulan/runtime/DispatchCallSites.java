@@ -0,0 +1,443 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sandius.rembulan.runtime;
+
+import net.sandius.rembulan.ByteString;
+import net.sandius.rembulan.Table;
+import net.sandius.rembulan.impl.ShapedTable;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bootstrap methods for {@code invokedynamic} call sites dispatching Lua operations.
+ *
+ * <p>The call sites linked by {@link #bootstrap(MethodHandles.Lookup, String, MethodType)}
+ * have the same name and type as the corresponding static methods in {@link Dispatch}
+ * ({@code index}, {@code setindex} and {@code call}), and have the same semantics.
+ * Each call site maintains a polymorphic inline cache of at most {@link #MAX_CACHE_DEPTH}
+ * entries:</p>
+ * <ul>
+ *   <li>for {@code index}, entries are installed for string-keyed fields of
+ *     {@link ShapedTable}s, guarded by the shape of the table and the key, and reading
+ *     the field directly from its slot;</li>
+ *   <li>for {@code index} and {@code setindex}, entries are installed for tables, guarded
+ *     by the exact class of the table and the identity of its metatable. For tables without
+ *     a metatable, the entries bind directly to {@link Table#rawget(Object)} and
+ *     {@link Table#rawset(Object, Object)}. Since the contents of a metatable may change
+ *     at any time, entries for tables with a metatable only use the raw access when
+ *     the key is already present in the table, and otherwise defer to {@link Dispatch}
+ *     in order to consult the {@code __index} and {@code __newindex} metamethods;</li>
+ *   <li>for {@code call}, entries are installed for function objects, guarded by their exact
+ *     class and binding directly to the {@code invoke} method of the matching arity.</li>
+ * </ul>
+ * <p>When a cache entry misses, the call site falls back to {@link Dispatch}. Once
+ * the cache is full or operands that cannot be cached have been encountered
+ * {@link #MAX_CACHE_DEPTH} times, the call site stops installing new entries and dispatches
+ * every miss directly to {@link Dispatch}.</p>
+ */
+public final class DispatchCallSites {
+
+	private DispatchCallSites() {
+		// not to be instantiated
+	}
+
+	/**
+	 * The maximum number of entries in the inline cache of a single call site.
+	 */
+	public static final int MAX_CACHE_DEPTH = 4;
+
+	private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+	private static final MethodHandle FALLBACK;
+	private static final MethodHandle IS_EXACTLY;
+	private static final MethodHandle IS_TABLE;
+	private static final MethodHandle IS_SHAPED_FIELD;
+	private static final MethodHandle SHAPED_INDEX;
+	private static final MethodHandle SET_RESULT;
+	private static final MethodHandle INDEX_RESULT;
+	private static final MethodHandle SET_INDEX_RESULT;
+	private static final MethodHandle EVALUATE_TAIL_CALLS;
+	private static final MethodHandle UNRESOLVE;
+
+	static {
+		try {
+			FALLBACK = LOOKUP.findVirtual(InlineCacheCallSite.class, "fallback",
+					MethodType.methodType(Object.class, Object[].class));
+			IS_EXACTLY = LOOKUP.findStatic(DispatchCallSites.class, "isExactly",
+					MethodType.methodType(boolean.class, Class.class, Object.class));
+			IS_TABLE = LOOKUP.findStatic(DispatchCallSites.class, "isTable",
+					MethodType.methodType(boolean.class, Class.class, Table.class, Object.class));
+			IS_SHAPED_FIELD = LOOKUP.findStatic(DispatchCallSites.class, "isShapedField",
+					MethodType.methodType(boolean.class, ShapedTable.Shape.class, ByteString.class, Object.class, Object.class));
+			SHAPED_INDEX = LOOKUP.findStatic(DispatchCallSites.class, "shapedIndex",
+					MethodType.methodType(void.class, int.class, ExecutionContext.class, Object.class, Object.class));
+			SET_RESULT = LOOKUP.findStatic(DispatchCallSites.class, "setResult",
+					MethodType.methodType(void.class, Object.class, ExecutionContext.class));
+			INDEX_RESULT = LOOKUP.findStatic(DispatchCallSites.class, "indexResult",
+					MethodType.methodType(void.class, Object.class, ExecutionContext.class, Object.class, Object.class));
+			SET_INDEX_RESULT = LOOKUP.findStatic(DispatchCallSites.class, "setIndexResult",
+					MethodType.methodType(void.class, Object.class, ExecutionContext.class, Object.class, Object.class, Object.class));
+			EVALUATE_TAIL_CALLS = LOOKUP.findStatic(Dispatch.class, "evaluateTailCalls",
+					MethodType.methodType(void.class, ExecutionContext.class));
+			UNRESOLVE = LOOKUP.findStatic(DispatchCallSites.class, "unresolve",
+					MethodType.methodType(void.class, ResolvedControlThrowable.class));
+		}
+		catch (NoSuchMethodException | IllegalAccessException ex) {
+			throw new ExceptionInInitializerError(ex);
+		}
+	}
+
+	/**
+	 * Links an {@code invokedynamic} call site for the operation {@code name}.
+	 *
+	 * @param lookup  the lookup context of the caller, must not be {@code null}
+	 * @param name  the operation name, must be one of {@code "index"}, {@code "setindex"}
+	 *              or {@code "call"}
+	 * @param type  the type of the call site, must match the type of the static method
+	 *              {@code name} in {@link Dispatch}
+	 * @return  a call site for the operation {@code name}
+	 *
+	 * @throws NoSuchMethodException  if {@link Dispatch} has no method {@code name}
+	 *                                of the type {@code type}
+	 * @throws IllegalAccessException  if the method in {@link Dispatch} is not accessible
+	 * @throws IllegalArgumentException  if {@code name} is not a supported operation
+	 */
+	public static CallSite bootstrap(MethodHandles.Lookup lookup, String name, MethodType type)
+			throws NoSuchMethodException, IllegalAccessException {
+
+		MethodHandle generic = LOOKUP.findStatic(Dispatch.class, name, type);
+
+		switch (name) {
+			case "index":    return new IndexCallSite(generic);
+			case "setindex": return new SetIndexCallSite(generic);
+			case "call":     return new CallCallSite(generic);
+			default: throw new IllegalArgumentException("Unsupported operation: " + name);
+		}
+	}
+
+	@SuppressWarnings("unused")
+	private static boolean isExactly(Class<?> clazz, Object o) {
+		return o != null && o.getClass() == clazz;
+	}
+
+	@SuppressWarnings("unused")
+	private static boolean isTable(Class<?> clazz, Table metatable, Object o) {
+		return o != null && o.getClass() == clazz && ((Table) o).getMetatable() == metatable;
+	}
+
+	@SuppressWarnings("unused")
+	private static boolean isShapedField(ShapedTable.Shape shape, ByteString key, Object table, Object k) {
+		return table instanceof ShapedTable
+				&& ((ShapedTable) table).shape() == shape
+				&& (k == key || key.equals(k));
+	}
+
+	@SuppressWarnings("unused")
+	private static void shapedIndex(int offset, ExecutionContext context, Object table, Object key)
+			throws UnresolvedControlThrowable {
+
+		Object value = ((ShapedTable) table).slotValue(offset);
+		if (value != null) {
+			context.getReturnBuffer().setTo(value);
+		}
+		else {
+			// the field may be resolved by the __index metamethod
+			Dispatch.index(context, table, key);
+		}
+	}
+
+	@SuppressWarnings("unused")
+	private static void setResult(Object value, ExecutionContext context) {
+		context.getReturnBuffer().setTo(value);
+	}
+
+	@SuppressWarnings("unused")
+	private static void indexResult(Object value, ExecutionContext context, Object table, Object key)
+			throws UnresolvedControlThrowable {
+
+		if (value != null) {
+			context.getReturnBuffer().setTo(value);
+		}
+		else {
+			// the key may be resolved by the __index metamethod
+			Dispatch.index(context, table, key);
+		}
+	}
+
+	@SuppressWarnings("unused")
+	private static void setIndexResult(Object current, ExecutionContext context, Object table, Object key, Object value)
+			throws UnresolvedControlThrowable {
+
+		if (current != null) {
+			((Table) table).rawset(key, value);
+		}
+		else {
+			// the assignment may be handled by the __newindex metamethod
+			Dispatch.setindex(context, table, key, value);
+		}
+	}
+
+	@SuppressWarnings("unused")
+	private static void unresolve(ResolvedControlThrowable ct) throws UnresolvedControlThrowable {
+		throw ct.unresolve();
+	}
+
+	private static MethodHandle findVirtual(Class<?> clazz, String name, MethodType type)
+			throws NoSuchMethodException, IllegalAccessException {
+
+		try {
+			return LOOKUP.findVirtual(clazz, name, type);
+		}
+		catch (IllegalAccessException ex) {
+			// clazz is not accessible: bind to the public supertype
+			Class<?> superclass = clazz.getSuperclass();
+			if (superclass != null) {
+				return findVirtual(superclass, name, type).asType(type.insertParameterTypes(0, clazz));
+			}
+			else {
+				throw ex;
+			}
+		}
+	}
+
+	static final class Entry {
+
+		final MethodHandle guard;
+		final MethodHandle target;
+
+		Entry(MethodHandle guard, MethodHandle target) {
+			this.guard = guard;
+			this.target = target;
+		}
+
+	}
+
+	static abstract class InlineCacheCallSite extends MutableCallSite {
+
+		private final MethodHandle generic;
+		private final MethodHandle fallback;
+
+		private final List<Entry> entries;
+		private int misses;  // number of invocations that could not be cached
+		private boolean megamorphic;
+
+		InlineCacheCallSite(MethodHandle generic) {
+			super(generic.type());
+			this.generic = generic;
+			this.fallback = FALLBACK.bindTo(this)
+					.asCollector(Object[].class, generic.type().parameterCount())
+					.asType(generic.type());
+			this.entries = new ArrayList<>();
+			this.misses = 0;
+			this.megamorphic = false;
+			setTarget(fallback);
+		}
+
+		/**
+		 * Returns a cache entry for the given arguments, or {@code null} if the arguments
+		 * cannot be cached.
+		 */
+		protected abstract Entry newEntry(Object[] args)
+				throws NoSuchMethodException, IllegalAccessException;
+
+		// adapts an (Object) boolean test on the receiver to the type of this call site
+		protected MethodHandle receiverTest(MethodHandle test) {
+			MethodType t = type();
+			MethodHandle mh = MethodHandles.dropArguments(test, 1, t.parameterList().subList(2, t.parameterCount()));
+			return MethodHandles.dropArguments(mh, 0, t.parameterType(0));
+		}
+
+		private synchronized void install(Object[] args) {
+			if (megamorphic) {
+				return;
+			}
+
+			Entry entry;
+			try {
+				entry = entries.size() < MAX_CACHE_DEPTH ? newEntry(args) : null;
+			}
+			catch (NoSuchMethodException | IllegalAccessException ex) {
+				entry = null;
+			}
+
+			if (entry != null) {
+				entries.add(entry);
+			}
+			else {
+				misses += 1;
+				if (misses < MAX_CACHE_DEPTH && entries.size() < MAX_CACHE_DEPTH) {
+					// nothing to relink
+					return;
+				}
+				megamorphic = true;
+			}
+
+			MethodHandle mh = megamorphic ? generic : fallback;
+			for (int i = entries.size() - 1; i >= 0; i--) {
+				Entry e = entries.get(i);
+				mh = MethodHandles.guardWithTest(e.guard, e.target, mh);
+			}
+			setTarget(mh);
+		}
+
+		@SuppressWarnings("unused")
+		Object fallback(Object[] args) throws Throwable {
+			install(args);
+			return generic.invokeWithArguments(args);
+		}
+
+	}
+
+	static class IndexCallSite extends InlineCacheCallSite {
+
+		IndexCallSite(MethodHandle generic) {
+			super(generic);
+		}
+
+		@Override
+		protected Entry newEntry(Object[] args) throws NoSuchMethodException, IllegalAccessException {
+			Object table = args[1];
+			Object key = args[2];
+
+			if (table instanceof ShapedTable && key instanceof ByteString) {
+				ShapedTable.Shape shape = ((ShapedTable) table).shape();
+				int offset = shape != null ? shape.offsetOf(key) : -1;
+				if (offset >= 0) {
+					return new Entry(
+							MethodHandles.dropArguments(
+									MethodHandles.insertArguments(IS_SHAPED_FIELD, 0, shape, key),
+									0, ExecutionContext.class),
+							MethodHandles.insertArguments(SHAPED_INDEX, 0, offset));
+				}
+			}
+
+			if (table instanceof Table) {
+				Class<?> clazz = table.getClass();
+				Table mt = ((Table) table).getMetatable();
+
+				// (Object table, Object key) -> Object
+				MethodHandle rawget = findVirtual(clazz, "rawget", MethodType.methodType(Object.class, Object.class))
+						.asType(MethodType.methodType(Object.class, Object.class, Object.class));
+
+				// (Object value, ExecutionContext context, Object table, Object key) -> void
+				MethodHandle store = mt == null
+						? MethodHandles.dropArguments(SET_RESULT, 2, Object.class, Object.class)
+						: INDEX_RESULT;
+
+				// (ExecutionContext context, Object table, Object key) -> void
+				MethodHandle target = MethodHandles.foldArguments(store,
+						MethodHandles.dropArguments(rawget, 0, ExecutionContext.class));
+
+				return new Entry(receiverTest(MethodHandles.insertArguments(IS_TABLE, 0, clazz, mt)), target);
+			}
+
+			return null;
+		}
+
+	}
+
+	static class SetIndexCallSite extends InlineCacheCallSite {
+
+		SetIndexCallSite(MethodHandle generic) {
+			super(generic);
+		}
+
+		@Override
+		protected Entry newEntry(Object[] args) throws NoSuchMethodException, IllegalAccessException {
+			Object table = args[1];
+
+			if (table instanceof Table) {
+				Class<?> clazz = table.getClass();
+				Table mt = ((Table) table).getMetatable();
+				MethodHandle guard = receiverTest(MethodHandles.insertArguments(IS_TABLE, 0, clazz, mt));
+
+				if (mt == null) {
+					MethodHandle rawset = findVirtual(clazz, "rawset", MethodType.methodType(void.class, Object.class, Object.class))
+							.asType(MethodType.methodType(void.class, Object.class, Object.class, Object.class));
+					return new Entry(guard, MethodHandles.dropArguments(rawset, 0, ExecutionContext.class));
+				}
+				else {
+					// (Object table, Object key) -> Object
+					MethodHandle rawget = findVirtual(clazz, "rawget", MethodType.methodType(Object.class, Object.class))
+							.asType(MethodType.methodType(Object.class, Object.class, Object.class));
+
+					// (ExecutionContext context, Object table, Object key, Object value) -> void
+					MethodHandle target = MethodHandles.foldArguments(SET_INDEX_RESULT,
+							MethodHandles.dropArguments(
+									MethodHandles.dropArguments(rawget, 2, Object.class),
+									0, ExecutionContext.class));
+					return new Entry(guard, target);
+				}
+			}
+
+			return null;
+		}
+
+	}
+
+	static class CallCallSite extends InlineCacheCallSite {
+
+		CallCallSite(MethodHandle generic) {
+			super(generic);
+		}
+
+		@Override
+		protected Entry newEntry(Object[] args) throws NoSuchMethodException, IllegalAccessException {
+			Object fn = args[1];
+			if (!(fn instanceof LuaFunction)) {
+				return null;
+			}
+
+			Class<?> clazz = fn.getClass();
+			MethodType t = type();
+
+			// (ExecutionContext context, args...) -> void
+			MethodType invokeType = t.dropParameterTypes(1, 2);
+
+			// (Object fn, ExecutionContext context, args...) -> void
+			MethodHandle invoke = findVirtual(clazz, "invoke", invokeType)
+					.asType(invokeType.insertParameterTypes(0, Object.class));
+
+			// (ExecutionContext context, Object fn, args...) -> void
+			int[] reorder = new int[t.parameterCount()];
+			for (int i = 0; i < reorder.length; i++) {
+				reorder[i] = i;
+			}
+			reorder[0] = 1;
+			reorder[1] = 0;
+			invoke = MethodHandles.permuteArguments(invoke, t, reorder);
+
+			// evaluate tail calls once the function returns
+			MethodHandle tailCalls = MethodHandles.dropArguments(
+					EVALUATE_TAIL_CALLS, 1, t.parameterList().subList(1, t.parameterCount()));
+			MethodHandle mh = MethodHandles.foldArguments(tailCalls, invoke);
+
+			mh = MethodHandles.catchException(mh, ResolvedControlThrowable.class,
+					MethodHandles.dropArguments(UNRESOLVE, 1, t.parameterList()));
+
+			return new Entry(receiverTest(IS_EXACTLY.bindTo(clazz)), mh);
+		}
+
+	}
+
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sandius.rembulan.runtime;
+
+import java.util.Objects;
+
+/**
+ * Static factory for coroutines executed in their own Java threads.
+ *
+ * <p>A <i>threaded</i> coroutine runs its body in a dedicated daemon thread. Resuming
+ * and yielding a threaded coroutine hands control over between the resuming thread and
+ * the coroutine thread, so that neither the Java stack of the coroutine nor the stack
+ * of the resuming coroutine needs to be unwound and saved as a chain of resumable
+ * frames. Yielding from a deeply nested call therefore takes constant time, at the cost
+ * of a thread switch and one Java thread per live coroutine.</p>
+ *
+ * <p>Threaded coroutines are otherwise indistinguishable from the coroutines created
+ * by {@link ExecutionContext#newCoroutine(LuaFunction)}: they may be resumed
+ * using {@link ExecutionContext#resume(Coroutine, Object[])}, and pauses and asynchronous
+ * operations in their bodies are propagated to the call that resumed them. Coroutines
+ * created from within a threaded coroutine using
+ * {@link ExecutionContext#newCoroutine(LuaFunction)} are threaded, too. A threaded
+ * coroutine may only resume other threaded coroutines.</p>
+ *
+ * <p>The thread of a suspended coroutine that is no longer referenced from outside
+ * its body terminates after the coroutine has been garbage-collected.</p>
+ *
+ * <p>Since every started coroutine that has not finished yet occupies a thread (and its stack),
+ * the number of live coroutine threads is bounded. Resuming a threaded coroutine for the first
+ * time when {@link #maxThreads()} threads are live fails with a Lua error, leaving the coroutine
+ * suspended. The bound defaults to 4096, and may be set using
+ * the system property {@code net.sandius.rembulan.runtime.MaxCoroutineThreads} or by calling
+ * {@link #setMaxThreads(int)}.</p>
+ */
+public final class ThreadedCoroutines {
+
+	private ThreadedCoroutines() {
+		// not to be instantiated
+	}
+
+	/**
+	 * Returns a new threaded coroutine with the body {@code function}.
+	 *
+	 * @param function  the coroutine body, must not be {@code null}
+	 * @return  a new threaded coroutine with the body {@code function}
+	 *
+	 * @throws NullPointerException  if {@code function} is {@code null}
+	 */
+	public static Coroutine newCoroutine(LuaFunction function) {
+		return new Coroutine(Objects.requireNonNull(function), true);
+	}
+
+	/**
+	 * Returns {@code true} iff {@code coroutine} is a threaded coroutine.
+	 *
+	 * @param coroutine  the coroutine, must not be {@code null}
+	 * @return  {@code true} iff {@code coroutine} is threaded
+	 *
+	 * @throws NullPointerException  if {@code coroutine} is {@code null}
+	 */
+	public static boolean isThreaded(Coroutine coroutine) {
+		return coroutine.thread != null;
+	}
+
+	/**
+	 * Returns the maximum number of live coroutine threads.
+	 *
+	 * @return  the maximum number of live coroutine threads
+	 */
+	public static int maxThreads() {
+		return CoroutineThread.maxThreads();
+	}
+
+	/**
+	 * Sets the maximum number of live coroutine threads to {@code max}. Threads that
+	 * are already live are not affected.
+	 *
+	 * @param max  the maximum number of live coroutine threads, must be positive
+	 *
+	 * @throws IllegalArgumentException  if {@code max} is not positive
+	 */
+	public static void setMaxThreads(int max) {
+		CoroutineThread.setMaxThreads(max);
+	}
+
+	/**
+	 * Returns the number of coroutine threads that are currently live, i.e., the number
+	 * of threaded coroutines that have been started and whose threads have not
+	 * terminated yet.
+	 *
+	 * @return  the number of live coroutine threads
+	 */
+	public static int liveThreads() {
+		return CoroutineThread.liveThreads();
+	}
+
+}
@@ -25,6 +25,7 @@ import java.util.Objects;
 public class ArrayByteIterator implements ByteIterator {
 
 	private final byte[] bytes;
+	private final int end;
 	private int idx;
 
 	/**
@@ -35,12 +36,34 @@ public class ArrayByteIterator implements ByteIterator {
 	 * @throws NullPointerException  if {@code bytes} is {@code null}
 	 */
 	public ArrayByteIterator(byte[] bytes) {
+		this(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Constructs a new byte iterator of the {@code length} bytes of the array {@code bytes}
+	 * starting at the index {@code offset}.
+	 *
+	 * @param bytes  the byte iterator to iterate over, must not be {@code null}
+	 * @param offset  the index of the first byte to iterate over
+	 * @param length  the number of bytes to iterate over
+	 *
+	 * @throws NullPointerException  if {@code bytes} is {@code null}
+	 * @throws IndexOutOfBoundsException  if {@code offset} or {@code length} is negative,
+	 *                                    or if {@code (offset + length)} is greater than
+	 *                                    {@code bytes.length}
+	 */
+	public ArrayByteIterator(byte[] bytes, int offset, int length) {
 		this.bytes = Objects.requireNonNull(bytes);
+		if (offset < 0 || length < 0 || offset + length > bytes.length) {
+			throw new IndexOutOfBoundsException("offset=" + offset + ", length=" + length);
+		}
+		this.idx = offset;
+		this.end = offset + length;
 	}
 
 	@Override
 	public byte nextByte() {
-		if (idx < bytes.length) {
+		if (idx < end) {
 			return bytes[idx++];
 		}
 		else {
@@ -50,7 +73,7 @@ public class ArrayByteIterator implements ByteIterator {
 
 	@Override
 	public boolean hasNext() {
-		return idx < bytes.length;
+		return idx < end;
 	}
 
 	@Override
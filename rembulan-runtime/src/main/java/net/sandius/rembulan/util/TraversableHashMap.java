@@ -48,11 +48,8 @@ public class TraversableHashMap<K, V> implements Map<K, V> {
 	private final Collection<V> values;
 	private final Set<Map.Entry<K, V>> entrySet;
 
-	/**
-	 * Constructs a new empty map.
-	 */
-	public TraversableHashMap() {
-		this.entries = new HashMap<>();
+	private TraversableHashMap(HashMap<K, Entry<K, V>> entries) {
+		this.entries = entries;
 		this.firstKey = null;
 		this.lastKey = null;
 
@@ -61,6 +58,26 @@ public class TraversableHashMap<K, V> implements Map<K, V> {
 		this.entrySet = new EntrySet();
 	}
 
+	/**
+	 * Constructs a new empty map.
+	 */
+	public TraversableHashMap() {
+		this(new HashMap<K, Entry<K, V>>());
+	}
+
+	/**
+	 * Constructs a new empty map with the specified initial capacity.
+	 *
+	 * @param initialCapacity  the initial capacity
+	 *
+	 * @throws IllegalArgumentException  if {@code initialCapacity} is negative
+	 *
+	 * @see HashMap#HashMap(int)
+	 */
+	public TraversableHashMap(int initialCapacity) {
+		this(new HashMap<K, Entry<K, V>>(initialCapacity));
+	}
+
 	static class Entry<K, V> {
 
 		private V value;  // must not be null
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sandius.rembulan.standalone;
+
+import net.sandius.rembulan.compiler.ChunkArchiveWriter;
+import net.sandius.rembulan.compiler.CompiledModule;
+import net.sandius.rembulan.compiler.CompiledModuleKey;
+import net.sandius.rembulan.compiler.CompilerSettings;
+import net.sandius.rembulan.compiler.LuaCompiler;
+import net.sandius.rembulan.parser.ParseException;
+import net.sandius.rembulan.parser.TokenMgrError;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The ahead-of-time compiler ({@code rembulanc}): compiles Lua source files into a jar
+ * to be loaded by {@link net.sandius.rembulan.load.PrecompiledChunkLoader}.
+ *
+ * <p>Files given on the command line are compiled as chunks named by their path as given;
+ * directories are searched for {@code .lua} files, which are compiled as chunks named
+ * by their path relative to the directory (using {@code /} as the separator).</p>
+ */
+public class RembulanCompiler {
+
+	private static final String PROGRAM_NAME = "rembulanc";
+
+	private static final String DEFAULT_OUTPUT_FILE_NAME = "chunks.jar";
+	private static final String DEFAULT_CLASS_PREFIX = "rembulan_aot_";
+
+	private static final String LUA_FILE_SUFFIX = ".lua";
+
+	private static void printUsage(PrintStream out) {
+		out.println("usage: " + PROGRAM_NAME + " [options] path...");
+		out.println("Available options are:");
+		out.println("  -o file    write the compiled chunks to 'file' (default: " + DEFAULT_OUTPUT_FILE_NAME + ")");
+		out.println("  -p prefix  prefix main class names with 'prefix' (default: " + DEFAULT_CLASS_PREFIX + ")");
+		out.println("  -n         compile without CPU accounting");
+		out.println("  --         stop handling options");
+	}
+
+	private static void collectSources(Path path, final Map<String, Path> sources) throws IOException {
+		if (Files.isDirectory(path)) {
+			final Path root = path;
+			Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+					if (attrs.isRegularFile() && file.getFileName().toString().endsWith(LUA_FILE_SUFFIX)) {
+						String chunkName = root.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/");
+						sources.put(chunkName, file);
+					}
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		}
+		else {
+			sources.put(path.toString(), path);
+		}
+	}
+
+	private static final int EXIT_SUCCESS = 0;
+	private static final int EXIT_FAILURE = 1;
+
+	public static void main(String[] args) {
+		int rc = run(args, System.err);
+		if (rc != EXIT_SUCCESS) {
+			System.exit(rc);
+		}
+	}
+
+	/**
+	 * Runs the compiler with the command-line arguments {@code args}, reporting errors
+	 * to {@code err}. If the output file has been created but compilation fails,
+	 * the output file is deleted.
+	 *
+	 * @return  the exit status
+	 */
+	static int run(String[] args, PrintStream err) {
+		String outputFileName = DEFAULT_OUTPUT_FILE_NAME;
+		String classPrefix = DEFAULT_CLASS_PREFIX;
+		CompilerSettings settings = CompilerSettings.defaultSettings();
+		List<String> paths = new ArrayList<>();
+
+		boolean options = true;
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (options && arg.equals("--")) {
+				options = false;
+			}
+			else if (options && (arg.equals("-o") || arg.equals("-p"))) {
+				if (i + 1 >= args.length) {
+					err.println(PROGRAM_NAME + ": '" + arg + "' needs argument");
+					printUsage(err);
+					return EXIT_FAILURE;
+				}
+				if (arg.equals("-o")) outputFileName = args[++i];
+				else classPrefix = args[++i];
+			}
+			else if (options && arg.equals("-n")) {
+				settings = settings.withCPUAccountingMode(CompilerSettings.CPUAccountingMode.NO_CPU_ACCOUNTING);
+			}
+			else if (options && arg.startsWith("-")) {
+				err.println(PROGRAM_NAME + ": unrecognized option '" + arg + "'");
+				printUsage(err);
+				return EXIT_FAILURE;
+			}
+			else {
+				paths.add(arg);
+			}
+		}
+
+		if (paths.isEmpty()) {
+			printUsage(err);
+			return EXIT_FAILURE;
+		}
+
+		Map<String, Path> sources = new LinkedHashMap<>();
+		try {
+			for (String p : paths) {
+				collectSources(Paths.get(p), sources);
+			}
+		}
+		catch (IOException ex) {
+			err.println(PROGRAM_NAME + ": " + ex.getMessage());
+			return EXIT_FAILURE;
+		}
+
+		try {
+			return writeArchive(Paths.get(outputFileName), sources, settings, classPrefix, err);
+		}
+		catch (IOException ex) {
+			err.println(PROGRAM_NAME + ": " + ex.getMessage());
+			return EXIT_FAILURE;
+		}
+	}
+
+	private static int writeArchive(Path outputFile, Map<String, Path> sources, CompilerSettings settings,
+			String classPrefix, PrintStream err) throws IOException {
+
+		LuaCompiler compiler = new LuaCompiler(settings);
+
+		OutputStream fileOut = Files.newOutputStream(outputFile);
+
+		// from now on, the output file must be deleted unless it has been written completely
+		boolean written = false;
+		try {
+			try (OutputStream out = new BufferedOutputStream(fileOut);
+					ChunkArchiveWriter writer = new ChunkArchiveWriter(out)) {
+
+				for (Map.Entry<String, Path> entry : sources.entrySet()) {
+					String chunkName = entry.getKey();
+					String sourceText = Utils.skipLeadingShebang(Utils.readFile(entry.getValue().toString()));
+
+					CompiledModuleKey key = CompiledModuleKey.of(settings, sourceText, chunkName, classPrefix);
+					CompiledModule module;
+					try {
+						module = compiler.compile(sourceText, chunkName, key.rootClassName());
+					}
+					catch (ParseException | TokenMgrError ex) {
+						err.println(PROGRAM_NAME + ": " + chunkName + ": " + ex.getMessage());
+						return EXIT_FAILURE;
+					}
+
+					writer.add(chunkName, sourceText, module);
+				}
+			}
+			written = true;
+			return EXIT_SUCCESS;
+		}
+		finally {
+			if (!written) {
+				fileOut.close();
+				Files.deleteIfExists(outputFile);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sandius.rembulan.lib.impl;
+
+import net.sandius.rembulan.ByteString;
+import net.sandius.rembulan.runtime.ExecutionContext;
+import net.sandius.rembulan.runtime.ResolvedControlThrowable;
+
+/**
+ * A library function with an allocation-free path for calls with at most three arguments.
+ *
+ * <p>Calls with at most three arguments are first passed to
+ * {@link #fastInvoke(ExecutionContext, int, Object, Object, Object)} directly, without
+ * packing the arguments into an array and wrapping them in an {@link ArgumentIterator}.
+ * The fast path is only expected to handle the common cases: whenever it returns
+ * {@code false} (for instance when an argument is missing, has an unexpected type,
+ * or requires a conversion), the call is handled by the generic path
+ * {@link #invoke(ExecutionContext, ArgumentIterator)}, which is also responsible for
+ * reporting argument errors. Calls with more than three arguments always take
+ * the generic path.</p>
+ *
+ * <p>The fast path must therefore not have any observable side effects when it
+ * returns {@code false}, and must agree with the generic path on all calls it
+ * handles.</p>
+ */
+public abstract class AbstractFixedArityLibFunction extends AbstractLibFunction {
+
+	private static final Object[] NO_ARGS = new Object[0];
+
+	/**
+	 * Attempts to execute the call with the arguments {@code arg1}, {@code arg2}
+	 * and {@code arg3}, returning {@code true} if the call has been handled. Missing
+	 * arguments (i.e., arguments at positions greater than {@code argc}) are {@code null}.
+	 *
+	 * @param context  execution context, must not be {@code null}
+	 * @param argc  the number of arguments (between 0 and 3)
+	 * @param arg1  the first argument, may be {@code null}
+	 * @param arg2  the second argument, may be {@code null}
+	 * @param arg3  the third argument, may be {@code null}
+	 * @return  {@code true} if the call has been handled, {@code false} if it must be
+	 *          handled by the generic path
+	 *
+	 * @throws ResolvedControlThrowable  if the call has been suspended
+	 */
+	protected abstract boolean fastInvoke(ExecutionContext context, int argc, Object arg1, Object arg2, Object arg3)
+			throws ResolvedControlThrowable;
+
+	/**
+	 * Returns the argument {@code arg} as a string if it is a string, or {@code null}
+	 * otherwise. Numbers are not converted to strings.
+	 *
+	 * @param arg  the argument, may be {@code null}
+	 * @return  {@code arg} as a byte string, or {@code null} if {@code arg} is not a string
+	 */
+	protected static ByteString stringArg(Object arg) {
+		if (arg instanceof ByteString) {
+			return (ByteString) arg;
+		}
+		else if (arg instanceof String) {
+			return ByteString.of((String) arg);
+		}
+		else {
+			return null;
+		}
+	}
+
+	@Override
+	public void invoke(ExecutionContext context) throws ResolvedControlThrowable {
+		if (!fastInvoke(context, 0, null, null, null)) {
+			super.invoke(context, NO_ARGS);
+		}
+	}
+
+	@Override
+	public void invoke(ExecutionContext context, Object arg1) throws ResolvedControlThrowable {
+		if (!fastInvoke(context, 1, arg1, null, null)) {
+			super.invoke(context, new Object[] { arg1 });
+		}
+	}
+
+	@Override
+	public void invoke(ExecutionContext context, Object arg1, Object arg2) throws ResolvedControlThrowable {
+		if (!fastInvoke(context, 2, arg1, arg2, null)) {
+			super.invoke(context, new Object[] { arg1, arg2 });
+		}
+	}
+
+	@Override
+	public void invoke(ExecutionContext context, Object arg1, Object arg2, Object arg3) throws ResolvedControlThrowable {
+		if (!fastInvoke(context, 3, arg1, arg2, arg3)) {
+			super.invoke(context, new Object[] { arg1, arg2, arg3 });
+		}
+	}
+
+	@Override
+	public void invoke(ExecutionContext context, Object[] args) throws ResolvedControlThrowable {
+		boolean handled;
+		switch (args.length) {
+			case 0: handled = fastInvoke(context, 0, null, null, null); break;
+			case 1: handled = fastInvoke(context, 1, args[0], null, null); break;
+			case 2: handled = fastInvoke(context, 2, args[0], args[1], null); break;
+			case 3: handled = fastInvoke(context, 3, args[0], args[1], args[2]); break;
+			default: handled = false; break;
+		}
+
+		if (!handled) {
+			super.invoke(context, args);
+		}
+	}
+
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.sandius.rembulan.lib.impl;
+
+import net.sandius.rembulan.util.Check;
+
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A bounded cache safe for use by multiple threads, retaining the values that have been
+ * used recently.
+ *
+ * <p>Lookups do not take any locks. Eviction approximates least-recently-used order using
+ * the "second chance" (clock) policy: every lookup marks the entry it finds as referenced;
+ * when the cache grows beyond its capacity, entries that have not been referenced since
+ * the previous eviction are removed (and the marks of the entries passed over are cleared)
+ * until the cache is an eighth below its capacity.</p>
+ *
+ * @param <K>  the key type
+ * @param <V>  the value type
+ */
+final class BoundedCache<K, V> {
+
+	private final int capacity;
+	private final ConcurrentHashMap<K, Entry<V>> entries;
+
+	/**
+	 * Constructs a new empty cache holding at most (approximately) {@code capacity} entries.
+	 *
+	 * @param capacity  the capacity of the cache, must be positive
+	 */
+	BoundedCache(int capacity) {
+		this.capacity = Check.positive(capacity);
+		this.entries = new ConcurrentHashMap<>(capacity + capacity / 3 + 1);
+	}
+
+	private static final class Entry<V> {
+
+		final V value;
+
+		// a hint only: races on this field are benign
+		boolean referenced;
+
+		Entry(V value) {
+			this.value = Objects.requireNonNull(value);
+		}
+
+	}
+
+	/**
+	 * Returns the value associated with {@code key}, or {@code null} if there is no
+	 * such value in the cache.
+	 *
+	 * @param key  the key, must not be {@code null}
+	 * @return  the value associated with {@code key}, or {@code null}
+	 */
+	V get(K key) {
+		Entry<V> e = entries.get(key);
+		if (e == null) {
+			return null;
+		}
+		if (!e.referenced) {
+			e.referenced = true;
+		}
+		return e.value;
+	}
+
+	/**
+	 * Associates {@code value} with {@code key}, evicting entries that have not been used
+	 * recently if the cache is full.
+	 *
+	 * @param key  the key, must not be {@code null}
+	 * @param value  the value, must not be {@code null}
+	 */
+	void put(K key, V value) {
+		entries.put(key, new Entry<>(value));
+		if (entries.size() > capacity) {
+			evict();
+		}
+	}
+
+	private void evict() {
+		int target = capacity - capacity / 8;
+
+		// the first pass clears the marks, so at most two passes are needed
+		for (int pass = 0; pass < 2 && entries.size() > target; pass++) {
+			Iterator<Entry<V>> it = entries.values().iterator();
+			while (it.hasNext() && entries.size() > target) {
+				Entry<V> e = it.next();
+				if (e.referenced) {
+					e.referenced = false;
+				}
+				else {
+					it.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of entries in the cache.
+	 *
+	 * @return  the number of entries in the cache
+	 */
+	int size() {
+		return entries.size();
+	}
+
+}
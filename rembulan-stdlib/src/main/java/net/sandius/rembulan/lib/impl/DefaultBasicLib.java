@@ -228,7 +228,7 @@ public class DefaultBasicLib extends BasicLib {
 
 	}
 
-	public static class Type extends AbstractLibFunction {
+	public static class Type extends AbstractFixedArityLibFunction {
 
 		public static final Type INSTANCE = new Type();
 
@@ -237,6 +237,17 @@ public class DefaultBasicLib extends BasicLib {
 			return "type";
 		}
 
+		@Override
+		protected boolean fastInvoke(ExecutionContext context, int argc, Object arg1, Object arg2, Object arg3) {
+			if (argc > 0) {
+				context.getReturnBuffer().setTo(PlainValueTypeNamer.INSTANCE.typeNameOf(arg1));
+				return true;
+			}
+			else {
+				return false;
+			}
+		}
+
 		@Override
 		protected void invoke(ExecutionContext context, ArgumentIterator args) throws ResolvedControlThrowable {
 			ByteString typeName = PlainValueTypeNamer.INSTANCE.typeNameOf(args.nextAny());
@@ -245,7 +256,7 @@ public class DefaultBasicLib extends BasicLib {
 
 	}
 
-	public static class Next extends AbstractLibFunction {
+	public static class Next extends AbstractFixedArityLibFunction {
 
 		public static final Next INSTANCE = new Next();
 
@@ -254,11 +265,7 @@ public class DefaultBasicLib extends BasicLib {
 			return "next";
 		}
 
-		@Override
-		protected void invoke(ExecutionContext context, ArgumentIterator args) throws ResolvedControlThrowable {
-			Table table = args.nextTable();
-			Object index = args.optNextAny();
-
+		private static void next(ExecutionContext context, Table table, Object index) {
 			final Object nxt;
 
 			if (index != null) {
@@ -278,9 +285,27 @@ public class DefaultBasicLib extends BasicLib {
 			}
 		}
 
+		@Override
+		protected boolean fastInvoke(ExecutionContext context, int argc, Object arg1, Object arg2, Object arg3) {
+			if (arg1 instanceof Table) {
+				next(context, (Table) arg1, arg2);
+				return true;
+			}
+			else {
+				return false;
+			}
+		}
+
+		@Override
+		protected void invoke(ExecutionContext context, ArgumentIterator args) throws ResolvedControlThrowable {
+			Table table = args.nextTable();
+			Object index = args.optNextAny();
+			next(context, table, index);
+		}
+
 	}
 
-	public static class INext extends AbstractLibFunction {
+	public static class INext extends AbstractFixedArityLibFunction {
 
 		public static final INext INSTANCE = new INext();
 
@@ -289,13 +314,7 @@ public class DefaultBasicLib extends BasicLib {
 			return "inext";
 		}
 
-		@Override
-		protected void invoke(ExecutionContext context, ArgumentIterator args)
-				throws ResolvedControlThrowable {
-
-			Table table = args.nextTable();
-			long index = args.nextInteger();
-
+		private void inext(ExecutionContext context, Table table, long index) throws ResolvedControlThrowable {
 			index += 1;
 
 			try {
@@ -309,6 +328,26 @@ public class DefaultBasicLib extends BasicLib {
 			processResult(context, index, result);
 		}
 
+		@Override
+		protected boolean fastInvoke(ExecutionContext context, int argc, Object arg1, Object arg2, Object arg3) throws ResolvedControlThrowable {
+			if (arg1 instanceof Table && arg2 instanceof Long) {
+				inext(context, (Table) arg1, ((Long) arg2).longValue());
+				return true;
+			}
+			else {
+				return false;
+			}
+		}
+
+		@Override
+		protected void invoke(ExecutionContext context, ArgumentIterator args)
+				throws ResolvedControlThrowable {
+
+			Table table = args.nextTable();
+			long index = args.nextInteger();
+			inext(context, table, index);
+		}
+
 		@Override
 		public void resume(ExecutionContext context, Object suspendedState) throws ResolvedControlThrowable {
 			long index = (Long) suspendedState;
@@ -366,7 +405,7 @@ public class DefaultBasicLib extends BasicLib {
 
 	}
 
-	public static class IPairs extends AbstractLibFunction {
+	public static class IPairs extends AbstractFixedArityLibFunction {
 
 		public static final IPairs INSTANCE = new IPairs();
 
@@ -375,6 +414,17 @@ public class DefaultBasicLib extends BasicLib {
 			return "ipairs";
 		}
 
+		@Override
+		protected boolean fastInvoke(ExecutionContext context, int argc, Object arg1, Object arg2, Object arg3) {
+			if (arg1 instanceof Table) {
+				context.getReturnBuffer().setTo(INext.INSTANCE, arg1, 0L);
+				return true;
+			}
+			else {
+				return false;
+			}
+		}
+
 		@Override
 		protected void invoke(ExecutionContext context, ArgumentIterator args) throws ResolvedControlThrowable {
 			Table t = args.nextTable();
@@ -492,7 +542,7 @@ public class DefaultBasicLib extends BasicLib {
 
 	}
 
-	public static class SetMetatable extends AbstractLibFunction {
+	public static class SetMetatable extends AbstractFixedArityLibFunction {
 
 		public static final SetMetatable INSTANCE = new SetMetatable();
 
@@ -501,11 +551,7 @@ public class DefaultBasicLib extends BasicLib {
 			return "setmetatable";
 		}
 
-		@Override
-		protected void invoke(ExecutionContext context, ArgumentIterator args) throws ResolvedControlThrowable {
-			Table t = args.nextTable();
-			Table mt = args.nextTableOrNil();
-
+		private static void setMetatable(ExecutionContext context, Table t, Table mt) {
 			if (Metatables.getMetamethod(context, MT_METATABLE, t) != null) {
 				throw new IllegalOperationAttemptException("cannot change a protected metatable");
 			}
@@ -515,6 +561,24 @@ public class DefaultBasicLib extends BasicLib {
 			}
 		}
 
+		@Override
+		protected boolean fastInvoke(ExecutionContext context, int argc, Object arg1, Object arg2, Object arg3) {
+			if (arg1 instanceof Table && argc > 1 && (arg2 == null || arg2 instanceof Table)) {
+				setMetatable(context, (Table) arg1, (Table) arg2);
+				return true;
+			}
+			else {
+				return false;
+			}
+		}
+
+		@Override
+		protected void invoke(ExecutionContext context, ArgumentIterator args) throws ResolvedControlThrowable {
+			Table t = args.nextTable();
+			Table mt = args.nextTableOrNil();
+			setMetatable(context, t, mt);
+		}
+
 	}
 
 	public static class Error extends AbstractLibFunction {
@@ -731,7 +795,7 @@ public class DefaultBasicLib extends BasicLib {
 
 	}
 
-	public static class RawEqual extends AbstractLibFunction {
+	public static class RawEqual extends AbstractFixedArityLibFunction {
 
 		public static final RawEqual INSTANCE = new RawEqual();
 
@@ -740,6 +804,17 @@ public class DefaultBasicLib extends BasicLib {
 			return "rawequal";
 		}
 
+		@Override
+		protected boolean fastInvoke(ExecutionContext context, int argc, Object arg1, Object arg2, Object arg3) {
+			if (argc > 1) {
+				context.getReturnBuffer().setTo(Ordering.isRawEqual(arg1, arg2));
+				return true;
+			}
+			else {
+				return false;
+			}
+		}
+
 		@Override
 		protected void invoke(ExecutionContext context, ArgumentIterator args) throws ResolvedControlThrowable {
 			Object a = args.nextAny();
@@ -749,7 +824,7 @@ public class DefaultBasicLib extends BasicLib {
 
 	}
 
-	public static class RawGet extends AbstractLibFunction {
+	public static class RawGet extends AbstractFixedArityLibFunction {
 
 		public static final RawGet INSTANCE = new RawGet();
 
@@ -758,6 +833,17 @@ public class DefaultBasicLib extends BasicLib {
 			return "rawget";
 		}
 
+		@Override
+		protected boolean fastInvoke(ExecutionContext context, int argc, Object arg1, Object arg2, Object arg3) {
+			if (arg1 instanceof Table && argc > 1) {
+				context.getReturnBuffer().setTo(((Table) arg1).rawget(arg2));
+				return true;
+			}
+			else {
+				return false;
+			}
+		}
+
 		@Override
 		protected void invoke(ExecutionContext context, ArgumentIterator args) throws ResolvedControlThrowable {
 			Table table = args.nextTable();
@@ -767,7 +853,7 @@ public class DefaultBasicLib extends BasicLib {
 
 	}
 
-	public static class RawSet extends AbstractLibFunction {
+	public static class RawSet extends AbstractFixedArityLibFunction {
 
 		public static final RawSet INSTANCE = new RawSet();
 
@@ -776,6 +862,19 @@ public class DefaultBasicLib extends BasicLib {
 			return "rawset";
 		}
 
+		@Override
+		protected boolean fastInvoke(ExecutionContext context, int argc, Object arg1, Object arg2, Object arg3) {
+			if (arg1 instanceof Table && argc > 2) {
+				Table table = (Table) arg1;
+				table.rawset(arg2, arg3);
+				context.getReturnBuffer().setTo(table);
+				return true;
+			}
+			else {
+				return false;
+			}
+		}
+
 		@Override
 		protected void invoke(ExecutionContext context, ArgumentIterator args) throws ResolvedControlThrowable {
 			Table table = args.nextTable();
@@ -788,7 +887,7 @@ public class DefaultBasicLib extends BasicLib {
 
 	}
 
-	public static class RawLen extends AbstractLibFunction {
+	public static class RawLen extends AbstractFixedArityLibFunction {
 
 		public static final RawLen INSTANCE = new RawLen();
 
@@ -797,6 +896,21 @@ public class DefaultBasicLib extends BasicLib {
 			return "rawlen";
 		}
 
+		@Override
+		protected boolean fastInvoke(ExecutionContext context, int argc, Object arg1, Object arg2, Object arg3) {
+			if (arg1 instanceof Table) {
+				context.getReturnBuffer().setTo(((Table) arg1).rawlen());
+				return true;
+			}
+			else if (arg1 instanceof ByteString) {
+				context.getReturnBuffer().setTo((long) ((ByteString) arg1).length());
+				return true;
+			}
+			else {
+				return false;
+			}
+		}
+
 		@Override
 		protected void invoke(ExecutionContext context, ArgumentIterator args) throws ResolvedControlThrowable {
 			final long result;
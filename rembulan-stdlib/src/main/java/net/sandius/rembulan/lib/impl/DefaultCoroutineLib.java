@@ -24,6 +24,7 @@ import net.sandius.rembulan.runtime.LuaFunction;
 import net.sandius.rembulan.runtime.ProtectedResumable;
 import net.sandius.rembulan.runtime.ResolvedControlThrowable;
 import net.sandius.rembulan.runtime.ReturnBuffer;
+import net.sandius.rembulan.runtime.ThreadedCoroutines;
 import net.sandius.rembulan.runtime.UnresolvedControlThrowable;
 import net.sandius.rembulan.util.Check;
 
@@ -32,9 +33,32 @@ import java.util.Arrays;
 
 public class DefaultCoroutineLib extends CoroutineLib {
 
+	private final boolean threadedCoroutines;
+
+	/**
+	 * Constructs a new instance of the coroutine library.
+	 *
+	 * <p>If {@code threadedCoroutines} is {@code true}, {@code coroutine.create}
+	 * and {@code coroutine.wrap} create threaded coroutines
+	 * (see {@link ThreadedCoroutines}).</p>
+	 *
+	 * @param threadedCoroutines  if {@code true}, create threaded coroutines
+	 */
+	public DefaultCoroutineLib(boolean threadedCoroutines) {
+		this.threadedCoroutines = threadedCoroutines;
+	}
+
+	/**
+	 * Constructs a new instance of the coroutine library that creates coroutines
+	 * using the execution context.
+	 */
+	public DefaultCoroutineLib() {
+		this(false);
+	}
+
 	@Override
 	protected LuaFunction _create() {
-		return Create.INSTANCE;
+		return threadedCoroutines ? Create.THREADED_INSTANCE : Create.INSTANCE;
 	}
 
 	@Override
@@ -64,12 +88,29 @@ public class DefaultCoroutineLib extends CoroutineLib {
 
 	@Override
 	protected LuaFunction _wrap() {
-		return Wrap.INSTANCE;
+		return threadedCoroutines ? Wrap.THREADED_INSTANCE : Wrap.INSTANCE;
+	}
+
+	static Coroutine newCoroutine(ExecutionContext context, LuaFunction function, boolean threaded) {
+		return threaded
+				? ThreadedCoroutines.newCoroutine(function)
+				: context.newCoroutine(function);
 	}
 
 	public static class Create extends AbstractLibFunction {
 
-		public static final Create INSTANCE = new Create();
+		public static final Create INSTANCE = new Create(false);
+		public static final Create THREADED_INSTANCE = new Create(true);
+
+		private final boolean threaded;
+
+		public Create(boolean threaded) {
+			this.threaded = threaded;
+		}
+
+		public Create() {
+			this(false);
+		}
 
 		@Override
 		protected String name() {
@@ -79,7 +120,7 @@ public class DefaultCoroutineLib extends CoroutineLib {
 		@Override
 		protected void invoke(ExecutionContext context, ArgumentIterator args) throws ResolvedControlThrowable {
 			LuaFunction func = args.nextFunction();
-			Coroutine c = context.newCoroutine(func);
+			Coroutine c = newCoroutine(context, func, threaded);
 			context.getReturnBuffer().setTo(c);
 		}
 
@@ -107,6 +148,9 @@ public class DefaultCoroutineLib extends CoroutineLib {
 			catch (UnresolvedControlThrowable ct) {
 				throw ct.resolve(this, null);
 			}
+
+			// threaded coroutines may yield without unwinding the stack
+			resume(context, null);
 		}
 
 		@Override
@@ -218,16 +262,31 @@ public class DefaultCoroutineLib extends CoroutineLib {
 
 	public static class Wrap extends AbstractLibFunction {
 
-		public static final Wrap INSTANCE = new Wrap();
+		public static final Wrap INSTANCE = new Wrap(false);
+		public static final Wrap THREADED_INSTANCE = new Wrap(true);
+
+		private final boolean threaded;
+
+		public Wrap(boolean threaded) {
+			this.threaded = threaded;
+		}
+
+		public Wrap() {
+			this(false);
+		}
 
 		static class WrappedCoroutine extends AbstractFunctionAnyArg {
 
 			private final Coroutine coroutine;
 
-			public WrappedCoroutine(LuaFunction function, ExecutionContext context) {
+			public WrappedCoroutine(LuaFunction function, ExecutionContext context, boolean threaded) {
 				Check.notNull(function);
 				Check.notNull(context);
-				this.coroutine = context.newCoroutine(function);
+				this.coroutine = newCoroutine(context, function, threaded);
+			}
+
+			public WrappedCoroutine(LuaFunction function, ExecutionContext context) {
+				this(function, context, false);
 			}
 
 			@Override
@@ -256,7 +315,7 @@ public class DefaultCoroutineLib extends CoroutineLib {
 		@Override
 		protected void invoke(ExecutionContext context, ArgumentIterator args) throws ResolvedControlThrowable {
 			LuaFunction f = args.nextFunction();
-			LuaFunction result = new WrappedCoroutine(f, context);
+			LuaFunction result = new WrappedCoroutine(f, context, threaded);
 			context.getReturnBuffer().setTo(result);
 		}
 
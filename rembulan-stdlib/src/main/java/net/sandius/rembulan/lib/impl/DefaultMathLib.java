@@ -178,7 +178,7 @@ public class DefaultMathLib extends MathLib {
 		return ULt.INSTANCE;
 	}
 
-	public static abstract class AbstractMathFunction1 extends AbstractLibFunction {
+	public static abstract class AbstractMathFunction1 extends AbstractFixedArityLibFunction {
 
 		protected abstract Number op(double x);
 
@@ -186,6 +186,23 @@ public class DefaultMathLib extends MathLib {
 			return op((double) x);
 		}
 
+		@Override
+		protected boolean fastInvoke(ExecutionContext context, int argc, Object arg1, Object arg2, Object arg3) {
+			final Number result;
+			if (arg1 instanceof Long) {
+				result = op(((Long) arg1).longValue());
+			}
+			else if (arg1 instanceof Double) {
+				result = op(((Double) arg1).doubleValue());
+			}
+			else {
+				return false;
+			}
+
+			context.getReturnBuffer().setTo(result);
+			return true;
+		}
+
 		@Override
 		protected void invoke(ExecutionContext context, ArgumentIterator args) throws ResolvedControlThrowable {
 			Number x = args.nextNumber();
@@ -360,7 +377,7 @@ public class DefaultMathLib extends MathLib {
 
 	}
 
-	public static class FMod extends AbstractLibFunction {
+	public static class FMod extends AbstractFixedArityLibFunction {
 
 		public static final FMod INSTANCE = new FMod();
 
@@ -369,6 +386,25 @@ public class DefaultMathLib extends MathLib {
 			return "fmod";
 		}
 
+		@Override
+		protected boolean fastInvoke(ExecutionContext context, int argc, Object arg1, Object arg2, Object arg3) {
+			if (arg1 instanceof Long && arg2 instanceof Long) {
+				long y = ((Long) arg2).longValue();
+				if (y != 0) {
+					context.getReturnBuffer().setTo(((Long) arg1).longValue() % y);
+					return true;
+				}
+			}
+			else if (arg1 instanceof Double && arg2 instanceof Double) {
+				double x = ((Double) arg1).doubleValue();
+				double y = ((Double) arg2).doubleValue();
+				context.getReturnBuffer().setTo(Math.IEEEremainder(x, y));
+				return true;
+			}
+
+			return false;
+		}
+
 		@Override
 		protected void invoke(ExecutionContext context, ArgumentIterator args) throws ResolvedControlThrowable {
 			Number x = args.nextNumber();
@@ -711,7 +747,7 @@ public class DefaultMathLib extends MathLib {
 
 	}
 
-	public static class ToInteger extends AbstractLibFunction {
+	public static class ToInteger extends AbstractFixedArityLibFunction {
 
 		public static final ToInteger INSTANCE = new ToInteger();
 
@@ -720,6 +756,17 @@ public class DefaultMathLib extends MathLib {
 			return "tointeger";
 		}
 
+		@Override
+		protected boolean fastInvoke(ExecutionContext context, int argc, Object arg1, Object arg2, Object arg3) {
+			if (argc > 0) {
+				context.getReturnBuffer().setTo(Conversions.integerValueOf(arg1));
+				return true;
+			}
+			else {
+				return false;
+			}
+		}
+
 		@Override
 		protected void invoke(ExecutionContext context, ArgumentIterator args) throws ResolvedControlThrowable {
 			Object x = args.nextAny();
@@ -728,7 +775,7 @@ public class DefaultMathLib extends MathLib {
 
 	}
 
-	public static class Type extends AbstractLibFunction {
+	public static class Type extends AbstractFixedArityLibFunction {
 
 		public static final Type INSTANCE = new Type();
 
@@ -737,22 +784,34 @@ public class DefaultMathLib extends MathLib {
 			return "type";
 		}
 
-		@Override
-		protected void invoke(ExecutionContext context, ArgumentIterator args) throws ResolvedControlThrowable {
-			Object x = args.nextAny();
-
-			String result = x instanceof Number
+		private static String type(Object x) {
+			return x instanceof Number
 					? (x instanceof Float || x instanceof Double
 							? "float"
 							: "integer")
 					: null;
+		}
 
-			context.getReturnBuffer().setTo(result);
+		@Override
+		protected boolean fastInvoke(ExecutionContext context, int argc, Object arg1, Object arg2, Object arg3) {
+			if (argc > 0) {
+				context.getReturnBuffer().setTo(type(arg1));
+				return true;
+			}
+			else {
+				return false;
+			}
+		}
+
+		@Override
+		protected void invoke(ExecutionContext context, ArgumentIterator args) throws ResolvedControlThrowable {
+			Object x = args.nextAny();
+			context.getReturnBuffer().setTo(type(x));
 		}
 
 	}
 
-	public static class ULt extends AbstractLibFunction {
+	public static class ULt extends AbstractFixedArityLibFunction {
 
 		public static final ULt INSTANCE = new ULt();
 
@@ -761,6 +820,19 @@ public class DefaultMathLib extends MathLib {
 			return "ult";
 		}
 
+		@Override
+		protected boolean fastInvoke(ExecutionContext context, int argc, Object arg1, Object arg2, Object arg3) {
+			if (arg1 instanceof Long && arg2 instanceof Long) {
+				long x = ((Long) arg1).longValue();
+				long y = ((Long) arg2).longValue();
+				context.getReturnBuffer().setTo((x - y) < 0);
+				return true;
+			}
+			else {
+				return false;
+			}
+		}
+
 		@Override
 		protected void invoke(ExecutionContext context, ArgumentIterator args) throws ResolvedControlThrowable {
 			long x = args.nextInteger();
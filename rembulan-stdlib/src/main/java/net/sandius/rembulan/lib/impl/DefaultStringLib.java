@@ -39,9 +39,6 @@ import net.sandius.rembulan.runtime.UnresolvedControlThrowable;
 import net.sandius.rembulan.util.ByteIterator;
 import net.sandius.rembulan.util.Check;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class DefaultStringLib extends StringLib {
@@ -193,7 +190,7 @@ public class DefaultStringLib extends StringLib {
 		return changed ? bld.toByteString() : s;
 	}
 
-	public static class Byte extends AbstractLibFunction {
+	public static class Byte extends AbstractFixedArityLibFunction {
 
 		public static final Byte INSTANCE = new Byte();
 
@@ -202,23 +199,48 @@ public class DefaultStringLib extends StringLib {
 			return "byte";
 		}
 
-		@Override
-		protected void invoke(ExecutionContext context, ArgumentIterator args) throws ResolvedControlThrowable {
-			ByteString s = args.nextString();
-			int i = args.optNextInt(1);
-			int j = args.optNextInt(i);
-
+		private static void bytes(ExecutionContext context, ByteString s, int i, int j) {
 			int len = s.length();
 
 			i = lowerBound(i, len);
 			j = upperBound(j, len);
 
-			List<Object> buf = new ArrayList<>();
-			for (int idx = i; idx <= j; idx++) {
-				int c = s.byteAt(idx - 1) & 0xff;
-				buf.add(Long.valueOf(c));
+			if (i == j) {
+				// the common case: a single byte
+				context.getReturnBuffer().setTo(Long.valueOf(s.byteAt(i - 1) & 0xff));
 			}
-			context.getReturnBuffer().setToContentsOf(buf);
+			else {
+				Object[] buf = new Object[Math.max(0, j - i + 1)];
+				for (int idx = i; idx <= j; idx++) {
+					buf[idx - i] = Long.valueOf(s.byteAt(idx - 1) & 0xff);
+				}
+				context.getReturnBuffer().setToContentsOf(buf);
+			}
+		}
+
+		@Override
+		protected boolean fastInvoke(ExecutionContext context, int argc, Object arg1, Object arg2, Object arg3) {
+			ByteString s = stringArg(arg1);
+			if (s == null
+					|| (arg2 != null && !(arg2 instanceof Long))
+					|| (arg3 != null && !(arg3 instanceof Long))) {
+				return false;
+			}
+
+			int i = arg2 != null ? ((Long) arg2).intValue() : 1;
+			int j = arg3 != null ? ((Long) arg3).intValue() : i;
+
+			bytes(context, s, i, j);
+			return true;
+		}
+
+		@Override
+		protected void invoke(ExecutionContext context, ArgumentIterator args) throws ResolvedControlThrowable {
+			ByteString s = args.nextString();
+			int i = args.optNextInt(1);
+			int j = args.optNextInt(i);
+
+			bytes(context, s, i, j);
 		}
 
 	}
@@ -274,10 +296,28 @@ public class DefaultStringLib extends StringLib {
 			return "find";
 		}
 
+		// returns the index of the first occurrence of sub in s at fromIndex or later, or -1
+		private static int indexOf(ByteString s, ByteString sub, int fromIndex) {
+			int len = s.length();
+			int subLen = sub.length();
+
+			for (int i = fromIndex; i <= len - subLen; i++) {
+				int j = 0;
+				while (j < subLen && s.byteAt(i + j) == sub.byteAt(j)) {
+					j++;
+				}
+				if (j == subLen) {
+					return i;
+				}
+			}
+
+			return -1;
+		}
+
 		@Override
 		protected void invoke(ExecutionContext context, ArgumentIterator args) throws ResolvedControlThrowable {
-			String s = args.nextString().toString();  // FIXME
-			String pattern = args.nextString().toString();  // FIXME
+			ByteString s = args.nextString();
+			ByteString pattern = args.nextString();
 			int init = args.optNextInt(1);
 			boolean plain = args.optNextBoolean(false);
 
@@ -285,7 +325,7 @@ public class DefaultStringLib extends StringLib {
 
 			if (plain) {
 				// find a substring
-				int at = s.indexOf(pattern, init - 1);
+				int at = indexOf(s, pattern, init - 1);
 				if (at >= 0) {
 					context.getReturnBuffer().setTo(
 							(long) (at + 1),
@@ -297,15 +337,15 @@ public class DefaultStringLib extends StringLib {
 			}
 			else {
 				// find a pattern
-				StringPattern pat = StringPattern.fromString(pattern);
-
-				StringPattern.Match m = pat.match(s, init - 1);
-
-				if (m != null) {
-					List<Object> result = new ArrayList<>();
-					result.add((long) (m.beginIndex() + 1));
-					result.add((long) m.endIndex());
-					result.addAll(m.captures());
+				StringPattern.Matcher m = StringPattern.compile(pattern).matcher(s);
+
+				if (m.find(init - 1)) {
+					Object[] result = new Object[2 + m.captureCount()];
+					result[0] = (long) (m.beginIndex() + 1);
+					result[1] = (long) m.endIndex();
+					for (int i = 0; i < m.captureCount(); i++) {
+						result[2 + i] = m.capture(i);
+					}
 					context.getReturnBuffer().setToContentsOf(result);
 				}
 				else {
@@ -328,37 +368,20 @@ public class DefaultStringLib extends StringLib {
 
 		private static class SuspendedState {
 
-			public final String fmt;  // the format string
-			public final String str;  // the string so far
+			public final StringFormat format;
+			public final ByteStringBuilder bld;  // the string so far
 			public final ArgumentIterator args;
-			public final int index;
+			public final int index;  // the index of the suspended %s
 
-			// flags for the suspended %s
-			public final int width;
-			public final int flags;
-			public final int precision;
-
-			public SuspendedState(String fmt, String str, ArgumentIterator args, int index, int width, int flags, int precision) {
-				this.fmt = fmt;
-				this.str = str;
+			public SuspendedState(StringFormat format, ByteStringBuilder bld, ArgumentIterator args, int index) {
+				this.format = format;
+				this.bld = bld;
 				this.args = args;
 				this.index = index;
-				this.width = width;
-				this.flags = flags;
-				this.precision = precision;
 			}
 
 		}
 
-		private static String optionToString(char c) {
-			if (Character.isLetterOrDigit(c)) {
-				return "%" + c;
-			}
-			else {
-				return "%<\\" + ((int) c) + ">";
-			}
-		}
-
 		private static void repeatChar(char c, int num, StringBuilder bld) {
 			for (int i = 0; i < num; i++) {
 				bld.append(c);
@@ -379,20 +402,6 @@ public class DefaultStringLib extends StringLib {
 			}
 		}
 
-		private static String padRight(String s, char c, int width) {
-			int diff = width - s.length();
-
-			if (diff > 0) {
-				StringBuilder bld = new StringBuilder();
-				bld.append(s);
-				repeatChar(c, diff, bld);
-				return bld.toString();
-			}
-			else {
-				return s;
-			}
-		}
-
 		private static final long L_1E18  = 1000000000000000000L;
 		private static final long L_9E18  =  9 * L_1E18;
 		private static final long L_10E18 = 10 * L_1E18;  // overflows, and that's the point
@@ -421,172 +430,12 @@ public class DefaultStringLib extends StringLib {
 							: '9' + padLeft(Long.toString(x - L_9E18), '0', 18));
 		}
 
-		private int literal(String fmt, int from, StringBuilder bld) {
-			int index = from;
-			while (index < fmt.length()) {
-				char c = fmt.charAt(index++);
-
-				if (c != '%') {
-					bld.append(c);
-				}
-				else {
-					if (index < fmt.length() && fmt.charAt(index) == '%') {
-						// literal '%'
-						bld.append('%');
-						index += 1;
-					}
-					else {
-						return index;
-					}
-				}
-
-			}
-			return -1;
-		}
-
-		private static IllegalArgumentException invalidOptionException(char c) {
-			return new IllegalArgumentException("invalid option '" + optionToString(c) + "' to 'format'");
-		}
-
-		private static int setFlag(int flags, int mask) {
-			if ((flags & mask) != 0) {
-				throw new IllegalArgumentException("illegal format (repeated flags)");
-			}
-			return flags | mask;
-		}
-
-		private static boolean hasFlag(int flags, int mask) {
-			return (flags & mask) != 0;
-		}
-
-		private static String sign(boolean nonNegative, int flags) {
-			return nonNegative
-					? (hasFlag(flags, FLAG_SIGN_ALWAYS)
-							? "+"
-							: (hasFlag(flags, FLAG_ZERO_PAD)
-									? " "
-									: ""))
-					: "-";
-		}
-
-		private static String altForm(long value, int flags, String prefix) {
-			return value != 0 && hasFlag(flags, FLAG_ALT_FORM) ? prefix : "";
-		}
-
-		private static String padded(int precision, String digits) {
-			return precision >= 0
-					? padLeft("0".equals(digits) ? "" : digits, '0', precision)
-					: digits;
-		}
-
-		private static String trimmed(int precision, String chars) {
-			return precision >= 0
-					? chars.substring(0, Math.min(chars.length(), precision))
-					: chars;
-		}
-
-		private static String justified(int width, int flags, String digits) {
-			return width >= 0
-					? (hasFlag(flags, FLAG_LEFTJUSTIFY)
-							? padRight(digits, ' ', width)
-							: padLeft(digits, ' ', width))
-					: digits;
-		}
-
-		private static final int FLAG_LEFTJUSTIFY = 1 << 1;
-		private static final int FLAG_SIGN_ALWAYS = 1 << 2;
-		private static final int FLAG_SIGN_SPACE = 1 << 3;
-		private static final int FLAG_ZERO_PAD = 1 << 4;
-		private static final int FLAG_ALT_FORM = 1 << 5;
-
-		private static void format_signed_integer(StringBuilder bld, ArgumentIterator args, char spec, int width, int flags, int precision) {
-			long l = args.nextInteger();
-
-			String ls = LuaFormat.toString(l);
-			String digits = l < 0 ? ls.substring(1) : ls;  // ignore the sign, we'll re-attach it later
-			bld.append(justified(width, flags,
-					sign(l >= 0, flags) + padded(precision, digits)));
-		}
-
-		private static void format_unsigned_integer(StringBuilder bld, ArgumentIterator args, int width, int flags, int precision) {
-			long l = args.nextInteger();
-
-			String digits = longToUnsignedString(l);
-			bld.append(justified(width, flags, padded(precision, digits)));
-		}
-
-		private static void format_octal_integer(StringBuilder bld, ArgumentIterator args, int width, int flags, int precision) {
-			long l = args.nextInteger();
-
-			String digits = Long.toOctalString(l);
-			bld.append(justified(width, flags, altForm(l, flags, "0") + padded(precision, digits)));
-		}
-
-		private static void format_hex_integer(StringBuilder bld, ArgumentIterator args, boolean uppercase, int width, int flags, int precision) {
-			long l = args.nextInteger();
-
-			String digits = Long.toHexString(l);
-			String lowerCaseResult = justified(width, flags,
-					altForm(l, flags, "0x") + padded(precision, digits));
-
-			bld.append(uppercase ? lowerCaseResult.toUpperCase() : lowerCaseResult);
-		}
-
-		private static void format_char(StringBuilder bld, ArgumentIterator args, int width, int flags) {
-			bld.append(justified(width, flags, Character.toString((char) args.nextInteger())));
-		}
-
-		private static void format_float(StringBuilder bld, ArgumentIterator args, char spec, int width, int flags, int precision) {
-			double v = args.nextFloat();
-
-			if (Double.isNaN(v) || Double.isInfinite(v)) {
-				final ByteString chars;
-
-				chars = Double.isNaN(v)
-						? LuaFormat.NAN
-						: ByteString.of(sign(v > 0, flags) + LuaFormat.INF);
-
-				bld.append(justified(width, flags, chars.toString()));
-			}
-			else {
-				StringBuilder fmtBld = new StringBuilder();
-				fmtBld.append('%');
-				if (hasFlag(flags, FLAG_LEFTJUSTIFY)) fmtBld.append('-');
-				if (hasFlag(flags, FLAG_SIGN_ALWAYS)) fmtBld.append('+');
-				if (hasFlag(flags, FLAG_SIGN_SPACE)) fmtBld.append(' ');
-				if (hasFlag(flags, FLAG_ZERO_PAD)) fmtBld.append('0');
-				if (hasFlag(flags, FLAG_ALT_FORM)) fmtBld.append('#');
-
-				if (width > 0) fmtBld.append(width);
-				// width required by Formatter, but not supplied
-				else if (hasFlag(flags, FLAG_ZERO_PAD)) fmtBld.append('1');
-
-				if (precision > 0) fmtBld.append('.').append(precision);
-				fmtBld.append(spec);
-				String formatted = String.format(fmtBld.toString(), v);
-
-				if (spec == 'a' || spec == 'A') {
-					// insert the '+' sign to the exponent
-					int p = formatted.indexOf(spec == 'a' ? 'p' : 'P') + 1;
-					if (formatted.charAt(p) != '-') {
-						formatted = formatted.substring(0, p) + '+' + formatted.substring(p);
-					}
-				}
-
-				bld.append(formatted);
-			}
-		}
-
-		private void format_s(ExecutionContext context, String fmt, StringBuilder bld, ArgumentIterator args, int index, int width, int flags, int precision)
+		private void format_s(ExecutionContext context, StringFormat format, int index, ByteStringBuilder bld, ArgumentIterator args)
 				throws ResolvedControlThrowable {
 			Object v = args.nextAny();
-			final String s;
 
-			ByteString stringValue = Conversions.stringValueOf(v);
-			if (stringValue != null) {
-				s = stringValue.toString();
-			}
-			else {
+			ByteString s = Conversions.stringValueOf(v);
+			if (s == null) {
 				Object metamethod = Metatables.getMetamethod(context, BasicLib.MT_TOSTRING, v);
 				if (metamethod != null) {
 					// call __tostring
@@ -594,232 +443,113 @@ public class DefaultStringLib extends StringLib {
 						Dispatch.call(context, metamethod, v);
 					}
 					catch (UnresolvedControlThrowable ct) {
-						throw ct.resolve(this, new SuspendedState(fmt, bld.toString(), args, index, width, flags, precision));
+						throw ct.resolve(this, new SuspendedState(format, bld, args, index));
 					}
-					resume_s(context, bld, width, flags, precision);
+					resume_s(context, format.directive(index), bld);
 					return;
 				}
 				else {
-					s = Conversions.toHumanReadableString(v).toString();
+					s = Conversions.toHumanReadableString(v);
 				}
 			}
-			bld.append(justified(width, flags, trimmed(precision, s)));
+			StringFormat.formatString(bld, format.directive(index), s);
 		}
 
-		private static void resume_s(ExecutionContext context, StringBuilder bld, int width, int flags, int precision) {
+		private static void resume_s(ExecutionContext context, StringFormat.Directive directive, ByteStringBuilder bld) {
 			Object o = context.getReturnBuffer().get0();
 			ByteString sv = Conversions.stringValueOf(o);
-			String s = sv != null ? sv.toString() : "";
-			bld.append(justified(width, flags, trimmed(precision, s)));
+			StringFormat.formatString(bld, directive, sv != null ? sv : ByteString.empty());
 		}
 
-		private void format_q(StringBuilder bld, ArgumentIterator args) {
+		private void format_q(ByteStringBuilder bld, ArgumentIterator args) {
 			Object o = args.nextAny();
-			final String s;
 
-			if (o == null) s = LuaFormat.NIL.toString();
-			else if (o instanceof Boolean) s = LuaFormat.toString(((Boolean) o).booleanValue());
-			else if (o instanceof String) s = LuaFormat.escape((String) o);
-			else if (o instanceof ByteString) s = LuaFormat.escape(((ByteString) o).toString());
-			else if (o instanceof Number) s = Conversions.stringValueOf((Number) o).toString();
+			if (o == null) bld.append(LuaFormat.NIL);
+			else if (o instanceof Boolean) bld.append(LuaFormat.toByteString(((Boolean) o).booleanValue()));
+			else if (o instanceof String) bld.append(LuaFormat.escape((String) o));
+			else if (o instanceof ByteString) bld.append(LuaFormat.escape(((ByteString) o).toString()));
+			else if (o instanceof Number) bld.append(Conversions.stringValueOf((Number) o));
 			else {
 				throw new BadArgumentException(args.at(), name(), "value has no literal form");
 			}
-
-			bld.append(s);
 		}
 
-		private int placeholder(ExecutionContext context, String fmt, int from, StringBuilder bld, ArgumentIterator args)
+		private void directive(ExecutionContext context, StringFormat format, int index, ByteStringBuilder bld, ArgumentIterator args)
 				throws ResolvedControlThrowable {
 
 			if (!args.hasNext()) {
 				throw new BadArgumentException(args.size() + 1, name(), "no value");
 			}
 
-			int index = from;
-
-			char c;
-
-			int flags = 0;
-
-			// flags
-			{
-				boolean wasFlag = true;
-
-				do {
-					if (index < fmt.length()) {
-						c = fmt.charAt(index++);
-					}
-					else {
-						throw invalidOptionException('\0');
-					}
-
-					switch (c) {
-						case '-': flags = setFlag(flags, FLAG_LEFTJUSTIFY); break;
-						case '+': flags = setFlag(flags, FLAG_SIGN_ALWAYS); break;
-						case ' ': flags = setFlag(flags, FLAG_SIGN_SPACE); break;
-						case '0': flags = setFlag(flags, FLAG_ZERO_PAD); break;
-						case '#': flags = setFlag(flags, FLAG_ALT_FORM); break;
-
-						default:
-							// not a flag, take the character back
-							index -= 1;
-							wasFlag = false;
-							break;
-					}
-
-				} while (wasFlag);
-			}
-
-			// width
-			int width = -1;
-
-			{
-				boolean wasWidth = true;
-
-				do {
-					if (index < fmt.length()) {
-						c = fmt.charAt(index++);
-					}
-					else {
-						throw invalidOptionException('\0');
-					}
-
-					if (c >= '0' && c <= '9') {
-						width = Math.max(0, width) * 10 + (c - '0');
-						if (width >= 100) {
-							throw new IllegalArgumentException("illegal format (width or precision too long)");
-						}
-					}
-					else {
-						// not a width specifier, put back
-						index -= 1;
-						wasWidth = false;
-					}
-
-				} while (wasWidth);
-			}
-
-			// precision
-			int precision = -1;
-
-			{
-				if (index < fmt.length() && fmt.charAt(index) == '.') {
-					index += 1;  // skip the '.'
-					precision = 0;
-
-					boolean wasPrecision = true;
-					do {
-						if (index < fmt.length()) {
-							c = fmt.charAt(index++);
-						}
-						else {
-							throw invalidOptionException('\0');
-						}
-
-						if (c >= '0' && c <= '9') {
-							precision = precision * 10 + (c - '0');
-							if (precision >= 100) {
-								throw new IllegalArgumentException("illegal format (width or precision too long)");
-							}
-						}
-						else {
-							// not a width specifier, put back
-							index -= 1;
-							wasPrecision = false;
-						}
-
-					} while (wasPrecision);
-
-				}
-			}
-
-			// type
-			{
-				char d = fmt.charAt(index++);
-
-				switch (d) {
-
-					case 'd':
-					case 'i':
-						format_signed_integer(bld, args, d, width, flags, precision);
-						break;
+			StringFormat.Directive d = format.directive(index);
 
-					case 'u':
-						format_unsigned_integer(bld, args, width, flags, precision);
-						break;
+			switch (d.conversion) {
 
-					case 'o':
-						format_octal_integer(bld, args, width, flags, precision);
-						break;
-
-					case 'x':
-					case 'X':
-						format_hex_integer(bld, args, d == 'X', width, flags, precision);
-						break;
-
-					case 'c':
-						format_char(bld, args, width, flags);
-						break;
+				case 'd':
+				case 'i':
+				case 'u':
+				case 'o':
+				case 'x':
+				case 'X':
+					StringFormat.formatInteger(bld, d, args.nextInteger());
+					break;
 
-					case 'f':
-					case 'a':
-					case 'A':
-					case 'e':
-					case 'E':
-					case 'g':
-					case 'G':
-						format_float(bld, args, d, width, flags, precision);
-						break;
+				case 'c':
+					StringFormat.formatChar(bld, d, args.nextInteger());
+					break;
 
-					case 's':
-						format_s(context, fmt, bld, args, index, width, flags, precision);
-						break;
+				case 'f':
+				case 'a':
+				case 'A':
+				case 'e':
+				case 'E':
+				case 'g':
+				case 'G':
+					StringFormat.formatFloat(bld, d, args.nextFloat());
+					break;
 
-					case 'q':
-						format_q(bld, args);
-						break;
+				case 's':
+					format_s(context, format, index, bld, args);
+					break;
 
-					default:
-						throw new IllegalArgumentException("invalid option '" + optionToString(d) + "' to 'format'");
+				case 'q':
+					format_q(bld, args);
+					break;
 
-				}
+				default:
+					// an invalid specification
+					throw new IllegalArgumentException(d.error);
 
 			}
-
-			return index < fmt.length() ? index : -1;
 		}
 
 		@Override
 		protected void invoke(ExecutionContext context, ArgumentIterator args) throws ResolvedControlThrowable {
-			String fmt = args.nextString().toString();  // FIXME
-			StringBuilder bld = new StringBuilder();
-			run(context, fmt, args, bld, 0);
+			StringFormat format = StringFormat.compile(args.nextString());
+			run(context, format, args, new ByteStringBuilder(), 0);
 		}
 
 		@Override
 		public void resume(ExecutionContext context, Object suspendedState) throws ResolvedControlThrowable {
 			SuspendedState ss = (SuspendedState) suspendedState;
 
-			StringBuilder bld = new StringBuilder(ss.str);
-
 			// resume the suspended %s
-			resume_s(context, bld, ss.width, ss.flags, ss.precision);
+			resume_s(context, ss.format.directive(ss.index), ss.bld);
 
 			// continue the loop
-			run(context, ss.fmt, ss.args, bld, ss.index);
+			run(context, ss.format, ss.args, ss.bld, ss.index + 1);
 		}
 
-		private void run(ExecutionContext context, String fmt, ArgumentIterator args, StringBuilder bld, int idx)
+		private void run(ExecutionContext context, StringFormat format, ArgumentIterator args, ByteStringBuilder bld, int index)
 				throws ResolvedControlThrowable {
-			do {
-				idx = literal(fmt, idx, bld);
-				if (idx >= 0) {
-					idx = placeholder(context, fmt, idx, bld, args);
-				}
-			} while (idx >= 0);
 
-			context.getReturnBuffer().setTo(bld.toString());
+			bld.append(format.literal(index));
+			while (index < format.size()) {
+				directive(context, format, index, bld, args);
+				bld.append(format.literal(++index));
+			}
+
+			context.getReturnBuffer().setTo(bld.toByteString());
 		}
 
 	}
@@ -830,13 +560,15 @@ public class DefaultStringLib extends StringLib {
 
 		public static class IteratorFunction extends AbstractFunction0 {
 
-			public final String string;
+			public final ByteString string;
 			public final StringPattern pattern;
+			private final StringPattern.Matcher matcher;
 			private final AtomicInteger index;
 
-			public IteratorFunction(String string, StringPattern pattern) {
+			public IteratorFunction(ByteString string, StringPattern pattern) {
 				this.string = Check.notNull(string);
 				this.pattern = Check.notNull(pattern);
+				this.matcher = pattern.matcher(string);
 				this.index = new AtomicInteger(0);
 			}
 
@@ -846,30 +578,32 @@ public class DefaultStringLib extends StringLib {
 				int idx = index.get();
 
 				if (idx >= 0) {
-					StringPattern.Match m = pattern.match(string, idx);
-
-					if (m != null) {
-						// found a match
-						int endIndex = m.endIndex();
-						if (endIndex == idx) {
-							// avoid looping on empty matches
-							endIndex += 1;
-						}
+					StringPattern.Matcher m = matcher;
+
+					synchronized (m) {
+						if (m.find(idx)) {
+							// found a match
+							int endIndex = m.endIndex();
+							if (endIndex == idx) {
+								// avoid looping on empty matches
+								endIndex += 1;
+							}
 
-						index.set(endIndex);
+							index.set(endIndex);
 
-						if (!m.captures().isEmpty()) {
-							context.getReturnBuffer().setToContentsOf(m.captures());
+							if (m.captureCount() > 0) {
+								context.getReturnBuffer().setToContentsOf(m.captures());
+							}
+							else {
+								context.getReturnBuffer().setTo(m.fullMatch());
+							}
 						}
 						else {
-							context.getReturnBuffer().setTo(m.fullMatch());
+							// no match; go to end state
+							index.set(-1);
+							context.getReturnBuffer().setTo();
 						}
 					}
-					else {
-						// no match; go to end state
-						index.set(-1);
-						context.getReturnBuffer().setTo();
-					}
 				}
 				else {
 					// in end state
@@ -890,10 +624,10 @@ public class DefaultStringLib extends StringLib {
 
 		@Override
 		protected void invoke(ExecutionContext context, ArgumentIterator args) throws ResolvedControlThrowable {
-			String s = args.nextString().toString();  // FIXME
-			String pattern = args.nextString().toString();  // FIXME
+			ByteString s = args.nextString();
+			ByteString pattern = args.nextString();
 
-			StringPattern pat = StringPattern.fromString(pattern, true);
+			StringPattern pat = StringPattern.compile(pattern, true);
 
 			LuaFunction f = new IteratorFunction(s, pat);
 
@@ -915,8 +649,8 @@ public class DefaultStringLib extends StringLib {
 
 		@Override
 		protected void invoke(ExecutionContext context, ArgumentIterator args) throws ResolvedControlThrowable {
-			String s = args.nextString().toString();  // FIXME
-			String pattern = args.nextString().toString();  // FIXME
+			ByteString s = args.nextString();
+			ByteString pattern = args.nextString();
 
 			final Object repl;
 			if (!args.hasNext()) {
@@ -928,7 +662,7 @@ public class DefaultStringLib extends StringLib {
 				// a string?
 				ByteString replStr = Conversions.stringValueOf(o);
 				if (replStr != null) {
-					repl = replStr.toString();
+					repl = replStr;
 				}
 				else if (o instanceof Table || o instanceof LuaFunction) {
 					repl = o;
@@ -940,44 +674,46 @@ public class DefaultStringLib extends StringLib {
 
 			int n = args.optNextInt(Integer.MAX_VALUE);
 
-			StringPattern pat = StringPattern.fromString(pattern);
+			StringPattern.Matcher m = StringPattern.compile(pattern).matcher(s);
 
-			run(context, s, 0, new StringBuilder(), pat, 0, n, repl);
+			run(context, m, 0, 0, new ByteStringBuilder(), 0, n, repl);
 		}
 
 		private static class State {
 
-			public final String str;
-			public final StringPattern pat;
+			public final StringPattern.Matcher matcher;
 			public final int count;
 			public final int num;
 
 			public final Object repl;
 
-			public final StringBuilder bld;
-			public final String fullMatch;
+			public final ByteStringBuilder bld;
+			public final ByteString fullMatch;
 			public final int idx;
+			public final int from;
 
-			private State(String str, StringPattern pat, int count, int num, Object repl, StringBuilder bld, String fullMatch, int idx) {
-				this.str = str;
-				this.pat = pat;
+			private State(StringPattern.Matcher matcher, int count, int num, Object repl, ByteStringBuilder bld, ByteString fullMatch, int idx, int from) {
+				this.matcher = matcher;
 				this.count = count;
 				this.num = num;
 				this.repl = repl;
 				this.bld = bld;
 				this.fullMatch = fullMatch;
 				this.idx = idx;
+				this.from = from;
 			}
 
 		}
 
-		private void run(ExecutionContext context, String str, int idx, StringBuilder bld, StringPattern pat, int count, int num, Object repl)
+		// idx is the index of the first byte not yet copied to bld, from is where the next search begins
+		private void run(ExecutionContext context, StringPattern.Matcher m, int idx, int from, ByteStringBuilder bld, int count, int num, Object repl)
 				throws ResolvedControlThrowable {
 
-			while (count < num) {
-				StringPattern.Match m = pat.match(str, idx);
+			ByteString str = m.subject();
 
-				if (m == null) {
+			// an anchored pattern is replaced at most once
+			while (count < num && (count == 0 || !m.pattern().isAnchored())) {
+				if (!m.find(from)) {
 					// no more matches
 					break;
 				}
@@ -989,22 +725,24 @@ public class DefaultStringLib extends StringLib {
 					bld.append(str.substring(idx, m.beginIndex()));
 				}
 
-				List<Object> captures = m.captures().isEmpty()
-						? Collections.singletonList((Object) m.fullMatch())
-						: m.captures();
+				ByteString fullMatch = m.fullMatch();
+				Object[] captures = m.captureCount() > 0
+						? m.captures()
+						: new Object[] { fullMatch };
 
-				// avoid looping indefinitely for empty matches
-				idx = m.endIndex() != idx ? m.endIndex() : m.endIndex() + 1;
+				// after an empty match, the byte following it is copied to the result
+				// as part of the next non-matching prefix; the search resumes past it
+				idx = m.endIndex();
+				from = m.endIndex() != m.beginIndex() ? idx : idx + 1;
 
-				if (repl instanceof String) {
-					String r = stringReplace((String) repl, m.fullMatch(), captures);
-					bld.append(r);
+				if (repl instanceof ByteString) {
+					stringReplace(bld, (ByteString) repl, fullMatch, captures);
 				}
 				else {
 					// NOTE: throws and handles ControlThrowables
 					nonStringReplace(
-							context, str, pat, idx, count, num, bld,
-							repl, m.fullMatch(), captures);
+							context, m, idx, from, count, num, bld,
+							repl, fullMatch, captures);
 				}
 			}
 
@@ -1013,28 +751,27 @@ public class DefaultStringLib extends StringLib {
 				bld.append(str.substring(idx, str.length()));
 			}
 
-			context.getReturnBuffer().setTo(bld.toString(), (long) count);
+			context.getReturnBuffer().setTo(bld.toByteString(), (long) count);
 		}
 
-		private static String stringReplace(String s, String fullMatch, List<Object> captures) {
-			StringBuilder bld = new StringBuilder();
-
-			for (int i = 0; i < s.length(); i++) {
-				char c = s.charAt(i);
+		private static void stringReplace(ByteStringBuilder bld, ByteString s, ByteString fullMatch, Object[] captures) {
+			int len = s.length();
+			for (int i = 0; i < len; i++) {
+				byte c = s.byteAt(i);
 
-				if (c == '%' && i + 1 < s.length()) {
-					char d = s.charAt(i + 1);
+				if (c == '%' && i + 1 < len) {
+					byte d = s.byteAt(i + 1);
 					i += 1;  // skip the escape
 
 					if (d >= '0' && d <= '9') {
-						int idx = (int) d - (int) '0';
+						int idx = d - '0';
 						if (idx == 0) {
 							bld.append(fullMatch);
 						}
 						else {
-							if (idx - 1 < captures.size()) {
+							if (idx - 1 < captures.length) {
 								// captures are either strings or integers
-								ByteString sv = Conversions.stringValueOf(captures.get(idx - 1));
+								ByteString sv = Conversions.stringValueOf(captures[idx - 1]);
 								assert (sv != null);
 								bld.append(sv);
 							}
@@ -1052,45 +789,43 @@ public class DefaultStringLib extends StringLib {
 					bld.append(c);
 				}
 			}
-
-			return bld.toString();
 		}
 
 		private void nonStringReplace(
 				ExecutionContext context,
-				String str,
-				StringPattern pat,
+				StringPattern.Matcher m,
 				int idx,
+				int from,
 				int count,
 				int num,
-				StringBuilder bld,
+				ByteStringBuilder bld,
 				Object repl,
-				String fullMatch,
-				List<Object> captures)
+				ByteString fullMatch,
+				Object[] captures)
 				throws ResolvedControlThrowable {
 
-			assert (!captures.isEmpty());
+			assert (captures.length > 0);
 
-			Object cap = captures.get(0);
+			Object cap = captures[0];
 
 			try {
 				if (repl instanceof Table) {
 					Dispatch.index(context, (Table) repl, cap);
 				}
 				else if (repl instanceof LuaFunction) {
-					Dispatch.call(context, (LuaFunction) repl, (Object[]) captures.toArray());
+					Dispatch.call(context, (LuaFunction) repl, captures);
 				}
 				else {
 					throw new IllegalStateException("Illegal replacement: " + repl);
 				}
 			}
 			catch (UnresolvedControlThrowable ct) {
-				throw ct.resolve(this, new State(str, pat, count, num, repl, bld, fullMatch, idx));
+				throw ct.resolve(this, new State(m, count, num, repl, bld, fullMatch, idx, from));
 			}
 			resumeReplace(context, bld, fullMatch);
 		}
 
-		private static void resumeReplace(ExecutionContext context, StringBuilder bld, String fullMatch) {
+		private static void resumeReplace(ExecutionContext context, ByteStringBuilder bld, ByteString fullMatch) {
 			Object value = context.getReturnBuffer().get0();
 			ByteString sv = Conversions.stringValueOf(value);
 			if (sv != null) {
@@ -1113,12 +848,12 @@ public class DefaultStringLib extends StringLib {
 		public void resume(ExecutionContext context, Object suspendedState) throws ResolvedControlThrowable {
 			State state = (State) suspendedState;
 			resumeReplace(context, state.bld, state.fullMatch);
-			run(context, state.str, state.idx, state.bld, state.pat, state.count, state.num, state.repl);
+			run(context, state.matcher, state.idx, state.from, state.bld, state.count, state.num, state.repl);
 		}
 
 	}
 
-	public static class Len extends AbstractLibFunction {
+	public static class Len extends AbstractFixedArityLibFunction {
 
 		public static final Len INSTANCE = new Len();
 
@@ -1127,6 +862,18 @@ public class DefaultStringLib extends StringLib {
 			return "len";
 		}
 
+		@Override
+		protected boolean fastInvoke(ExecutionContext context, int argc, Object arg1, Object arg2, Object arg3) {
+			ByteString s = stringArg(arg1);
+			if (s != null) {
+				context.getReturnBuffer().setTo((long) s.length());
+				return true;
+			}
+			else {
+				return false;
+			}
+		}
+
 		@Override
 		protected void invoke(ExecutionContext context, ArgumentIterator args) throws ResolvedControlThrowable {
 			ByteString s = args.nextString();
@@ -1135,7 +882,7 @@ public class DefaultStringLib extends StringLib {
 
 	}
 
-	public static class Lower extends AbstractLibFunction {
+	public static class Lower extends AbstractFixedArityLibFunction {
 
 		public static final Lower INSTANCE = new Lower();
 
@@ -1144,6 +891,18 @@ public class DefaultStringLib extends StringLib {
 			return "lower";
 		}
 
+		@Override
+		protected boolean fastInvoke(ExecutionContext context, int argc, Object arg1, Object arg2, Object arg3) {
+			ByteString s = stringArg(arg1);
+			if (s != null) {
+				context.getReturnBuffer().setTo(toLowerCase(s));
+				return true;
+			}
+			else {
+				return false;
+			}
+		}
+
 		@Override
 		protected void invoke(ExecutionContext context, ArgumentIterator args) throws ResolvedControlThrowable {
 			ByteString s = args.nextString();
@@ -1163,17 +922,16 @@ public class DefaultStringLib extends StringLib {
 
 		@Override
 		protected void invoke(ExecutionContext context, ArgumentIterator args) throws ResolvedControlThrowable {
-			String s = args.nextString().toString();  // FIXME
-			String pattern = args.nextString().toString();  // FIXME
+			ByteString s = args.nextString();
+			ByteString pattern = args.nextString();
 			int init = args.optNextInt(1);
 
 			init = lowerBound(init, s.length());
 
-			StringPattern pat = StringPattern.fromString(pattern);
+			StringPattern.Matcher m = StringPattern.compile(pattern).matcher(s);
 
-			StringPattern.Match m = pat.match(s, init - 1);
-			if (m != null) {
-				if (m.captures().isEmpty()) {
+			if (m.find(init - 1)) {
+				if (m.captureCount() == 0) {
 					context.getReturnBuffer().setTo(m.fullMatch());
 				}
 				else {
@@ -1188,7 +946,7 @@ public class DefaultStringLib extends StringLib {
 
 	}
 
-	public static class Rep extends AbstractLibFunction {
+	public static class Rep extends AbstractFixedArityLibFunction {
 
 		public static final Rep INSTANCE = new Rep();
 
@@ -1197,13 +955,7 @@ public class DefaultStringLib extends StringLib {
 			return "rep";
 		}
 
-		@Override
-		protected void invoke(ExecutionContext context, ArgumentIterator args) throws ResolvedControlThrowable {
-			ByteString s = args.nextString();
-			int n = args.nextInt();
-			ByteString sep = args.hasNext() ? args.nextString() : ByteString.empty();
-
-			final ByteString result;
+		private static ByteString rep(ByteString s, int n, ByteString sep) {
 			if (n > 0) {
 				ByteStringBuilder bld = new ByteStringBuilder();
 
@@ -1214,13 +966,32 @@ public class DefaultStringLib extends StringLib {
 					}
 				}
 
-				result = bld.toByteString();
+				return bld.toByteString();
 			}
 			else {
-				result = ByteString.empty();
+				return ByteString.empty();
 			}
+		}
 
-			context.getReturnBuffer().setTo(result);
+		@Override
+		protected boolean fastInvoke(ExecutionContext context, int argc, Object arg1, Object arg2, Object arg3) {
+			ByteString s = stringArg(arg1);
+			ByteString sep = argc < 3 ? ByteString.empty() : stringArg(arg3);
+			if (s == null || !(arg2 instanceof Long) || sep == null) {
+				return false;
+			}
+
+			context.getReturnBuffer().setTo(rep(s, ((Long) arg2).intValue(), sep));
+			return true;
+		}
+
+		@Override
+		protected void invoke(ExecutionContext context, ArgumentIterator args) throws ResolvedControlThrowable {
+			ByteString s = args.nextString();
+			int n = args.nextInt();
+			ByteString sep = args.hasNext() ? args.nextString() : ByteString.empty();
+
+			context.getReturnBuffer().setTo(rep(s, n, sep));
 		}
 
 	}
@@ -1254,7 +1025,7 @@ public class DefaultStringLib extends StringLib {
 
 	}
 
-	public static class Sub extends AbstractLibFunction {
+	public static class Sub extends AbstractFixedArityLibFunction {
 
 		public static final Sub INSTANCE = new Sub();
 
@@ -1263,24 +1034,40 @@ public class DefaultStringLib extends StringLib {
 			return "sub";
 		}
 
+		private static ByteString sub(ByteString s, int i, int j) {
+			int len = s.length();
+			i = lowerBound(i, len) - 1;
+			j = upperBound(j, len);
+
+			return s.substring(i, j);
+		}
+
+		@Override
+		protected boolean fastInvoke(ExecutionContext context, int argc, Object arg1, Object arg2, Object arg3) {
+			ByteString s = stringArg(arg1);
+			if (s == null || !(arg2 instanceof Long) || (arg3 != null && !(arg3 instanceof Long))) {
+				return false;
+			}
+
+			int i = ((Long) arg2).intValue();
+			int j = arg3 != null ? ((Long) arg3).intValue() : -1;
+
+			context.getReturnBuffer().setTo(sub(s, i, j));
+			return true;
+		}
+
 		@Override
 		protected void invoke(ExecutionContext context, ArgumentIterator args) throws ResolvedControlThrowable {
 			ByteString s = args.nextString();
 			int i = args.nextInt();
 			int j = args.optNextInt(-1);
 
-			int len = s.length();
-			i = lowerBound(i, len) - 1;
-			j = upperBound(j, len);
-
-			ByteString result = s.substring(i, j);
-
-			context.getReturnBuffer().setTo(result);
+			context.getReturnBuffer().setTo(sub(s, i, j));
 		}
 
 	}
 
-	public static class Upper extends AbstractLibFunction {
+	public static class Upper extends AbstractFixedArityLibFunction {
 
 		public static final Upper INSTANCE = new Upper();
 
@@ -1289,6 +1076,18 @@ public class DefaultStringLib extends StringLib {
 			return "upper";
 		}
 
+		@Override
+		protected boolean fastInvoke(ExecutionContext context, int argc, Object arg1, Object arg2, Object arg3) {
+			ByteString s = stringArg(arg1);
+			if (s != null) {
+				context.getReturnBuffer().setTo(toUpperCase(s));
+				return true;
+			}
+			else {
+				return false;
+			}
+		}
+
 		@Override
 		protected void invoke(ExecutionContext context, ArgumentIterator args) throws ResolvedControlThrowable {
 			ByteString s = args.nextString();
@@ -276,7 +276,7 @@ public class DefaultTableLib extends TableLib {
 
 	}
 
-	public static class Insert extends AbstractLibFunction {
+	public static class Insert extends AbstractFixedArityLibFunction {
 
 		public static final Insert INSTANCE = new Insert();
 
@@ -333,6 +333,32 @@ public class DefaultTableLib extends TableLib {
 			t.rawset(pos, value);
 		}
 
+		@Override
+		protected boolean fastInvoke(ExecutionContext context, int argc, Object arg1, Object arg2, Object arg3) {
+			if (!(arg1 instanceof Table) || argc < 2 || (argc == 3 && !(arg2 instanceof Long))) {
+				return false;
+			}
+
+			Table t = (Table) arg1;
+			if (TableUtil.hasLenMetamethod(t) || TableUtil.hasIndexMetamethod(t) || TableUtil.hasNewIndexMetamethod(t)) {
+				return false;
+			}
+
+			long len = t.rawlen();
+
+			if (argc == 2) {
+				t.rawset(len + 1, arg2);
+			}
+			else {
+				long pos = ((Long) arg2).longValue();
+				checkValidPos(pos, len);
+				rawInsert(t, pos, len, arg3);
+			}
+
+			context.getReturnBuffer().setTo();
+			return true;
+		}
+
 		@Override
 		protected void invoke(ExecutionContext context, ArgumentIterator args) throws ResolvedControlThrowable {
 			Table t = args.nextTable();
@@ -667,7 +693,7 @@ public class DefaultTableLib extends TableLib {
 
 	}
 
-	public static class Remove extends AbstractLibFunction {
+	public static class Remove extends AbstractFixedArityLibFunction {
 
 		public static final Remove INSTANCE = new Remove();
 
@@ -740,6 +766,32 @@ public class DefaultTableLib extends TableLib {
 			return result;
 		}
 
+		@Override
+		protected boolean fastInvoke(ExecutionContext context, int argc, Object arg1, Object arg2, Object arg3) {
+			if (!(arg1 instanceof Table) || (arg2 != null && !(arg2 instanceof Long))) {
+				return false;
+			}
+
+			Table t = (Table) arg1;
+			if (TableUtil.hasLenMetamethod(t) || TableUtil.hasIndexMetamethod(t) || TableUtil.hasNewIndexMetamethod(t)) {
+				return false;
+			}
+
+			long len = t.rawlen();
+
+			final long pos;
+			if (arg2 != null) {
+				pos = ((Long) arg2).longValue();
+				checkValidPos(pos, len);
+			}
+			else {
+				pos = len;
+			}
+
+			context.getReturnBuffer().setTo(rawRemove(t, pos, len));
+			return true;
+		}
+
 		@Override
 		protected void invoke(ExecutionContext context, ArgumentIterator args) throws ResolvedControlThrowable {
 			Table t = args.nextTable();
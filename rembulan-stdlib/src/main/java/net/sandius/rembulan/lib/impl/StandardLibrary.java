@@ -41,17 +41,19 @@ public class StandardLibrary {
 
 	private final ChunkLoader loader;
 	private final boolean withDebug;
+	private final boolean threadedCoroutines;
 
 	private StandardLibrary(RuntimeEnvironment environment,
-							ChunkLoader loader, boolean withDebug) {
+							ChunkLoader loader, boolean withDebug, boolean threadedCoroutines) {
 
 		this.environment = Objects.requireNonNull(environment);
 		this.loader = loader;
 		this.withDebug = withDebug;
+		this.threadedCoroutines = threadedCoroutines;
 	}
 
 	private StandardLibrary(RuntimeEnvironment environment) {
-		this(environment, null, false);
+		this(environment, null, false, false);
 	}
 
 	/**
@@ -81,7 +83,7 @@ public class StandardLibrary {
 	 * @return  a configuration that uses {@code loader} as its chunk loader
 	 */
 	public StandardLibrary withLoader(ChunkLoader loader) {
-		return new StandardLibrary(environment, loader, withDebug);
+		return new StandardLibrary(environment, loader, withDebug, threadedCoroutines);
 	}
 
 	/**
@@ -94,7 +96,23 @@ public class StandardLibrary {
 	 */
 	public StandardLibrary withDebug(boolean hasDebug) {
 		return this.withDebug != hasDebug
-				? new StandardLibrary(environment, loader, hasDebug)
+				? new StandardLibrary(environment, loader, hasDebug, threadedCoroutines)
+				: this;
+	}
+
+	/**
+	 * Returns a configuration in which the Coroutine library creates threaded coroutines
+	 * iff {@code threaded} is {@code true}.
+	 *
+	 * @param threaded  boolean flag indicating whether to create threaded coroutines
+	 * @return  a configuration that creates threaded coroutines iff {@code threaded} is
+	 *          {@code true}
+	 *
+	 * @see net.sandius.rembulan.runtime.ThreadedCoroutines
+	 */
+	public StandardLibrary withThreadedCoroutines(boolean threaded) {
+		return this.threadedCoroutines != threaded
+				? new StandardLibrary(environment, loader, withDebug, threaded)
 				: this;
 	}
 
@@ -122,7 +140,7 @@ public class StandardLibrary {
 		new DefaultBasicLib(out != null ? new PrintStream(out) : null, loader, env).installInto(state, env);
 		ModuleLib moduleLib = new DefaultModuleLib(state, env);
 		moduleLib.installInto(state, env);
-		moduleLib.install(new DefaultCoroutineLib());
+		moduleLib.install(new DefaultCoroutineLib(threadedCoroutines));
 		moduleLib.install(new DefaultStringLib());
 		moduleLib.install(new DefaultMathLib());
 		moduleLib.install(new DefaultTableLib());
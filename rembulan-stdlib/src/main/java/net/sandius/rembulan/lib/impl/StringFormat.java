@@ -0,0 +1,752 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sandius.rembulan.lib.impl;
+
+import net.sandius.rembulan.ByteString;
+import net.sandius.rembulan.ByteStringBuilder;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A format string of {@code string.format}, parsed into a sequence of literal byte strings
+ * interleaved with conversion specifications.
+ *
+ * <p>The conversions of integers and floats write their results directly into
+ * a {@link ByteStringBuilder}. Floats are rounded like C's {@code printf} does it,
+ * i.e., by rounding the exact binary value of the argument to nearest, ties to even.
+ * Whenever the result cannot differ from that, the digits are computed using plain
+ * arithmetic on {@code double}s and {@code long}s.</p>
+ */
+final class StringFormat {
+
+	static final int FLAG_LEFT_JUSTIFY = 1 << 1;
+	static final int FLAG_SIGN_ALWAYS = 1 << 2;
+	static final int FLAG_SIGN_SPACE = 1 << 3;
+	static final int FLAG_ZERO_PAD = 1 << 4;
+	static final int FLAG_ALT_FORM = 1 << 5;
+
+	/**
+	 * A conversion specification.
+	 */
+	static final class Directive {
+
+		final byte conversion;  // 0 if the specification is invalid
+		final int flags;
+		final int width;  // -1 if not specified
+		final int precision;  // -1 if not specified
+		final String error;  // the error message if the specification is invalid
+
+		private Directive(byte conversion, int flags, int width, int precision, String error) {
+			this.conversion = conversion;
+			this.flags = flags;
+			this.width = width;
+			this.precision = precision;
+			this.error = error;
+		}
+
+		boolean hasFlag(int mask) {
+			return (flags & mask) != 0;
+		}
+
+	}
+
+	private final ByteString[] literals;  // literals[i] precedes directives[i]
+	private final Directive[] directives;
+
+	private StringFormat(ByteString[] literals, Directive[] directives) {
+		this.literals = literals;
+		this.directives = directives;
+	}
+
+	/**
+	 * Returns the number of conversion specifications in this format.
+	 */
+	int size() {
+		return directives.length;
+	}
+
+	/**
+	 * Returns the literal preceding the {@code index}-th conversion specification;
+	 * {@code literal(size())} is the literal following the last one.
+	 */
+	ByteString literal(int index) {
+		return literals[index];
+	}
+
+	Directive directive(int index) {
+		return directives[index];
+	}
+
+	/**
+	 * Parses the format string {@code fmt}.
+	 *
+	 * <p>An invalid conversion specification does not cause this method to fail:
+	 * it becomes the last directive of the result, with the error message
+	 * in {@link Directive#error}, so that the error is only reported once the formatting
+	 * actually reaches it.</p>
+	 *
+	 * @param fmt  the format string, must not be {@code null}
+	 * @return  the parsed format
+	 *
+	 * @throws NullPointerException  if {@code fmt} is {@code null}
+	 */
+	static StringFormat parse(ByteString fmt) {
+		List<ByteString> literals = new ArrayList<>();
+		List<Directive> directives = new ArrayList<>();
+
+		ByteStringBuilder literal = new ByteStringBuilder();
+		Parser parser = new Parser(fmt);
+
+		while (parser.index < fmt.length()) {
+			byte b = fmt.byteAt(parser.index++);
+
+			if (b != '%') {
+				literal.append(b);
+			}
+			else if (parser.index < fmt.length() && fmt.byteAt(parser.index) == '%') {
+				// literal '%'
+				literal.append(b);
+				parser.index += 1;
+			}
+			else {
+				literals.add(literal.toByteString());
+				literal.setLength(0);
+				directives.add(parser.directive());
+			}
+		}
+
+		literals.add(literal.toByteString());
+
+		return new StringFormat(
+				literals.toArray(new ByteString[literals.size()]),
+				directives.toArray(new Directive[directives.size()]));
+	}
+
+	private static final int CACHE_CAPACITY = 256;
+
+	private static final BoundedCache<ByteString, StringFormat> CACHE = new BoundedCache<>(CACHE_CAPACITY);
+
+	/**
+	 * Returns the parsed format string {@code fmt}, like {@link #parse(ByteString)}.
+	 * Recently used format strings are retained in a bounded cache shared by all threads.
+	 *
+	 * @param fmt  the format string, must not be {@code null}
+	 * @return  the parsed format
+	 *
+	 * @throws NullPointerException  if {@code fmt} is {@code null}
+	 */
+	static StringFormat compile(ByteString fmt) {
+		StringFormat result = CACHE.get(fmt);
+		if (result == null) {
+			result = parse(fmt);
+			CACHE.put(fmt, result);
+		}
+
+		return result;
+	}
+
+	static String optionToString(int c) {
+		if (Character.isLetterOrDigit((char) c)) {
+			return "%" + (char) c;
+		}
+		else {
+			return "%<\\" + c + ">";
+		}
+	}
+
+	private static class Parser {
+
+		private final ByteString fmt;
+		int index;
+
+		Parser(ByteString fmt) {
+			this.fmt = fmt;
+			this.index = 0;
+		}
+
+		private static IllegalArgumentException invalidOption(int c) {
+			return new IllegalArgumentException("invalid option '" + optionToString(c) + "' to 'format'");
+		}
+
+		private static IllegalArgumentException tooLong() {
+			return new IllegalArgumentException("illegal format (width or precision too long)");
+		}
+
+		private int next() {
+			if (index < fmt.length()) {
+				return fmt.byteAt(index++) & 0xff;
+			}
+			else {
+				throw invalidOption('\0');
+			}
+		}
+
+		private static int flag(int c) {
+			switch (c) {
+				case '-': return FLAG_LEFT_JUSTIFY;
+				case '+': return FLAG_SIGN_ALWAYS;
+				case ' ': return FLAG_SIGN_SPACE;
+				case '0': return FLAG_ZERO_PAD;
+				case '#': return FLAG_ALT_FORM;
+				default: return 0;
+			}
+		}
+
+		Directive directive() {
+			try {
+				int c = next();
+
+				int flags = 0;
+				for (int mask = flag(c); mask != 0; mask = flag(c)) {
+					if ((flags & mask) != 0) {
+						throw new IllegalArgumentException("illegal format (repeated flags)");
+					}
+					flags |= mask;
+					c = next();
+				}
+
+				int width = -1;
+				while (c >= '0' && c <= '9') {
+					width = Math.max(0, width) * 10 + (c - '0');
+					if (width >= 100) {
+						throw tooLong();
+					}
+					c = next();
+				}
+
+				int precision = -1;
+				if (c == '.') {
+					precision = 0;
+					c = next();
+					while (c >= '0' && c <= '9') {
+						precision = precision * 10 + (c - '0');
+						if (precision >= 100) {
+							throw tooLong();
+						}
+						c = next();
+					}
+				}
+
+				switch (c) {
+					case 'd': case 'i': case 'u': case 'o': case 'x': case 'X':
+					case 'c':
+					case 'a': case 'A': case 'e': case 'E': case 'f': case 'g': case 'G':
+					case 's': case 'q':
+						return new Directive((byte) c, flags, width, precision, null);
+
+					default:
+						throw invalidOption(c);
+				}
+			}
+			catch (IllegalArgumentException ex) {
+				// nothing after an invalid specification will ever be used
+				index = fmt.length();
+				return new Directive((byte) 0, 0, -1, -1, ex.getMessage());
+			}
+		}
+
+	}
+
+	private static final byte[] LOWER_DIGITS = {
+			'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'
+	};
+
+	private static final byte[] UPPER_DIGITS = {
+			'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'
+	};
+
+	private static final byte[] LOWER_NAN = { 'n', 'a', 'n' };
+	private static final byte[] UPPER_NAN = { 'N', 'A', 'N' };
+	private static final byte[] LOWER_INF = { 'i', 'n', 'f' };
+	private static final byte[] UPPER_INF = { 'I', 'N', 'F' };
+
+	// enough for a 64-bit integer in octal
+	private static final int MAX_INTEGER_DIGITS = 22;
+
+	private static byte positiveSign(Directive d) {
+		return d.hasFlag(FLAG_SIGN_ALWAYS)
+				? (byte) '+'
+				: (d.hasFlag(FLAG_SIGN_SPACE) ? (byte) ' ' : 0);
+	}
+
+	private static void fill(ByteStringBuilder bld, byte b, int count) {
+		for (int i = 0; i < count; i++) {
+			bld.append(b);
+		}
+	}
+
+	/**
+	 * Appends the field {@code sign radixMark zeros body} justified to the width
+	 * of {@code d}, where {@code sign} and {@code radixMark} are omitted when zero,
+	 * and {@code radixMark} is preceded by {@code '0'}. When {@code zeroPad} is
+	 * {@code true} and the field is right-justified, it is padded with zeros
+	 * inserted after the radix mark.
+	 */
+	private static void appendField(ByteStringBuilder bld, Directive d, boolean zeroPad,
+			byte sign, byte radixMark, int zeros, byte[] body, int from, int to) {
+
+		int length = (sign != 0 ? 1 : 0) + (radixMark != 0 ? 2 : 0) + zeros + (to - from);
+		int padding = Math.max(0, d.width - length);
+		boolean left = d.hasFlag(FLAG_LEFT_JUSTIFY);
+
+		if (!left && !zeroPad) fill(bld, (byte) ' ', padding);
+		if (sign != 0) bld.append(sign);
+		if (radixMark != 0) bld.append((byte) '0').append(radixMark);
+		if (!left && zeroPad) fill(bld, (byte) '0', padding);
+		fill(bld, (byte) '0', zeros);
+		bld.append(body, from, to - from);
+		if (left) fill(bld, (byte) ' ', padding);
+	}
+
+	/**
+	 * Appends the string {@code s} formatted according to the {@code %s} directive {@code d}.
+	 */
+	static void formatString(ByteStringBuilder bld, Directive d, ByteString s) {
+		if (d.precision >= 0 && s.length() > d.precision) {
+			s = s.substring(0, d.precision);
+		}
+
+		int padding = d.width - s.length();
+		boolean left = d.hasFlag(FLAG_LEFT_JUSTIFY);
+
+		if (!left) fill(bld, (byte) ' ', padding);
+		bld.append(s);
+		if (left) fill(bld, (byte) ' ', padding);
+	}
+
+	/**
+	 * Appends the byte {@code c} formatted according to the {@code %c} directive {@code d}.
+	 */
+	static void formatChar(ByteStringBuilder bld, Directive d, long c) {
+		appendField(bld, d, false, (byte) 0, (byte) 0, 0, new byte[] { (byte) c }, 0, 1);
+	}
+
+	// writes the digits of the unsigned value to the end of buf, returns the index of the first digit
+	private static int unsignedDecimalDigits(long value, byte[] buf) {
+		int idx = buf.length;
+		if (value < 0) {
+			// unsigned division by 10
+			long quot = (value >>> 1) / 5;
+			buf[--idx] = (byte) ('0' + (value - quot * 10));
+			value = quot;
+		}
+		do {
+			buf[--idx] = (byte) ('0' + (value % 10));
+			value /= 10;
+		} while (value != 0);
+		return idx;
+	}
+
+	// writes the digits of the unsigned value to the end of buf, returns the index of the first digit
+	private static int radixDigits(long value, int shift, byte[] digits, byte[] buf) {
+		int idx = buf.length;
+		long mask = (1L << shift) - 1;
+		do {
+			buf[--idx] = digits[(int) (value & mask)];
+			value >>>= shift;
+		} while (value != 0);
+		return idx;
+	}
+
+	/**
+	 * Appends the integer {@code value} formatted according to the directive {@code d},
+	 * which must be one of {@code %d}, {@code %i}, {@code %u}, {@code %o}, {@code %x}
+	 * or {@code %X}.
+	 */
+	static void formatInteger(ByteStringBuilder bld, Directive d, long value) {
+		byte[] buf = new byte[MAX_INTEGER_DIGITS];
+		byte sign = 0;
+		byte radixMark = 0;
+		int from;
+
+		switch (d.conversion) {
+			case 'd':
+			case 'i':
+				sign = value < 0 ? (byte) '-' : positiveSign(d);
+				// -Long.MIN_VALUE is Long.MIN_VALUE, which is correct when read as unsigned
+				from = unsignedDecimalDigits(value < 0 ? -value : value, buf);
+				break;
+
+			case 'u':
+				from = unsignedDecimalDigits(value, buf);
+				break;
+
+			case 'o':
+				from = radixDigits(value, 3, LOWER_DIGITS, buf);
+				break;
+
+			case 'x':
+			case 'X':
+				from = radixDigits(value, 4, d.conversion == 'X' ? UPPER_DIGITS : LOWER_DIGITS, buf);
+				if (value != 0 && d.hasFlag(FLAG_ALT_FORM)) {
+					radixMark = d.conversion;
+				}
+				break;
+
+			default:
+				throw new IllegalArgumentException("not an integer conversion: " + optionToString(d.conversion));
+		}
+
+		if (d.precision == 0 && value == 0) {
+			// zero with an explicit zero precision has no digits
+			from = buf.length;
+		}
+
+		int zeros = Math.max(0, d.precision - (buf.length - from));
+		if (d.conversion == 'o' && d.hasFlag(FLAG_ALT_FORM)
+				&& zeros == 0 && (from == buf.length || buf[from] != '0')) {
+			zeros = 1;
+		}
+
+		appendField(bld, d, d.precision < 0 && d.hasFlag(FLAG_ZERO_PAD),
+				sign, radixMark, zeros, buf, from, buf.length);
+	}
+
+	/**
+	 * Appends the float {@code value} formatted according to the directive {@code d},
+	 * which must be one of {@code %a}, {@code %A}, {@code %e}, {@code %E}, {@code %f},
+	 * {@code %g} or {@code %G}.
+	 */
+	static void formatFloat(ByteStringBuilder bld, Directive d, double value) {
+		boolean upper = d.conversion == 'A' || d.conversion == 'E' || d.conversion == 'G';
+
+		if (Double.isNaN(value)) {
+			byte[] body = upper ? UPPER_NAN : LOWER_NAN;
+			appendField(bld, d, false, (byte) 0, (byte) 0, 0, body, 0, body.length);
+			return;
+		}
+
+		byte sign = Double.doubleToRawLongBits(value) < 0 ? (byte) '-' : positiveSign(d);
+		double x = Math.abs(value);
+
+		if (Double.isInfinite(value)) {
+			byte[] body = upper ? UPPER_INF : LOWER_INF;
+			appendField(bld, d, false, sign, (byte) 0, 0, body, 0, body.length);
+			return;
+		}
+
+		boolean alt = d.hasFlag(FLAG_ALT_FORM);
+		byte radixMark = 0;
+		final byte[] body;
+
+		switch (d.conversion) {
+			case 'f':
+				body = fixed(x, d.precision >= 0 ? d.precision : 6, alt);
+				break;
+
+			case 'e':
+			case 'E':
+				body = exponential(x, d.precision >= 0 ? d.precision : 6, alt, upper);
+				break;
+
+			case 'g':
+			case 'G':
+				body = general(x, d.precision >= 0 ? Math.max(1, d.precision) : 6, alt, upper);
+				break;
+
+			case 'a':
+			case 'A':
+				body = hexadecimal(x, d.precision, alt, upper);
+				radixMark = upper ? (byte) 'X' : (byte) 'x';
+				break;
+
+			default:
+				throw new IllegalArgumentException("not a float conversion: " + optionToString(d.conversion));
+		}
+
+		appendField(bld, d, d.hasFlag(FLAG_ZERO_PAD), sign, radixMark, 0, body, 0, body.length);
+	}
+
+	// the powers of ten that are exactly representable as doubles
+	private static final double[] EXACT_POWERS_OF_TEN = {
+			1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+			1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+
+	private static final long[] POWERS_OF_TEN = {
+			1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L,
+			1000000000L, 10000000000L, 100000000000L, 1000000000000L, 10000000000000L,
+			100000000000000L, 1000000000000000L, 10000000000000000L, 100000000000000000L,
+			1000000000000000000L
+	};
+
+	private static final double TWO_TO_52 = 4503599627370496.0;
+
+	/**
+	 * Returns {@code x * 10^n} rounded to the nearest integer, where {@code x} is non-negative
+	 * and finite, or {@code -1} if this cannot be determined cheaply.
+	 *
+	 * <p>The product is computed with a single rounding, and so it is within half an ulp
+	 * of the exact value. The result is therefore only returned when the product is more
+	 * than an ulp away from the nearest midpoint between two integers, in which case
+	 * the exact value rounds to the same integer (and cannot be a tie).</p>
+	 */
+	private static long roundScaled(double x, int n) {
+		if (n < 0 || n >= EXACT_POWERS_OF_TEN.length) {
+			return -1;
+		}
+
+		double y = x * EXACT_POWERS_OF_TEN[n];
+		if (!(y < TWO_TO_52)) {
+			return -1;
+		}
+
+		double floor = Math.floor(y);
+		double frac = y - floor;
+		if (Math.abs(frac - 0.5) <= Math.ulp(y)) {
+			return -1;
+		}
+
+		return (long) floor + (frac > 0.5 ? 1 : 0);
+	}
+
+	private static byte[] digitsOf(long value) {
+		int n = 1;
+		for (long v = value; v >= 10; v /= 10) {
+			n += 1;
+		}
+
+		byte[] digits = new byte[n];
+		for (int i = n - 1; i >= 0; i--) {
+			digits[i] = (byte) ('0' + (value % 10));
+			value /= 10;
+		}
+		return digits;
+	}
+
+	private static byte[] digitsOf(String s, int minLength) {
+		byte[] digits = new byte[Math.max(s.length(), minLength)];
+		for (int i = 0; i < digits.length; i++) {
+			digits[i] = i < s.length() ? (byte) s.charAt(i) : (byte) '0';
+		}
+		return digits;
+	}
+
+	/**
+	 * The first {@code digits.length} significant decimal digits of a number
+	 * {@code d.ddd... * 10^exponent}.
+	 */
+	private static class Decimal {
+
+		final byte[] digits;
+		final int exponent;
+
+		Decimal(byte[] digits, int exponent) {
+			this.digits = digits;
+			this.exponent = exponent;
+		}
+
+	}
+
+	// x is non-negative and finite, p is positive
+	private static Decimal significantDigits(double x, int p) {
+		if (x == 0.0) {
+			return new Decimal(digitsOf("", p), 0);
+		}
+
+		if (p < POWERS_OF_TEN.length) {
+			int exp = (int) Math.floor(Math.log10(x));
+			// the estimate may be off by one, and rounding may carry into a new digit
+			for (int attempt = 0; attempt < 3; attempt++) {
+				long q = roundScaled(x, p - 1 - exp);
+				if (q < 0) {
+					break;
+				}
+				else if (q >= POWERS_OF_TEN[p]) {
+					exp += 1;
+				}
+				else if (q < POWERS_OF_TEN[p - 1]) {
+					exp -= 1;
+				}
+				else {
+					return new Decimal(digitsOf(q), exp);
+				}
+			}
+		}
+
+		// round the exact value of x, ties to even
+		BigDecimal rounded = new BigDecimal(x).round(new MathContext(p, RoundingMode.HALF_EVEN));
+		String unscaled = rounded.unscaledValue().toString();
+		return new Decimal(digitsOf(unscaled, p), unscaled.length() - 1 - rounded.scale());
+	}
+
+	/**
+	 * Returns the digits {@code digits} with a decimal point inserted after the first
+	 * {@code point} of them, followed by {@code fraction} digits. The digits before
+	 * the beginning or after the end of {@code digits} are zeros.
+	 */
+	private static byte[] fixed(byte[] digits, int point, int fraction, boolean alt) {
+		boolean hasPoint = fraction > 0 || alt;
+		byte[] body = new byte[Math.max(point, 1) + (hasPoint ? 1 : 0) + fraction];
+
+		int idx = 0;
+		if (point > 0) {
+			System.arraycopy(digits, 0, body, 0, point);
+			idx = point;
+		}
+		else {
+			body[idx++] = '0';
+		}
+
+		if (hasPoint) {
+			body[idx++] = '.';
+		}
+
+		for (int i = point; i < point + fraction; i++) {
+			body[idx++] = i >= 0 && i < digits.length ? digits[i] : (byte) '0';
+		}
+
+		return body;
+	}
+
+	/**
+	 * Returns the first {@code length} digits of {@code digits} in the form
+	 * {@code d.ddd}, followed by the exponent {@code exponent} written with a sign
+	 * and at least two digits.
+	 */
+	private static byte[] exponential(byte[] digits, int length, int exponent, boolean alt, boolean upper) {
+		boolean hasPoint = length > 1 || alt;
+		int absExponent = Math.abs(exponent);
+		int exponentLength = absExponent < 100 ? 2 : 3;
+
+		byte[] body = new byte[length + (hasPoint ? 1 : 0) + 2 + exponentLength];
+
+		int idx = 0;
+		body[idx++] = digits[0];
+		if (hasPoint) {
+			body[idx++] = '.';
+		}
+		System.arraycopy(digits, 1, body, idx, length - 1);
+		idx += length - 1;
+
+		body[idx++] = upper ? (byte) 'E' : (byte) 'e';
+		body[idx++] = exponent < 0 ? (byte) '-' : (byte) '+';
+		for (int i = body.length - 1; i >= idx; i--) {
+			body[i] = (byte) ('0' + (absExponent % 10));
+			absExponent /= 10;
+		}
+
+		return body;
+	}
+
+	// %f
+	private static byte[] fixed(double x, int precision, boolean alt) {
+		long q = roundScaled(x, precision);
+		byte[] digits = q >= 0
+				? digitsOf(q)
+				: digitsOf(new BigDecimal(x).setScale(precision, RoundingMode.HALF_EVEN).unscaledValue().toString(), 0);
+		return fixed(digits, digits.length - precision, precision, alt);
+	}
+
+	// %e
+	private static byte[] exponential(double x, int precision, boolean alt, boolean upper) {
+		Decimal dec = significantDigits(x, precision + 1);
+		return exponential(dec.digits, precision + 1, dec.exponent, alt, upper);
+	}
+
+	// %g
+	private static byte[] general(double x, int precision, boolean alt, boolean upper) {
+		Decimal dec = significantDigits(x, precision);
+
+		int length = precision;
+		if (!alt) {
+			// trailing zeros are removed
+			while (length > 1 && dec.digits[length - 1] == '0') {
+				length -= 1;
+			}
+		}
+
+		if (dec.exponent < -4 || dec.exponent >= precision) {
+			return exponential(dec.digits, length, dec.exponent, alt, upper);
+		}
+		else {
+			int point = dec.exponent + 1;
+			int fraction = alt ? precision - point : Math.max(0, length - point);
+			return fixed(dec.digits, point, fraction, alt);
+		}
+	}
+
+	// %a, without the leading "0x"
+	private static byte[] hexadecimal(double x, int precision, boolean alt, boolean upper) {
+		long bits = Double.doubleToRawLongBits(x);
+		int biasedExponent = (int) ((bits >>> 52) & 0x7ff);
+		long fraction = bits & ((1L << 52) - 1);
+
+		int lead = biasedExponent != 0 ? 1 : 0;
+		int exponent = biasedExponent != 0
+				? biasedExponent - 1023
+				: (fraction != 0 ? -1022 : 0);
+
+		int fractionDigits = 13;
+		if (precision < 0) {
+			// as many digits as needed
+			while (fractionDigits > 0 && (fraction & 0xf) == 0) {
+				fraction >>>= 4;
+				fractionDigits -= 1;
+			}
+		}
+		else if (precision < fractionDigits) {
+			// round to nearest, ties to even
+			int shift = 4 * (fractionDigits - precision);
+			long rest = fraction & ((1L << shift) - 1);
+			long half = 1L << (shift - 1);
+			fraction >>>= shift;
+			// with no fraction digits left, the last digit is the leading one
+			long last = precision > 0 ? fraction : lead;
+			if (rest > half || (rest == half && (last & 1) != 0)) {
+				fraction += 1;
+				if ((fraction >>> (4 * precision)) != 0) {
+					// carry into the leading digit
+					lead += 1;
+					fraction = 0;
+				}
+			}
+			fractionDigits = precision;
+		}
+
+		int trailingZeros = Math.max(0, precision - fractionDigits);
+		boolean hasPoint = fractionDigits + trailingZeros > 0 || alt;
+		String exponentString = Integer.toString(Math.abs(exponent));
+
+		byte[] body = new byte[1 + (hasPoint ? 1 : 0) + fractionDigits + trailingZeros + 2 + exponentString.length()];
+		byte[] hexDigits = upper ? UPPER_DIGITS : LOWER_DIGITS;
+
+		int idx = 0;
+		body[idx++] = hexDigits[lead];
+		if (hasPoint) {
+			body[idx++] = '.';
+		}
+		for (int i = fractionDigits - 1; i >= 0; i--) {
+			body[idx++] = hexDigits[(int) ((fraction >>> (4 * i)) & 0xf)];
+		}
+		for (int i = 0; i < trailingZeros; i++) {
+			body[idx++] = '0';
+		}
+		body[idx++] = upper ? (byte) 'P' : (byte) 'p';
+		body[idx++] = exponent < 0 ? (byte) '-' : (byte) '+';
+		for (int i = 0; i < exponentString.length(); i++) {
+			body[idx++] = (byte) exponentString.charAt(i);
+		}
+
+		return body;
+	}
+
+}
@@ -43,14 +43,15 @@
 
 package net.sandius.rembulan.lib.impl;
 
+import net.sandius.rembulan.ByteString;
 import net.sandius.rembulan.lib.StringLib;
 import net.sandius.rembulan.util.Check;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Objects;
 import java.util.Set;
 
 /**
@@ -111,6 +112,8 @@ import java.util.Set;
  *
  * The definitions of letter, space, and other character groups depend on the current locale.
  * In particular, the class {@code [a-z]} may not be equivalent to {@code %l}.
+ * (Rembulan matches patterns against the bytes of the subject string and always
+ * uses the definitions of the C locale.)
  *
  * <h2>Pattern Item:</h2>
  *
@@ -167,78 +170,416 @@ import java.util.Set;
  */
 public class StringPattern {
 
-	private final List<PI> items;
+	private final PI[] items;
+	private final boolean anchored;
 	private final int numCaptures;
 
+	// the bytes a match may begin with, or null if not known
+	private final boolean[] firstBytes;
+
+	// the leading sequence of character classes, or null
+	private final PI_ccseq prefix;
+
 	private StringPattern(
-			List<PI> items,
+			PI[] items,
+			boolean anchored,
 			int numCaptures) {
 
 		this.items = Check.notNull(items);
+		this.anchored = anchored;
 		this.numCaptures = Check.nonNegative(numCaptures);
+		this.firstBytes = firstBytes(items);
+		this.prefix = items.length > 0 && items[0] instanceof PI_ccseq ? (PI_ccseq) items[0] : null;
+	}
+
+	private static boolean[] firstBytes(PI[] items) {
+		for (PI pi : items) {
+			if (pi instanceof PI_capture_begin || pi instanceof PI_capture_pos) {
+				// zero-width
+				continue;
+			}
+
+			final CC ccl;
+			if (pi instanceof PI_cc && (((PI_cc) pi).mod == Repeat.EXACTLY_ONCE || ((PI_cc) pi).mod == Repeat.ONE_OR_MORE)) {
+				ccl = ((PI_cc) pi).ccl;
+			}
+			else if (pi instanceof PI_ccseq) {
+				ccl = ((PI_ccseq) pi).ccls[0];
+			}
+			else if (pi instanceof PI_balanced) {
+				ccl = new CC_lit(((PI_balanced) pi).first);
+			}
+			else {
+				// may match the empty string
+				return null;
+			}
+
+			boolean[] result = new boolean[256];
+			for (int c = 0; c < result.length; c++) {
+				result[c] = ccl.matches(c);
+			}
+			return result;
+		}
+
+		return null;
 	}
 
 	private static final String MAGIC_CHARS = "^$()%.[]*+-?";
-	private static final String PUNCTUATION_CHARS = ".,;:?!";
 
-	private static boolean isMagic(char c) {
-		return MAGIC_CHARS.indexOf(c) != -1;
+	private static boolean isMagic(int c) {
+		return c >= 0 && MAGIC_CHARS.indexOf(c) != -1;
+	}
+
+	/**
+	 * Returns {@code true} if this pattern is anchored at the beginning of the subject,
+	 * i.e., if it only matches at the initial position of the search.
+	 *
+	 * @return  {@code true} if this pattern is anchored
+	 */
+	public boolean isAnchored() {
+		return anchored;
+	}
+
+	/**
+	 * Returns the number of captures in this pattern.
+	 *
+	 * @return  the number of captures in this pattern
+	 */
+	public int numCaptures() {
+		return numCaptures;
+	}
+
+	/**
+	 * Returns a new matcher of this pattern against the string {@code subject}.
+	 *
+	 * @param subject  the subject string, must not be {@code null}
+	 * @return  a new matcher of this pattern against {@code subject}
+	 *
+	 * @throws NullPointerException  if {@code subject} is {@code null}
+	 */
+	public Matcher matcher(ByteString subject) {
+		return new Matcher(this, subject);
 	}
 
-	public static class Match {
+	/**
+	 * A matcher of a pattern against a subject string.
+	 *
+	 * <p>The matcher works directly on the bytes of the subject, and records the result
+	 * of the last successful search as offsets into the subject: substrings are only
+	 * created when requested (e.g. by {@link #fullMatch()} or {@link #capture(int)}).
+	 * Backtracking does not use the Java stack: the alternatives still to be tried
+	 * are kept on a stack of ints owned by the matcher, so the depth of a match is
+	 * not limited by the size of the thread stack. The same matcher may be used
+	 * for any number of searches.</p>
+	 *
+	 * <p>Matchers are not thread-safe.</p>
+	 */
+	public static class Matcher {
+
+		private static final int CAP_UNFINISHED = -1;
+		private static final int CAP_POSITION = -2;
+
+		private final StringPattern pattern;
+		private final ByteString subject;
+		private final int length;  // the length of the subject
 
-		private final String originalString;
-		private final int beginIndex;
-		private final int endIndex;
-		private final List<Object> captures;
+		private final int[] capBegin;
+		private final int[] capLength;  // or CAP_UNFINISHED or CAP_POSITION
+
+		// the backtracking stack: frames of FRAME_SIZE ints, the first being the index
+		// of the pattern item that pushed the frame
+		private static final int FRAME_SIZE = 3;
+		private final int[] stack;
+		private int sp;
+
+		private int beginIndex;
+		private int endIndex;
 
-		protected Match(String originalString, int beginIndex, int endIndex, List<Object> captures) {
-			this.originalString = Check.notNull(originalString);
-			this.beginIndex = beginIndex;
-			this.endIndex = endIndex;
-			this.captures = Check.notNull(captures);
+		Matcher(StringPattern pattern, ByteString subject) {
+			this.pattern = Check.notNull(pattern);
+			this.subject = Check.notNull(subject);
+			this.length = subject.length();
+			this.capBegin = new int[pattern.numCaptures];
+			this.capLength = new int[pattern.numCaptures];
+			// every item pushes at most one frame on the path leading to the current item
+			this.stack = new int[pattern.items.length * FRAME_SIZE];
+			this.sp = 0;
+			this.beginIndex = -1;
+			this.endIndex = -1;
+		}
+
+		/**
+		 * Returns the pattern of this matcher.
+		 *
+		 * @return  the pattern of this matcher
+		 */
+		public StringPattern pattern() {
+			return pattern;
+		}
+
+		/**
+		 * Returns the subject string of this matcher.
+		 *
+		 * @return  the subject string of this matcher
+		 */
+		public ByteString subject() {
+			return subject;
+		}
+
+		/**
+		 * Searches for the first match of the pattern in the subject starting
+		 * at the (0-based) index {@code fromIndex} or later. If the pattern is anchored,
+		 * only a match starting at {@code fromIndex} is considered.
+		 *
+		 * @param fromIndex  the index to start the search at
+		 * @return  {@code true} if a match has been found
+		 */
+		public boolean find(int fromIndex) {
+			if (pattern.prefix != null && !pattern.anchored) {
+				return findWithPrefix(fromIndex, pattern.prefix);
+			}
+
+			boolean[] firstBytes = pattern.anchored ? null : pattern.firstBytes;
+
+			// iterate one character beyond the last one: empty matches succeed at EOS
+			int idx = fromIndex;
+			while (idx >= 0 && idx <= length) {
+				if (firstBytes != null) {
+					// skip the positions where no match may begin
+					while (idx < length && !firstBytes[subject.byteAt(idx) & 0xff]) {
+						idx++;
+					}
+					if (idx == length) {
+						break;
+					}
+				}
+
+				int end = match(idx, 0);
+				if (end != NO_MATCH) {
+					// got a match
+					beginIndex = idx;
+					endIndex = end;
+					return true;
+				}
+				else if (pattern.anchored) {
+					break;
+				}
+				else {
+					// no match: skip the first character and try again
+					idx += 1;
+				}
+			}
+
+			// no match
+			beginIndex = -1;
+			endIndex = -1;
+			return false;
 		}
 
-		public String originalString() {
-			return originalString;
+		// like find, but the candidate positions are tested against the leading sequence
+		// of character classes directly
+		private boolean findWithPrefix(int fromIndex, PI_ccseq prefix) {
+			boolean[][] tables = prefix.tables;
+			boolean[] first = tables[0];
+			int n = tables.length;
+			int last = length - n;
+
+			outer:
+			for (int idx = fromIndex; idx >= 0 && idx <= last; idx++) {
+				if (!first[subject.byteAt(idx) & 0xff]) {
+					continue;
+				}
+				for (int i = 1; i < n; i++) {
+					if (!tables[i][subject.byteAt(idx + i) & 0xff]) {
+						continue outer;
+					}
+				}
+
+				int end = match(idx + n, 1);
+				if (end != NO_MATCH) {
+					beginIndex = idx;
+					endIndex = end;
+					return true;
+				}
+			}
+
+			// no match
+			beginIndex = -1;
+			endIndex = -1;
+			return false;
+		}
+
+		private void checkMatched() {
+			if (beginIndex < 0) {
+				throw new IllegalStateException("No match");
+			}
 		}
 
+		/**
+		 * Returns the (0-based) index of the beginning of the last match.
+		 *
+		 * @return  the index of the beginning of the last match
+		 *
+		 * @throws IllegalStateException  if the last search did not succeed
+		 */
 		public int beginIndex() {
+			checkMatched();
 			return beginIndex;
 		}
 
+		/**
+		 * Returns the (0-based) index immediately following the end of the last match.
+		 *
+		 * @return  the index following the end of the last match
+		 *
+		 * @throws IllegalStateException  if the last search did not succeed
+		 */
 		public int endIndex() {
+			checkMatched();
 			return endIndex;
 		}
 
-		public String fullMatch() {
-			return originalString.substring(beginIndex, endIndex);
-		}
-
-		public List<Object> captures() {
-			return captures;
-		}
-
-	}
+		/**
+		 * Returns the substring of the subject matched in the last search.
+		 *
+		 * @return  the last match
+		 *
+		 * @throws IllegalStateException  if the last search did not succeed
+		 */
+		public ByteString fullMatch() {
+			checkMatched();
+			return subject.substring(beginIndex, endIndex);
+		}
+
+		/**
+		 * Returns the number of captures.
+		 *
+		 * @return  the number of captures
+		 */
+		public int captureCount() {
+			return capBegin.length;
+		}
+
+		/**
+		 * Returns {@code true} if the capture {@code i} (0-based) is a position capture
+		 * (i.e., an empty capture {@code ()}).
+		 *
+		 * @param i  the capture index
+		 * @return  {@code true} if the capture {@code i} is a position capture
+		 *
+		 * @throws IllegalStateException  if the last search did not succeed
+		 * @throws IndexOutOfBoundsException  if {@code i} is not a valid capture index
+		 */
+		public boolean isPositionCapture(int i) {
+			checkMatched();
+			return capLength[i] == CAP_POSITION;
+		}
+
+		/**
+		 * Returns the (0-based) index of the beginning of the capture {@code i} (0-based)
+		 * in the last match.
+		 *
+		 * @param i  the capture index
+		 * @return  the index of the beginning of the capture {@code i}
+		 *
+		 * @throws IllegalStateException  if the last search did not succeed
+		 * @throws IndexOutOfBoundsException  if {@code i} is not a valid capture index
+		 */
+		public int captureBegin(int i) {
+			checkMatched();
+			return capBegin[i];
+		}
+
+		/**
+		 * Returns the (0-based) index immediately following the end of the capture {@code i}
+		 * (0-based) in the last match. For position captures, this is equal to
+		 * {@link #captureBegin(int)}.
+		 *
+		 * @param i  the capture index
+		 * @return  the index following the end of the capture {@code i}
+		 *
+		 * @throws IllegalStateException  if the last search did not succeed
+		 * @throws IndexOutOfBoundsException  if {@code i} is not a valid capture index
+		 */
+		public int captureEnd(int i) {
+			checkMatched();
+			return capLength[i] == CAP_POSITION ? capBegin[i] : capBegin[i] + capLength[i];
+		}
+
+		/**
+		 * Returns the value of the capture {@code i} (0-based) in the last match:
+		 * the captured substring, or the (1-based) position as a {@code Long}
+		 * for position captures.
+		 *
+		 * @param i  the capture index
+		 * @return  the value of the capture {@code i}
+		 *
+		 * @throws IllegalStateException  if the last search did not succeed
+		 * @throws IndexOutOfBoundsException  if {@code i} is not a valid capture index
+		 */
+		public Object capture(int i) {
+			checkMatched();
+			return capLength[i] == CAP_POSITION
+					? (Object) Long.valueOf(capBegin[i] + 1)
+					: subject.substring(capBegin[i], capBegin[i] + capLength[i]);
+		}
+
+		/**
+		 * Returns the values of all captures in the last match in a new array.
+		 *
+		 * @return  the values of all captures
+		 *
+		 * @throws IllegalStateException  if the last search did not succeed
+		 *
+		 * @see #capture(int)
+		 */
+		public Object[] captures() {
+			Object[] result = new Object[captureCount()];
+			for (int i = 0; i < result.length; i++) {
+				result[i] = capture(i);
+			}
+			return result;
+		}
+
+		private int peek(int idx) {
+			return idx < length ? subject.byteAt(idx) & 0xff : -1;
+		}
+
+		// pushes a backtracking frame for the item piIdx
+		private void push(int piIdx, int a, int b) {
+			stack[sp] = piIdx;
+			stack[sp + 1] = a;
+			stack[sp + 2] = b;
+			sp += FRAME_SIZE;
+		}
+
+		// match the pattern items starting with piIdx at strIdx
+		private int match(int strIdx, int piIdx) {
+			PI[] items = pattern.items;
+			sp = 0;
+
+			while (piIdx < items.length) {
+				int nxt = items[piIdx].match(this, strIdx, piIdx);
+
+				// on failure, resume from the most recent alternative
+				while (nxt == NO_MATCH) {
+					if (sp == 0) {
+						return NO_MATCH;
+					}
+					sp -= FRAME_SIZE;
+					piIdx = stack[sp];
+					nxt = items[piIdx].retry(this, stack[sp + 1], stack[sp + 2], piIdx);
+				}
 
-	// returns null to signal no-match
-	public Match match(String s, int fromIndex) {
-		// iterate one character beyond the last one: empty matches succeed at EOS
-		while (fromIndex >= 0 && fromIndex <= s.length()) {
-			MatchState ms = new MatchState(items, s, fromIndex);
-			int result = ms.start();
-			if (result != NO_MATCH) {
-				// got a match
-				return new Match(s, fromIndex, result, Collections.unmodifiableList(Arrays.asList(ms.cap)));
-			}
-			else {
-				// no match: skip the first character and try again
-				fromIndex += 1;
+				strIdx = nxt;
+				piIdx += 1;
 			}
+
+			// matched: discard the remaining alternatives
+			sp = 0;
+			return strIdx;
 		}
 
-		// no match
-		return null;
 	}
 
 	static class CharacterSet {
@@ -258,7 +599,7 @@ public class StringPattern {
 			return bld.toString();
 		}
 
-		public boolean matches(char c) {
+		public boolean matches(int c) {
 			for (SetElement elem : elements) {
 				if (elem.matches(c)) {
 					return true;
@@ -269,27 +610,27 @@ public class StringPattern {
 
 		static abstract class SetElement {
 
-			public abstract boolean matches(char c);
+			public abstract boolean matches(int c);
 
 		}
 
 		static class RangeSetElement extends SetElement {
 
-			private final char min;
-			private final char max;
+			private final int min;
+			private final int max;
 
-			RangeSetElement(char min, char max) {
+			RangeSetElement(int min, int max) {
 				this.min = min;
 				this.max = max;
 			}
 
 			@Override
 			public String toString() {
-				return min + "-" + max;
+				return (char) min + "-" + (char) max;
 			}
 
 			@Override
-			public boolean matches(char c) {
+			public boolean matches(int c) {
 				return c >= min && c <= max;
 			}
 
@@ -309,7 +650,7 @@ public class StringPattern {
 			}
 
 			@Override
-			public boolean matches(char c) {
+			public boolean matches(int c) {
 				return ccl.matches(c);
 			}
 
@@ -317,6 +658,7 @@ public class StringPattern {
 
 	}
 
+	// c is an unsigned byte value, or -1 for end of string
 	static abstract class CC {
 
 		public abstract boolean matches(int c);
@@ -325,20 +667,20 @@ public class StringPattern {
 
 	static class CC_lit extends CC {
 
-		private final char ch;
+		private final int ch;
 
-		CC_lit(char ch) {
+		CC_lit(int ch) {
 			this.ch = ch;
 		}
 
 		@Override
 		public String toString() {
-			return (isMagic(ch) ? "%" : "") + Character.toString(ch);
+			return (isMagic(ch) ? "%" : "") + Character.toString((char) ch);
 		}
 
 		@Override
 		public boolean matches(int c) {
-			return c >= 0 && ch == (char) c;
+			return ch == c;
 		}
 
 	}
@@ -387,45 +729,39 @@ public class StringPattern {
 			return complement ? s.toUpperCase() : s;
 		}
 
+		private static boolean isLower(int c) {
+			return c >= 'a' && c <= 'z';
+		}
+
+		private static boolean isUpper(int c) {
+			return c >= 'A' && c <= 'Z';
+		}
+
+		private static boolean isDigit(int c) {
+			return c >= '0' && c <= '9';
+		}
+
+		// true iff c is a member of the class desc in the C locale
+		private static boolean isMember(ClassDesc desc, int c) {
+			switch (desc) {
+				case ALL: return true;
+				case LETTERS: return isLower(c) || isUpper(c);
+				case LOWERCASE_LETTERS: return isLower(c);
+				case UPPERCASE_LETTERS: return isUpper(c);
+				case DECIMAL_DIGITS: return isDigit(c);
+				case HEXADECIMAL_DIGITS: return isDigit(c) || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+				case ALPHANUMERIC: return isLower(c) || isUpper(c) || isDigit(c);
+				case SPACE: return c == ' ' || (c >= '\t' && c <= '\r');
+				case CONTROL_CHARS: return c < 0x20 || c == 0x7f;
+				case PUNCTUATION: return c > 0x20 && c < 0x7f && !(isLower(c) || isUpper(c) || isDigit(c));
+				case PRINTABLE_EXCEPT_SPACE: return c > 0x20 && c < 0x7f;
+				default: throw new IllegalStateException();
+			}
+		}
+
 		@Override
 		public boolean matches(int c) {
-			if (c >= 0) {
-				if (desc == ClassDesc.ALL) {
-					return true;
-				}
-				else {
-					char ch = (char) c;
-					switch (desc) {
-						case LETTERS:
-							return complement != Character.isLetter(ch);
-						case LOWERCASE_LETTERS:
-							return complement != (Character.isLetter(ch) && Character.isLowerCase(ch));
-						case UPPERCASE_LETTERS:
-							return complement != (Character.isLetter(ch) && Character.isUpperCase(ch));
-						case DECIMAL_DIGITS:
-							return complement != (ch >= '0' && ch <= '9');
-						case HEXADECIMAL_DIGITS:
-							return complement != ((ch >= '0' && ch <= '9') || (ch >= 'a' && ch <= 'f') || (ch >= 'A' && ch <= 'F'));
-						case ALPHANUMERIC: {
-							char lc = Character.toLowerCase(ch);
-							return complement != ((lc >= '0' && lc <= '9') || (lc >= 'a' && lc <= 'z'));
-						}
-						case SPACE:
-							return complement != Character.isWhitespace(ch);
-						case CONTROL_CHARS:
-							return complement != Character.isISOControl(ch);
-						case PUNCTUATION:
-							return complement != (PUNCTUATION_CHARS.indexOf(ch) != -1);
-						case PRINTABLE_EXCEPT_SPACE:
-							return complement != (!Character.isISOControl(ch) && ch != ' ');
-
-						default: throw new IllegalStateException();
-					}
-				}
-			}
-			else {
-				return false;
-			}
+			return c >= 0 && complement != isMember(desc, c);
 		}
 
 	}
@@ -435,9 +771,17 @@ public class StringPattern {
 		private final CharacterSet cs;
 		private final boolean complement;
 
+		// membership of all byte values, with the complement applied
+		private final boolean[] table;
+
 		CC_set(CharacterSet cs, boolean complement) {
 			this.cs = Check.notNull(cs);
 			this.complement = complement;
+
+			this.table = new boolean[256];
+			for (int c = 0; c < table.length; c++) {
+				table[c] = complement != cs.matches(c);
+			}
 		}
 
 		@Override
@@ -447,7 +791,7 @@ public class StringPattern {
 
 		@Override
 		public boolean matches(int c) {
-			return c >= 0 && complement != cs.matches((char) c);
+			return c >= 0 && table[c];
 		}
 
 	}
@@ -473,100 +817,27 @@ public class StringPattern {
 
 	}
 
-	class MatchState {
-		private final int piIdx;
-		private final List<PI> pis;
-		private final String str;
-		private final int strIdx;
-		private final int[] capBegin;
-		private final Object[] cap;
-
-		MatchState(int piIdx, List<PI> pis, String str, int strIdx, int[] capBegin, Object[] cap) {
-			this.piIdx = piIdx;
-			this.pis = pis;
-			this.str = str;
-			this.strIdx = strIdx;
-			this.capBegin = capBegin;
-			this.cap = cap;
-		}
-
-		MatchState(List<PI> pis, String str, int strIdx) {
-			this(0, pis, str, strIdx, new int[numCaptures], new Object[numCaptures]);
-		}
-
-		private PI pi() {
-			return pis.get(piIdx);
-		}
-
-		private MatchState nextState(int strIdx) {
-			if (piIdx + 1 < pis.size()) {
-				return new MatchState(piIdx + 1, pis, str, strIdx, capBegin, cap);
-			}
-			else {
-				return null;
-			}
-		}
-
-		public int start() {
-			if (pis.isEmpty()) {
-				return strIdx;
-			}
-			else {
-				PI pi = pis.get(0);
-				return pi.match(this);
-			}
-		}
-
-		public int next(int strIdx) {
-			MatchState ms = nextState(strIdx);
-			if (ms != null) {
-				return ms.pi().match(ms);
-			}
-			else {
-				return strIdx;
-			}
-		}
+	static abstract class PI {
 
-		public int peek(int pos) {
-			return pos >= 0 && pos < str.length() ? str.charAt(pos) : -1;
-		}
+		// match this item (at index piIdx in the pattern) at strIdx in m; returns
+		// the index following the matched part, or NO_MATCH. Items that may match
+		// in more than one way push a frame with the state of the alternatives
+		// onto the backtracking stack of m
+		public abstract int match(Matcher m, int strIdx, int piIdx);
 
-		public int peek() {
-			return peek(strIdx);
+		// try the next alternative recorded in the frame (a, b) popped off the stack
+		// of m; returns the index following the matched part, or NO_MATCH
+		public int retry(Matcher m, int a, int b, int piIdx) {
+			// no alternatives
+			throw new IllegalStateException();
 		}
 
 	}
 
-	static abstract class PI {
-
-		public abstract int match(MatchState ms);
-
-	}
-
 	private static final int NO_MATCH = -1;
 
-	private static final PI_begin PI_BEGIN = new PI_begin();
 	private static final PI_eos PI_EOS = new PI_eos();
 
-	static class PI_begin extends PI {
-
-		@Override
-		public String toString() {
-			return "^";
-		}
-
-		@Override
-		public int match(MatchState ms) {
-			if (ms.strIdx == 0) {
-				return ms.next(ms.strIdx);
-			}
-			else {
-				return NO_MATCH;
-			}
-		}
-
-	}
-
 	static class PI_eos extends PI {
 
 		@Override
@@ -575,13 +846,8 @@ public class StringPattern {
 		}
 
 		@Override
-		public int match(MatchState ms) {
-			if (ms.strIdx == ms.str.length() - 1) {
-				return ms.next(ms.strIdx);
-			}
-			else {
-				return NO_MATCH;
-			}
+		public int match(Matcher m, int strIdx, int piIdx) {
+			return strIdx == m.length ? strIdx : NO_MATCH;
 		}
 
 	}
@@ -601,109 +867,138 @@ public class StringPattern {
 			return ccl.toString() + mod.toString();
 		}
 
+		// match as many characters as possible, leaving the shorter runs as alternatives
+		private int maxExpand(Matcher m, int min, int piIdx) {
+			int max = min;
+			while (ccl.matches(m.peek(max))) {
+				max++;
+			}
+
+			if (max > min) {
+				m.push(piIdx, max - 1, min);
+			}
+			return max;
+		}
+
+		// match as few characters as possible, leaving the longer runs as alternatives
+		private int minExpand(Matcher m, int min, int piIdx) {
+			if (ccl.matches(m.peek(min))) {
+				m.push(piIdx, min + 1, 0);
+			}
+			return min;
+		}
+
 		@Override
-		public int match(MatchState ms) {
+		public int match(Matcher m, int strIdx, int piIdx) {
 			switch (mod) {
 
-				case EXACTLY_ONCE: {
-					int c = ms.peek();
-					if (ccl.matches(c)) {
-						return ms.next(ms.strIdx + 1);
+				case EXACTLY_ONCE:
+					return ccl.matches(m.peek(strIdx))
+							? strIdx + 1
+							: NO_MATCH;
+
+				case LONGEST_ZERO_OR_MORE:
+					return maxExpand(m, strIdx, piIdx);
+
+				case SHORTEST_ZERO_OR_MORE:
+					return minExpand(m, strIdx, piIdx);
+
+				case ONE_OR_MORE:
+					return ccl.matches(m.peek(strIdx))
+							? maxExpand(m, strIdx + 1, piIdx)
+							: NO_MATCH;
+
+				case AT_MOST_ONCE:
+					if (ccl.matches(m.peek(strIdx))) {
+						// try without this character if the rest does not match
+						m.push(piIdx, strIdx, 0);
+						return strIdx + 1;
 					}
 					else {
-						return NO_MATCH;
+						return strIdx;
 					}
-				}
 
-				case LONGEST_ZERO_OR_MORE: {
-					final int min = ms.strIdx;
-					final int max;
+				default:
+					// should not happen
+					throw new IllegalStateException();
+			}
+		}
+
+		@Override
+		public int retry(Matcher m, int a, int b, int piIdx) {
+			switch (mod) {
 
-					{
-						int i = min;
-						while (ccl.matches(ms.peek(i))) {
-							i++;
-						}
-						max = i;
+				case LONGEST_ZERO_OR_MORE:
+				case ONE_OR_MORE:
+					// a is the length of the next shorter run, b is the shortest one
+					if (a > b) {
+						m.push(piIdx, a - 1, b);
 					}
+					return a;
 
-					for (int j = max; j >= min; j--) {
-						int nxt = ms.next(j);
-						if (nxt != NO_MATCH) {
-							return nxt;
-						}
+				case SHORTEST_ZERO_OR_MORE:
+					// a is the end of the next longer run
+					if (ccl.matches(m.peek(a))) {
+						m.push(piIdx, a + 1, 0);
 					}
+					return a;
 
-					return NO_MATCH;
-				}
+				case AT_MOST_ONCE:
+					// a is the index of the skipped character
+					return a;
 
-				case SHORTEST_ZERO_OR_MORE: {
-					final int min = ms.strIdx;
-					final int max;
+				default:
+					// should not happen
+					throw new IllegalStateException();
+			}
+		}
 
-					{
-						int i = min;
-						while (ccl.matches(ms.peek(i))) {
-							i++;
-						}
-						max = i;
-					}
+	}
 
-					for (int j = min; j < max; j++) {
-						int nxt = ms.next(j);
-						if (nxt != NO_MATCH) {
-							return nxt;
-						}
-					}
+	// a sequence of single character classes
+	static class PI_ccseq extends PI {
 
-					return NO_MATCH;
-				}
+		private final CC[] ccls;
 
-				case ONE_OR_MORE: {
-					int c = ms.peek();
-					if (ccl.matches(c)) {
-						final int min = ms.strIdx + 1;
-						final int max;
-
-						{
-							int i = min;
-							while (ccl.matches(ms.peek(i))) {
-								i++;
-							}
-							max = i;
-						}
-
-						for (int j = max; j >= min; j--) {
-							int nxt = ms.next(j);
-							if (nxt != NO_MATCH) {
-								return nxt;
-							}
-						}
+		// tables[i][c] is true iff ccls[i] matches the byte value c
+		private final boolean[][] tables;
 
-						return NO_MATCH;
-					}
-					else {
-						return NO_MATCH;
-					}
+		PI_ccseq(CC[] ccls) {
+			Check.isTrue(ccls.length > 0);
+			this.ccls = ccls;
+
+			this.tables = new boolean[ccls.length][256];
+			for (int i = 0; i < ccls.length; i++) {
+				for (int c = 0; c < 256; c++) {
+					tables[i][c] = ccls[i].matches(c);
 				}
+			}
+		}
 
-				case AT_MOST_ONCE: {
-					int c = ms.peek();
-					if (ccl.matches(c)) {
-						int nxt = ms.next(ms.strIdx + 1);
-						if (nxt != NO_MATCH) {
-							return nxt;
-						}
-						// else fall through and try without this character
-					}
+		@Override
+		public String toString() {
+			StringBuilder bld = new StringBuilder();
+			for (CC ccl : ccls) {
+				bld.append(ccl);
+			}
+			return bld.toString();
+		}
 
-					return ms.next(ms.strIdx);
-				}
+		@Override
+		public int match(Matcher m, int strIdx, int piIdx) {
+			// no character class matches the end of the subject
+			int end = strIdx + tables.length;
+			if (end > m.length) {
+				return NO_MATCH;
+			}
 
-				default:
-					// should not happen
-					throw new IllegalStateException();
+			ByteString subject = m.subject;
+			for (int i = 0; i < tables.length; i++) {
+				if (!tables[i][subject.byteAt(strIdx + i) & 0xff]) {
+					return NO_MATCH;
+				}
 			}
+			return end;
 		}
 
 	}
@@ -723,30 +1018,29 @@ public class StringPattern {
 		}
 
 		@Override
-		public int match(MatchState ms) {
-			Object o = ms.cap[index-1];
-
-			if (o instanceof String) {
-				String cs = (String) o;
-				int offset = ms.strIdx;
-				for (int i = 0; i < cs.length(); i++) {
-					if (offset + i >= ms.str.length()) {
-						// EOS
-						return NO_MATCH;
-					}
+		public int match(Matcher m, int strIdx, int piIdx) {
+			int begin = m.capBegin[index - 1];
+			int len = m.capLength[index - 1];
 
-					if (ms.str.charAt(offset + i) != cs.charAt(i)) {
-						// non-matching character
-						return NO_MATCH;
-					}
-				}
-
-				return ms.next(offset + cs.length());
-			}
-			else {
+			if (len < 0) {
 				// don't match positions
 				return NO_MATCH;
 			}
+
+			ByteString subject = m.subject;
+			if (m.length - strIdx < len) {
+				// EOS
+				return NO_MATCH;
+			}
+
+			for (int i = 0; i < len; i++) {
+				if (subject.byteAt(strIdx + i) != subject.byteAt(begin + i)) {
+					// non-matching character
+					return NO_MATCH;
+				}
+			}
+
+			return strIdx + len;
 		}
 
 	}
@@ -754,10 +1048,10 @@ public class StringPattern {
 	// %bxy
 	static class PI_balanced extends PI {
 
-		private final char first;
-		private final char second;
+		private final int first;
+		private final int second;
 
-		PI_balanced(char first, char second) {
+		PI_balanced(int first, int second) {
 			Check.isTrue(first != second);
 			this.first = first;
 			this.second = second;
@@ -765,39 +1059,26 @@ public class StringPattern {
 
 		@Override
 		public String toString() {
-			return "%b" + first + second;
+			return "%b" + (char) first + (char) second;
 		}
 
 		@Override
-		public int match(MatchState ms) {
-			int idx = ms.strIdx;
-
-			if (idx >= ms.str.length() || ms.str.charAt(idx) != first) {
+		public int match(Matcher m, int strIdx, int piIdx) {
+			if (m.peek(strIdx) != first) {
 				return NO_MATCH;
 			}
 
-			int balance = 0;
-			while (idx < ms.str.length()) {
-				char c = ms.str.charAt(idx);
-				if (c == first) {
-					balance += 1;
-				}
-				else if (c == second) {
-					balance -= 1;
-				}
-
-				idx++;
-
-				if (balance == 0) {
-					int nxt = ms.next(idx);
-					if (nxt != NO_MATCH) {
-						// we're done
-						return nxt;
-					}
-					else {
-						// continue
+			int balance = 1;
+			for (int idx = strIdx + 1; idx < m.length; idx++) {
+				int c = m.subject.byteAt(idx) & 0xff;
+				if (c == second) {
+					if (--balance == 0) {
+						return idx + 1;
 					}
 				}
+				else if (c == first) {
+					balance += 1;
+				}
 			}
 
 			// not balanced
@@ -809,33 +1090,26 @@ public class StringPattern {
 	// %f[set]
 	static class PI_frontier extends PI {
 
-		private final CharacterSet cs;
+		private final CC_set set;
 
-		PI_frontier(CharacterSet cs) {
-			this.cs = Check.notNull(cs);
+		PI_frontier(CC_set set) {
+			this.set = Check.notNull(set);
 		}
 
 		@Override
 		public String toString() {
-			return "%f[" + cs.toString() + "]";
+			return "%f" + set.toString();
 		}
 
 		@Override
-		public int match(MatchState ms) {
-			if (ms.strIdx > 0 && ms.strIdx < ms.str.length()) {
-				char c = ms.str.charAt(ms.strIdx - 1);
-				char d = ms.str.charAt(ms.strIdx);
+		public int match(Matcher m, int strIdx, int piIdx) {
+			// the beginning and the end of the subject are handled as '\0'
+			int c = strIdx > 0 ? m.peek(strIdx - 1) : 0;
+			int d = strIdx < m.length ? m.peek(strIdx) : 0;
 
-				if (!cs.matches(c) && cs.matches(d)) {
-					return ms.next(ms.strIdx);
-				}
-				else {
-					return NO_MATCH;
-				}
-			}
-			else {
-				return NO_MATCH;
-			}
+			return !set.matches(c) && set.matches(d)
+					? strIdx
+					: NO_MATCH;
 		}
 
 	}
@@ -863,9 +1137,10 @@ public class StringPattern {
 		}
 
 		@Override
-		public int match(MatchState ms) {
-			ms.cap[index - 1] = Long.valueOf(ms.strIdx + 1);
-			return ms.next(ms.strIdx);
+		public int match(Matcher m, int strIdx, int piIdx) {
+			m.capBegin[index - 1] = strIdx;
+			m.capLength[index - 1] = Matcher.CAP_POSITION;
+			return strIdx;
 		}
 
 	}
@@ -882,9 +1157,10 @@ public class StringPattern {
 		}
 
 		@Override
-		public int match(MatchState ms) {
-			ms.capBegin[index - 1] = ms.strIdx;
-			return ms.next(ms.strIdx);
+		public int match(Matcher m, int strIdx, int piIdx) {
+			m.capBegin[index - 1] = strIdx;
+			m.capLength[index - 1] = Matcher.CAP_UNFINISHED;
+			return strIdx;
 		}
 
 	}
@@ -901,38 +1177,41 @@ public class StringPattern {
 		}
 
 		@Override
-		public int match(MatchState ms) {
-			int endIdx = Math.min(ms.str.length(), ms.strIdx);
-			String s = ms.str.substring(ms.capBegin[index - 1], endIdx);
-			ms.cap[index - 1] = s;
-			return ms.next(ms.strIdx);
+		public int match(Matcher m, int strIdx, int piIdx) {
+			m.capLength[index - 1] = strIdx - m.capBegin[index - 1];
+			// undo the capture when backtracking past this item
+			m.push(piIdx, 0, 0);
+			return strIdx;
+		}
+
+		@Override
+		public int retry(Matcher m, int a, int b, int piIdx) {
+			m.capLength[index - 1] = Matcher.CAP_UNFINISHED;
+			return NO_MATCH;
 		}
 
 	}
 
 	static class PatternBuilder {
 
-		private final String pattern;
+		private final byte[] pattern;
 		private final boolean anchoredBegin;
 		private int index;
 		private int nextCaptureIndex;
 		private Set<Integer> assignedCaptures;
 
-		PatternBuilder(String pattern, boolean ignoreCaret) {
-			final boolean anchoredBegin;
+		PatternBuilder(ByteString pattern, boolean ignoreCaret) {
+			this.pattern = pattern.getBytes();
 
-			if (pattern.startsWith("^")) {
-				pattern = pattern.substring(1);
-				anchoredBegin = !ignoreCaret;
+			if (this.pattern.length > 0 && this.pattern[0] == '^') {
+				this.index = 1;
+				this.anchoredBegin = !ignoreCaret;
 			}
 			else {
-				anchoredBegin = false;
+				this.index = 0;
+				this.anchoredBegin = false;
 			}
 
-			this.pattern = Check.notNull(pattern);
-			this.anchoredBegin = anchoredBegin;
-
-			this.index = 0;
 			this.nextCaptureIndex = 1;
 			assignedCaptures = new HashSet<>();
 		}
@@ -941,9 +1220,13 @@ public class StringPattern {
 			return new IllegalArgumentException("error at character " + index + ": " + message);
 		}
 
-		private char peek() {
-			if (index < pattern.length()) {
-				return pattern.charAt(index);
+		private int charAt(int idx) {
+			return pattern[idx] & 0xff;
+		}
+
+		private int peek() {
+			if (index < pattern.length) {
+				return charAt(index);
 			}
 			else {
 				throw parseError(index, "unexpected <eos>");
@@ -952,11 +1235,11 @@ public class StringPattern {
 
 		private String pretty(int idx) {
 			// assuming idx >= 0
-			return idx < pattern.length() ? "'" + pattern.charAt(idx) + "'" : "<eos>";
+			return idx < pattern.length ? "'" + (char) charAt(idx) + "'" : "<eos>";
 		}
 
 		private boolean isEos() {
-			return index >= pattern.length();
+			return index >= pattern.length;
 		}
 
 		private void consume(String s) {
@@ -966,7 +1249,7 @@ public class StringPattern {
 		}
 
 		private void consume(char c) {
-			if (index < pattern.length() && pattern.charAt(index) == c) {
+			if (index < pattern.length && charAt(index) == c) {
 				index += 1;
 			}
 			else {
@@ -974,8 +1257,8 @@ public class StringPattern {
 			}
 		}
 
-		private char next() {
-			char c = peek();
+		private int next() {
+			int c = peek();
 			index++;
 			return c;
 		}
@@ -986,7 +1269,7 @@ public class StringPattern {
 
 		private Repeat repeat() {
 			if (!isEos()) {
-				char d = peek();
+				int d = peek();
 				switch (d) {
 					case '+': skip(1); return Repeat.ONE_OR_MORE;
 					case '*': skip(1); return Repeat.LONGEST_ZERO_OR_MORE;
@@ -1005,22 +1288,29 @@ public class StringPattern {
 			}
 			else {
 				// not escaped
-				char c = next();
-				if (peek() == '-') {
+				int c = next();
+				if (charAtOffset(0) == '-' && charAtOffset(1) != -1 && charAtOffset(1) != ']') {
 					// it's a range
 					consume("-");
-					char d = next();
+					int d = next();
 					return new CharacterSet.RangeSetElement(c, d);
 				}
 				else {
 					// not a range
-					return new CharacterSet.CharacterClassSetElement(CC_lit(c));
+					return new CharacterSet.CharacterClassSetElement(new CC_lit(c));
 				}
 			}
 		}
 
 		private CharacterSet characterSetBody() {
 			List<CharacterSet.SetElement> elems = new ArrayList<>();
+
+			// a closing bracket in the first position stands for itself
+			if (!isEos() && peek() == ']') {
+				skip(1);
+				elems.add(new CharacterSet.CharacterClassSetElement(new CC_lit(']')));
+			}
+
 			while (!isEos() && peek() != ']') {
 				elems.add(characterSetElement());
 			}
@@ -1032,17 +1322,31 @@ public class StringPattern {
 			return new CharacterSet(Collections.unmodifiableList(elems));
 		}
 
-		private void PI_frontier(List<PI> pis) {
-			consume("%f[");
+		private CC_set characterSet() {
+			final boolean complement;
+			if (continuesWith("[^")) {
+				consume("[^");
+				complement = true;
+			}
+			else {
+				consume("[");
+				complement = false;
+			}
+
 			CharacterSet cs = characterSetBody();
 			consume("]");
-			pis.add(new PI_frontier(cs));
+			return new CC_set(cs, complement);
+		}
+
+		private void PI_frontier(List<PI> pis) {
+			consume("%f");
+			pis.add(new PI_frontier(characterSet()));
 		}
 
 		private void PI_balanced(List<PI> pis) {
 			consume("%b");
-			char x = next();
-			char y = next();
+			int x = next();
+			int y = next();
 			if (x == y) {
 				throw parseError(index, "x == y in %bxy");
 			}
@@ -1051,9 +1355,9 @@ public class StringPattern {
 
 		private void PI_cmatch(List<PI> pis) {
 			consume("%");
-			char c = next();
+			int c = next();
 			if (c >= '1' && c <= '9') {
-				int cidx = (int) c - (int) '0';
+				int cidx = c - (int) '0';
 				// "(()%1)" and "()%2" should be rejected, but "(()%2)" is ok
 				if (!assignedCaptures.contains(cidx)) {
 					throw parseError(index, "capture #" + cidx + " not resolved at this point");
@@ -1069,22 +1373,22 @@ public class StringPattern {
 
 		private int charAtOffset(int idx) {
 			int j = index + idx;
-			return j >= 0 && j < pattern.length() ? pattern.charAt(j) : -1;
+			return j >= 0 && j < pattern.length ? charAt(j) : -1;
 		}
 
 		private boolean continuesWith(String s) {
 			for (int i = 0; i < s.length(); i++) {
 				int j = index + i;
-				if (j >= pattern.length() || s.charAt(i) != pattern.charAt(j)) {
+				if (j >= pattern.length || s.charAt(i) != charAt(j)) {
 					return false;
 				}
 			}
 			return true;
 		}
 
-		private CC_lit CC_lit(char c) {
+		private CC_lit CC_lit(int c) {
 			if (isMagic(c)) {
-				throw parseError(index, "unexpected character '" + c + "'");
+				throw parseError(index, "unexpected character '" + (char) c + "'");
 			}
 			return new CC_lit(c);
 		}
@@ -1108,7 +1412,7 @@ public class StringPattern {
 		private CC tryEscapedCC() {
 			if (continuesWith("%")) {
 				int o = charAtOffset(1);
-				int lo = Character.toLowerCase(o);
+				int lo = o >= 'A' && o <= 'Z' ? o + ('a' - 'A') : o;
 				CC_spec.ClassDesc cd = maybeClassDesc(lo);
 				if (cd != null) {
 					consume("%");
@@ -1117,7 +1421,7 @@ public class StringPattern {
 				}
 				else {
 					consume("%");
-					char c = next();
+					int c = next();
 					return new CC_lit(c);
 				}
 			}
@@ -1127,29 +1431,17 @@ public class StringPattern {
 		}
 
 		private CC cclass() {
-
-			if (continuesWith("[^")) {
-				consume("[^");
-				CharacterSet cs = characterSetBody();
-				consume("]");
-				return new CC_set(cs, true);
-			}
-
 			if (continuesWith("[")) {
-				consume("[");
-				CharacterSet cs = characterSetBody();
-				consume("]");
-				return new CC_set(cs, false);
+				return characterSet();
 			}
 
-
 			CC ccl = tryEscapedCC();
 
 			if (ccl != null) {
 				return ccl;
 			}
 			else {
-				char c = next();
+				int c = next();
 				if (c == '.') {
 					return new CC_spec(CC_spec.ClassDesc.ALL, false);
 				}
@@ -1209,30 +1501,158 @@ public class StringPattern {
 			}
 		}
 
+		private static boolean isSingle(PI pi) {
+			return pi instanceof PI_cc && ((PI_cc) pi).mod == Repeat.EXACTLY_ONCE;
+		}
+
+		// fuses runs of single character classes into sequences, so that they are matched
+		// in a loop rather than by recursion
+		private static List<PI> fuseSingles(List<PI> items) {
+			List<PI> result = new ArrayList<>();
+
+			int i = 0;
+			while (i < items.size()) {
+				int j = i;
+				while (j < items.size() && isSingle(items.get(j))) {
+					j++;
+				}
+
+				if (j - i > 1) {
+					CC[] ccls = new CC[j - i];
+					for (int k = i; k < j; k++) {
+						ccls[k - i] = ((PI_cc) items.get(k)).ccl;
+					}
+					result.add(new PI_ccseq(ccls));
+					i = j;
+				}
+				else {
+					result.add(items.get(i));
+					i += 1;
+				}
+			}
+
+			return result;
+		}
+
 		private StringPattern parse() {
 			List<PI> items = new ArrayList<>();
-			if (anchoredBegin) {
-				items.add(PI_BEGIN);
-			}
 			while (!isEos()) {
 				PI(items);
 			}
-			items = Collections.unmodifiableList(items);
 
-			return new StringPattern(items, nextCaptureIndex - 1);
+			items = fuseSingles(items);
+
+			return new StringPattern(items.toArray(new PI[items.size()]), anchoredBegin, nextCaptureIndex - 1);
 		}
 
 	}
 
-	public static StringPattern fromString(String pattern, boolean ignoreCaret) {
+	/**
+	 * Parses the pattern {@code pattern}. When {@code ignoreCaret} is {@code true},
+	 * a leading caret ({@code '^'}) is skipped rather than interpreted as an anchor.
+	 *
+	 * @param pattern  the pattern, must not be {@code null}
+	 * @param ignoreCaret  when {@code true}, a leading {@code '^'} is ignored
+	 * @return  the parsed pattern
+	 *
+	 * @throws NullPointerException  if {@code pattern} is {@code null}
+	 * @throws IllegalArgumentException  if {@code pattern} is not a valid pattern
+	 */
+	public static StringPattern fromString(ByteString pattern, boolean ignoreCaret) {
 		return new PatternBuilder(pattern, ignoreCaret).parse();
 	}
 
+	/**
+	 * Parses the pattern {@code pattern}.
+	 *
+	 * @param pattern  the pattern, must not be {@code null}
+	 * @return  the parsed pattern
+	 *
+	 * @throws NullPointerException  if {@code pattern} is {@code null}
+	 * @throws IllegalArgumentException  if {@code pattern} is not a valid pattern
+	 */
+	public static StringPattern fromString(ByteString pattern) {
+		return fromString(pattern, false);
+	}
+
+	private static final int CACHE_CAPACITY = 256;
+
+	private static final class CacheKey {
+
+		private final ByteString pattern;
+		private final boolean ignoreCaret;
+
+		CacheKey(ByteString pattern, boolean ignoreCaret) {
+			this.pattern = Objects.requireNonNull(pattern);
+			this.ignoreCaret = ignoreCaret;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (o == null || getClass() != o.getClass()) return false;
+
+			CacheKey that = (CacheKey) o;
+			return this.ignoreCaret == that.ignoreCaret && this.pattern.equals(that.pattern);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * pattern.hashCode() + (ignoreCaret ? 1 : 0);
+		}
+
+	}
+
+	private static final BoundedCache<CacheKey, StringPattern> CACHE = new BoundedCache<>(CACHE_CAPACITY);
+
+	/**
+	 * Returns the parsed pattern {@code pattern}, like {@link #fromString(ByteString, boolean)}.
+	 * Recently used patterns are retained in a bounded cache shared by all threads,
+	 * so that a pattern used repeatedly (e.g., in a loop) is only parsed once.
+	 *
+	 * @param pattern  the pattern, must not be {@code null}
+	 * @param ignoreCaret  when {@code true}, a leading {@code '^'} is ignored
+	 * @return  the parsed pattern
+	 *
+	 * @throws NullPointerException  if {@code pattern} is {@code null}
+	 * @throws IllegalArgumentException  if {@code pattern} is not a valid pattern
+	 */
+	public static StringPattern compile(ByteString pattern, boolean ignoreCaret) {
+		CacheKey key = new CacheKey(pattern, ignoreCaret);
+
+		StringPattern result = CACHE.get(key);
+		if (result == null) {
+			result = fromString(pattern, ignoreCaret);
+			CACHE.put(key, result);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns the parsed pattern {@code pattern}, possibly from the pattern cache.
+	 *
+	 * @param pattern  the pattern, must not be {@code null}
+	 * @return  the parsed pattern
+	 *
+	 * @throws NullPointerException  if {@code pattern} is {@code null}
+	 * @throws IllegalArgumentException  if {@code pattern} is not a valid pattern
+	 *
+	 * @see #compile(ByteString, boolean)
+	 */
+	public static StringPattern compile(ByteString pattern) {
+		return compile(pattern, false);
+	}
+
+	public static StringPattern fromString(String pattern, boolean ignoreCaret) {
+		return fromString(ByteString.of(pattern), ignoreCaret);
+	}
+
 	public static StringPattern fromString(String pattern) {
 		return fromString(pattern, false);
 	}
 
-	private static String listOfPIToString(List<PI> items) {
+	private static String listOfPIToString(PI[] items) {
 		StringBuilder builder = new StringBuilder();
 		for (PI pi : items) {
 			builder.append(pi.toString());
@@ -1242,7 +1662,7 @@ public class StringPattern {
 
 	@Override
 	public String toString() {
-		return listOfPIToString(items);
+		return (anchored ? "^" : "") + listOfPIToString(items);
 	}
 
 }
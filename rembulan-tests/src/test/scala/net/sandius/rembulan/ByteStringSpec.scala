@@ -0,0 +1,64 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sandius.rembulan
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{FunSpec, MustMatchers}
+
+@RunWith(classOf[JUnitRunner])
+class ByteStringSpec extends FunSpec with MustMatchers {
+
+  describe ("copyOf") {
+
+    val bytes = "hello world".getBytes("US-ASCII")
+
+    it ("copies the whole array") {
+      ByteString.copyOf(bytes) mustEqual ByteString.of("hello world")
+    }
+
+    it ("copies the slice starting at a non-zero offset") {
+      ByteString.copyOf(bytes, 6, 5) mustEqual ByteString.of("world")
+      ByteString.copyOf(bytes, 2, 3) mustEqual ByteString.of("llo")
+    }
+
+    it ("copies an empty slice") {
+      ByteString.copyOf(bytes, 11, 0) mustEqual ByteString.empty()
+    }
+
+    it ("does not share the array") {
+      val array = bytes.clone()
+      val s = ByteString.copyOf(array, 1, 4)
+      array(2) = 'X'.toByte
+      s mustEqual ByteString.of("ello")
+    }
+
+    it ("throws an IndexOutOfBoundsException for an invalid range") {
+      intercept[IndexOutOfBoundsException] {
+        ByteString.copyOf(bytes, 8, 4)
+      }
+      intercept[IndexOutOfBoundsException] {
+        ByteString.copyOf(bytes, -1, 2)
+      }
+      intercept[IndexOutOfBoundsException] {
+        ByteString.copyOf(bytes, 0, -1)
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sandius.rembulan.compiler
+
+import net.sandius.rembulan.Variable
+import net.sandius.rembulan.compiler.CompilerSettings.CPUAccountingMode
+import net.sandius.rembulan.exec.{CallPausedException, Continuation, DirectCallExecutor}
+import net.sandius.rembulan.impl.{DefaultTable, StateContexts}
+import net.sandius.rembulan.runtime.{SchedulingContext, SchedulingContextFactory}
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{FunSpec, MustMatchers}
+
+@RunWith(classOf[JUnitRunner])
+class CPUAccountingTest extends FunSpec with MustMatchers {
+
+  class Counting extends SchedulingContext {
+    var ticks = 0L
+    var polls = 0L
+    var pauseEvery = 0L
+    override def registerTicks(t: Int): Unit = ticks += t
+    override def shouldPause(): Boolean = {
+      polls += 1
+      pauseEvery > 0 && polls % pauseEvery == 0
+    }
+  }
+
+  def run(mode: CPUAccountingMode, code: String, ctx: Counting): Seq[AnyRef] = {
+    val settings = CompilerSettings.defaultSettings().withCPUAccountingMode(mode)
+    val loader = CompilerChunkLoader.of(settings, "cpu_accounting_test_")
+    val fn = loader.loadTextChunk(new Variable(new DefaultTable()), "test", code)
+    val executor = DirectCallExecutor.newExecutor(new SchedulingContextFactory {
+      override def newInstance() = ctx
+    })
+
+    var result: Array[AnyRef] = null
+    var cont: Continuation = null
+    try {
+      result = executor.call(StateContexts.newDefaultInstance(), fn)
+    }
+    catch {
+      case ex: CallPausedException => cont = ex.getContinuation
+    }
+    while (result == null) {
+      try {
+        result = executor.resume(cont)
+      }
+      catch {
+        case ex: CallPausedException => cont = ex.getContinuation
+      }
+    }
+    result.toSeq
+  }
+
+  val loop = """local n = 0
+               |for i = 1, 1000 do
+               |  if i % 2 == 0 then n = n + i else n = n - 1 end
+               |end
+               |return n
+               |""".stripMargin
+
+  describe ("loop header CPU accounting") {
+
+    it ("polls the scheduler less often than accounting in every basic block") {
+      val everyBlock = new Counting
+      val loopHeaders = new Counting
+
+      run(CPUAccountingMode.IN_EVERY_BASIC_BLOCK, loop, everyBlock) mustEqual Seq(250000L)
+      run(CPUAccountingMode.IN_LOOP_HEADERS, loop, loopHeaders) mustEqual Seq(250000L)
+
+      loopHeaders.polls must be < everyBlock.polls
+      loopHeaders.polls must be >= 1000L
+      loopHeaders.ticks must be >= everyBlock.ticks
+    }
+
+    it ("pauses and resumes in loops") {
+      val ctx = new Counting
+      ctx.pauseEvery = 7
+      run(CPUAccountingMode.IN_LOOP_HEADERS, loop, ctx) mustEqual Seq(250000L)
+      ctx.polls must be >= 1000L
+    }
+
+  }
+
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sandius.rembulan.compiler
+
+import java.lang.ref.WeakReference
+import java.util.concurrent.{Callable, Executors, TimeUnit}
+
+import net.sandius.rembulan.Variable
+import net.sandius.rembulan.load.ChunkClassLoader
+import net.sandius.rembulan.runtime.LuaFunction
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{FunSpec, MustMatchers}
+
+import scala.collection.JavaConverters._
+
+@RunWith(classOf[JUnitRunner])
+class ChunkLoadingTest extends FunSpec with MustMatchers {
+
+  val settings = CompilerSettings.defaultSettings()
+
+  def loadConcurrently(loader: CompilerChunkLoader, n: Int): Seq[LuaFunction] = {
+    val executor = Executors.newFixedThreadPool(8)
+    try {
+      val tasks = for (i <- 0 until n) yield new Callable[LuaFunction] {
+        override def call() = loader.loadTextChunk(new Variable(null), "test", s"return function() return ${i % 10} end")
+      }
+      executor.invokeAll(tasks.asJava).asScala.map(_.get())
+    }
+    finally {
+      executor.shutdown()
+      executor.awaitTermination(10, TimeUnit.SECONDS)
+    }
+  }
+
+  describe ("chunk loader") {
+
+    it ("loads chunks concurrently into a shared class loader") {
+      val loader = CompilerChunkLoader.of(new ChunkClassLoader(), settings, "concurrent_")
+      val fns = loadConcurrently(loader, 50)
+
+      fns.map(_.getClass).toSet.size mustBe 50
+      loader.liveClassLoaderCount mustBe 1
+      loader.definedClassCount mustBe 50
+      loader.definedClassBytes must be > 0L
+    }
+
+    it ("loads cached chunks concurrently into a shared class loader") {
+      val loader = CompilerChunkLoader.of(
+        new ChunkClassLoader(), new LuaCompiler(settings), "concurrent_cached_", new LruCompiledModuleCache(100))
+      val fns = loadConcurrently(loader, 50)
+
+      fns.map(_.getClass).toSet.size mustBe 10
+      loader.definedClassCount mustBe 10
+    }
+
+    it ("can use a separate class loader for every chunk") {
+      val loader = CompilerChunkLoader.unloadable(getClass.getClassLoader, new LuaCompiler(settings), "unloadable_", null)
+      val fns = loadConcurrently(loader, 20)
+
+      loader.getChunkClassLoader mustBe null
+      fns.map(_.getClass.getClassLoader).toSet.size mustBe 20
+      loader.definedClassCount mustBe 20
+    }
+
+    it ("reports classes as installed while they are being loaded") {
+      val compiler = new LuaCompiler(settings)
+      val ldr = new ChunkClassLoader()
+      val names = for (i <- 0 until 200) yield {
+        ldr.install(compiler.compile(s"return $i", "test", s"installed_$i"))
+      }
+
+      val loading = new Thread(new Runnable {
+        override def run() = for (name <- names) ldr.loadClass(name)
+      })
+      loading.start()
+
+      var missing = Seq.empty[String]
+      while (loading.isAlive) {
+        missing ++= names.filterNot(ldr.isInstalled)
+      }
+      loading.join()
+
+      missing mustBe empty
+      names.forall(ldr.isInstalled) mustBe true
+      an [IllegalStateException] must be thrownBy {
+        ldr.install(compiler.compile("return 0", "test", "installed_0"))
+      }
+    }
+
+    it ("lets the classes of unreachable chunks be unloaded") {
+      val loader = CompilerChunkLoader.unloadable(getClass.getClassLoader, new LuaCompiler(settings), "unloadable_", null)
+
+      var fn = loader.loadTextChunk(new Variable(null), "test", "return 1")
+      val ref = new WeakReference(fn.getClass.getClassLoader)
+      loader.liveClassLoaderCount mustBe 1
+
+      fn = null
+      var attempts = 0
+      while (ref.get() != null && attempts < 50) {
+        System.gc()
+        Thread.sleep(10)
+        attempts += 1
+      }
+
+      ref.get() mustBe null
+      loader.liveClassLoaderCount mustBe 0
+      loader.definedClassCount mustBe 0
+    }
+
+  }
+
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sandius.rembulan.compiler
+
+import java.io.DataOutputStream
+import java.nio.file.{Files, Path}
+
+import net.sandius.rembulan.Variable
+import net.sandius.rembulan.load.ChunkClassLoader
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{FunSpec, MustMatchers}
+
+@RunWith(classOf[JUnitRunner])
+class CompiledModuleCacheTest extends FunSpec with MustMatchers {
+
+  class CountingCache(underlying: CompiledModuleCache) extends CompiledModuleCache {
+    var hits = 0
+    var misses = 0
+    override def get(key: CompiledModuleKey) = {
+      val m = underlying.get(key)
+      if (m != null) hits += 1 else misses += 1
+      m
+    }
+    override def put(key: CompiledModuleKey, module: CompiledModule) = underlying.put(key, module)
+  }
+
+  val settings = CompilerSettings.defaultSettings()
+  val source = "local x = ... return x + 1"
+
+  def key(text: String = source, settings: CompilerSettings = settings, name: String = "test") = {
+    CompiledModuleKey.of(settings, text, name, "cached_")
+  }
+
+  describe ("compiled module key") {
+
+    it ("is determined by its inputs") {
+      key() mustEqual key()
+      key().rootClassName mustEqual key().rootClassName
+      key().rootClassName must startWith ("cached_")
+    }
+
+    it ("depends on the source text, source file name and settings") {
+      key() must not equal key(text = source + " ")
+      key() must not equal key(name = "other")
+      key() must not equal key(settings = settings.withConstFolding(!settings.constFolding()))
+    }
+
+    it ("includes the build version and a digest of the compiler and the runtime") {
+      val Array(build, digest) = LuaCompiler.version().split("/")
+      build must not startWith ("${")
+      build must not startWith ("unknown")
+      digest must fullyMatch regex "[0-9a-f]{32}"
+      LuaCompiler.version() mustBe CompilerVersion.VALUE
+    }
+
+  }
+
+  describe ("chunk loader with a module cache") {
+
+    it ("compiles identical chunks only once") {
+      val cache = new CountingCache(new LruCompiledModuleCache(16))
+
+      val l1 = CompilerChunkLoader.of(new ChunkClassLoader(), new LuaCompiler(settings), "cached_", cache)
+      val l2 = CompilerChunkLoader.of(new ChunkClassLoader(), new LuaCompiler(settings), "cached_", cache)
+
+      val f1 = l1.loadTextChunk(new Variable(null), "test", source)
+      val f2 = l1.loadTextChunk(new Variable(null), "test", source)
+      val f3 = l2.loadTextChunk(new Variable(null), "test", source)
+
+      cache.misses mustBe 1
+      cache.hits mustBe 2
+
+      f1 must not be theSameInstanceAs (f2)
+      f1.getClass mustBe theSameInstanceAs (f2.getClass)
+      f1.getClass.getName mustEqual f3.getClass.getName
+      f1.getClass must not be theSameInstanceAs (f3.getClass)
+    }
+
+  }
+
+  describe ("LRU cache") {
+
+    it ("evicts the least recently used module") {
+      val cache = new LruCompiledModuleCache(1)
+      val compiler = new LuaCompiler(settings)
+
+      val k1 = key()
+      val k2 = key(text = "return 2")
+
+      cache.put(k1, compiler.compile(source, "test", k1.rootClassName))
+      cache.get(k1) must not be null
+      cache.put(k2, compiler.compile("return 2", "test", k2.rootClassName))
+      cache.get(k1) mustBe null
+      cache.get(k2) must not be null
+    }
+
+  }
+
+  describe ("directory cache") {
+
+    it ("stores modules across instances") {
+      val dir = Files.createTempDirectory("rembulan-cache")
+      val k = key()
+      val module = new LuaCompiler(settings).compile(source, "test", k.rootClassName)
+
+      new DirectoryCompiledModuleCache(dir).get(k) mustBe null
+      new DirectoryCompiledModuleCache(dir).put(k, module)
+
+      val restored = new DirectoryCompiledModuleCache(dir).get(k)
+      restored must not be null
+      restored.mainClassName mustEqual module.mainClassName
+      restored.classMap mustEqual module.classMap
+
+      new DirectoryCompiledModuleCache(dir).get(key(text = "return 2")) mustBe null
+    }
+
+    def writeEntry(dir: Path, k: CompiledModuleKey, numClasses: Int, length: Int, bytes: Int): Unit = {
+      val out = new DataOutputStream(Files.newOutputStream(dir.resolve(k.toString + ".rmc")))
+      try {
+        out.writeInt(0x524d4331)
+        out.writeUTF(k.toString)
+        out.writeUTF(k.rootClassName)
+        out.writeInt(numClasses)
+        out.writeUTF(k.rootClassName)
+        out.writeInt(length)
+        out.write(new Array[Byte](bytes))
+      }
+      finally {
+        out.close()
+      }
+    }
+
+    it ("treats files with invalid lengths as misses") {
+      val dir = Files.createTempDirectory("rembulan-cache")
+      val k = key()
+      val cache = new DirectoryCompiledModuleCache(dir)
+
+      writeEntry(dir, k, 1, Int.MaxValue, 16)
+      cache.get(k) mustBe null
+
+      writeEntry(dir, k, 1, -1, 16)
+      cache.get(k) mustBe null
+
+      writeEntry(dir, k, Int.MaxValue, 16, 16)
+      cache.get(k) mustBe null
+
+      writeEntry(dir, k, -1, 16, 16)
+      cache.get(k) mustBe null
+
+      // truncated
+      writeEntry(dir, k, 1, 32, 16)
+      cache.get(k) mustBe null
+
+      // valid, so that the checks above are not vacuous
+      writeEntry(dir, k, 1, 16, 16)
+      cache.get(k) must not be null
+    }
+
+  }
+
+}
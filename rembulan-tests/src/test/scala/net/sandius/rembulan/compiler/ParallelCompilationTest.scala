@@ -0,0 +1,66 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sandius.rembulan.compiler
+
+import java.util.concurrent.ForkJoinPool
+
+import net.sandius.rembulan.test.fragments.{BasicFragments, MetatableFragments}
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{FunSpec, MustMatchers}
+
+import scala.collection.JavaConverters._
+
+@RunWith(classOf[JUnitRunner])
+class ParallelCompilationTest extends FunSpec with MustMatchers {
+
+  val settings = CompilerSettings.defaultSettings()
+  val pool = new ForkJoinPool(4)
+
+  val manyClosures = (1 to 100).map(i => s"local function f$i(x) return function() return x + $i end end").mkString("\n") +
+      "\nreturn f1(1)() + f100(1)()"
+
+  def check(code: String): Unit = {
+    val sequential = new LuaCompiler(settings).compile(code, "test", "test")
+    val parallel = new LuaCompiler(settings, pool).compile(code, "test", "test")
+
+    parallel.mainClassName mustEqual sequential.mainClassName
+    parallel.classMap.keySet.asScala.toSeq mustEqual sequential.classMap.keySet.asScala.toSeq
+    parallel.classMap mustEqual sequential.classMap
+  }
+
+  describe ("parallel compilation") {
+
+    it ("produces the same classes as sequential compilation") {
+      for (fragment <- BasicFragments.all ++ MetatableFragments.all) {
+        check(fragment.code)
+      }
+    }
+
+    it ("handles chunks with many nested functions") {
+      check(manyClosures)
+    }
+
+    it ("puts nested functions before the functions enclosing them") {
+      val names = new LuaCompiler(settings, pool).compile(manyClosures, "test", "test").classMap.keySet.asScala.toSeq
+      names.last mustEqual "test"
+      names.size mustBe 201
+    }
+
+  }
+
+}
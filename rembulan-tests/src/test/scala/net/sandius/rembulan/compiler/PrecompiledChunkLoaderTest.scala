@@ -0,0 +1,102 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sandius.rembulan.compiler
+
+import java.net.{URL, URLClassLoader}
+import java.nio.file.Files
+
+import net.sandius.rembulan.Variable
+import net.sandius.rembulan.exec.DirectCallExecutor
+import net.sandius.rembulan.impl.StateContexts
+import net.sandius.rembulan.load.{ChunkClassLoader, LoaderException, PrecompiledChunkLoader}
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{FunSpec, MustMatchers}
+
+@RunWith(classOf[JUnitRunner])
+class PrecompiledChunkLoaderTest extends FunSpec with MustMatchers {
+
+  val settings = CompilerSettings.defaultSettings()
+
+  val chunks = Map(
+    "a.lua" -> "local x = ... return x + 1",
+    "lib/b.lua" -> "return function(s) return s .. '!' end"
+  )
+
+  def archive(): URL = {
+    val file = Files.createTempFile("rembulan-chunks", ".jar")
+    val compiler = new LuaCompiler(settings)
+    val writer = new ChunkArchiveWriter(Files.newOutputStream(file))
+    try {
+      for ((name, text) <- chunks) {
+        val key = CompiledModuleKey.of(settings, text, name, "aot_test.chunk_")
+        writer.add(name, text, compiler.compile(text, name, key.rootClassName))
+      }
+    }
+    finally {
+      writer.close()
+    }
+    file.toUri.toURL
+  }
+
+  def call(fn: AnyRef, args: AnyRef*) = {
+    DirectCallExecutor.newExecutor().call(StateContexts.newDefaultInstance(), fn, args: _*).toSeq
+  }
+
+  describe ("precompiled chunk loader") {
+
+    val classLoader = new URLClassLoader(Array(archive()), classOf[PrecompiledChunkLoaderTest].getClassLoader)
+
+    it ("lists the chunks in the index") {
+      PrecompiledChunkLoader.of(classLoader).chunkNames.size mustBe 2
+    }
+
+    it ("loads chunks matching the source text") {
+      val loader = PrecompiledChunkLoader.of(classLoader)
+      val fn = loader.loadTextChunk(new Variable(null), "a.lua", chunks("a.lua"))
+      fn.getClass.getName must startWith ("aot_test.chunk_")
+      call(fn, java.lang.Long.valueOf(41)) mustEqual Seq(42L)
+    }
+
+    it ("loads chunks by name") {
+      val loader = PrecompiledChunkLoader.of(classLoader)
+      val fn = loader.loadChunk(new Variable(null), "lib/b.lua")
+      val Seq(f) = call(fn)
+      call(f, "hi") mustEqual Seq("hi!")
+    }
+
+    it ("rejects source texts that do not match") {
+      val loader = PrecompiledChunkLoader.of(classLoader)
+      a [LoaderException] must be thrownBy {
+        loader.loadTextChunk(new Variable(null), "a.lua", "return 0")
+      }
+      a [LoaderException] must be thrownBy {
+        loader.loadChunk(new Variable(null), "c.lua")
+      }
+    }
+
+    it ("delegates source texts that do not match to the fallback loader") {
+      val fallback = CompilerChunkLoader.of(new ChunkClassLoader(), settings, "aot_fallback_")
+      val loader = PrecompiledChunkLoader.of(classLoader, fallback)
+      val fn = loader.loadTextChunk(new Variable(null), "a.lua", "return 0")
+      fn.getClass.getName must startWith ("aot_fallback_")
+      call(fn) mustEqual Seq(0L)
+    }
+
+  }
+
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sandius.rembulan.compiler
+
+import net.sandius.rembulan.Variable
+import net.sandius.rembulan.compiler.CompilerSettings.CPUAccountingMode
+import net.sandius.rembulan.exec.DirectCallExecutor
+import net.sandius.rembulan.impl.{DefaultTable, StateContexts}
+import net.sandius.rembulan.runtime.LuaFunction
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{FunSpec, MustMatchers}
+
+@RunWith(classOf[JUnitRunner])
+class ResumptionPointElisionTest extends FunSpec with MustMatchers {
+
+  def load(elision: Boolean, code: String): LuaFunction = {
+    val settings = CompilerSettings.defaultNoAccountingSettings()
+        .withNumericSpecialisation(false)
+        .withResumptionPointElision(elision)
+    val loader = CompilerChunkLoader.of(settings, "resumption_point_elision_test_")
+    loader.loadTextChunk(new Variable(new DefaultTable()), "test", code)
+  }
+
+  def isResumable(fn: LuaFunction): Boolean = {
+    fn.getClass.getDeclaredMethods.exists(_.getName == "snapshot")
+  }
+
+  def run(fn: LuaFunction): Seq[AnyRef] = {
+    DirectCallExecutor.newExecutor().call(StateContexts.newDefaultInstance(), fn).toSeq
+  }
+
+  val nonSuspending = """local s, n = "x", 0
+                        |for i = 1, 10 do
+                        |  s = s .. i
+                        |  n = n + i / 2
+                        |end
+                        |return #s, s == "x", s ~= nil, n < 100, -n
+                        |""".stripMargin
+
+  describe ("a function containing no operations that may call metamethods") {
+
+    it ("is compiled without resumption points when resumption point elision is enabled") {
+      isResumable(load(true, nonSuspending)) mustBe false
+    }
+
+    it ("is compiled with resumption points when resumption point elision is disabled") {
+      isResumable(load(false, nonSuspending)) mustBe true
+    }
+
+    it ("evaluates to the same values regardless of resumption point elision") {
+      val expected = Seq(Long.box(12), java.lang.Boolean.FALSE, java.lang.Boolean.TRUE,
+        java.lang.Boolean.TRUE, Double.box(-27.5))
+      run(load(true, nonSuspending)) mustBe expected
+      run(load(false, nonSuspending)) mustBe expected
+    }
+
+  }
+
+  describe ("a function concatenating strings and numbers in a chain") {
+
+    val chain = "local s = 'x'; for i = 1, 3 do s = s .. i .. ',' .. i end; return s"
+
+    it ("is compiled without resumption points when resumption point elision is enabled") {
+      isResumable(load(true, chain)) mustBe false
+    }
+
+    it ("evaluates to the same value regardless of resumption point elision") {
+      run(load(true, chain)).map(_.toString) mustBe Seq("x1,12,23,3")
+      run(load(false, chain)).map(_.toString) mustBe Seq("x1,12,23,3")
+    }
+
+  }
+
+  describe ("a function concatenating a table in a chain") {
+
+    it ("keeps its resumption points when resumption point elision is enabled") {
+      isResumable(load(true, "local t = {}; return 'a' .. t .. 'b'")) mustBe true
+    }
+
+  }
+
+  describe ("a function comparing two tables") {
+
+    it ("keeps its resumption points when resumption point elision is enabled") {
+      isResumable(load(true, "local a, b = {}, {}; return a == b")) mustBe true
+    }
+
+  }
+
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sandius.rembulan.compiler
+
+import net.sandius.rembulan.Variable
+import net.sandius.rembulan.compiler.CompilerSettings.CPUAccountingMode
+import net.sandius.rembulan.exec.DirectCallExecutor
+import net.sandius.rembulan.impl.{DefaultTable, StateContexts}
+import net.sandius.rembulan.load.ChunkClassLoader
+import org.junit.runner.RunWith
+import org.objectweb.asm.{ClassReader, Opcodes}
+import org.objectweb.asm.tree.{ClassNode, InsnNode, LabelNode, MethodInsnNode, MethodNode, TryCatchBlockNode}
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{FunSpec, MustMatchers}
+
+import scala.collection.JavaConverters._
+
+@RunWith(classOf[JUnitRunner])
+class UnboxedLocalsTest extends FunSpec with MustMatchers {
+
+  def settings(cpu: CPUAccountingMode, nspec: Boolean): CompilerSettings = {
+    CompilerSettings.defaultSettings()
+        .withCPUAccountingMode(cpu)
+        .withNumericSpecialisation(nspec)
+  }
+
+  def runMethod(settings: CompilerSettings, code: String): MethodNode = {
+    val module = new LuaCompiler(settings).compile(code, "test", "unboxed_locals_test")
+    val classNode = new ClassNode()
+    new ClassReader(module.classMap.get(module.mainClassName).copyToNewArray()).accept(classNode, 0)
+    classNode.methods.asInstanceOf[java.util.List[MethodNode]].asScala.find(_.name == "run").get
+  }
+
+  // boxing calls other than those in the handlers boxing the unboxed locals when suspending
+  def boxingCalls(m: MethodNode): Seq[String] = {
+    val handlers = m.tryCatchBlocks.asInstanceOf[java.util.List[TryCatchBlockNode]].asScala.map(_.handler).toSet
+    var inHandler = false
+    m.instructions.toArray.toSeq.flatMap {
+      case l: LabelNode if handlers.contains(l) => inHandler = true; None
+      case i: InsnNode if i.getOpcode == Opcodes.ATHROW => inHandler = false; None
+      case mi: MethodInsnNode if mi.name == "valueOf" && !inHandler => Some(mi.owner)
+      case _ => None
+    }
+  }
+
+  def run(settings: CompilerSettings, code: String): Seq[AnyRef] = {
+    val loader = CompilerChunkLoader.of(new ChunkClassLoader(), settings, "unboxed_locals_test_")
+    val fn = loader.loadTextChunk(new Variable(new DefaultTable()), "test", code)
+    DirectCallExecutor.newExecutor().call(StateContexts.newDefaultInstance(), fn).toSeq
+  }
+
+  val numericLoop = """local s, n = 0.0, 0
+                      |for i = 1, 100 do
+                      |  local x = i * 0.5
+                      |  s = s + x * x
+                      |  n = n + i % 3
+                      |end
+                      |return s, n
+                      |""".stripMargin
+
+  describe ("a numeric loop") {
+
+    it ("boxes its results only when returning them") {
+      for (cpu <- CPUAccountingMode.values()) {
+        boxingCalls(runMethod(settings(cpu, true), numericLoop)) mustBe Seq("java/lang/Double", "java/lang/Long")
+      }
+    }
+
+    it ("evaluates to the same values with and without numeric specialisation") {
+      for (cpu <- CPUAccountingMode.values(); nspec <- Seq(true, false)) {
+        run(settings(cpu, nspec), numericLoop) mustBe Seq(Double.box(84587.5), Long.box(100))
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sandius.rembulan.exec
+
+import java.util.concurrent.{ExecutionException, Executors, TimeUnit}
+
+import net.sandius.rembulan.Variable
+import net.sandius.rembulan.compiler.CompilerChunkLoader
+import net.sandius.rembulan.impl.{SchedulingContexts, StateContexts}
+import net.sandius.rembulan.env.RuntimeEnvironments
+import net.sandius.rembulan.lib.impl.StandardLibrary
+import net.sandius.rembulan.runtime.{AbstractFunction0, AbstractFunction1, AsyncTask, ExecutionContext, UnresolvedControlThrowable}
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{FunSpec, MustMatchers}
+
+@RunWith(classOf[JUnitRunner])
+class AsyncCallExecutorTest extends FunSpec with MustMatchers {
+
+  val timer = Executors.newSingleThreadScheduledExecutor()
+
+  // returns its argument after a delay, without blocking any thread while waiting
+  class Delayed extends AbstractFunction1 {
+    override def invoke(context: ExecutionContext, arg: AnyRef): Unit = {
+      try {
+        context.resumeAfter(new AsyncTask {
+          override def execute(callback: AsyncTask.ContinueCallback): Unit = {
+            timer.schedule(new Runnable {
+              override def run(): Unit = callback.finished()
+            }, 10, TimeUnit.MILLISECONDS)
+          }
+        })
+      }
+      catch {
+        case ct: UnresolvedControlThrowable => throw ct.resolve(this, arg)
+      }
+    }
+    override def resume(context: ExecutionContext, suspendedState: AnyRef): Unit = {
+      context.getReturnBuffer.setTo(suspendedState)
+    }
+  }
+
+  // schedules an asynchronous task that throws instead of starting
+  class Broken extends AbstractFunction0 {
+    override def invoke(context: ExecutionContext): Unit = {
+      try {
+        context.resumeAfter(new AsyncTask {
+          override def execute(callback: AsyncTask.ContinueCallback): Unit = {
+            throw new IllegalStateException("task failed to start")
+          }
+        })
+      }
+      catch {
+        case ct: UnresolvedControlThrowable => throw ct.resolve(this, null)
+      }
+    }
+    override def resume(context: ExecutionContext, suspendedState: AnyRef): Unit = {
+      context.getReturnBuffer.setTo()
+    }
+  }
+
+  def program(code: String) = {
+    val state = StateContexts.newDefaultInstance()
+    val env = StandardLibrary.in(RuntimeEnvironments.system()).installInto(state)
+    env.rawset("delayed", new Delayed)
+    env.rawset("broken", new Broken)
+    val loader = CompilerChunkLoader.of("async_test_")
+    (state, loader.loadTextChunk(new Variable(env), "test", code))
+  }
+
+  describe ("asynchronous call executor") {
+
+    it ("runs many suspended calls on a small thread pool") {
+      val pool = Executors.newFixedThreadPool(2)
+      try {
+        val executor = AsyncCallExecutor.newExecutor(pool)
+        val (state, fn) = program("local x = ... return delayed(x) + delayed(1)")
+
+        val futures = for (i <- 1 to 1000) yield executor.call(state, fn, java.lang.Long.valueOf(i))
+        for ((f, i) <- futures.zipWithIndex) {
+          f.get(10, TimeUnit.SECONDS).toSeq mustEqual Seq(i + 2L)
+        }
+      }
+      finally {
+        pool.shutdown()
+      }
+    }
+
+    it ("notifies listeners") {
+      val executor = AsyncCallExecutor.newExecutor(timer)
+      val (state, fn) = program("return delayed('hello')")
+
+      val result = new java.util.concurrent.LinkedBlockingQueue[AnyRef]()
+      executor.call(state, fn).addListener(new CallFuture.Listener {
+        override def returned(values: Array[AnyRef]) = result.put(values.toSeq)
+        override def failed(error: CallException) = result.put(error)
+      })
+
+      result.poll(10, TimeUnit.SECONDS) mustEqual Seq("hello")
+    }
+
+    it ("completes failed calls with a call exception") {
+      val executor = AsyncCallExecutor.newExecutor(timer)
+      val (state, fn) = program("delayed(1); error('boom')")
+
+      val ex = the [ExecutionException] thrownBy {
+        executor.call(state, fn).get(10, TimeUnit.SECONDS)
+      }
+      ex.getCause mustBe a [CallException]
+      ex.getCause.getCause.getMessage must include ("boom")
+    }
+
+    it ("fails calls whose asynchronous task throws when started") {
+      val executor = AsyncCallExecutor.newExecutor(timer)
+      val (state, fn) = program("broken(); return 1")
+
+      val ex = the [ExecutionException] thrownBy {
+        executor.call(state, fn).get(10, TimeUnit.SECONDS)
+      }
+      ex.getCause mustBe a [CallException]
+      ex.getCause.getCause mustBe an [IllegalStateException]
+      ex.getCause.getCause.getMessage mustEqual "task failed to start"
+    }
+
+    it ("resubmits paused calls") {
+      val executor = AsyncCallExecutor.newExecutor(timer, SchedulingContexts.countDownContextFactory(100))
+      val (state, fn) = program("local n = 0; for i = 1, 10000 do n = n + i end; return n")
+
+      executor.call(state, fn).get(10, TimeUnit.SECONDS).toSeq mustEqual Seq(50005000L)
+    }
+
+  }
+
+}
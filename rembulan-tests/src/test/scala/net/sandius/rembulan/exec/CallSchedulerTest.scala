@@ -0,0 +1,175 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sandius.rembulan.exec
+
+import java.util.concurrent.{CountDownLatch, ExecutionException, LinkedBlockingQueue, RejectedExecutionException, TimeUnit}
+
+import net.sandius.rembulan.Variable
+import net.sandius.rembulan.compiler.CompilerChunkLoader
+import net.sandius.rembulan.env.RuntimeEnvironments
+import net.sandius.rembulan.exec.CallScheduler.Priority
+import net.sandius.rembulan.impl.{SchedulingContexts, StateContexts}
+import net.sandius.rembulan.lib.impl.StandardLibrary
+import net.sandius.rembulan.runtime.{AbstractFunction0, ExecutionContext}
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{FunSpec, MustMatchers}
+
+@RunWith(classOf[JUnitRunner])
+class CallSchedulerTest extends FunSpec with MustMatchers {
+
+  // blocks the worker thread until the latch is released
+  class Block(latch: CountDownLatch) extends AbstractFunction0 {
+    override def invoke(context: ExecutionContext): Unit = {
+      latch.await()
+      context.getReturnBuffer.setTo()
+    }
+    override def resume(context: ExecutionContext, suspendedState: AnyRef): Unit = {
+      throw new UnsupportedOperationException()
+    }
+  }
+
+  // throws an error that escapes the call
+  class Crash extends AbstractFunction0 {
+    override def invoke(context: ExecutionContext): Unit = {
+      throw new AssertionError("crash")
+    }
+    override def resume(context: ExecutionContext, suspendedState: AnyRef): Unit = {
+      throw new UnsupportedOperationException()
+    }
+  }
+
+  def program(code: String, latch: CountDownLatch = new CountDownLatch(0)) = {
+    val state = StateContexts.newDefaultInstance()
+    val env = StandardLibrary.in(RuntimeEnvironments.system()).installInto(state)
+    env.rawset("block", new Block(latch))
+    env.rawset("crash", new Crash)
+    val loader = CompilerChunkLoader.of("scheduler_test_")
+    (state, loader.loadTextChunk(new Variable(env), "test", code))
+  }
+
+  def recordingListener(name: String, queue: LinkedBlockingQueue[String]) = new CallFuture.Listener {
+    override def returned(values: Array[AnyRef]) = queue.put(name)
+    override def failed(error: CallException) = queue.put(name + " failed")
+  }
+
+  describe ("call scheduler") {
+
+    it ("does not let a busy call starve calls of other tenants") {
+      val scheduler = CallScheduler.newScheduler(1, 1000)
+      try {
+        val (state, busy) = program("while true do end")
+        val (_, short) = program("local n = 0; for i = 1, 100000 do n = n + i end; return n")
+
+        val busyFuture = scheduler.call("busy", Priority.NORMAL, state, busy)
+        scheduler.call("other", Priority.NORMAL, state, short).get(10, TimeUnit.SECONDS).toSeq mustEqual Seq(5000050000L)
+        busyFuture.isDone mustBe false
+
+        scheduler.statistics().slices must be > 1L
+      }
+      finally {
+        scheduler.shutdown()
+      }
+    }
+
+    it ("preempts calls using wall-clock time slices") {
+      val scheduler = CallScheduler.newScheduler(1, SchedulingContexts.timeSliceContextFactory(1000000L))
+      try {
+        val (state, busy) = program("while true do end")
+        val (_, short) = program("return 42")
+
+        val busyFuture = scheduler.call("busy", Priority.NORMAL, state, busy)
+        scheduler.call("other", Priority.NORMAL, state, short).get(10, TimeUnit.SECONDS).toSeq mustEqual Seq(42L)
+        busyFuture.isDone mustBe false
+      }
+      finally {
+        scheduler.shutdown()
+      }
+    }
+
+    it ("runs slices of higher-priority calls first") {
+      val scheduler = CallScheduler.newScheduler(1, 1000)
+      try {
+        val latch = new CountDownLatch(1)
+        val (state, blocking) = program("block()", latch)
+        val (_, fn) = program("return 1")
+
+        val done = new LinkedBlockingQueue[String]()
+        scheduler.call(state, blocking).addListener(recordingListener("blocking", done))
+
+        // wait until the worker is blocked
+        while (scheduler.queueDepth() > 0) Thread.sleep(1)
+
+        scheduler.call("a", Priority.LOW, state, fn).addListener(recordingListener("low", done))
+        scheduler.call("b", Priority.NORMAL, state, fn).addListener(recordingListener("normal", done))
+        scheduler.call("c", Priority.HIGH, state, fn).addListener(recordingListener("high", done))
+        scheduler.queueDepth() mustBe 3
+
+        latch.countDown()
+
+        val order = for (i <- 1 to 4) yield done.poll(10, TimeUnit.SECONDS)
+        order mustEqual Seq("blocking", "high", "normal", "low")
+        scheduler.queueDepth() mustBe 0
+      }
+      finally {
+        scheduler.shutdown()
+      }
+    }
+
+    it ("fails calls whose slices throw, and keeps the worker alive") {
+      val scheduler = CallScheduler.newScheduler(1, 1000)
+      try {
+        val (state, crashing) = program("crash()")
+        val (_, fn) = program("return 1")
+
+        for (i <- 1 to 3) {
+          val ex = the [ExecutionException] thrownBy { scheduler.call(state, crashing).get(10, TimeUnit.SECONDS) }
+          ex.getCause mustBe a [CallException]
+          ex.getCause.getCause mustBe an [AssertionError]
+        }
+
+        scheduler.call(state, fn).get(10, TimeUnit.SECONDS).toSeq mustEqual Seq(1L)
+      }
+      finally {
+        scheduler.shutdown()
+      }
+    }
+
+    it ("fails pending calls when shut down") {
+      val scheduler = CallScheduler.newScheduler(1, 1000)
+      val latch = new CountDownLatch(1)
+      val (state, blocking) = program("block()", latch)
+      val (_, fn) = program("return 1")
+
+      val first = scheduler.call(state, blocking)
+      while (scheduler.queueDepth() > 0) Thread.sleep(1)
+      val pending = scheduler.call(state, fn)
+
+      scheduler.shutdown()
+      latch.countDown()
+
+      first.get(10, TimeUnit.SECONDS).toSeq mustEqual Seq()
+      val ex = the [ExecutionException] thrownBy { pending.get(10, TimeUnit.SECONDS) }
+      ex.getCause.getCause mustBe a [RejectedExecutionException]
+
+      val after = the [ExecutionException] thrownBy { scheduler.call(state, fn).get(10, TimeUnit.SECONDS) }
+      after.getCause.getCause mustBe a [RejectedExecutionException]
+    }
+
+  }
+
+}
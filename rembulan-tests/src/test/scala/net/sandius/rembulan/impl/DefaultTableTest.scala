@@ -0,0 +1,95 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.sandius.rembulan.impl
+
+import java.lang.ref.WeakReference
+
+import net.sandius.rembulan.{ByteString, Metatables}
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{FunSpec, MustMatchers}
+
+@RunWith(classOf[JUnitRunner])
+class DefaultTableTest extends FunSpec with MustMatchers {
+
+  def weakValuedTable() = {
+    val mt = new DefaultTable()
+    mt.rawset(Metatables.MT_MODE, ByteString.of("v"))
+    val t = new DefaultTable()
+    t.setMetatable(mt)
+    t
+  }
+
+  def awaitCollected(ref: WeakReference[AnyRef]): Unit = {
+    var attempts = 0
+    while (ref.get() != null && attempts < 50) {
+      System.gc()
+      Thread.sleep(10)
+      attempts += 1
+    }
+    ref.get() mustBe null
+  }
+
+  describe ("weak-valued table") {
+
+    it ("expunges entries whose values have been reclaimed") {
+      val t = weakValuedTable()
+      var value = new Object()
+      val ref = new WeakReference(value)
+      for (i <- 1 to 100) t.rawset("k" + i, value)
+      t.rawset(ByteString.of("kept"), ByteString.of("strong"))
+      t.hashPartSize mustBe 101
+
+      value = null
+      awaitCollected(ref)
+
+      t.rawset("unrelated", null)
+      t.hashPartSize mustBe 1
+      t.rawget("k1") mustBe null
+    }
+
+    it ("expunges the entry at the traversal key once the traversal moves on") {
+      val t = weakValuedTable()
+      val values = scala.collection.mutable.Map[AnyRef, AnyRef]()
+      for (k <- Seq("a", "b")) {
+        val v = new Object()
+        values(ByteString.of(k)) = v
+        t.rawset(ByteString.of(k), v)
+      }
+
+      val first = t.initialKey()
+      val ref = new WeakReference(values.remove(first).get)
+      awaitCollected(ref)
+
+      // the traversal is at the stale entry, which must be kept for successorKeyOf
+      t.rawset(ByteString.of("c"), ByteString.of("x"))
+      t.hashPartSize mustBe 3
+
+      val second = t.successorKeyOf(first)
+      second must not be (null)
+      second must not equal (first)
+
+      t.rawset(ByteString.of("d"), ByteString.of("y"))
+      t.hashPartSize mustBe 3
+      t.rawget(first) mustBe null
+      t.rawget(second) must not be (null)
+    }
+
+  }
+
+}
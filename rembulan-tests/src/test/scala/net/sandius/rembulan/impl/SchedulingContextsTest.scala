@@ -0,0 +1,66 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sandius.rembulan.impl
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{FunSpec, MustMatchers}
+
+@RunWith(classOf[JUnitRunner])
+class SchedulingContextsTest extends FunSpec with MustMatchers {
+
+  describe ("deadline scheduling context") {
+
+    it ("pauses once the deadline has passed") {
+      val ctx = SchedulingContexts.newDeadlineContext(System.nanoTime() + 50 * 1000000L, 1)
+      ctx.shouldPause() mustBe false
+      Thread.sleep(100)
+      ctx.registerTicks(1)
+      ctx.shouldPause() mustBe true
+      ctx.shouldPause() mustBe true
+    }
+
+    it ("reads the clock only every sample interval") {
+      val ctx = SchedulingContexts.newDeadlineContext(System.nanoTime() + 50 * 1000000L, 100)
+      ctx.shouldPause() mustBe false
+      Thread.sleep(100)
+      ctx.registerTicks(50)
+      ctx.shouldPause() mustBe false
+      ctx.registerTicks(50)
+      ctx.shouldPause() mustBe true
+    }
+
+    it ("pauses once the tick budget has been exhausted") {
+      val ctx = SchedulingContexts.newBudgetContext(10, System.nanoTime() + 60 * 1000000000L, 1000)
+      ctx.registerTicks(9)
+      ctx.shouldPause() mustBe false
+      ctx.registerTicks(1)
+      ctx.shouldPause() mustBe true
+    }
+
+    it ("starts a new time slice for every instance") {
+      val factory = SchedulingContexts.budgetContextFactory(Long.MaxValue, 50 * 1000000L, 1)
+      val first = factory.newInstance()
+      Thread.sleep(100)
+      first.registerTicks(1)
+      first.shouldPause() mustBe true
+      factory.newInstance().shouldPause() mustBe false
+    }
+
+  }
+
+}
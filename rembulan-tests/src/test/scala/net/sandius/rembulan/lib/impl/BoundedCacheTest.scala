@@ -0,0 +1,74 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.sandius.rembulan.lib.impl
+
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{FunSpec, MustMatchers}
+
+@RunWith(classOf[JUnitRunner])
+class BoundedCacheTest extends FunSpec with MustMatchers {
+
+  describe ("bounded cache") {
+
+    it ("returns the cached values") {
+      val cache = new BoundedCache[String, String](16)
+      cache.get("a") mustBe null
+      cache.put("a", "x")
+      cache.get("a") mustBe "x"
+    }
+
+    it ("never holds more entries than its capacity") {
+      val cache = new BoundedCache[Integer, String](64)
+      for (i <- 1 to 10000) {
+        cache.put(i, i.toString)
+        cache.size must be <= 64
+      }
+    }
+
+    it ("retains recently used entries") {
+      val cache = new BoundedCache[Integer, String](64)
+      cache.put(0, "hot")
+      for (i <- 1 to 10000) {
+        cache.get(0) mustBe "hot"
+        cache.put(i, i.toString)
+      }
+      cache.get(0) mustBe "hot"
+    }
+
+    it ("is safe for concurrent use") {
+      val cache = new BoundedCache[Integer, Integer](32)
+      val mismatch = new java.util.concurrent.atomic.AtomicBoolean(false)
+      val threads = for (t <- 1 to 4) yield new Thread(new Runnable {
+        override def run(): Unit = {
+          for (i <- 1 to 20000) {
+            val k = Integer.valueOf(i % 100)
+            val v = cache.get(k)
+            if (v == null) cache.put(k, k) else if (v != k) mismatch.set(true)
+          }
+        }
+      })
+      threads.foreach(_.start())
+      threads.foreach(_.join())
+      mismatch.get mustBe false
+      cache.size must be <= 32 + 4
+    }
+
+  }
+
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2016 Miroslav Janíček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.sandius.rembulan.runtime
+
+import net.sandius.rembulan.Variable
+import net.sandius.rembulan.compiler.CompilerChunkLoader
+import net.sandius.rembulan.env.RuntimeEnvironments
+import net.sandius.rembulan.exec.DirectCallExecutor
+import net.sandius.rembulan.impl.StateContexts
+import net.sandius.rembulan.lib.impl.StandardLibrary
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.{FunSpec, MustMatchers}
+
+@RunWith(classOf[JUnitRunner])
+class ThreadedCoroutinesTest extends FunSpec with MustMatchers {
+
+  def run(code: String, args: AnyRef*): Seq[AnyRef] = {
+    val state = StateContexts.newDefaultInstance()
+    val env = StandardLibrary.in(RuntimeEnvironments.system()).withThreadedCoroutines(true).installInto(state)
+    val fn = CompilerChunkLoader.of("threaded_test_").loadTextChunk(new Variable(env), "test", code)
+    DirectCallExecutor.newExecutor().call(state, fn, args: _*).toSeq
+  }
+
+  def awaitLiveThreads(n: Int): Unit = {
+    var attempts = 0
+    while (ThreadedCoroutines.liveThreads() > n && attempts < 500) {
+      Thread.sleep(10)
+      attempts += 1
+    }
+    // threads of unreachable coroutines started elsewhere may terminate in the meantime
+    ThreadedCoroutines.liveThreads() must be <= n
+  }
+
+  describe ("threaded coroutines") {
+
+    it ("run thousands of suspended coroutines, one thread each") {
+      val base = ThreadedCoroutines.liveThreads()
+      val n = 2000L
+
+      val result = run(
+        """local n, live = ...
+          |local cos = {}
+          |for i = 1, n do
+          |  cos[i] = coroutine.create(function (x) return coroutine.yield(x) * 2 end)
+          |  assert(coroutine.resume(cos[i], i))
+          |end
+          |local suspended = live()
+          |local sum = 0
+          |for i = 1, n do
+          |  local ok, v = coroutine.resume(cos[i], i)
+          |  sum = sum + v
+          |end
+          |return suspended, sum
+        """.stripMargin,
+        java.lang.Long.valueOf(n),
+        new AbstractFunction0 {
+          override def invoke(context: ExecutionContext) = {
+            context.getReturnBuffer.setTo(java.lang.Long.valueOf(ThreadedCoroutines.liveThreads()))
+          }
+          override def resume(context: ExecutionContext, suspendedState: AnyRef) = {
+            throw new UnsupportedOperationException()
+          }
+        })
+
+      result(0).asInstanceOf[java.lang.Long].longValue must (be >= n and be <= base + n)
+      result(1) mustEqual java.lang.Long.valueOf(n * (n + 1))
+      awaitLiveThreads(base)
+    }
+
+    it ("fail to start coroutines beyond the thread limit") {
+      val oldMax = ThreadedCoroutines.maxThreads()
+      val base = ThreadedCoroutines.liveThreads()
+      ThreadedCoroutines.setMaxThreads(base + 3)
+      try {
+        val result = run(
+          """local cos = {}
+            |for i = 1, 4 do
+            |  cos[i] = coroutine.create(function () coroutine.yield() end)
+            |end
+            |local results = {}
+            |for i = 1, 4 do
+            |  local ok, msg = coroutine.resume(cos[i])
+            |  results[2 * i - 1] = tostring(ok)
+            |  results[2 * i] = msg
+            |end
+            |local status = coroutine.status(cos[4])
+            |coroutine.resume(cos[1])  -- cos[1] finishes, releasing its thread
+            |return status, results[2], results[6], results[7], results[8]
+          """.stripMargin)
+
+        result.take(4) mustEqual Seq("suspended", null, null, "false")
+        result(4).toString mustEqual "too many threaded coroutines (limit is " + (base + 3) + ")"
+
+        awaitLiveThreads(base + 2)
+        run(
+          """local co = coroutine.create(function () return 42 end)
+            |return coroutine.resume(co)
+          """.stripMargin) mustEqual Seq(java.lang.Boolean.TRUE, java.lang.Long.valueOf(42))
+      }
+      finally {
+        ThreadedCoroutines.setMaxThreads(oldMax)
+      }
+    }
+
+  }
+
+}
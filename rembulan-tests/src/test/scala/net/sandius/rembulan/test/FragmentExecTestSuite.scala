@@ -22,14 +22,14 @@ import java.nio.file.FileSystems
 import net.sandius.rembulan.compiler.CompilerSettings.CPUAccountingMode
 import net.sandius.rembulan.compiler.{CompilerChunkLoader, CompilerSettings}
 import net.sandius.rembulan.exec._
-import net.sandius.rembulan.impl.StateContexts
+import net.sandius.rembulan.impl.{DefaultTable, StateContexts}
 import net.sandius.rembulan.lib.Lib
 import net.sandius.rembulan.lib.impl._
 import net.sandius.rembulan.load.{ChunkClassLoader, ChunkLoader}
 import net.sandius.rembulan.runtime.RuntimeCallInitialiser
 import net.sandius.rembulan.test.FragmentExpectations.Env
 import net.sandius.rembulan.test.Util.{BufferPrinter, Printer}
-import net.sandius.rembulan.{Conversions, StateContext, Table, Variable}
+import net.sandius.rembulan.{Conversions, StateContext, Table, TableFactory, Variable}
 import org.scalatest.{FunSpec, MustMatchers}
 
 import scala.util.{Failure, Success}
@@ -44,6 +44,10 @@ trait FragmentExecTestSuite extends FunSpec with MustMatchers {
 
   def compilerConfigs: CompilerConfigs = CompilerConfigs.DefaultOnly
 
+  def tableFactory: TableFactory = DefaultTable.factory()
+
+  def coroutineLib: Lib = new DefaultCoroutineLib()
+
   protected val Empty = FragmentExpectations.Env.Empty
   protected val Basic = FragmentExpectations.Env.Basic
   protected val Coro = FragmentExpectations.Env.Coro
@@ -69,7 +73,7 @@ trait FragmentExecTestSuite extends FunSpec with MustMatchers {
 
       case Coro =>
         new DefaultBasicLib(new PrintStream(printer.out), ldr, env).installInto(state, env)
-        new DefaultCoroutineLib().installInto(state, env)
+        coroutineLib.installInto(state, env)
 
       case Math =>
         new DefaultBasicLib(new PrintStream(printer.out), ldr, env).installInto(state, env)
@@ -94,7 +98,7 @@ trait FragmentExecTestSuite extends FunSpec with MustMatchers {
       case Full =>
         new DefaultBasicLib(new PrintStream(printer.out), ldr, env).installInto(state, env)
         new DefaultModuleLib(state, env).installInto(state, env)
-        new DefaultCoroutineLib().installInto(state, env)
+        coroutineLib.installInto(state, env)
         new DefaultMathLib().installInto(state, env)
         new DefaultStringLib().installInto(state, env)
         new DefaultIoLib(state, FileSystems.getDefault, null, printer.out, printer.err).installInto(state, env)
@@ -116,6 +120,7 @@ trait FragmentExecTestSuite extends FunSpec with MustMatchers {
     val cpu = settings.cpuAccountingMode() match {
       case CPUAccountingMode.NO_CPU_ACCOUNTING => "n"
       case CPUAccountingMode.IN_EVERY_BASIC_BLOCK => "a"
+      case CPUAccountingMode.IN_LOOP_HEADERS => "l"
     }
     val cfold = settings.constFolding() match {
       case true => "t"
@@ -125,11 +130,23 @@ trait FragmentExecTestSuite extends FunSpec with MustMatchers {
       case true => "t"
       case false => "f"
     }
+    val nspec = settings.numericSpecialisation() match {
+      case true => "t"
+      case false => "f"
+    }
+    val indy = settings.invokeDynamic() match {
+      case true => "i"
+      case false => ""
+    }
+    val elide = settings.resumptionPointElision() match {
+      case true => ""
+      case false => "r"
+    }
     val nlimit = settings.nodeSizeLimit() match {
       case 0 => "0"
       case n => n.toString
     }
-    cpu + cfold + ccache + "_" + nlimit
+    cpu + cfold + ccache + nspec + indy + elide + "_" + nlimit
   }
 
   case class RembulanChkLoader(settings: CompilerSettings) extends ChkLoader {
@@ -149,15 +166,38 @@ trait FragmentExecTestSuite extends FunSpec with MustMatchers {
       cpu <- CPUAccountingMode.values();
       cfold <- bools;
       ccache <- bools;
+      nspec <- bools;
       nlimit <- limits
     ) yield CompilerSettings.defaultSettings()
         .withCPUAccountingMode(cpu)
         .withConstFolding(cfold)
         .withConstCaching(ccache)
+        .withNumericSpecialisation(nspec)
+        .withNodeSizeLimit(nlimit)
+
+    val indyConfigs = for (
+      cpu <- CPUAccountingMode.values();
+      nlimit <- limits
+    ) yield CompilerSettings.defaultSettings()
+        .withCPUAccountingMode(cpu)
+        .withInvokeDynamic(true)
+        .withNodeSizeLimit(nlimit)
+
+    val noElisionConfigs = for (
+      cpu <- CPUAccountingMode.values();
+      nspec <- bools;
+      nlimit <- limits
+    ) yield CompilerSettings.defaultSettings()
+        .withCPUAccountingMode(cpu)
+        .withNumericSpecialisation(nspec)
+        .withResumptionPointElision(false)
         .withNodeSizeLimit(nlimit)
 
     case object DefaultOnly extends CompilerConfigs(Seq(CompilerSettings.defaultSettings()))
-    case object All extends CompilerConfigs(allConfigs)
+    case object DefaultAndInvokeDynamic extends CompilerConfigs(Seq(
+      CompilerSettings.defaultSettings(),
+      CompilerSettings.defaultSettings().withInvokeDynamic(true)))
+    case object All extends CompilerConfigs(allConfigs ++ indyConfigs ++ noElisionConfigs)
   }
 
   val ldrs = compilerConfigs.loaders
@@ -185,7 +225,7 @@ trait FragmentExecTestSuite extends FunSpec with MustMatchers {
 
             val ldr = l.loader()
 
-            val state = StateContexts.newDefaultInstance()
+            val state = StateContexts.newInstance(tableFactory)
 
             val env = envForContext(state, ctx, ldr, printer)
             val func = ldr.loadTextChunk(new Variable(env), "test", fragment.code)
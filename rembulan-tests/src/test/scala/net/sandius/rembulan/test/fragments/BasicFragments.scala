@@ -293,6 +293,32 @@ object BasicFragments extends FragmentBundle with FragmentExpectations with OneL
   }
   MixedNumericForLoop in EmptyContext succeedsWith (55)
 
+  val NestedNumericForLoops = fragment ("NestedNumericForLoops") {
+    """local s, n = 0.0, 0
+      |for i = 1, 20 do
+      |  local x = i / 4
+      |  for j = 1, 3 do
+      |    s = s + x * j + 0.5
+      |    n = n + i * j
+      |  end
+      |end
+      |return s, n, -s, n // 7
+    """
+  }
+  NestedNumericForLoops in EmptyContext succeedsWith (345.0, 1260, -345.0, 180)
+
+  val NumericForLoopWithCall = fragment ("NumericForLoopWithCall") {
+    """local function f(a) return a + 1 end
+      |local s = 0.5
+      |for i = 1, 10 do
+      |  local y = i * 2
+      |  s = s + f(y) + y
+      |end
+      |return s
+    """
+  }
+  NumericForLoopWithCall in EmptyContext succeedsWith (230.5)
+
   val RuntimeDeterminedForLoop = fragment ("RuntimeDeterminedForLoop") {
     """local sum = 0
       |for i = 1, "10" do
@@ -1595,6 +1621,145 @@ object BasicFragments extends FragmentBundle with FragmentExpectations with OneL
   }
   NameMetaFieldIsUsedInLibErrorMessages in BasicContext failsWith "bad argument #1 to 'select' (number expected, got elbaT)"
 
+  val IndexSiteSeesLateMetatable = fragment ("IndexSiteSeesLateMetatable") {
+    """local function get(t) return t.x end
+      |local t = {}
+      |local a = get(t)
+      |t.y = 1
+      |local b = get(t)
+      |setmetatable(t, {__index = function() return "meta" end})
+      |local c = get(t)
+      |t.x = "raw"
+      |return a, b, c, get(t)
+    """
+  }
+  IndexSiteSeesLateMetatable in BasicContext succeedsWith (null, null, "meta", "raw")
+
+  val SetIndexSiteSeesLateMetatable = fragment ("SetIndexSiteSeesLateMetatable") {
+    """local log = {}
+      |local function set(t, v) t.x = v end
+      |local t = {}
+      |set(t, 1)
+      |t.x = nil
+      |setmetatable(t, {__newindex = function(tt, k, v) log[#log + 1] = v end})
+      |set(t, 2)
+      |return t.x, #log, log[1]
+    """
+  }
+  SetIndexSiteSeesLateMetatable in BasicContext succeedsWith (null, 1, 2)
+
+  val MegamorphicCallSite = fragment ("MegamorphicCallSite") {
+    """local fs = {
+      |  function(x) return x + 1 end,
+      |  function(x) return x + 2 end,
+      |  function(x) return x + 3 end,
+      |  function(x) return x + 4 end,
+      |  function(x) return x + 5 end,
+      |  setmetatable({}, {__call = function(self, x) return x + 6 end})
+      |}
+      |local sum = 0
+      |for round = 1, 3 do
+      |  for i = 1, #fs do
+      |    sum = sum + fs[i](10 * round)
+      |  end
+      |end
+      |return sum
+    """
+  }
+  MegamorphicCallSite in BasicContext succeedsWith (423)
+
+  val IndexSiteSeesDistinctMetatables = fragment ("IndexSiteSeesDistinctMetatables") {
+    """local function get(t) return t.x end
+      |local a = setmetatable({}, {__index = function() return "a" end})
+      |local b = setmetatable({}, {})
+      |local c = setmetatable({}, {__index = {x = "c"}})
+      |local d = setmetatable({x = "d"}, getmetatable(a))
+      |local r = ""
+      |for i = 1, 3 do
+      |  r = r .. (get(a) or "nil") .. (get(b) or "nil") .. (get(c) or "nil") .. (get(d) or "nil") .. ";"
+      |end
+      |return r
+    """
+  }
+  IndexSiteSeesDistinctMetatables in BasicContext succeedsWith ("anilcd;anilcd;anilcd;")
+
+  val IndexSiteSeesMetatableChange = fragment ("IndexSiteSeesMetatableChange") {
+    """local function get(t) return t.x end
+      |local mt = {}
+      |local t = setmetatable({}, mt)
+      |local a = get(t)
+      |local b = get(t)
+      |mt.__index = function() return "meta" end
+      |local c = get(t)
+      |t.x = "raw"
+      |return a, b, c, get(t)
+    """
+  }
+  IndexSiteSeesMetatableChange in BasicContext succeedsWith (null, null, "meta", "raw")
+
+  val SetIndexSiteSeesMetatableChange = fragment ("SetIndexSiteSeesMetatableChange") {
+    """local log = {}
+      |local function set(t, k, v) t[k] = v end
+      |local mt = {}
+      |local t = setmetatable({}, mt)
+      |set(t, "x", 1)
+      |set(t, "y", 2)
+      |mt.__newindex = function(tt, k, v) log[#log + 1] = k end
+      |set(t, "x", 3)
+      |set(t, "z", 4)
+      |return t.x, t.y, t.z, #log, log[1]
+    """
+  }
+  SetIndexSiteSeesMetatableChange in BasicContext succeedsWith (3, 2, null, 1, "z")
+
+  val SetIndexSiteSeesDistinctMetatables = fragment ("SetIndexSiteSeesDistinctMetatables") {
+    """local log = {}
+      |local function set(t, v) t.x = v end
+      |local a = setmetatable({}, {__newindex = function(tt, k, v) log[#log + 1] = v end})
+      |local b = setmetatable({}, {})
+      |for i = 1, 3 do
+      |  set(a, i)
+      |  set(b, i)
+      |end
+      |return a.x, b.x, #log
+    """
+  }
+  SetIndexSiteSeesDistinctMetatables in BasicContext succeedsWith (null, 3, 3)
+
+  val RecordsWithSameFields = fragment ("RecordsWithSameFields") {
+    """local function point(x, y) return {x = x, y = y} end
+      |local sum = 0
+      |for i = 1, 10 do
+      |  local p = point(i, 2 * i)
+      |  sum = sum + p.x + p.y
+      |end
+      |local q = point(1, 2)
+      |q.x = nil
+      |q.z = 3
+      |return sum, q.x, q.y, q.z
+    """
+  }
+  RecordsWithSameFields in EmptyContext succeedsWith (165, null, 2, 3)
+
+  val ManyFieldsAndRemovals = fragment ("ManyFieldsAndRemovals") {
+    """local t = {}
+      |for i = 1, 40 do
+      |  t["k" .. i] = i
+      |end
+      |for i = 1, 40, 2 do
+      |  t["k" .. i] = nil
+      |end
+      |t.extra = 100
+      |local n, sum = 0, 0
+      |for k, v in pairs(t) do
+      |  n = n + 1
+      |  sum = sum + v
+      |end
+      |return n, sum, t.k2, t.k3, t.extra
+    """
+  }
+  ManyFieldsAndRemovals in BasicContext succeedsWith (21, 520, 2, null, 100)
+
   about ("coercions") {
     in (EmptyContext) {
 
@@ -296,6 +296,25 @@ object BasicLibFragments extends FragmentBundle with FragmentExpectations with O
           |return x == y
         """) succeedsWith true
 
+      program (
+        """local t = {}
+          |rawset(t, 3, 'c')
+          |rawset(t, 2.0, 'b')
+          |rawset(t, 1, 'a')
+          |rawset(t, 5, 'e')
+          |rawset(t, 4, 'd')
+          |return rawget(t, 1), rawget(t, 2), rawget(t, 3.0), rawget(t, 4), rawget(t, 5), #t
+        """) succeedsWith ("a", "b", "c", "d", "e", 5)
+
+      program (
+        """local t = {}
+          |for i = 1, 100 do rawset(t, i, i) end
+          |for i = 1, 100, 2 do rawset(t, i, nil) end
+          |local n, sum = 0, 0
+          |for k, v in pairs(t) do n = n + 1; sum = sum + v end
+          |return n, sum, rawget(t, 1), rawget(t, 100)
+        """) succeedsWith (50, 2550, null, 100)
+
       // TODO: add tests for values that do have the __newindex metamethod
     }
 
@@ -307,6 +326,11 @@ object BasicLibFragments extends FragmentBundle with FragmentExpectations with O
       program ("return rawlen('x')") succeedsWith 1
       program ("return rawlen({'x', 1, true})") succeedsWith 3
 
+      program (
+        """local function f(...) return ... end
+          |return rawlen({f()}), rawlen({f(1, 2, 3)}), rawlen({f(1, 2), f(1, 2)}), rawlen({f(1), x = 1, f(2, 3, 4)})
+        """) succeedsWith (0, 3, 3, 4)
+
       // TODO: add tests for values that do have the __len metamethod
     }
 
@@ -151,6 +151,38 @@ object CoroutineLibFragments extends FragmentBundle with FragmentExpectations  {
   }
   WrapNormalFunctionCannotBeCalledTwice in CoroContext failsWith (classOf[IllegalCoroutineStateException], "cannot resume dead coroutine")
 
+  val YieldFromConcatMetamethod = fragment ("YieldFromConcatMetamethod") {
+    """local function v(x)
+      |  if type(x) == 'table' then return 'T' else return x end
+      |end
+      |local mt = {__concat = function(a, b) return coroutine.yield(v(a) .. v(b)) end}
+      |local t = setmetatable({}, mt)
+      |local co = coroutine.wrap(function() return 'a' .. t .. 'b' .. 'c' .. t .. 'd' end)
+      |return co(), co('X'), co('Y')
+    """
+  }
+  YieldFromConcatMetamethod in CoroContext succeedsWith ("Td", "TbcX", "aY")
+
+  val YieldFromNumericForLoop = fragment ("YieldFromNumericForLoop") {
+    """local co = coroutine.wrap(function(n)
+      |  local s, k = 0.25, 0
+      |  for i = 1, n do
+      |    local d = i * 0.5
+      |    k = k + i
+      |    coroutine.yield(s + d, k)
+      |    s = s + d
+      |  end
+      |  return s, k
+      |end)
+      |local a, b = co(3)
+      |local c, d = co()
+      |local e, f = co()
+      |local g, h = co()
+      |return a, b, c, d, e, f, g, h
+    """
+  }
+  YieldFromNumericForLoop in CoroContext succeedsWith (0.75, 1, 1.75, 3, 3.25, 6, 3.25, 6)
+
   val WrappedCoroutineRunning = fragment ("WrappedCoroutineRunning") {
     """return coroutine.wrap(coroutine.running)()
     """
@@ -285,6 +285,75 @@ object MetatableFragments extends FragmentBundle with FragmentExpectations with
 
     }
 
+  
+    val WeakTableKeepsReachableEntries = fragment("weak table keeps reachable entries") {
+      """local k1, k2, v1 = {}, {}, {}
+        |local t = setmetatable({}, { __mode = 'kv' })
+        |t[k1] = 'a'; t[k2] = v1; t.x = v1; t[1] = v1; t[2] = 'b'
+        |local n = 0
+        |for k, v in pairs(t) do n = n + 1 end
+        |return n, t[k1], t[k2] == v1, t.x == v1, t[1] == v1, #t
+      """
+    }
+    WeakTableKeepsReachableEntries in thisContext succeedsWith (5, "a", true, true, true, 2)
+
+    val WeakTableModeChangePreservesEntries = fragment("change of __mode preserves table entries") {
+      """local k, v = {}, {}
+        |local mt = {}
+        |local t = setmetatable({}, mt)
+        |t[k] = v; t[v] = k; t.y = 'z'
+        |mt.__mode = 'k'
+        |local a = t[k] == v and t[v] == k
+        |mt.__mode = 'v'
+        |local b = t[k] == v and t[v] == k
+        |t[k] = nil
+        |mt.__mode = nil
+        |return a, b, t[k], t[v] == k, t.y
+      """
+    }
+    WeakTableModeChangePreservesEntries in thisContext succeedsWith (true, true, null, true, "z")
+
+    val MetamethodAddedAfterLookup = fragment("metamethod added after an unsuccessful lookup") {
+      """local mt = {}
+        |local a = setmetatable({}, mt)
+        |local b = setmetatable({}, mt)
+        |local r1, r2, r3 = a.x, a == b, #a
+        |mt.__index = function(t, k) return k .. '!' end
+        |mt.__eq = function() return true end
+        |mt.__len = function() return 42 end
+        |local r4, r5, r6 = a.x, a == b, #a
+        |mt.__index = nil
+        |rawset(mt, '__eq', nil)
+        |return r1, r2, r3, r4, r5, r6, a.x, a == b
+      """
+    }
+    MetamethodAddedAfterLookup in thisContext succeedsWith (null, false, 0, "x!", true, 42, null, false)
+
+    val ConcatMetamethodInChain = fragment("__concat metamethod in a chain of concatenations") {
+      """local log = ''
+        |local mt = {}
+        |local function v(x)
+        |  if type(x) == 'table' then return x.v else return x end
+        |end
+        |mt.__concat = function(a, b)
+        |  log = log .. ' ' .. v(a) .. '+' .. v(b)
+        |  return setmetatable({v = '(' .. v(a) .. v(b) .. ')'}, mt)
+        |end
+        |local t = setmetatable({v = 'T'}, mt)
+        |local r = 'a' .. 1 .. t .. 'b' .. 'c' .. t .. 2
+        |return r.v, log
+      """
+    }
+    ConcatMetamethodInChain in thisContext succeedsWith ("(a(1(T(b(c(T2))))))", " T+2 c+(T2) b+(c(T2)) T+(b(c(T2))) 1+(T(b(c(T2)))) a+(1(T(b(c(T2)))))")
+
+    val ConcatMetamethodReturningString = fragment("__concat metamethod returning a string in a chain of concatenations") {
+      """local mt = {__concat = function(a, b) return '<>' end}
+        |local t = setmetatable({}, mt)
+        |return 'a' .. 'b' .. t .. 'c' .. 'd'
+      """
+    }
+    ConcatMetamethodReturningString in thisContext succeedsWith ("ab<>")
+
   }
   
 }
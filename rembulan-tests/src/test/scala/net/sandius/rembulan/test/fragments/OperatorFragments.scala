@@ -357,6 +357,24 @@ object OperatorFragments extends FragmentBundle with FragmentExpectations with O
       program ("return #{}") succeedsWith 0
       program ("return #{3, 2, 1, 0}") succeedsWith 4
 
+      program (
+        """local t = {}
+          |for i = 1, 100 do t[#t + 1] = i end
+          |local a = #t
+          |t[#t] = nil; t[#t] = nil
+          |local b = #t
+          |for i = 98, 1, -1 do t[i] = nil end
+          |return a, b, #t
+        """) succeedsWith (100, 98, 0)
+
+      program (
+        """local t = {}
+          |for i = 50, 1, -1 do t[i] = i end
+          |local a = #t
+          |t[51] = 51; t[52] = 52
+          |return a, #t
+        """) succeedsWith (50, 52)
+
       // errors & origin reporting
       val errTest = new opArgErrors.UnaryOpTester("#", Length)
 
@@ -384,6 +402,17 @@ object OperatorFragments extends FragmentBundle with FragmentExpectations with O
 
       program ("return 1 .. 2 .. 3") succeedsWith "123"
       program ("return 'a'..'b'..'c'..'d'") succeedsWith "abcd"
+      program ("return 1 .. 2.0 .. 'x' .. -3") succeedsWith "12.0x-3"
+      program ("local a, b = 'x', 'y'; return a .. b .. a .. b") succeedsWith "xyxy"
+      program ("local a = ''; return a .. '' .. a") succeedsWith ""
+      program ("local a = 'x'; return a .. a .. nil") failsWith "attempt to concatenate a nil value"
+      program ("local a = 'x'; return {} .. a .. a") failsWith "attempt to concatenate a table value"
+
+      // long strings
+      program ("local s = ''; for i = 1, 100 do s = s .. 'x' end; local t = s .. 'y' .. s; return #(s .. s .. s), #t, t == s .. 'y' .. s") succeedsWith (300, 201, true)
+      program ("local s = ''; for i = 1, 1000 do s = s .. i .. ',' end; return #s") succeedsWith 3893
+      program ("local s, u = '', ''; for i = 1, 200 do s = 'ab' .. s; u = u .. 'a' .. 'b' end; return #s, s == u") succeedsWith (400, true)
+      program ("local s, u = '', ''; for i = 1, 100 do s = s .. 'k'; u = 'k' .. u end; local t = {}; t[s] = 1; return t[u]") succeedsWith 1
 
       // errors & origin reporting
       val errTest = new opArgErrors.BinaryOpTester("..", Concatenate, Seq("''"))
@@ -489,6 +518,25 @@ object OperatorFragments extends FragmentBundle with FragmentExpectations with O
 
     }
 
+    about ("statically-typed operands") {
+
+      program ("local x = 0; for i = 1, 10 do x = x + i * 2 end; return x") succeedsWith 110
+      program ("local x = 0.5; for i = 1, 4 do x = x * i end; return x") succeedsWith 12.0
+
+      program ("local a, b = 7, 2; return a // b, a % b, a / b, a ^ b") succeedsWith (3, 1, 3.5, 49.0)
+      program ("local a, b = 7, -2.0; return a // b, a % b, a < b, a == 7.0") succeedsWith (-4.0, -1.0, false, true)
+      program ("local a, b = 7, 0; return a // b") failsWith "attempt to divide by zero"
+      program ("local a, b = 7, 0; return a % b") failsWith "attempt to perform 'n%0'"
+
+      program ("local a = 5; return a & 3, a | 8, a ~ 1, a << 2, a >> 1, ~a, -a") succeedsWith (1, 13, 4, 20, 2, -6, -5)
+      program ("local a = 5.0; return a & 3") succeedsWith 1
+      program ("local a = 5.5; return a & 3") failsWith "number has no integer representation"
+
+      program ("local t = {4}; local s = 0; for i = t[1], 1, -1 do s = s + i * 0.5 end; return s") succeedsWith 5.0
+      program ("local t = {4}; local c = 0; for i = t[1], 1, -1 do if i < 3 then c = c - i end end; return c") succeedsWith -3
+
+    }
+
   }
 
 }
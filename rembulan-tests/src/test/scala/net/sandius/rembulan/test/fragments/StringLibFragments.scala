@@ -114,6 +114,13 @@ object StringLibFragments extends FragmentBundle with FragmentExpectations with
       program ("""return string.sub("\000123456789",3,5)""")succeedsWith ("234")
       program ("""return ("\000123456789"):sub(8)""")succeedsWith ("789")      
 
+      // substrings of long strings
+      program ("""local s = ('abcdefgh'):rep(100); local t = s:sub(9, 700); return #t, t:sub(1, 8), t:sub(-8), t:byte(100), t == ('abcdefgh'):rep(86) .. 'abcd'""") succeedsWith (692, "abcdefgh", "efghabcd", 100, true)
+      program ("""local s = ('0123456789'):rep(20); local t = s:sub(11, 190):sub(11, 170):sub(11); return #t, t:sub(1, 3), t:find('789', 1, true)""") succeedsWith (150, "012", 8, 10)
+      program ("""local s = ('x'):rep(50) .. ('y'):rep(50); local a, b, t = s:sub(1, 50), s:sub(51), {}; t[a] = 1; t[b] = 2; return t[('x'):rep(50)], t[('y'):rep(50)]""") succeedsWith (1, 2)
+      program ("""local s = ('ab'):rep(500); local n = 0; while #s > 0 do s = s:sub(2); n = n + 1 end; return n""") succeedsWith (1000)
+      program ("""local s = ('abc'):rep(40):sub(4, -4); return (s:gsub('b', 'x')):sub(1, 6), #s""") succeedsWith ("axcaxc", 114)
+
     }
 
     about ("upper") {
@@ -186,7 +193,7 @@ object StringLibFragments extends FragmentBundle with FragmentExpectations with
       program ("""return string.format("%+f%+f", 1/0, -1/0)""") succeedsWith ("+inf-inf")
 
       program ("""return string.format("%-+#13.f", 0/0)""") succeedsWith ("nan          ")
-      program ("""return string.format("%0.3f", 1.2345)""") succeedsWith ("1.235")
+      program ("""return string.format("%0.3f", 1.2345)""") succeedsWith ("1.234")
       program ("""return string.format('%06.2f', 1/2)""") succeedsWith ("000.50")
       program ("""return string.format('%0+6.2f', 1/2)""") succeedsWith ("+00.50")
 
@@ -216,6 +223,39 @@ object StringLibFragments extends FragmentBundle with FragmentExpectations with
       program ("""return string.format("%q", 10)""") succeedsWith ("10")
       program ("""return string.format("%q", {})""") failsWith "bad argument #2 to 'format' (value has no literal form)"
 
+      program ("""return string.format("[%5d|%-5d|%05d|%+d|% d]", 42, 42, 42, 42, 42)""") succeedsWith ("[   42|42   |00042|+42| 42]")
+      program ("""return string.format("%.3d|%.0d|%5.3d|%-+6.2d|", 7, 0, -7, 7)""") succeedsWith ("007|| -007|+07   |")
+      program ("""return string.format("%#o|%#o|%#x|%08x|%#010X", 8, 0, 0, 255, 255)""") succeedsWith ("010|0|0|000000ff|0X000000FF")
+      program ("""return string.format("%d|%u", 1 << 63, 1 << 63)""") succeedsWith ("-9223372036854775808|9223372036854775808")
+      program ("""return string.format("[%3c|%-3c]", 65, 66)""") succeedsWith ("[  A|B  ]")
+
+      program ("""return string.format("%.0f|%#.0f|%.0e|%#.0e", 2.75, 2.75, 275, 275)""") succeedsWith ("3|3.|3e+02|3.e+02")
+      program ("""return string.format("%.2f|%.2f", 1e20, -123456.789)""") succeedsWith ("100000000000000000000.00|-123456.79")
+      program ("""return string.format("%.0f|%.0f|%.0f|%.2f|%.1f", 0.5, 2.5, 1.5, 2.675, 0.25)""") succeedsWith ("0|2|2|2.67|0.2")
+      program ("""return string.format("%.17g|%.20f|%.2e|%.0e", 0.1, 0.1, 1.125, 2.5)""") succeedsWith ("0.10000000000000001|0.10000000000000000555|1.12e+00|2e+00")
+      program ("""return string.format("%f|%e", 0.0, -0.0)""") succeedsWith ("0.000000|-0.000000e+00")
+      program ("""return string.format("%5.1f|%-5f|%05f", 1/0, -1/0, 1/0)""") succeedsWith ("  inf|-inf |  inf")
+      program ("""return string.format("%g|%g|%g|%g", 1, 100000, 1e6, 0.0001)""") succeedsWith ("1|100000|1e+06|0.0001")
+      program ("""return string.format("%#g|%.3G|%-8.2g|", 1, 1e-10, 0.5)""") succeedsWith ("1.00000|1E-10|0.5     |")
+      program ("""return string.format("%a|%A|%.1a|%#a", 1, -0.5, 1.99, 1)""") succeedsWith ("0x1p+0|-0X1P-1|0x2.0p+0|0x1.p+0")
+      program ("""return string.format("%.0a|%.0a|%.0a|%.0a|%.1a|%.0a", 1.5, 3.0, 2.5, 1.0, 1.03125, 0.75)""") succeedsWith ("0x2p+0|0x2p+1|0x1p+1|0x1p+0|0x1.0p+0|0x2p-1")
+
+      program ("""return string.format("%.2s|", setmetatable({}, {__tostring = function () return "hello" end}))""") succeedsWith ("he|")
+
+      program ("""return string.format("%d%y", 1)""") failsWith "bad argument #3 to 'format' (no value)"
+      program ("""return string.format("%d%y", 1, 2)""") failsWith "invalid option '%y' to 'format'"
+      program ("""return string.format("%--d", 1)""") failsWith "illegal format (repeated flags)"
+      program ("""return string.format("%100d", 1)""") failsWith "illegal format (width or precision too long)"
+
+      program (
+        """local t = {}
+          |for i = 1, 3 do
+          |  t[i] = string.format("%d:%s", i, i * 2)
+          |end
+          |return t[1], t[2], t[3]
+        """
+      ) succeedsWith ("1:2", "2:4", "3:6")
+
     }
 
     about ("find") {
@@ -231,6 +271,9 @@ object StringLibFragments extends FragmentBundle with FragmentExpectations with
       program ("""return string.find("hello there", "()", 5)""") succeedsWith (5, 4, 5)
       program ("""return string.find("hello there", "", 5, true)""") succeedsWith (5, 4)
 
+      program ("""local s = ('word '):rep(1000); local n, i = 0, 1; while true do local a, b = s:find('%a+', i); if not a then break end; n = n + 1; i = b + 1 end; return n""") succeedsWith (1000)
+      program ("""local s = ('x'):rep(100) .. 'needle' .. ('y'):rep(100); return s:find('needle', 1, true), s:sub(90):find('needle', 1, true)""") succeedsWith (101, 12, 17)
+
       program ("""return string.find("hello there", "e", 1, true)""") succeedsWith (2, 2)
       program ("""return string.find("hello there", "e", 0, true)""") succeedsWith (2, 2)
       program ("""return string.find("hello there", "e", -1, true)""") succeedsWith (11, 11)
@@ -242,6 +285,29 @@ object StringLibFragments extends FragmentBundle with FragmentExpectations with
 
       program ("""return string.find("hello there", "()(.)%2")""") succeedsWith (3, 4, 3, "l")
 
+      program ("""return string.find("abc", "c$")""") succeedsWith (3, 3)
+      program ("""return string.find("hello", "^l", 3)""") succeedsWith (3, 3)
+      program ("""return string.find("hello", "^l", 2)""") succeedsWith (null)
+      program ("""return string.find("THE (quick) fox", "%f[%a]%a+")""") succeedsWith (1, 3)
+      program ("""return string.find("a\0b", "\0", 1, true)""") succeedsWith (2, 2)
+      program ("""return string.find("a\0b", "%z", 1, true)""") succeedsWith (null)
+      program ("""return string.find("zzab", "(a)b")""") succeedsWith (3, 4, "a")
+      program ("""return string.find("zzab", "()ab()")""") succeedsWith (3, 4, 3, 5)
+      program ("""return string.find("abxabc", "abc")""") succeedsWith (4, 6)
+      program ("""return string.find("abxabc", "ab%a$")""") succeedsWith (4, 6)
+      program ("""return string.find("abxabc", "bc", 5)""") succeedsWith (5, 6)
+      program ("""return string.find("abxabc", "bc", 6)""") succeedsWith (null)
+      program ("""return string.find("abxabc", "[ax]b", -3)""") succeedsWith (4, 5)
+      program ("""return string.find("abxabcd", "ab(%a)d")""") succeedsWith (4, 7, "c")
+      program ("""return string.find("", "ab")""") succeedsWith (null)
+      program ("""return string.find("xx(a)", "%b()")""") succeedsWith (3, 5)
+
+      // backtracking does not consume the Java stack
+      program ("""return pcall(string.find, ("a"):rep(5000), ("a?"):rep(5000))""") succeedsWith (true, 1, 5000)
+      program ("""return string.find(("x"):rep(10000), ("x-"):rep(3000) .. "$")""") succeedsWith (1, 10000)
+      program ("""return string.find(("a"):rep(20) .. "b", ("a*"):rep(3) .. "c")""") succeedsWith (null)
+      program ("""return string.find("aaab", "(a+)%1b")""") succeedsWith (2, 4, "a")
+
     }
 
     about ("match") {
@@ -270,6 +336,16 @@ object StringLibFragments extends FragmentBundle with FragmentExpectations with
       program ("""return string.match("hello there", "()((%a).+%3)", 2)""") succeedsWith (2, "ello there", "e")
       program ("""return string.match("hello there", "()((%a).+%3)", -3)""") succeedsWith (9, "ere", "e")
 
+      program ("""return string.match("  x  ", "^%s*(.-)%s*$")""") succeedsWith ("x")
+      program ("""return string.match("aaa", "^(a-)$")""") succeedsWith ("aaa")
+      program ("""return string.match("f(a(b)c)d", "%b()")""") succeedsWith ("(a(b)c)")
+      program ("""return string.match("a-b", "[a-]+")""") succeedsWith ("a-")
+      program ("""return string.match("x]y", "[]]")""") succeedsWith ("]")
+      program ("""return string.match("caf\xe9!", "%a+")""") succeedsWith ("caf")
+      program ("""return string.match("a+b=c", "%p.%p")""") succeedsWith ("+b=")
+      program ("""return string.match("hello", "%f[^%a]")""") succeedsWith ("")
+      program ("""return string.match("hello", "()%f[^%a]")""") succeedsWith (6)
+
 
     }
 
@@ -375,6 +451,37 @@ object StringLibFragments extends FragmentBundle with FragmentExpectations with
           """
         ) succeedsWith ("lua-5.3.tar.gz", 2)
 
+        program ("""return string.gsub("THE (quick) fox", "%f[%a]%a+", "x")""") succeedsWith ("x (x) x", 3)
+        program ("""return string.gsub("hhh", "^h", "j")""") succeedsWith ("jhh", 1)
+        program ("""return string.gsub("a+b=c", "%p", "")""") succeedsWith ("abc", 2)
+
+        // empty matches
+        program ("""return string.gsub("abc", "", "-")""") succeedsWith ("-a-b-c-", 4)
+        program ("""return string.gsub("hello world", "%w*", "X")""") succeedsWith ("XX XX", 4)
+        program ("""return string.gsub("  ab", "%f[%w]", "X")""") succeedsWith ("  Xab", 1)
+        program ("""return string.gsub("abc", "x*", "-", 2)""") succeedsWith ("-a-bc", 2)
+        program (
+          """local co = coroutine.wrap(function()
+            |  return string.gsub("ab", "", function() return coroutine.yield() end)
+            |end)
+            |co(); co("1"); co("2")
+            |return co("3")
+          """
+        ) succeedsWith ("1a2b3", 3)
+
+      }
+
+      about ("format") {
+
+        program (
+          """local mt = {__tostring = function () return coroutine.yield("?") end}
+            |local co = coroutine.wrap(function ()
+            |  return string.format("%d:%5s|%-3s|%.1f", 1, setmetatable({}, mt), setmetatable({}, mt), 2.75)
+            |end)
+            |return co(), co("ab"), co("c")
+          """
+        ) succeedsWith ("?", "?", "1:   ab|c  |2.8")
+
       }
 
     }
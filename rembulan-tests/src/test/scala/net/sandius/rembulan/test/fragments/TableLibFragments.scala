@@ -139,6 +139,15 @@ object TableLibFragments extends FragmentBundle with FragmentExpectations with O
       program ("""table.insert({}, 10, "x")""") failsWith "bad argument #2 to 'insert' (position out of bounds)"
       program ("""table.insert({}, 10, nil)""") failsWith "bad argument #2 to 'insert' (position out of bounds)"
 
+      program ("""table.insert({}, "x", 5)""") failsWith "bad argument #2 to 'insert' (number expected, got string)"
+      program ("""table.insert({}, 1.5, 5)""") failsWith "bad argument #2 to 'insert' (number has no integer representation)"
+      program ("""table.insert({}, nil, 5)""") failsWith "bad argument #2 to 'insert' (number expected, got nil)"
+      program ("""return pcall(table.insert, {}, 1.5, 5)""") succeedsWith (false, "bad argument #2 to 'insert' (number has no integer representation)")
+      program ("""local t = {"a"}; table.insert(t, 1.0, 5); return #t, t[1], t[2]""") succeedsWith (2, 5, "a")
+      program ("""local t = {"a"}; table.insert(t, 2.0, 7); return #t, t[1], t[2]""") succeedsWith (2, "a", 7)
+      program ("""local t = {"a"}; table.insert(t, 1, 5); return #t, t[1], t[2]""") succeedsWith (2, 5, "a")
+      program ("""local t = {}; table.insert(t, nil); return #t""") succeedsWith (0)
+
       // __len metamethod
 
       program ("""table.insert(setmetatable({}, {__len = function() error("BOOM") end}), 10)""") failsWith "BOOM"
@@ -396,6 +405,11 @@ object TableLibFragments extends FragmentBundle with FragmentExpectations with O
 
       program ("""return table.remove({}, "1")""") succeedsWith (null)
       program ("""return table.remove({}, "1.0")""") succeedsWith (null)
+
+      program ("""table.remove({}, 1.5)""") failsWith "bad argument #2 to 'remove' (number has no integer representation)"
+      program ("""local t = {"a", "b"}; return table.remove(t, 1.0), #t""") succeedsWith ("a", 1)
+      program ("""local t = {"a"}; return table.remove(t, nil), #t""") succeedsWith ("a", 0)
+      program ("""local t = {"a"}; return table.remove(t), #t""") succeedsWith ("a", 0)
       program ("""return table.remove({}, -0.0)""") succeedsWith (null)
       program ("""return table.remove({}, "-0.0")""") succeedsWith (null)
 